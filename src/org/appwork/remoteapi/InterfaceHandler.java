@@ -42,7 +42,7 @@ import org.appwork.utils.net.HTTPHeader;
  *
  */
 public class InterfaceHandler<T> {
-    private static Method HELP;
+    private static Method                                    HELP;
     static {
         try {
             InterfaceHandler.HELP = InterfaceHandler.class.getMethod("help", new Class[] { RemoteAPIRequest.class, RemoteAPIResponse.class });
@@ -68,18 +68,22 @@ public class InterfaceHandler<T> {
         return ret;
     }
 
-    private final RemoteAPIInterface       impl;
+    private final RemoteAPIInterface                         impl;
 
-    private final java.util.List<Class<T>> interfaceClasses;
-    private final HashMap<Method, Integer> parameterCountMap;
-    private final HashMap<Method, Integer> methodsAuthLevel;
-    private final HashMap<String, Method>  methods;
-    private final HashSet<Method>          signatureRequiredMethods;
-    private Method                         signatureHandler = null;
-    private final int                      defaultAuthLevel;
-    private boolean                        sessionRequired  = false;
-    private SoftReference<byte[]>          helpBytes        = new SoftReference<byte[]>(null);
-    private SoftReference<byte[]>          helpBytesJson    = new SoftReference<byte[]>(null);
+    private final java.util.List<Class<T>>                   interfaceClasses;
+    private final HashMap<Method, Integer>                   parameterCountMap;
+    private final HashMap<Method, Integer>                   methodsAuthLevel;
+    private final HashMap<String, Method>                    methods;
+    private final HashSet<Method>                            signatureRequiredMethods;
+    private Method                                           signatureHandler = null;
+    private final int                                        defaultAuthLevel;
+    private boolean                                          sessionRequired  = false;
+    private SoftReference<byte[]>                            helpBytes        = new SoftReference<byte[]>(null);
+    private SoftReference<byte[]>                            helpBytesJson    = new SoftReference<byte[]>(null);
+
+    /* name -> methods by parameter count, rebuilt by parse */
+    private volatile HashMap<String, Method[]>               methodsByName    = new HashMap<String, Method[]>();
+    private volatile HashMap<Method, RemoteAPIMethodInvoker> invokers         = new HashMap<Method, RemoteAPIMethodInvoker>();
 
     /**
      * @param <T>
@@ -147,12 +151,27 @@ public class InterfaceHandler<T> {
      * @return
      */
     public Method getMethod(final String methodName, final int length) {
-        final String methodID = methodName + length;
-        final Method ret = this.methods.get(methodID);
+        final Method[] byCount = this.methodsByName.get(methodName);
+        if (byCount != null) {
+            if (length < byCount.length - 1 && byCount[length] != null) {
+                return byCount[length];
+            }
+            /* raw method */
+            return byCount[byCount.length - 1];
+        }
+        return null;
+    }
+
+    /**
+     * @param method
+     * @return invoker bound at parse time, methods unknown to this handler get a new one
+     */
+    public RemoteAPIMethodInvoker getInvoker(final Method method) {
+        final RemoteAPIMethodInvoker ret = this.invokers.get(method);
         if (ret != null) {
             return ret;
         }
-        return this.methods.get(methodName);
+        return new RemoteAPIMethodInvoker(method, method.getDeclaringClass() == InterfaceHandler.class ? this : this.impl);
     }
 
     /**
@@ -316,6 +335,8 @@ public class InterfaceHandler<T> {
         this.parameterCountMap.clear();
         this.methodsAuthLevel.clear();
         this.methods.put("help", InterfaceHandler.HELP);
+        final HashMap<String, Method[]> methodsByName = new HashMap<String, Method[]>();
+        InterfaceHandler.index(methodsByName, "help", -1, InterfaceHandler.HELP);
         this.parameterCountMap.put(InterfaceHandler.HELP, 0);
         this.methodsAuthLevel.put(InterfaceHandler.HELP, 0);
         this.signatureHandler = null;
@@ -346,9 +367,10 @@ public class InterfaceHandler<T> {
 
                     throw new ParseException(interfaceClass + " already contains method: \r\n" + name + "\r\n");
                 }
-
+                InterfaceHandler.index(methodsByName, name, paramCounter, m);
                 if (m.getAnnotation(ApiRawMethod.class) != null) {
                     this.methods.put(name, m);
+                    InterfaceHandler.index(methodsByName, name, -1, m);
                 }
                 this.parameterCountMap.put(m, paramCounter);
 
@@ -366,6 +388,40 @@ public class InterfaceHandler<T> {
         if (signatureHandlerNeededClass != null && this.signatureHandler == null) {
             throw new ParseException(signatureHandlerNeededClass + " Contains methods that need validated Signatures but no Validator provided");
         }
+        /* bind all methods once */
+        final HashMap<Method, RemoteAPIMethodInvoker> invokers = new HashMap<Method, RemoteAPIMethodInvoker>();
+        for (final Method m : this.methods.values()) {
+            if (!invokers.containsKey(m)) {
+                invokers.put(m, new RemoteAPIMethodInvoker(m, m.getDeclaringClass() == InterfaceHandler.class ? this : this.impl));
+            }
+        }
+        if (this.signatureHandler != null) {
+            invokers.put(this.signatureHandler, new RemoteAPIMethodInvoker(this.signatureHandler, this.impl));
+        }
+        this.methodsByName = methodsByName;
+        this.invokers = invokers;
+    }
+
+    /**
+     * @param byName
+     * @param name
+     * @param count
+     *            parameter count, -1 for raw methods. they are stored in the last slot
+     * @param m
+     */
+    private static void index(final HashMap<String, Method[]> byName, final String name, final int count, final Method m) {
+        Method[] byCount = byName.get(name);
+        final int size = count + 2;
+        if (byCount == null) {
+            byCount = new Method[Math.max(1, size)];
+        } else if (byCount.length < size) {
+            final Method[] grown = new Method[size];
+            System.arraycopy(byCount, 0, grown, 0, byCount.length - 1);
+            grown[size - 1] = byCount[byCount.length - 1];
+            byCount = grown;
+        }
+        byCount[count < 0 ? byCount.length - 1 : count] = m;
+        byName.put(name, byCount);
     }
 
     /**
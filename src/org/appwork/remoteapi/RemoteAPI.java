@@ -24,19 +24,16 @@ import java.util.zip.GZIPOutputStream;
 
 import org.appwork.net.protocol.http.HTTPConstants;
 import org.appwork.net.protocol.http.HTTPConstants.ResponseCode;
-import org.appwork.remoteapi.annotations.AllowResponseAccess;
 import org.appwork.remoteapi.annotations.ApiAuthLevel;
 import org.appwork.remoteapi.annotations.ApiNamespace;
 import org.appwork.remoteapi.annotations.ApiSessionRequired;
 import org.appwork.remoteapi.exceptions.ApiCommandNotAvailable;
 import org.appwork.remoteapi.exceptions.AuthException;
-import org.appwork.remoteapi.exceptions.BadParameterException;
 import org.appwork.remoteapi.exceptions.BasicRemoteAPIException;
 import org.appwork.remoteapi.exceptions.InternalApiException;
 import org.appwork.remoteapi.responsewrapper.DataObject;
 import org.appwork.storage.JSonStorage;
 import org.appwork.storage.TypeRef;
-import org.appwork.utils.Regex;
 import org.appwork.utils.net.ChunkedOutputStream;
 import org.appwork.utils.net.HTTPHeader;
 import org.appwork.utils.net.httpserver.handler.HttpRequestHandler;
@@ -246,35 +243,14 @@ public class RemoteAPI implements HttpRequestHandler {
             }
 
             this.authenticate(method, request, response);
-
-            final Object[] parameters = new Object[method.getParameterTypes().length];
-            boolean methodHasReturnTypeAndAResponseParameter = false;
-            boolean methodHasResponseParameter = false;
-            int count = 0;
-            for (int i = 0; i < parameters.length; i++) {
-                if (RemoteAPIRequest.class.isAssignableFrom(method.getParameterTypes()[i])) {
-                    parameters[i] = request;
-                } else if (RemoteAPIResponse.class.isAssignableFrom(method.getParameterTypes()[i])) {
-                    methodHasResponseParameter = true;
-                    if (method.getAnnotation(AllowResponseAccess.class) != null) {
-                        methodHasReturnTypeAndAResponseParameter = true;
-                    }
-                    parameters[i] = response;
-                } else {
-                    try {
-                        parameters[i] = RemoteAPI.convert(request.getParameters()[count], method.getGenericParameterTypes()[i]);
-                    } catch (final Throwable e) {
-                        throw new BadParameterException(e, request.getParameters()[count]);
-                    }
-                    count++;
-                }
-            }
+            final RemoteAPIMethodInvoker invoker = request.getIface().getInvoker(method);
+            final Object[] parameters = invoker.bind(request, response);
             try {
-                responseData = request.getIface().invoke(method, parameters);
+                responseData = invoker.invoke(parameters);
             } catch (final InvocationTargetException e) {
                 throw e.getTargetException();
             }
-            if (methodHasResponseParameter && !methodHasReturnTypeAndAResponseParameter) {
+            if (invoker.handlesResponse()) {
                 /*
                  * TODO: check for unhandled response, be aware of async responses!
                  */
@@ -408,10 +384,8 @@ public class RemoteAPI implements HttpRequestHandler {
     }
 
     public RemoteAPIMethod getRemoteAPIMethod(final HttpRequest request) throws BasicRemoteAPIException {
-        final String path = request.getRequestedPath();
-        final String[] intf = new Regex(path, RemoteAPI.INTF).getRow(0);
-
-        if (intf == null || intf.length != 3) {
+        final String[] intf = RemoteAPI.splitPath(request.getRequestedPath());
+        if (intf == null) {
             return null;
         }
         /* intf=unimportant,namespace,method */
@@ -436,6 +410,29 @@ public class RemoteAPI implements HttpRequestHandler {
         return null;
     }
 
+    /**
+     * same as matching {@link #INTF}, without regex
+     *
+     * @param path
+     * @return unimportant,namespace,method or null
+     */
+    protected static String[] splitPath(final String path) {
+        if (path == null) {
+            return null;
+        }
+        final int start = path.indexOf('/');
+        if (start < 0 || start == path.length() - 1) {
+            return null;
+        }
+        final String rest = path.substring(start + 1);
+        /* last slash that has something before and after it */
+        final int index = rest.lastIndexOf('/', rest.length() - 2);
+        if (index <= 0) {
+            return new String[] { null, null, rest };
+        }
+        return new String[] { rest.substring(0, index + 1), rest.substring(0, index), rest.substring(index + 1) };
+    }
+
     /**
      * @param responseData
      * @param method
@@ -669,8 +666,15 @@ public class RemoteAPI implements HttpRequestHandler {
             if (method != null) {
                 responseData = this.handleVoidMethods(responseData, method);
             }
-            if (method != null && method.getAnnotation(ResponseWrapper.class) != null) {
-                text = ((AbstractResponseWrapper<Object>) method.getAnnotation(ResponseWrapper.class).value().newInstance()).toString(responseData);
+            final RemoteAPIMethodInvoker invoker = method != null && request != null && request.getIface() != null ? request.getIface().getInvoker(method) : null;
+            final Class<? extends AbstractResponseWrapper<? extends Object>> wrapper;
+            if (invoker != null) {
+                wrapper = invoker.getResponseWrapper();
+            } else {
+                wrapper = method != null && method.getAnnotation(ResponseWrapper.class) != null ? method.getAnnotation(ResponseWrapper.class).value() : null;
+            }
+            if (wrapper != null) {
+                text = ((AbstractResponseWrapper<Object>) wrapper.newInstance()).toString(responseData);
             } else {
                 text = this.toString(request, response, responseData);
             }
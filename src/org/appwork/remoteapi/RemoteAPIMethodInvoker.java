@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2009 - 2012 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.remoteapi
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.remoteapi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+
+import org.appwork.remoteapi.annotations.AllowResponseAccess;
+import org.appwork.remoteapi.exceptions.BadParameterException;
+import org.appwork.utils.reflection.Clazz;
+
+/**
+ * @author daniel
+ *
+ *         RemoteAPIMethodInvoker
+ *
+ *         an api method bound once at register time. parameter kinds, generic types and annotations are resolved here, so a call only
+ *         converts the parameters and invokes the method.
+ */
+public class RemoteAPIMethodInvoker {
+
+    private static final int                                                 REQUEST   = 0;
+    private static final int                                                 RESPONSE  = 1;
+    private static final int                                                 PARAMETER = 2;
+
+    private final Method                                                     method;
+    private final Object                                                     target;
+    private final Type[]                                                     types;
+    private final int[]                                                      binders;
+    private final boolean                                                    responseParameter;
+    private final boolean                                                    responseAccess;
+    private final boolean                                                    voidReturn;
+    private final Class<? extends AbstractResponseWrapper<? extends Object>> responseWrapper;
+
+    /**
+     * converts a parameter, simple values are parsed directly, everything else by {@link RemoteAPI#convert(String, Type)}
+     *
+     * @param value
+     * @param type
+     * @return
+     */
+    public static Object convert(final String value, final Type type) {
+        if (value.length() > 0 && !"null".equals(value)) {
+            if (type == String.class) {
+                if (value.charAt(0) != '"') {
+                    /* unescaped string */
+                    return value;
+                }
+            } else if (type == boolean.class || type == Boolean.class) {
+                if ("true".equals(value)) {
+                    return Boolean.TRUE;
+                } else if ("false".equals(value)) { return Boolean.FALSE; }
+            } else if (type == int.class || type == Integer.class || type == long.class || type == Long.class) {
+                if (RemoteAPIMethodInvoker.isNumber(value)) {
+                    final long number = Long.parseLong(value);
+                    return type == int.class || type == Integer.class ? (Object) (int) number : (Object) number;
+                }
+            }
+        }
+        return RemoteAPI.convert(value, type);
+    }
+
+    /* short plain integers, no overflow possible */
+    private static boolean isNumber(final String value) {
+        final int length = value.length();
+        if (length > 18) { return false; }
+        if (value.startsWith("0") && length > 1 || value.startsWith("-0")) {
+            /* no leading zeros in json */
+            return false;
+        }
+        for (int i = value.charAt(0) == '-' && length > 1 ? 1 : 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') { return false; }
+        }
+        return true;
+    }
+
+    public RemoteAPIMethodInvoker(final Method method, final Object target) {
+        this.method = method;
+        this.target = target;
+        try {
+            /* skip the access check on every call */
+            method.setAccessible(true);
+        } catch (final SecurityException e) {
+        }
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        this.types = method.getGenericParameterTypes();
+        this.binders = new int[parameterTypes.length];
+        boolean responseParameter = false;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (RemoteAPIRequest.class.isAssignableFrom(parameterTypes[i])) {
+                this.binders[i] = RemoteAPIMethodInvoker.REQUEST;
+            } else if (RemoteAPIResponse.class.isAssignableFrom(parameterTypes[i])) {
+                this.binders[i] = RemoteAPIMethodInvoker.RESPONSE;
+                responseParameter = true;
+            } else {
+                this.binders[i] = RemoteAPIMethodInvoker.PARAMETER;
+            }
+        }
+        this.responseParameter = responseParameter;
+        this.responseAccess = method.getAnnotation(AllowResponseAccess.class) != null;
+        this.voidReturn = Clazz.isVoid(method.getReturnType());
+        final ResponseWrapper wrapper = method.getAnnotation(ResponseWrapper.class);
+        this.responseWrapper = wrapper != null ? wrapper.value() : null;
+    }
+
+    /**
+     * @param request
+     * @param response
+     * @return parameters for {@link #invoke(Object[])}
+     * @throws BadParameterException
+     */
+    public Object[] bind(final RemoteAPIRequest request, final RemoteAPIResponse response) throws BadParameterException {
+        final Object[] ret = new Object[this.binders.length];
+        final String[] parameters = request.getParameters();
+        int count = 0;
+        for (int i = 0; i < ret.length; i++) {
+            switch (this.binders[i]) {
+            case REQUEST:
+                ret[i] = request;
+                break;
+            case RESPONSE:
+                ret[i] = response;
+                break;
+            default:
+                if (count >= parameters.length) { throw new BadParameterException("missing parameter " + (count + 1)); }
+                try {
+                    ret[i] = RemoteAPIMethodInvoker.convert(parameters[count], this.types[i]);
+                } catch (final Throwable e) {
+                    throw new BadParameterException(e, parameters[count]);
+                }
+                count++;
+            }
+        }
+        return ret;
+    }
+
+    public Method getMethod() {
+        return this.method;
+    }
+
+    /**
+     * @return wrapper class of the {@link ResponseWrapper} annotation or null
+     */
+    public Class<? extends AbstractResponseWrapper<? extends Object>> getResponseWrapper() {
+        return this.responseWrapper;
+    }
+
+    /**
+     * @return true if the method has a response parameter and handles the response itself
+     */
+    public boolean handlesResponse() {
+        return this.responseParameter && !this.responseAccess;
+    }
+
+    public Object invoke(final Object[] parameters) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
+        return this.method.invoke(this.target, parameters);
+    }
+
+    public boolean isVoid() {
+        return this.voidReturn;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteAPIMethodInvoker: " + this.method;
+    }
+}
@@ -11,18 +11,15 @@ package org.appwork.remoteapi;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.appwork.net.protocol.http.HTTPConstants;
 import org.appwork.net.protocol.http.HTTPConstants.ResponseCode;
 import org.appwork.utils.Application;
-import org.appwork.utils.net.ChunkedOutputStream;
 import org.appwork.utils.net.HTTPHeader;
 import org.appwork.utils.net.HeaderCollection;
 import org.appwork.utils.net.httpserver.responses.HttpResponse;
 import org.appwork.utils.net.httpserver.responses.HttpResponseInterface;
+import org.appwork.utils.net.httpserver.responses.ResponseCompression;
 
 /**
  * @author daniel
@@ -98,37 +95,21 @@ public class RemoteAPIResponse implements HttpResponseInterface {
         if (this.getResponseHeaders().get(HTTPConstants.HEADER_RESPONSE_CONTENT_TYPE) == null) {
             this.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_TYPE, "application/json"));
         }
+        final boolean deflate = RemoteAPI.deflate(request) && Application.getJavaVersion() >= Application.JAVA16;
         final boolean gzip = RemoteAPI.gzip(request);
-        final boolean deflate = RemoteAPI.gzip(request) && Application.getJavaVersion() >= Application.JAVA16;
-        if (gzip == false && deflate == false || bytes.length <= this.MAXUNCOMPRESSED) {
+        byte[] compressed = null;
+        if ((gzip || deflate) && bytes.length > this.MAXUNCOMPRESSED) {
+            /* deflate is preferred, level and incompressible detection per requested path */
+            compressed = ResponseCompression.getInstance().compress(request.getRequestedPath(), bytes, 0, bytes.length, !deflate);
+        }
+        if (compressed == null) {
             this.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_LENGTH, bytes.length + ""));
             this.getOutputStream(true).write(bytes);
         } else {
-            if (deflate) {
-                this.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_ENCODING, "deflate"));
-                this.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING, HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING_CHUNKED));
-                ChunkedOutputStream cos = null;
-                DeflaterOutputStream out = null;
-                cos = new ChunkedOutputStream(this.getOutputStream(true));
-                out = new DeflaterOutputStream(cos, new Deflater(9, true));
-                out.write(bytes);
-                out.finish();
-                out.flush();
-                cos.sendEOF();
-            } else {
-                this.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_ENCODING, "gzip"));
-                this.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING, HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING_CHUNKED));
-                ChunkedOutputStream cos = null;
-                GZIPOutputStream out = null;
-                cos = new ChunkedOutputStream(this.getOutputStream(true));
-                out = new GZIPOutputStream(cos);
-                out.write(bytes);
-                out.finish();
-                out.flush();
-                cos.sendEOF();
-            }
+            this.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_ENCODING, deflate ? "deflate" : "gzip"));
+            this.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_LENGTH, compressed.length + ""));
+            this.getOutputStream(true).write(compressed);
         }
-
     }
 
     /**
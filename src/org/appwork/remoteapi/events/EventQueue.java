@@ -0,0 +1,341 @@
+/**
+ * Copyright (c) 2009 - 2014 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.remoteapi.events
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.remoteapi.events;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author daniel
+ *
+ *         EventQueue
+ *
+ *         bounded queue of a subscriber. publishers claim a slot of the ring buffer with a cas on tail and never lock, only the consumer
+ *         side (poll/drain/pushBack) is serialized. events with the same collapse key replace each other: the newest one is remembered
+ *         and older ones are skipped when they reach the head. publishers only wake up consumers that are really waiting.
+ */
+public class EventQueue {
+
+    public static enum Overflow {
+        /* remove the oldest event to make room */
+        DROP_OLDEST,
+        /* reject new events */
+        DROP_NEWEST,
+        /* like DROP_OLDEST, events without collapseKey are collapsed by their eventID */
+        COALESCE
+    }
+
+    private final AtomicReferenceArray<EventObject>      slots;
+    /* time the event of a slot was queued */
+    private final AtomicLongArray                        timestamps;
+    private final int                                    mask;
+    /* next slot to claim */
+    private final AtomicLong                             tail         = new AtomicLong(0);
+    /* next slot to read, only written by the consumer */
+    private volatile long                                head         = 0;
+    /* events given back by pushBack, delivered before the ring */
+    private final ArrayDeque<EventObject>                pushedBack   = new ArrayDeque<EventObject>();
+    private volatile int                                 pushedBackSize;
+    /* collapse key -> newest queued event */
+    private final ConcurrentHashMap<String, EventObject> latest       = new ConcurrentHashMap<String, EventObject>();
+    private final Object                                 consumerLock = new Object();
+    private final Object                                 signal       = new Object();
+    private final AtomicInteger                          waiting      = new AtomicInteger(0);
+    private volatile Overflow                            overflow;
+    private final AtomicLong                             dropped      = new AtomicLong(0);
+    private final AtomicLong                             collapsed    = new AtomicLong(0);
+    private final AtomicLong                             delivered    = new AtomicLong(0);
+    private volatile long                                lastLag      = 0;
+
+    /**
+     * @param capacity
+     *            rounded up to the next power of two
+     * @param overflow
+     */
+    public EventQueue(final int capacity, final Overflow overflow) {
+        final int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<EventObject>(size);
+        this.timestamps = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.overflow = overflow == null ? Overflow.DROP_OLDEST : overflow;
+    }
+
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * @param to
+     * @param max
+     * @param waitfor
+     *            ms to wait for the first event
+     * @return number of events added to to
+     * @throws InterruptedException
+     */
+    public int drain(final Collection<EventObject> to, final int max, final long waitfor) throws InterruptedException {
+        EventObject event = this.poll(waitfor);
+        if (event == null) { return 0; }
+        int ret = 0;
+        synchronized (this.consumerLock) {
+            do {
+                to.add(event);
+                ret++;
+            } while (ret < max && (event = this.next()) != null);
+        }
+        return ret;
+    }
+
+    private String getCollapseKey(final EventObject event) {
+        final String ret = event.getCollapseKey();
+        if (ret == null && this.overflow == Overflow.COALESCE) { return Subscriber.getEventID(event); }
+        return ret;
+    }
+
+    public long getCollapsed() {
+        return this.collapsed.get();
+    }
+
+    public long getDelivered() {
+        return this.delivered.get();
+    }
+
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return ms the oldest queued event is waiting, or the wait time of the last delivered event if the queue is empty
+     */
+    public long getLag() {
+        final long head = this.head;
+        if (head != this.tail.get()) {
+            final long timestamp = this.timestamps.get((int) head & this.mask);
+            if (timestamp > 0) { return Math.max(0, System.currentTimeMillis() - timestamp); }
+        }
+        return this.lastLag;
+    }
+
+    public Overflow getOverflow() {
+        return this.overflow;
+    }
+
+    /* consumerLock must be held */
+    private boolean isSuperseded(final EventObject event, final String key) {
+        if (key == null) { return false; }
+        final EventObject newest = this.latest.get(key);
+        if (newest != null && newest != event) { return true; }
+        this.latest.remove(key, event);
+        return false;
+    }
+
+    /**
+     * next deliverable event, consumerLock must be held
+     *
+     * @return
+     */
+    private EventObject next() {
+        while (this.pushedBackSize > 0) {
+            final EventObject event = this.pushedBack.pollFirst();
+            this.pushedBackSize = this.pushedBack.size();
+            if (!this.isSuperseded(event, this.getCollapseKey(event))) {
+                this.delivered.incrementAndGet();
+                return event;
+            }
+        }
+        EventObject event;
+        while ((event = this.take()) != null) {
+            if (this.isSuperseded(event, this.getCollapseKey(event))) {
+                continue;
+            }
+            this.delivered.incrementAndGet();
+            return event;
+        }
+        return null;
+    }
+
+    /**
+     * wakes up all waiting consumers
+     */
+    public void notifyListener() {
+        synchronized (this.signal) {
+            this.signal.notifyAll();
+        }
+    }
+
+    /**
+     * @param event
+     * @return false if the event was dropped
+     */
+    public boolean offer(final EventObject event) {
+        long claim;
+        while (true) {
+            claim = this.tail.get();
+            if (claim - this.head > this.mask) {
+                /* full */
+                if (this.overflow == Overflow.DROP_NEWEST) {
+                    this.dropped.incrementAndGet();
+                    return false;
+                }
+                synchronized (this.consumerLock) {
+                    if (this.tail.get() - this.head > this.mask) {
+                        final EventObject oldest = this.take();
+                        if (oldest != null) {
+                            final String key = this.getCollapseKey(oldest);
+                            if (!this.isSuperseded(oldest, key)) {
+                                this.dropped.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+                continue;
+            }
+            if (this.tail.compareAndSet(claim, claim + 1)) {
+                break;
+            }
+        }
+        final String key = this.getCollapseKey(event);
+        if (key != null && this.latest.put(key, event) != null) {
+            /* the older one is skipped */
+            this.collapsed.incrementAndGet();
+        }
+        final int index = (int) claim & this.mask;
+        this.timestamps.set(index, System.currentTimeMillis());
+        this.slots.set(index, event);
+        if (this.waiting.get() > 0) {
+            this.notifyListener();
+        }
+        return true;
+    }
+
+    /**
+     * @param waitfor
+     *            ms to wait if the queue is empty
+     * @return next event or null
+     * @throws InterruptedException
+     */
+    public EventObject poll(final long waitfor) throws InterruptedException {
+        synchronized (this.consumerLock) {
+            final EventObject ret = this.next();
+            if (ret != null || waitfor <= 0) { return ret; }
+        }
+        final long deadline = System.currentTimeMillis() + waitfor;
+        while (true) {
+            synchronized (this.signal) {
+                this.waiting.incrementAndGet();
+                try {
+                    final long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        break;
+                    }
+                    if (this.size() == 0) {
+                        this.signal.wait(left);
+                    }
+                } finally {
+                    this.waiting.decrementAndGet();
+                }
+            }
+            synchronized (this.consumerLock) {
+                final EventObject ret = this.next();
+                if (ret != null) { return ret; }
+            }
+            if (this.size() == 0) {
+                /* timeout or notifyListener */
+                break;
+            }
+        }
+        synchronized (this.consumerLock) {
+            return this.next();
+        }
+    }
+
+    /**
+     * gives back events that could not be delivered, they are delivered first again unless a newer event with the same collapse key
+     * is queued
+     *
+     * @param events
+     */
+    public void pushBack(final List<EventObject> events) {
+        if (events.size() == 0) { return; }
+        synchronized (this.consumerLock) {
+            final ListIterator<EventObject> it = events.listIterator(events.size());
+            while (it.hasPrevious()) {
+                final EventObject event = it.previous();
+                final String key = this.getCollapseKey(event);
+                if (key != null) {
+                    final EventObject newest = this.latest.putIfAbsent(key, event);
+                    if (newest != null && newest != event) {
+                        this.collapsed.incrementAndGet();
+                        continue;
+                    }
+                }
+                this.pushedBack.addFirst(event);
+            }
+            while (this.pushedBack.size() > this.capacity()) {
+                /* keep the most recent ones */
+                final EventObject event = this.pushedBack.pollFirst();
+                final String key = this.getCollapseKey(event);
+                if (key != null) {
+                    this.latest.remove(key, event);
+                }
+                this.dropped.incrementAndGet();
+            }
+            this.pushedBackSize = this.pushedBack.size();
+        }
+        if (this.waiting.get() > 0) {
+            this.notifyListener();
+        }
+    }
+
+    public void setOverflow(final Overflow overflow) {
+        if (overflow != null) {
+            this.overflow = overflow;
+        }
+    }
+
+    /**
+     * @return queued events, including collapsed ones that were not skipped yet
+     */
+    public int size() {
+        return (int) (this.tail.get() - this.head) + this.pushedBackSize;
+    }
+
+    /**
+     * removes the head of the ring, consumerLock must be held
+     *
+     * @return
+     */
+    private EventObject take() {
+        final long head = this.head;
+        if (head == this.tail.get()) { return null; }
+        final int index = (int) head & this.mask;
+        EventObject ret;
+        while ((ret = this.slots.get(index)) == null) {
+            /* claimed, but not written yet */
+            Thread.yield();
+        }
+        this.lastLag = Math.max(0, System.currentTimeMillis() - this.timestamps.get(index));
+        this.slots.set(index, null);
+        this.timestamps.set(index, 0);
+        this.head = head + 1;
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return "EventQueue: size=" + this.size() + " lag=" + this.getLag() + "ms delivered=" + this.getDelivered() + " collapsed=" + this.getCollapsed() + " dropped=" + this.getDropped();
+    }
+}
@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.appwork.remoteapi.RemoteAPIRequest;
 import org.appwork.remoteapi.RemoteAPIResponse;
@@ -34,6 +35,22 @@ import org.appwork.remoteapi.exceptions.InternalApiException;
  * 
  */
 public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
+    /* subscribers interested in an eventID, valid as long as version is the current interestsVersion */
+    protected static class Interest {
+        protected final long         version;
+        protected final Subscriber[] subscribers;
+
+        protected Interest(final long version, final Subscriber[] subscribers) {
+            this.version = version;
+            this.subscribers = subscribers;
+        }
+    }
+
+    /* max. indexed eventIDs */
+    public static int                 MAX_INTERESTS = 4096;
+    /* max. events per listen response */
+    public static int                 MAX_BATCH     = 256;
+
     private LocalEventsAPIEventSender localEventSender;
 
     /**
@@ -53,9 +70,11 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
         return new ArrayList<Subscriber>(this.subscribers.values());
     }
 
-    protected CopyOnWriteArrayList<EventPublisher> publishers             = new CopyOnWriteArrayList<EventPublisher>();
-    protected final Object                         subscribersCleanupLock = new Object();
-    protected Thread                               cleanupThread          = null;
+    protected CopyOnWriteArrayList<EventPublisher>      publishers             = new CopyOnWriteArrayList<EventPublisher>();
+    protected final Object                              subscribersCleanupLock = new Object();
+    protected Thread                                    cleanupThread          = null;
+    protected final ConcurrentHashMap<String, Interest> interests              = new ConcurrentHashMap<String, Interest>();
+    protected final AtomicLong                          interestsVersion       = new AtomicLong(0);
 
     @Override
     public SubscriptionResponse addsubscription(final long subscriptionid, final String[] subscriptions, final String[] exclusions) {
@@ -75,6 +94,7 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
                     subscriber.setSubscriptions(newSubscriptions.toArray(new String[] {}));
                 }
             }
+            this.invalidateInterests();
             final SubscriptionResponse ret = new SubscriptionResponse(subscriber);
             ret.setSubscribed(true);
             localEventSender.fireEvent(new LocalEventsAPIEvent(this, LocalEventsAPIEvent.Type.CHANNEL_UPDATE, subscriber));
@@ -141,15 +161,19 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
 
         }
         final ArrayList<EventObject> events = new ArrayList<EventObject>();
-        final ArrayList<EventObjectStorable> eventStorables = new ArrayList<EventObjectStorable>();
         try {
-            EventObject event;
-            while ((event = subscriber.poll(events.size() == 0 ? subscriber.getPollTimeout() : 0)) != null && this.subscribers.get(subscriptionid) == subscriber) {
-                events.add(event);
-                eventStorables.add(new EventObjectStorable(event));
-            }
+            /* wait for the first event, then take all queued ones at once */
+            subscriber.drain(events, EventsAPI.MAX_BATCH, subscriber.getPollTimeout());
         } catch (final InterruptedException e) {
         }
+        if (this.subscribers.get(subscriptionid) != subscriber) {
+            /* unsubscribed while waiting */
+            events.clear();
+        }
+        final ArrayList<EventObjectStorable> eventStorables = new ArrayList<EventObjectStorable>(events.size());
+        for (final EventObject event : events) {
+            eventStorables.add(new EventObjectStorable(event));
+        }
         try {
             response.getRemoteAPI().writeStringResponse(eventStorables, null, request, response);
         } catch (final Throwable e) {
@@ -180,8 +204,13 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
                 }
             }
         } else {
-            /* publish to all subscribers */
-            publishTo = new ArrayList<Subscriber>(this.subscribers.values());
+            /* publish to all interested subscribers, through push(Subscriber, EventObject) so overrides see every event */
+            for (final Subscriber subscriber : this.getInterestedSubscribers(Subscriber.getEventID(event))) {
+                if (this.push(subscriber, event)) {
+                    ret.add(subscriber.getSubscriptionID());
+                }
+            }
+            return ret;
         }
         for (final Subscriber subscriber : publishTo) {
 
@@ -192,6 +221,38 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
         return ret;
     }
 
+    /**
+     * @param eventID
+     *            publisherName.eventID
+     * @return subscribers that are subscribed to eventID
+     */
+    public Subscriber[] getInterestedSubscribers(final String eventID) {
+        final Interest interest = this.interests.get(eventID);
+        if (interest != null && interest.version == this.interestsVersion.get()) { return interest.subscribers; }
+        final long version = this.interestsVersion.get();
+        final ArrayList<Subscriber> ret = new ArrayList<Subscriber>();
+        for (final Subscriber subscriber : this.subscribers.values()) {
+            if (subscriber.isSubscribed(eventID)) {
+                ret.add(subscriber);
+            }
+        }
+        final Subscriber[] subscribers = ret.toArray(new Subscriber[ret.size()]);
+        if (this.interests.size() >= EventsAPI.MAX_INTERESTS) {
+            this.interests.clear();
+        }
+        /* a change during the lookup increased the version already, so this result is never used */
+        this.interests.put(eventID, new Interest(version, subscribers));
+        return subscribers;
+    }
+
+    /**
+     * must be called after subscribers or their subscriptions/exclusions changed
+     */
+    protected void invalidateInterests() {
+        this.interestsVersion.incrementAndGet();
+        this.interests.clear();
+    }
+
     public synchronized boolean register(final EventPublisher publisher) {
         if (publisher == null) { throw new NullPointerException(); }
         if (publisher.getPublisherName() == null) { throw new IllegalArgumentException("no Publishername given"); }
@@ -223,6 +284,7 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
                 }
 
             }
+            this.invalidateInterests();
             final SubscriptionResponse ret = new SubscriptionResponse(subscriber);
             ret.setSubscribed(true);
             localEventSender.fireEvent(new LocalEventsAPIEvent(this, LocalEventsAPIEvent.Type.CHANNEL_UPDATE, subscriber));
@@ -249,6 +311,7 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
                 }
                 subscriber.setSubscriptions(newSubscriptions.toArray(new String[] {}));
             }
+            this.invalidateInterests();
             final SubscriptionResponse ret = new SubscriptionResponse(subscriber);
             ret.setSubscribed(true);
             localEventSender.fireEvent(new LocalEventsAPIEvent(this, LocalEventsAPIEvent.Type.CHANNEL_UPDATE, subscriber));
@@ -260,6 +323,7 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
     public SubscriptionResponse subscribe(final String[] subscriptions, final String[] exclusions) {
         final Subscriber subscriber = new Subscriber(subscriptions, exclusions);
         this.subscribers.put(subscriber.getSubscriptionID(), subscriber);
+        this.invalidateInterests();
         this.subscribersCleanupThread();
         final SubscriptionResponse ret = new SubscriptionResponse(subscriber);
         ret.setSubscribed(true);
@@ -294,6 +358,7 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
                                     final Subscriber subscriber = next.getValue();
                                     if (subscriber.getLastPolledTimestamp() + subscriber.getMaxKeepalive() < System.currentTimeMillis()) {
                                         it.remove();
+                                        EventsAPI.this.invalidateInterests();
                                         final long subscriptionid = subscriber.getSubscriptionID();
                                         try {
                                             localEventSender.fireEvent(new LocalEventsAPIEvent(EventsAPI.this, LocalEventsAPIEvent.Type.CHANNEL_CLOSED, subscriber));
@@ -337,6 +402,7 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
     public SubscriptionResponse unsubscribe(final long subscriptionid) {
         final Subscriber subscriber = this.subscribers.remove(subscriptionid);
         if (subscriber != null) {
+            this.invalidateInterests();
             subscriber.notifyListener();
             try {
                 localEventSender.fireEvent(new LocalEventsAPIEvent(this, LocalEventsAPIEvent.Type.CHANNEL_CLOSED, subscriber));
@@ -356,7 +422,6 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
     public boolean push(Subscriber subscriber, EventObject eventObject) {
         if (subscriber.isSubscribed(eventObject)) {
             subscriber.push(eventObject);
-            subscriber.notifyListener();
             return true;
         }
         return false;
@@ -377,7 +442,6 @@ public class EventsAPI implements EventsAPIInterface, RemoteAPIEventsSender {
         }
         if (filtered.size() > 0) {
             subscriber.push(filtered);
-            subscriber.notifyListener();
 
         }
 
@@ -9,15 +9,13 @@
  */
 package org.appwork.remoteapi.events;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-
-import org.appwork.utils.Regex;
+import java.util.regex.Pattern;
 
 /**
  * @author daniel
@@ -25,10 +23,70 @@ import org.appwork.utils.Regex;
  */
 public class Subscriber {
 
+    /* compiled subscriptions/exclusions, replaced on every change so the cached results never get stale */
+    protected static class SubscriptionFilter {
+        private final Pattern[]                          subscriptions;
+        private final Pattern[]                          exclusions;
+        private final ConcurrentHashMap<String, Boolean> results = new ConcurrentHashMap<String, Boolean>();
+
+        protected SubscriptionFilter(final String[] subscriptions, final String[] exclusions) {
+            this.subscriptions = SubscriptionFilter.compile(subscriptions);
+            this.exclusions = SubscriptionFilter.compile(exclusions);
+        }
+
+        private static Pattern[] compile(final String[] patterns) {
+            final ArrayList<Pattern> ret = new ArrayList<Pattern>(patterns.length);
+            for (final String pattern : patterns) {
+                try {
+                    /* same flags as Regex */
+                    ret.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE | Pattern.DOTALL));
+                } catch (final Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+            return ret.toArray(new Pattern[ret.size()]);
+        }
+
+        private static boolean find(final Pattern[] patterns, final String eventID) {
+            for (final Pattern pattern : patterns) {
+                if (pattern.matcher(eventID).find()) { return true; }
+            }
+            return false;
+        }
+
+        protected boolean isSubscribed(final String eventID) {
+            Boolean ret = this.results.get(eventID);
+            if (ret == null) {
+                /* no exclusion may match */
+                ret = SubscriptionFilter.find(this.subscriptions, eventID) && !SubscriptionFilter.find(this.exclusions, eventID);
+                if (this.results.size() >= Subscriber.MAX_CACHED_EVENTIDS) {
+                    this.results.clear();
+                }
+                this.results.put(eventID, ret);
+            }
+            return ret;
+        }
+    }
+
     protected static final AtomicLong       SUBSCRIBER          = new AtomicLong(0);
+    /* max. cached match results per subscriber */
+    public static int                       MAX_CACHED_EVENTIDS = 1024;
+    /* max. queued events per subscriber */
+    public static int                       QUEUE_CAPACITY      = 1024;
+    public static EventQueue.Overflow       QUEUE_OVERFLOW      = EventQueue.Overflow.DROP_OLDEST;
+
+    /**
+     * @param event
+     * @return publisherName.eventID
+     */
+    public static String getEventID(final EventObject event) {
+        return event.getPublisher().getPublisherName() + "." + event.getEventid();
+    }
+
     protected String[]                      subscriptions;
     protected String[]                      exclusions;
-    protected final ArrayDeque<EventObject> events              = new ArrayDeque<EventObject>();
+    protected volatile SubscriptionFilter   filter              = null;
+    protected final EventQueue              events              = new EventQueue(Subscriber.QUEUE_CAPACITY, Subscriber.QUEUE_OVERFLOW);
     protected final long                    subscriptionID;
     protected long                          lastPolledTimestamp = System.currentTimeMillis();
     protected long                          pollTimeout         = 25 * 1000l;
@@ -79,126 +137,86 @@ public class Subscriber {
             /* no subscriptions = no interest in any event */
             return false;
         }
-        final String eventID = event.getPublisher().getPublisherName() + "." + event.getEventid();
-        return isSubscribed(eventID);
+        return this.isSubscribed(Subscriber.getEventID(event));
     }
 
     public boolean isSubscribed(final String eventID) {
-        for (final String subscription : this.subscriptions) {
-            try {
-                if (new Regex(eventID, subscription).matches()) {
-                    /* we have a subscription match */
-                    for (final String exclusion : this.exclusions) {
-                        try {
-                            if (new Regex(eventID, exclusion).matches()) {
-                                /*
-                                 * there exists an exclusion, no interest in
-                                 * this event
-                                 */
-                                return false;
-                            }
-                        } catch (final Throwable e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    return true;
+        SubscriptionFilter filter = this.filter;
+        if (filter == null) {
+            synchronized (this.getModifyLock()) {
+                filter = this.filter;
+                if (filter == null) {
+                    filter = new SubscriptionFilter(this.subscriptions, this.exclusions);
+                    this.filter = filter;
                 }
-            } catch (final Throwable e) {
-                e.printStackTrace();
             }
         }
-        return false;
+        return filter.isSubscribed(eventID);
     }
 
     protected void keepAlive() {
         this.lastPolledTimestamp = System.currentTimeMillis();
     }
 
+    /**
+     * moves up to max queued events into to
+     *
+     * @param to
+     * @param max
+     * @param waitfor
+     *            ms to wait for the first event
+     * @return number of events
+     * @throws InterruptedException
+     */
+    protected int drain(final List<EventObject> to, final int max, final long waitfor) throws InterruptedException {
+        this.lastPolledTimestamp = System.currentTimeMillis();
+        return this.events.drain(to, max, waitfor);
+    }
+
+    /**
+     * @return events dropped because the queue was full
+     */
+    public long getDroppedEvents() {
+        return this.events.getDropped();
+    }
+
+    /**
+     * @return ms the oldest queued event is waiting
+     */
+    public long getLag() {
+        return this.events.getLag();
+    }
+
+    public EventQueue getQueue() {
+        return this.events;
+    }
+
     protected void notifyListener() {
-        synchronized (this.events) {
-            this.events.notifyAll();
-        }
+        this.events.notifyListener();
     }
 
     protected EventObject poll(final long waitfor) throws InterruptedException {
-        synchronized (this.events) {
-            this.lastPolledTimestamp = System.currentTimeMillis();
-            EventObject ret = this.events.poll();
-            if (ret == null && waitfor > 0) {
-                this.events.wait(waitfor);
-                ret = this.events.poll();
-            }
-            return ret;
-        }
+        this.lastPolledTimestamp = System.currentTimeMillis();
+        return this.events.poll(waitfor);
     }
 
     /**
      * @param filtered
      */
-    public void push(List<EventObject> filtered) {
-        synchronized (this.events) {
-            for (EventObject event : filtered) {
-                push(event);
-            }
+    public void push(final List<EventObject> filtered) {
+        for (final EventObject event : filtered) {
+            this.push(event);
         }
     }
 
     protected void push(final EventObject event) {
         if (event == null) { return; }
-        synchronized (this.events) {
-            if (event.getCollapseKey() != null) {
-                /*
-                 * event has a collapseKey, so let's search for existing event
-                 * to replace/remove
-                 */
-                final Iterator<EventObject> it = this.events.descendingIterator();
-                while (it.hasNext()) {
-                    final EventObject next = it.next();
-                    if (next.getCollapseKey() != null && next.getCollapseKey().equals(event.getCollapseKey())) {
-                        it.remove();
-                        break;
-                    }
-                }
-            }
-            this.events.offerLast(event);
-        }
+        /* an older event with the same collapseKey is skipped by the queue */
+        this.events.offer(event);
     }
 
     protected void pushBack(final List<EventObject> pushBackEvents) {
-        if (pushBackEvents.size() == 0) { return; }
-        synchronized (this.events) {
-            if (this.events.size() == 0) {
-                /*
-                 * fast, current eventqueue is empty, so we can pushBack all at
-                 * once
-                 */
-                this.events.addAll(pushBackEvents);
-                return;
-            }
-            final ArrayList<EventObject> addFirst = new ArrayList<EventObject>(pushBackEvents.size());
-            addFirstLoop: for (final EventObject pushBackEvent : pushBackEvents) {
-                if (pushBackEvent.getCollapseKey() != null) {
-                    for (final EventObject currentEvent : this.events) {
-                        if (currentEvent.getCollapseKey() != null && currentEvent.getCollapseKey().equals(pushBackEvent.getCollapseKey())) {
-                            continue addFirstLoop;
-                        }
-                    }
-                }
-                addFirst.add(pushBackEvent);
-            }
-            if (addFirst.size() == 0) {
-                /* all pushBackEvents were collapsed */
-                return;
-            }
-            /*
-             * clear current eventqueue and add all pushBack ones first, then
-             * the backup of current ones
-             */
-            final ArrayList<EventObject> backup = new ArrayList<EventObject>(this.events);
-            this.events.clear();
-            this.events.addAll(addFirst);
-            this.events.addAll(backup);
-        }
+        this.events.pushBack(pushBackEvents);
     }
 
     protected void setExclusions(final String[] exclusions) {
@@ -207,6 +225,7 @@ public class Subscriber {
         } else {
             this.exclusions = this.uniquify(exclusions);
         }
+        this.filter = null;
     }
 
     /**
@@ -239,12 +258,11 @@ public class Subscriber {
         } else {
             this.subscriptions = this.uniquify(subscriptions);
         }
+        this.filter = null;
     }
 
     public int size() {
-        synchronized (this.events) {
-            return this.events.size();
-        }
+        return this.events.size();
     }
 
     private String[] uniquify(final String[] input) {
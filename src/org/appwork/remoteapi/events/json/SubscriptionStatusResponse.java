@@ -23,6 +23,10 @@ public class SubscriptionStatusResponse implements Storable {
 
     protected int     queueSize      = 0;
 
+    protected long    lag            = 0;
+
+    protected long    dropped        = 0;
+
     public SubscriptionStatusResponse(/* Storable */) {
     }
 
@@ -32,6 +36,16 @@ public class SubscriptionStatusResponse implements Storable {
     public SubscriptionStatusResponse(final Subscriber subscriber) {
         this.subscriptionid = subscriber.getSubscriptionID();
         this.queueSize = subscriber.size();
+        this.lag = subscriber.getLag();
+        this.dropped = subscriber.getDroppedEvents();
+    }
+
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    public long getLag() {
+        return this.lag;
     }
 
     public int getQueueSize() {
@@ -46,6 +60,14 @@ public class SubscriptionStatusResponse implements Storable {
         return this.subscribed;
     }
 
+    public void setDropped(final long dropped) {
+        this.dropped = dropped;
+    }
+
+    public void setLag(final long lag) {
+        this.lag = lag;
+    }
+
     public void setQueueSize(final int queueSize) {
         this.queueSize = queueSize;
     }
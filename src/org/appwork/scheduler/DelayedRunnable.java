@@ -45,7 +45,8 @@ public abstract class DelayedRunnable implements Runnable {
     }
 
     /**
-     * return a ScheduledExecutorService with deamon Threads, allowCoreThreadTimeOut(true) and maxPoolSize(1)
+     * return a ScheduledExecutorService with deamon Threads, allowCoreThreadTimeOut(true) and maxPoolSize(1). Creates a new thread, use
+     * {@link TimerWheel#getInstance()} unless the tasks need an own thread
      */
     public static ScheduledExecutorService getNewScheduledExecutorService() {
         final String caller = DelayedRunnable.getCaller();
@@ -78,12 +79,15 @@ public abstract class DelayedRunnable implements Runnable {
     private final long                     maxInMS;
     private final AtomicBoolean            delayerEnabled  = new AtomicBoolean(true);
 
+    /**
+     * runs on the shared {@link TimerWheel}
+     */
     public DelayedRunnable(final long minDelayInMS) {
-        this(DelayedRunnable.getNewScheduledExecutorService(), minDelayInMS);
+        this(TimerWheel.getInstance(), minDelayInMS);
     }
 
     public DelayedRunnable(final long minDelayInMS, final long maxDelayInMS) {
-        this(DelayedRunnable.getNewScheduledExecutorService(), minDelayInMS, maxDelayInMS);
+        this(TimerWheel.getInstance(), minDelayInMS, maxDelayInMS);
     }
 
     public DelayedRunnable(final ScheduledExecutorService service, final long delayInMS) {
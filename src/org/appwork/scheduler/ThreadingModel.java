@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.scheduler
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.scheduler;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.appwork.utils.logging.Log;
+
+/**
+ * creates the threads of servers and queues (HttpServer, FtpServer, Queue). {@link #PLATFORM} uses normal daemon threads,
+ * {@link #getVirtual()} uses virtual threads if the jvm supports them (java 21+) and falls back to {@link #PLATFORM} otherwise.
+ *
+ * The default model can be set with {@link #setDefault(ThreadingModel)} or the system property appwork.threads=virtual
+ *
+ * @author thomas
+ *
+ */
+public abstract class ThreadingModel {
+
+    private static class Platform extends ThreadingModel {
+
+        @Override
+        public boolean isVirtual() {
+            return false;
+        }
+
+        @Override
+        public Thread newThread(final String name, final Runnable runnable) {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        @Override
+        public ExecutorService newThreadPerTaskExecutor(final String name) {
+            final AtomicInteger counter = new AtomicInteger(0);
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10000l, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return Platform.this.newThread(name + ":" + counter.incrementAndGet(), r);
+                }
+            });
+        }
+
+        @Override
+        public String toString() {
+            return "PlatformThreads";
+        }
+    }
+
+    private static class Virtual extends ThreadingModel {
+        private final Method ofVirtual;
+        private final Method name;
+        private final Method namePrefix;
+        private final Method unstarted;
+        private final Method factory;
+        private final Method newThreadPerTaskExecutor;
+
+        private Virtual() throws Exception {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            this.ofVirtual = Thread.class.getMethod("ofVirtual");
+            this.name = builder.getMethod("name", String.class);
+            this.namePrefix = builder.getMethod("name", String.class, long.class);
+            this.unstarted = builder.getMethod("unstarted", Runnable.class);
+            this.factory = builder.getMethod("factory");
+            this.newThreadPerTaskExecutor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            /* preview versions throw UnsupportedOperationException here */
+            this.newThread("ThreadingModel:test", new Runnable() {
+
+                @Override
+                public void run() {
+                }
+            });
+        }
+
+        private Object invoke(final Method method, final Object obj, final Object... args) {
+            try {
+                return method.invoke(obj, args);
+            } catch (final InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } catch (final IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return true;
+        }
+
+        @Override
+        public Thread newThread(final String name, final Runnable runnable) {
+            final Object builder = this.invoke(this.name, this.invoke(this.ofVirtual, null), name);
+            return (Thread) this.invoke(this.unstarted, builder, runnable);
+        }
+
+        @Override
+        public ExecutorService newThreadPerTaskExecutor(final String name) {
+            final Object builder = this.invoke(this.namePrefix, this.invoke(this.ofVirtual, null), name + ":", 1l);
+            return (ExecutorService) this.invoke(this.newThreadPerTaskExecutor, null, this.invoke(this.factory, builder));
+        }
+
+        @Override
+        public String toString() {
+            return "VirtualThreads";
+        }
+    }
+
+    public static final ThreadingModel     PLATFORM = new Platform();
+
+    private static final ThreadingModel    VIRTUAL  = ThreadingModel.createVirtual();
+
+    private static volatile ThreadingModel DEFAULT  = "virtual".equalsIgnoreCase(System.getProperty("appwork.threads")) ? ThreadingModel.getVirtual() : ThreadingModel.PLATFORM;
+
+    private static ThreadingModel createVirtual() {
+        try {
+            return new Virtual();
+        } catch (final Throwable e) {
+            /* java < 21 */
+            return null;
+        }
+    }
+
+    public static ThreadingModel getDefault() {
+        return ThreadingModel.DEFAULT;
+    }
+
+    /**
+     * @return the virtual thread model or {@link #PLATFORM} if virtual threads are not supported
+     */
+    public static ThreadingModel getVirtual() {
+        if (ThreadingModel.VIRTUAL == null) {
+            return ThreadingModel.PLATFORM;
+        }
+        return ThreadingModel.VIRTUAL;
+    }
+
+    public static boolean isVirtualSupported() {
+        return ThreadingModel.VIRTUAL != null;
+    }
+
+    /**
+     * @param model
+     *            used by all servers/queues created afterwards, null resets to {@link #PLATFORM}
+     */
+    public static void setDefault(final ThreadingModel model) {
+        ThreadingModel.DEFAULT = model == null ? ThreadingModel.PLATFORM : model;
+        Log.L.info("ThreadingModel: " + ThreadingModel.DEFAULT);
+    }
+
+    public abstract boolean isVirtual();
+
+    /**
+     * @return a new, not started daemon thread
+     */
+    public abstract Thread newThread(String name, Runnable runnable);
+
+    /**
+     * @return an unbounded executor that runs each task in its own (new or idle) thread
+     */
+    public abstract ExecutorService newThreadPerTaskExecutor(String name);
+
+}
@@ -0,0 +1,507 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.scheduler
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.appwork.utils.logging.Log;
+
+/**
+ * @author daniel
+ *
+ *         hashed timing wheel. One ticker thread advances the wheel every {@link #TICK} ms and hands expired tasks to a daemon worker
+ *         pool, so a scheduled task costs one entry in the wheel instead of an own executor thread. New tasks are queued lock-free and
+ *         moved into their bucket by the ticker, tasks further away than one rotation count down rounds. Cancelled tasks are dropped when
+ *         their bucket comes up. The ticker waits without ticking while the wheel is empty, and sleeps until the tick of the earliest
+ *         deadline while the buckets in between are empty, so a few long running periodic tasks do not wake it every tick.
+ *
+ *         Tasks never run early, but up to one tick late. {@link #getInstance()} is shared by {@link DelayedRunnable} and
+ *         MinTimeWeakReference and must not be shut down. Tasks that block (io, locks) would stall all other tasks of the shared wheel,
+ *         they need an own executor, e.g. {@link DelayedRunnable#getNewScheduledExecutorService()}.
+ *
+ */
+public class TimerWheel extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private class Bucket extends ArrayList<Task<?>> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private class Task<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        private long       deadline;
+        /* >0 fixed rate, <0 fixed delay, 0 one shot */
+        private final long period;
+        private long       rounds;
+
+        private Task(final Callable<V> callable, final long deadline) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = 0;
+        }
+
+        private Task(final Runnable runnable, final V result, final long deadline, final long period) {
+            super(runnable, result);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            final boolean ret = super.cancel(mayInterruptIfRunning);
+            if (ret) {
+                TimerWheel.this.cancelled.incrementAndGet();
+            }
+            return ret;
+        }
+
+        @Override
+        public int compareTo(final Delayed o) {
+            if (o == this) { return 0; }
+            final long d = this.getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+            return d == 0 ? 0 : d < 0 ? -1 : 1;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(this.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return this.period != 0;
+        }
+
+        @Override
+        public void run() {
+            if (!this.isPeriodic()) {
+                super.run();
+            } else if (this.runAndReset() && !TimerWheel.this.isShutdown()) {
+                if (this.period > 0) {
+                    this.deadline += this.period;
+                } else {
+                    this.deadline = System.nanoTime() - this.period;
+                }
+                TimerWheel.this.add(this);
+            }
+        }
+    }
+
+    /* ms per tick */
+    public static long                           TICK        = 10;
+    /* number of buckets, power of 2 */
+    public static int                            WHEEL_SIZE  = 512;
+    /* threads that run the expired tasks, tasks should not block for long */
+    public static int                            WORKERS     = 4;
+    /* tasks fired later than this are counted as late */
+    public static long                           LATE        = 50;
+
+    private static TimerWheel                    INSTANCE    = null;
+
+    /**
+     * @return the process-wide TimerWheel
+     */
+    public static synchronized TimerWheel getInstance() {
+        if (TimerWheel.INSTANCE == null) {
+            TimerWheel.INSTANCE = new TimerWheel("TimerWheel");
+        }
+        return TimerWheel.INSTANCE;
+    }
+
+    private final String                         name;
+    private final long                           tickNanos;
+    private final Bucket[]                       wheel;
+    /* ticker only */
+    private final ArrayList<Task<?>>             expired     = new ArrayList<Task<?>>();
+    /* ticker only, tick of the first task in the wheel, may be earlier than the real one after tasks fired */
+    private long                                 earliest    = Long.MAX_VALUE;
+    private final long                           start;
+    private final ConcurrentLinkedQueue<Task<?>> pending     = new ConcurrentLinkedQueue<Task<?>>();
+    private final ThreadPoolExecutor             workers;
+    private final Object                         lock        = new Object();
+    private Thread                               ticker      = null;
+    private boolean                              waiting     = false;
+    private volatile boolean                     shutdown    = false;
+
+    /* tasks in pending and in the wheel */
+    private final AtomicInteger                  size        = new AtomicInteger(0);
+    private final AtomicLong                     scheduled   = new AtomicLong(0);
+    private final AtomicLong                     fired       = new AtomicLong(0);
+    private final AtomicLong                     late        = new AtomicLong(0);
+    private final AtomicLong                     cancelled   = new AtomicLong(0);
+    private final AtomicLong                     ticks       = new AtomicLong(0);
+
+    public TimerWheel(final String name) {
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, TimerWheel.TICK));
+        int wheelSize = 1;
+        while (wheelSize < TimerWheel.WHEEL_SIZE) {
+            wheelSize <<= 1;
+        }
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.start = System.nanoTime();
+        final AtomicInteger counter = new AtomicInteger(0);
+        this.workers = new ThreadPoolExecutor(Math.max(1, TimerWheel.WORKERS), Math.max(1, TimerWheel.WORKERS), 10000l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, name + ":worker:" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    private void add(final Task<?> task) {
+        this.size.incrementAndGet();
+        this.pending.add(task);
+        synchronized (this.lock) {
+            if (this.ticker == null) {
+                this.ticker = new Thread(this.name + ":ticker") {
+                    @Override
+                    public void run() {
+                        TimerWheel.this.tick();
+                    }
+                };
+                this.ticker.setDaemon(true);
+                this.ticker.start();
+            } else if (this.waiting) {
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long end = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this.lock) {
+            while (!this.isTerminated()) {
+                final long wait = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (wait <= 0) { return false; }
+                this.lock.wait(wait);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (this.shutdown) { throw new RejectedExecutionException(this.name + " is shut down"); }
+        this.workers.execute(command);
+    }
+
+    private void expire(final int bucket) {
+        final Bucket tasks = this.wheel[bucket];
+        int keep = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            final Task<?> task = tasks.get(i);
+            if (task.isCancelled()) {
+                this.size.decrementAndGet();
+            } else if (task.rounds <= 0) {
+                this.size.decrementAndGet();
+                this.expired.add(task);
+            } else {
+                task.rounds--;
+                tasks.set(keep++, task);
+            }
+        }
+        for (int i = tasks.size() - 1; i >= keep; i--) {
+            tasks.remove(i);
+        }
+    }
+
+    private void fire(final Task<?> task, final long now) {
+        this.fired.incrementAndGet();
+        if (now - task.deadline > TimeUnit.MILLISECONDS.toNanos(TimerWheel.LATE)) {
+            this.late.incrementAndGet();
+        }
+        try {
+            this.workers.execute(task);
+        } catch (final RejectedExecutionException e) {
+            /* worker pool shut down */
+            task.cancel(false);
+        }
+    }
+
+    public long getCancelled() {
+        return this.cancelled.get();
+    }
+
+    public long getFired() {
+        return this.fired.get();
+    }
+
+    /**
+     * @return tasks fired more than {@link #LATE} ms after their deadline
+     */
+    public long getLate() {
+        return this.late.get();
+    }
+
+    /**
+     * @return tasks waiting in the wheel, including cancelled ones that have not been dropped yet
+     */
+    public int getPending() {
+        return this.size.get();
+    }
+
+    public long getScheduled() {
+        return this.scheduled.get();
+    }
+
+    /**
+     * @return ticks the ticker processed
+     */
+    public long getTicks() {
+        return this.ticks.get();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.shutdown && this.size.get() == 0 && this.workers.getActiveCount() == 0;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+        return this.schedule(new Task<Object>(command, null, this.deadline(delay, unit), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit) {
+        return this.schedule(new Task<V>(callable, this.deadline(delay, unit)));
+    }
+
+    private <V> Task<V> schedule(final Task<V> task) {
+        if (this.shutdown) { throw new RejectedExecutionException(this.name + " is shut down"); }
+        this.scheduled.incrementAndGet();
+        this.add(task);
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command, final long initialDelay, final long period, final TimeUnit unit) {
+        if (period <= 0) { throw new IllegalArgumentException("period must be >0"); }
+        return this.schedule(new Task<Object>(command, null, this.deadline(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command, final long initialDelay, final long delay, final TimeUnit unit) {
+        if (delay <= 0) { throw new IllegalArgumentException("delay must be >0"); }
+        return this.schedule(new Task<Object>(command, null, this.deadline(initialDelay, unit), -unit.toNanos(delay)));
+    }
+
+    private long deadline(final long delay, final TimeUnit unit) {
+        return System.nanoTime() + unit.toNanos(Math.max(0, delay));
+    }
+
+    /**
+     * already scheduled one shot tasks still run, periodic tasks stop after their next run
+     */
+    @Override
+    public void shutdown() {
+        synchronized (this.lock) {
+            this.shutdown = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        this.shutdown();
+        final ArrayList<Runnable> ret = new ArrayList<Runnable>();
+        Task<?> task;
+        while ((task = this.pending.poll()) != null) {
+            if (task.cancel(false)) {
+                ret.add(task);
+            }
+        }
+        synchronized (this.lock) {
+            for (final Bucket bucket : this.wheel) {
+                for (final Task<?> t : bucket) {
+                    if (t.cancel(false)) {
+                        ret.add(t);
+                    }
+                }
+            }
+        }
+        this.workers.shutdownNow();
+        return ret;
+    }
+
+    private long due(final long deadline) {
+        /* first tick at or after the deadline */
+        return (deadline - this.start + this.tickNanos - 1) / this.tickNanos;
+    }
+
+    /**
+     * lock must be held, ticker only
+     *
+     * @param tick
+     *            last processed tick
+     * @return tick of the earliest task in the wheel, Long.MAX_VALUE if the wheel is empty
+     */
+    private long getEarliestTick(final long tick) {
+        if (this.earliest > tick && !this.shutdown) { return this.earliest; }
+        /* fired or shut down, walk the buckets in tick order until no later bucket can be earlier, drop cancelled tasks on the way */
+        this.earliest = Long.MAX_VALUE;
+        for (int i = 1; i <= this.wheel.length && this.earliest > tick + i; i++) {
+            final Bucket bucket = this.wheel[(int) (tick + i & this.wheel.length - 1)];
+            for (int j = bucket.size() - 1; j >= 0; j--) {
+                final Task<?> task = bucket.get(j);
+                if (task.isCancelled()) {
+                    bucket.remove(j);
+                    this.size.decrementAndGet();
+                } else {
+                    this.earliest = Math.min(this.earliest, tick + i + task.rounds * this.wheel.length);
+                }
+            }
+        }
+        return this.earliest;
+    }
+
+    /**
+     * moves all tasks of the wheel back to pending, lock must be held
+     */
+    private void rebucket() {
+        for (final Bucket bucket : this.wheel) {
+            this.pending.addAll(bucket);
+            bucket.clear();
+        }
+        this.earliest = Long.MAX_VALUE;
+    }
+
+    /**
+     * ticker thread
+     */
+    private void tick() {
+        long tick = -1;
+        while (true) {
+            try {
+                synchronized (this.lock) {
+                    while (this.size.get() == 0) {
+                        if (this.shutdown) {
+                            this.workers.shutdown();
+                            this.ticker = null;
+                            this.lock.notifyAll();
+                            return;
+                        }
+                        this.waiting = true;
+                        try {
+                            this.lock.wait();
+                        } finally {
+                            this.waiting = false;
+                        }
+                        /* the wheel is empty, no need to catch up the idle ticks */
+                        tick = -1;
+                    }
+                    if (tick >= 0 && this.pending.isEmpty()) {
+                        final long due = this.getEarliestTick(tick);
+                        if (due > tick + 1 && this.size.get() > 0) {
+                            /* nothing to do before due, add wakes us up */
+                            final long wait = due == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(this.start + due * this.tickNanos - System.nanoTime() + 999999);
+                            if (due == Long.MAX_VALUE || wait > 0) {
+                                this.waiting = true;
+                                try {
+                                    this.lock.wait(wait);
+                                } finally {
+                                    this.waiting = false;
+                                }
+                            }
+                            final long current = (System.nanoTime() - this.start) / this.tickNanos;
+                            if (current - 1 > tick) {
+                                /* the rounds of the tasks do not match the skipped ticks anymore */
+                                this.rebucket();
+                                tick = current - 1;
+                            }
+                        }
+                    }
+                }
+                if (tick < 0) {
+                    tick = (System.nanoTime() - this.start) / this.tickNanos;
+                }
+                final long next = this.start + (tick + 1) * this.tickNanos;
+                long wait;
+                while ((wait = next - System.nanoTime()) > 0) {
+                    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(wait + 999999));
+                }
+                tick++;
+                this.ticks.incrementAndGet();
+                final long now = System.nanoTime();
+                synchronized (this.lock) {
+                    this.transfer(tick);
+                    this.expire((int) (tick & this.wheel.length - 1));
+                }
+                for (final Task<?> task : this.expired) {
+                    this.fire(task, now);
+                }
+                this.expired.clear();
+            } catch (final InterruptedException e) {
+                /* ticker must not die */
+            } catch (final Throwable e) {
+                Log.exception(e);
+            } finally {
+                this.expired.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.name + ": scheduled=" + this.getScheduled() + " fired=" + this.getFired() + " late=" + this.getLate() + " cancelled=" + this.getCancelled() + " pending=" + this.getPending() + " ticks=" + this.getTicks() + " workers=" + this.workers.getPoolSize();
+    }
+
+    /**
+     * moves new tasks into their bucket
+     */
+    private void transfer(final long tick) {
+        Task<?> task;
+        while ((task = this.pending.poll()) != null) {
+            if (task.isCancelled()) {
+                this.size.decrementAndGet();
+                continue;
+            }
+            final long due = this.due(task.deadline);
+            if (due <= tick) {
+                this.size.decrementAndGet();
+                this.expired.add(task);
+                continue;
+            }
+            /* the bucket of this tick is expired right after the transfer */
+            task.rounds = (due - tick) / this.wheel.length;
+            if (due < this.earliest) {
+                this.earliest = due;
+            }
+            this.wheel[(int) (due & this.wheel.length - 1)].add(task);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2009 - 2014 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.scheduler
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.scheduler.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.appwork.scheduler.TimerWheel;
+
+/**
+ * a wheel with only far away tasks must not tick every {@link TimerWheel#TICK}, and tasks still fire on time after the skipped ticks,
+ * also beyond one rotation
+ *
+ * @author daniel
+ *
+ */
+public class TimerWheelTest {
+
+    public static void main(final String[] args) throws Exception {
+        final TimerWheel wheel = new TimerWheel("TimerWheelTest");
+        /* like MinTimeWeakReference */
+        final ScheduledFuture<?> periodic = wheel.scheduleWithFixedDelay(TimerWheelTest.NOOP, 60, 60, TimeUnit.SECONDS);
+        Thread.sleep(1000);
+        long ticks = wheel.getTicks();
+        System.out.println("idle: " + ticks + " ticks in 1000ms");
+        if (ticks > 5) {
+            System.out.println("TEST FAILED: idle wheel ticks");
+        }
+        /* short, long and more than one rotation away */
+        final long[] delays = new long[] { 50, 700, TimerWheel.TICK * TimerWheel.WHEEL_SIZE + 300 };
+        final long[] fired = new long[delays.length];
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            final int index = i;
+            wheel.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    fired[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    latch.countDown();
+                }
+            }, delays[i], TimeUnit.MILLISECONDS);
+        }
+        ticks = wheel.getTicks();
+        if (!latch.await(delays[delays.length - 1] + 2000, TimeUnit.MILLISECONDS)) {
+            System.out.println("TEST FAILED: tasks did not fire");
+        }
+        ticks = wheel.getTicks() - ticks;
+        for (int i = 0; i < delays.length; i++) {
+            System.out.println(delays[i] + "ms task fired after " + fired[i] + "ms");
+            if (fired[i] < delays[i] || fired[i] > delays[i] + 100) {
+                System.out.println("TEST FAILED: " + delays[i] + "ms task fired after " + fired[i] + "ms");
+            }
+        }
+        System.out.println(ticks + " ticks for " + delays.length + " tasks");
+        if (ticks > 20) {
+            System.out.println("TEST FAILED: wheel ticked while waiting for far tasks");
+        }
+        periodic.cancel(false);
+        wheel.shutdown();
+        if (!wheel.awaitTermination(2000, TimeUnit.MILLISECONDS)) {
+            System.out.println("TEST FAILED: wheel did not terminate");
+        }
+        System.out.println(wheel);
+        System.exit(0);
+    }
+
+    private static final Runnable NOOP = new Runnable() {
+
+                                           @Override
+                                           public void run() {
+                                           }
+                                       };
+}
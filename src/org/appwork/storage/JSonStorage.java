@@ -1,6 +1,9 @@
 package org.appwork.storage;
 
 import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
@@ -300,6 +303,10 @@ public class JSonStorage {
                 if (!res.exists() || res.length() == 0) {
                     return def;
                 }
+                if (plain && JSonStorage.JSON_MAPPER instanceof SimpleMapper) {
+                    /* stream the file, no need to keep the text in memory */
+                    return JSonStorage.restoreFromStream(res, (SimpleMapper) JSonStorage.JSON_MAPPER, type, def);
+                }
                 str = IO.readFile(res);
                 if (plain) {
                     return JSonStorage.restoreFromString(stri = new String(str, "UTF-8"), type, def);
@@ -324,6 +331,24 @@ public class JSonStorage {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private static <E> E restoreFromStream(final File file, final SimpleMapper mapper, final TypeRef<E> type, final E def) throws IOException {
+        final FileInputStream fis = new FileInputStream(file);
+        try {
+            if (type != null) {
+                return mapper.inputStreamToObject(fis, type);
+            } else {
+                return (E) mapper.inputStreamToObject(fis, def.getClass());
+            }
+        } catch (final JSonMapperException e) {
+            Log.L.warning("Error parsing File: " + file.getAbsolutePath());
+            Log.exception(Level.WARNING, e);
+            return def;
+        } finally {
+            fis.close();
+        }
+    }
+
     /**
      * restores a store json object
      * 
@@ -456,14 +481,43 @@ public class JSonStorage {
                     /* encrypted */
                     IO.writeToFile(tmp, Crypto.encrypt(json, key));
                 }
-                if (file.exists()) {
-                    if (!file.delete()) {
-                        throw new StorageException("Could not overwrite file: " + file.getAbsolutePath());
-                    }
-                }
-                if (!tmp.renameTo(file)) {
-                    throw new StorageException("Could not rename file: " + tmp + " to " + file);
+                JSonStorage.replace(file, tmp);
+            } catch (final Exception e) {
+                throw new StorageException("Can not write to " + tmp.getAbsolutePath(), e);
+            } finally {
+                JSonStorage.unLock(file);
+            }
+        }
+    }
+
+    /**
+     * serializes obj and saves it like {@link #saveTo(File, boolean, byte[], String)}. Plain files are written directly from the object
+     * without creating the json String first.
+     * 
+     * @param file
+     * @param plain
+     * @param key
+     * @param obj
+     * @throws StorageException
+     */
+    public static void storeTo(final File file, final boolean plain, final byte[] key, final Object obj) throws StorageException {
+        if (!plain || !(JSonStorage.JSON_MAPPER instanceof SimpleMapper)) {
+            JSonStorage.saveTo(file, plain, key, JSonStorage.serializeToJson(obj));
+            return;
+        }
+        final Object lock = JSonStorage.requestLock(file);
+        synchronized (lock) {
+            final File tmp = new File(file.getAbsolutePath() + ".tmp");
+            try {
+                tmp.getParentFile().mkdirs();
+                tmp.delete();
+                final FileOutputStream fos = new FileOutputStream(tmp);
+                try {
+                    ((SimpleMapper) JSonStorage.JSON_MAPPER).writeObject(obj, new BufferedOutputStream(fos, 8192));
+                } finally {
+                    fos.close();
                 }
+                JSonStorage.replace(file, tmp);
             } catch (final Exception e) {
                 throw new StorageException("Can not write to " + tmp.getAbsolutePath(), e);
             } finally {
@@ -472,6 +526,17 @@ public class JSonStorage {
         }
     }
 
+    static void replace(final File file, final File tmp) throws StorageException {
+        if (file.exists()) {
+            if (!file.delete()) {
+                throw new StorageException("Could not overwrite file: " + file.getAbsolutePath());
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new StorageException("Could not rename file: " + tmp + " to " + file);
+        }
+    }
+
     /**
      * @param file
      * @param packageData
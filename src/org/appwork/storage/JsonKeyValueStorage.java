@@ -3,10 +3,13 @@ package org.appwork.storage;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -22,11 +25,17 @@ public class JsonKeyValueStorage extends Storage {
     private final File                file;
     private final boolean             plain;
     private final byte[]              key;
-    private boolean                   autoPutValues = true;
-    private volatile boolean          closed        = false;
-    private final AtomicLong          setMark       = new AtomicLong(0);
-    private final AtomicLong          writeMark     = new AtomicLong(0);
+    private boolean                   autoPutValues   = true;
+    private volatile boolean          closed          = false;
+    private final AtomicLong          setMark         = new AtomicLong(0);
+    private final AtomicLong          writeMark       = new AtomicLong(0);
+    private final AtomicLong          bytesWritten    = new AtomicLong(0);
     private boolean                   enumCacheEnabled;
+    private final StorageJournal      journal;
+    private volatile boolean          journalEnabled  = false;
+    /* keys changed since the last save */
+    private final Set<String>         dirtyKeys       = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(8, 0.9f, 1));
+    private volatile boolean          compactRequired = false;
 
     public JsonKeyValueStorage(final File file) throws StorageException {
         this(file, false);
@@ -52,6 +61,8 @@ public class JsonKeyValueStorage extends Storage {
         this.file = file;
         this.name = file.getName();
         this.key = key;
+        this.journal = new StorageJournal(file, plain, key);
+        this.journal.recover();
         if (resource != null) {
             Log.L.info("Load JSon Storage from Classpath url: " + resource);
             try {
@@ -66,6 +77,7 @@ public class JsonKeyValueStorage extends Storage {
             final HashMap<String, Object> load = JSonStorage.restoreFrom(file, plain, key, TypeRef.HASHMAP, new HashMap<String, Object>());
             this.putAll(load);
         }
+        this.replayJournal();
     }
 
     public JsonKeyValueStorage(final String name) throws StorageException {
@@ -83,13 +95,17 @@ public class JsonKeyValueStorage extends Storage {
         this.file = Application.getResource("cfg/" + name + (plain ? ".json" : ".ejs"));
         Log.L.finer("Read Config: " + this.file.getAbsolutePath());
         this.key = key;
+        this.journal = new StorageJournal(this.file, plain, key);
+        this.journal.recover();
         final HashMap<String, Object> load = JSonStorage.restoreFrom(this.file, plain, key, TypeRef.HASHMAP, new HashMap<String, Object>());
         this.putAll(load);
+        this.replayJournal();
     }
 
     @Override
     public void clear() throws StorageException {
         this.map.clear();
+        this.compactRequired = true;
         this.requestSave();
     }
 
@@ -179,6 +195,13 @@ public class JsonKeyValueStorage extends Storage {
         return (E) ret;
     }
 
+    /**
+     * @return number of bytes written by {@link #save()} so far
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
     /**
      * @return the key
      */
@@ -191,6 +214,10 @@ public class JsonKeyValueStorage extends Storage {
         return this.file;
     }
 
+    public StorageJournal getJournal() {
+        return this.journal;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -222,7 +249,7 @@ public class JsonKeyValueStorage extends Storage {
             /* not possible to save null values in concurrenthashmap */
             ret = this.map.remove(key);
         }
-
+        this.dirtyKeys.add(key);
         this.requestSave();
         return ret;
     }
@@ -242,6 +269,13 @@ public class JsonKeyValueStorage extends Storage {
         return this.enumCacheEnabled;
     }
 
+    /**
+     * @return true if {@link #save()} appends the changes to the journal instead of rewriting the file
+     */
+    public boolean isJournalEnabled() {
+        return this.journalEnabled;
+    }
+
     public boolean isPlain() {
         return this.plain;
     }
@@ -327,12 +361,20 @@ public class JsonKeyValueStorage extends Storage {
         }
         if (this.map.containsKey(key)) {
             final Object ret = this.map.remove(key);
+            this.dirtyKeys.add(key);
             this.requestSave();
             return ret;
         }
         return null;
     }
 
+    private void replayJournal() {
+        final int records = this.journal.replay(this.map);
+        if (records > 0) {
+            Log.L.info("Replayed " + records + " journal records: " + this.journal.getJournalFile());
+        }
+    }
+
     public void requestSave() {
         this.setMark.incrementAndGet();
     }
@@ -343,9 +385,68 @@ public class JsonKeyValueStorage extends Storage {
             throw new StorageException("StorageChest already closed!");
         }
         final long lastSetMark = this.setMark.get();
-        if (this.writeMark.getAndSet(lastSetMark) != lastSetMark) {
-            final String json = JSonStorage.getMapper().objectToString(this.map);
-            JSonStorage.saveTo(this.file, this.plain, this.key, json);
+        final long lastWriteMark = this.writeMark.getAndSet(lastSetMark);
+        if (lastWriteMark != lastSetMark) {
+            boolean saved = false;
+            try {
+                if (this.journalEnabled || this.journal.exists()) {
+                    this.saveJournal();
+                } else {
+                    this.dirtyKeys.clear();
+                    JSonStorage.storeTo(this.file, this.plain, this.key, this.map);
+                    this.bytesWritten.addAndGet(this.file.length());
+                }
+                saved = true;
+            } finally {
+                if (!saved) {
+                    /* still changed, so the next save writes again */
+                    this.writeMark.compareAndSet(lastSetMark, lastWriteMark);
+                }
+            }
+        }
+    }
+
+    /**
+     * appends the dirty keys to the journal, or compacts if the journal got larger than the file (and
+     * {@link StorageJournal#COMPACT_SIZE}), after {@link #clear()} and if the journal is disabled
+     */
+    private void saveJournal() throws StorageException {
+        synchronized (this.journal) {
+            if (!this.journalEnabled || this.compactRequired || this.journal.getSize() > Math.max(StorageJournal.COMPACT_SIZE, this.file.length())) {
+                this.compactRequired = false;
+                this.dirtyKeys.clear();
+                try {
+                    this.bytesWritten.addAndGet(this.journal.compact(this.map));
+                } catch (final StorageException e) {
+                    this.compactRequired = true;
+                    throw e;
+                }
+                return;
+            }
+            final HashMap<String, Object> put = new HashMap<String, Object>();
+            final ArrayList<String> remove = new ArrayList<String>();
+            final Iterator<String> it = this.dirtyKeys.iterator();
+            while (it.hasNext()) {
+                final String key = it.next();
+                /* remove before get, a concurrent put marks the key dirty again */
+                it.remove();
+                final Object value = this.map.get(key);
+                if (value == null) {
+                    remove.add(key);
+                } else {
+                    put.put(key, value);
+                }
+            }
+            if (put.size() == 0 && remove.size() == 0) {
+                return;
+            }
+            try {
+                this.bytesWritten.addAndGet(this.journal.append(put, remove));
+            } catch (final StorageException e) {
+                /* the record is lost, write everything next time */
+                this.compactRequired = true;
+                throw e;
+            }
         }
     }
 
@@ -358,6 +459,15 @@ public class JsonKeyValueStorage extends Storage {
         this.autoPutValues = autoPutValues;
     }
 
+    /**
+     * @param journalEnabled
+     *            append changes to file.journal instead of rewriting the whole file on each {@link #save()}. The journal is replayed on
+     *            load and compacted into the file once it gets too large
+     */
+    public void setJournalEnabled(final boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+
     public void setEnumCacheEnabled(final boolean enumCacheEnabled) {
         this.enumCacheEnabled = enumCacheEnabled;
     }
@@ -9,11 +9,16 @@
  */
 package org.appwork.storage;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.appwork.storage.simplejson.JSonFactory;
 import org.appwork.storage.simplejson.JSonNode;
+import org.appwork.storage.simplejson.JSonStreamParser;
 import org.appwork.storage.simplejson.ParserException;
 import org.appwork.storage.simplejson.mapper.JSonMapper;
 import org.appwork.storage.simplejson.mapper.MapperException;
@@ -41,12 +46,23 @@ public class SimpleMapper implements JSONMapper {
 
                         @Override
                         public String toString() {
-                            return se.serializer.toJSonString(obj);
+                            return se.toJSonString(obj);
                         }
                     }; }
                 }
                 return super.create(obj);
             }
+
+            @Override
+            public void writeObject(final Object obj, final Appendable out) throws MapperException, IOException {
+                for (final JsonSerializerEntry se : serializer) {
+                    if (obj != null && se.clazz.isAssignableFrom(obj.getClass())) {
+                        out.append(se.toJSonString(obj));
+                        return;
+                    }
+                }
+                super.writeObject(obj, out);
+            }
         };
     }
 
@@ -67,6 +83,16 @@ public class SimpleMapper implements JSONMapper {
 
         JsonSerializer serializer;
         Class<?>       clazz;
+
+        /**
+         * @param obj
+         *            instance of clazz, checked by the caller
+         * @return
+         */
+        @SuppressWarnings("unchecked")
+        String toJSonString(final Object obj) {
+            return serializer.toJSonString(obj);
+        }
     }
 
     private List<JsonSerializerEntry> serializer = new ArrayList<JsonSerializerEntry>();
@@ -94,8 +120,31 @@ public class SimpleMapper implements JSONMapper {
     @Override
     public String objectToString(final Object o) throws JSonMapperException {
         try {
+            final StringBuilder sb = new StringBuilder(256);
+            mapper.writeObject(o, sb);
+            return sb.toString();
+        } catch (final IOException e) {
+            throw new JSonMapperException(e);
+        } catch (final MapperException e) {
+            throw new JSonMapperException(e);
+        }
+    }
 
-            return mapper.create(o).toString();
+    /**
+     * writes the json of o UTF-8 encoded to the stream. The stream is flushed,
+     * but not closed
+     * 
+     * @param o
+     * @param os
+     * @throws JSonMapperException
+     */
+    public void writeObject(final Object o, final OutputStream os) throws JSonMapperException {
+        try {
+            final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), 8192);
+            mapper.writeObject(o, writer);
+            writer.flush();
+        } catch (final IOException e) {
+            throw new JSonMapperException(e);
         } catch (final MapperException e) {
             throw new JSonMapperException(e);
         }
@@ -112,7 +161,7 @@ public class SimpleMapper implements JSONMapper {
     public <T> T stringToObject(final String jsonString, final Class<T> clazz) throws JSonMapperException {
 
         try {
-            return (T) mapper.jsonToObject(new JSonFactory(jsonString).parse(), clazz);
+            return (T) mapper.jsonToObject(new JSonStreamParser(jsonString), clazz);
         } catch (final ParserException e) {
             throw new JSonMapperException(e);
         } catch (final MapperException e) {
@@ -131,7 +180,7 @@ public class SimpleMapper implements JSONMapper {
     public <T> T stringToObject(final String jsonString, final TypeRef<T> type) throws JSonMapperException {
         try {
 
-            return mapper.jsonToObject(new JSonFactory(jsonString).parse(), type);
+            return mapper.jsonToObject(new JSonStreamParser(jsonString), type);
         } catch (final ParserException e) {
             throw new JSonMapperException(e);
 
@@ -140,6 +189,40 @@ public class SimpleMapper implements JSONMapper {
         }
     }
 
+    /**
+     * reads and maps the json from the stream without holding the complete
+     * text or a JSonNode tree in memory. The stream is not closed.
+     * 
+     * @param is
+     *            UTF-8 encoded json
+     * @param type
+     * @return
+     * @throws JSonMapperException
+     */
+    public <T> T inputStreamToObject(final InputStream is, final TypeRef<T> type) throws JSonMapperException {
+        try {
+            return mapper.jsonToObject(new JSonStreamParser(is), type);
+        } catch (final ParserException e) {
+            throw new JSonMapperException(e);
+        } catch (final MapperException e) {
+            throw new JSonMapperException(e);
+        }
+    }
+
+    /**
+     * @see #inputStreamToObject(InputStream, TypeRef)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T inputStreamToObject(final InputStream is, final Class<T> clazz) throws JSonMapperException {
+        try {
+            return (T) mapper.jsonToObject(new JSonStreamParser(is), clazz);
+        } catch (final ParserException e) {
+            throw new JSonMapperException(e);
+        } catch (final MapperException e) {
+            throw new JSonMapperException(e);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.appwork.utils.IO;
+import org.appwork.utils.crypto.Crypto;
+import org.appwork.utils.logging.Log;
+
+/**
+ * append-only journal for a {@link JsonKeyValueStorage}. Changes are appended as small records to file.journal and replayed on top of
+ * the snapshot (the normal .json/.ejs file) on load. {@link #compact(Map)} writes a new snapshot and removes the journal.
+ *
+ * Record: int length, int crc32, payload (json {"p":{puts},"r":[removes]}, encrypted for .ejs storages). A torn record at the end of the
+ * journal (crash while appending) is detected by length/crc and cut off.
+ *
+ * Compaction writes the new snapshot to file.compact first and deletes the journal before the rename. So a compact file is complete if
+ * and only if there is no journal, see {@link #recover()}
+ *
+ * @author thomas
+ *
+ */
+public class StorageJournal {
+
+    /* journals smaller than this are not compacted */
+    public static long          COMPACT_SIZE = 64 * 1024;
+    public static IO.SYNC       SYNC         = IO.SYNC.DATA;
+
+    private static final byte[] MAGIC        = new byte[] { 'A', 'W', 'J', '1' };
+    private static final String PUT          = "p";
+    private static final String REMOVE       = "r";
+
+    private final File          file;
+    private final File          journal;
+    private final File          compact;
+    private final boolean       plain;
+    private final byte[]        key;
+
+    public StorageJournal(final File file, final boolean plain, final byte[] key) {
+        this.file = file;
+        this.journal = new File(file.getAbsolutePath() + ".journal");
+        this.compact = new File(file.getAbsolutePath() + ".compact");
+        this.plain = plain;
+        this.key = key;
+    }
+
+    /**
+     * appends one record. On failure the journal is cut back to its old size, the caller should {@link #compact(Map)} next time
+     *
+     * @param put
+     *            changed keys with their new values
+     * @param remove
+     *            removed keys
+     * @return number of bytes written
+     * @throws StorageException
+     */
+    public synchronized long append(final Map<String, Object> put, final List<String> remove) throws StorageException {
+        final HashMap<String, Object> record = new HashMap<String, Object>();
+        if (put.size() > 0) {
+            record.put(StorageJournal.PUT, put);
+        }
+        if (remove.size() > 0) {
+            record.put(StorageJournal.REMOVE, remove);
+        }
+        final String json = JSonStorage.serializeToJson(record);
+        final long size = this.journal.length();
+        FileOutputStream fos = null;
+        try {
+            final byte[] payload = this.plain ? json.getBytes("UTF-8") : Crypto.encrypt(json, this.key);
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(payload.length + 12);
+            final DataOutputStream dos = new DataOutputStream(bos);
+            if (size == 0) {
+                dos.write(StorageJournal.MAGIC);
+            }
+            dos.writeInt(payload.length);
+            dos.writeInt((int) crc.getValue());
+            dos.write(payload);
+            this.journal.getParentFile().mkdirs();
+            fos = new FileOutputStream(this.journal, true);
+            /* single write, so a crash leaves at most one torn record */
+            final byte[] data = bos.toByteArray();
+            fos.write(data);
+            fos.flush();
+            if (StorageJournal.SYNC == IO.SYNC.DATA) {
+                fos.getChannel().force(false);
+            } else if (StorageJournal.SYNC == IO.SYNC.META_AND_DATA) {
+                fos.getChannel().force(true);
+            }
+            return data.length;
+        } catch (final IOException e) {
+            try {
+                if (fos != null) {
+                    fos.close();
+                    fos = null;
+                }
+                this.truncate(size);
+            } catch (final Throwable e2) {
+                Log.exception(e2);
+            }
+            throw new StorageException("Can not write to " + this.journal.getAbsolutePath(), e);
+        } finally {
+            try {
+                if (fos != null) {
+                    fos.close();
+                }
+            } catch (final Throwable e) {
+            }
+        }
+    }
+
+    private void apply(final byte[] payload, final Map<String, Object> map) throws Exception {
+        final String json = this.plain ? new String(payload, "UTF-8") : Crypto.decrypt(payload, this.key);
+        final HashMap<String, Object> record = JSonStorage.restoreFromString(json, TypeRef.HASHMAP);
+        final Object put = record.get(StorageJournal.PUT);
+        if (put instanceof Map) {
+            for (final Entry<?, ?> next : ((Map<?, ?>) put).entrySet()) {
+                if (next.getKey() != null && next.getValue() != null) {
+                    map.put(next.getKey().toString(), next.getValue());
+                }
+            }
+        }
+        final Object remove = record.get(StorageJournal.REMOVE);
+        if (remove instanceof List) {
+            for (final Object key : (List<?>) remove) {
+                if (key != null) {
+                    map.remove(key.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * writes map as new snapshot and removes the journal
+     *
+     * @param map
+     * @return size of the new snapshot
+     * @throws StorageException
+     */
+    public synchronized long compact(final Map<String, Object> map) throws StorageException {
+        final String json = JSonStorage.serializeToJson(map);
+        try {
+            if (this.journal.length() == 0) {
+                /* the journal marks the compact file as incomplete until it is written */
+                this.truncate(0);
+                this.journal.getParentFile().mkdirs();
+                IO.writeToFile(this.journal, StorageJournal.MAGIC);
+            }
+            this.compact.delete();
+            IO.writeToFile(this.compact, this.plain ? json.getBytes("UTF-8") : Crypto.encrypt(json, this.key));
+        } catch (final IOException e) {
+            this.compact.delete();
+            throw new StorageException("Can not write to " + this.compact.getAbsolutePath(), e);
+        }
+        if (!this.journal.delete()) {
+            this.compact.delete();
+            throw new StorageException("Could not delete journal: " + this.journal.getAbsolutePath());
+        }
+        JSonStorage.replace(this.file, this.compact);
+        return this.file.length();
+    }
+
+    public boolean exists() {
+        return this.journal.exists();
+    }
+
+    public File getJournalFile() {
+        return this.journal;
+    }
+
+    /**
+     * @return size of the journal in bytes
+     */
+    public long getSize() {
+        return this.journal.length();
+    }
+
+    /**
+     * finishes or rolls back an interrupted compaction. Has to be called before the snapshot is loaded
+     */
+    public synchronized void recover() {
+        if (!this.compact.exists()) {
+            return;
+        }
+        if (this.journal.exists()) {
+            Log.L.warning("Discard incomplete compaction: " + this.compact);
+            this.compact.delete();
+        } else {
+            Log.L.warning("Finish compaction: " + this.compact);
+            try {
+                JSonStorage.replace(this.file, this.compact);
+            } catch (final StorageException e) {
+                Log.exception(e);
+            }
+        }
+    }
+
+    /**
+     * applies all complete records to map. Everything behind the first torn or corrupt record is cut off
+     *
+     * @param map
+     * @return number of replayed records
+     */
+    public synchronized int replay(final Map<String, Object> map) {
+        final long length = this.journal.length();
+        if (length == 0) {
+            return 0;
+        }
+        int records = 0;
+        long valid = 0;
+        try {
+            final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(this.journal), 16384));
+            try {
+                final byte[] magic = new byte[StorageJournal.MAGIC.length];
+                if (length < magic.length) {
+                    throw new IOException("Journal too short");
+                }
+                is.readFully(magic);
+                if (!Arrays.equals(magic, StorageJournal.MAGIC)) {
+                    throw new IOException("Unknown journal format");
+                }
+                valid = magic.length;
+                final CRC32 crc = new CRC32();
+                while (valid + 8 <= length) {
+                    final int size = is.readInt();
+                    final long checksum = is.readInt() & 0xffffffffl;
+                    if (size < 0 || valid + 8 + size > length) {
+                        break;
+                    }
+                    final byte[] payload = new byte[size];
+                    is.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if (crc.getValue() != checksum) {
+                        break;
+                    }
+                    try {
+                        this.apply(payload, map);
+                    } catch (final Exception e) {
+                        Log.exception(e);
+                        break;
+                    }
+                    valid += 8 + size;
+                    records++;
+                }
+            } finally {
+                is.close();
+            }
+        } catch (final IOException e) {
+            Log.L.warning(this.journal.getAbsolutePath() + ":" + e.getMessage());
+        }
+        if (valid < length) {
+            Log.L.warning("Cut off journal " + this.journal.getAbsolutePath() + " at " + valid + "/" + length + " after " + records + " records");
+            try {
+                this.truncate(valid);
+            } catch (final IOException e) {
+                Log.exception(e);
+            }
+        }
+        return records;
+    }
+
+    private void truncate(final long size) throws IOException {
+        if (size <= StorageJournal.MAGIC.length) {
+            /* no records left */
+            if (this.journal.exists() && !this.journal.delete()) {
+                throw new IOException("Could not delete journal: " + this.journal.getAbsolutePath());
+            }
+            return;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(this.journal, "rw");
+        try {
+            raf.setLength(size);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -17,6 +17,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.appwork.exceptions.WTFException;
 import org.appwork.storage.config.annotations.CustomStorageName;
+import org.appwork.storage.config.handler.ConfigClassGenerator;
 import org.appwork.storage.config.handler.StorageHandler;
 import org.appwork.utils.Application;
 import org.appwork.utils.swing.dialog.Dialog;
@@ -56,9 +57,12 @@ public class JsonConfig {
 
     }
 
-    private static final HashMap<String, ConfigInterface> CACHE = new HashMap<String, ConfigInterface>();
+    /* use generated classes instead of a Proxy, see ConfigClassGenerator */
+    public static boolean                                 GENERATED_CLASSES = !"false".equals(System.getProperty("appwork.config.generated"));
 
-    private static final HashMap<String, LockObject>      LOCKS = new HashMap<String, LockObject>();
+    private static final HashMap<String, ConfigInterface> CACHE             = new HashMap<String, ConfigInterface>();
+
+    private static final HashMap<String, LockObject>      LOCKS             = new HashMap<String, LockObject>();
 
     /**
      * @param <T>
@@ -87,7 +91,7 @@ public class JsonConfig {
                 if (lock.getStorageHandler() == null) {
                     lock.setStorageHandler(new StorageHandler<T>(Application.getResource("cfg/" + path), configInterface));
                 }
-                final T ret = (T) Proxy.newProxyInstance(cl, new Class<?>[] { configInterface }, lock.getStorageHandler());
+                final T ret = JsonConfig.newInstance(cl, configInterface, (StorageHandler<T>) lock.getStorageHandler());
                 synchronized (JsonConfig.CACHE) {
                     if (lock.getLock().get() == 1) {
                         JsonConfig.CACHE.put(path, ret);
@@ -126,7 +130,7 @@ public class JsonConfig {
                 if (lock.getStorageHandler() == null) {
                     lock.setStorageHandler(new StorageHandler<T>(path, configInterface));
                 }
-                final T ret = (T) Proxy.newProxyInstance(cl, new Class<?>[] { configInterface }, lock.getStorageHandler());
+                final T ret = JsonConfig.newInstance(cl, configInterface, (StorageHandler<T>) lock.getStorageHandler());
                 synchronized (JsonConfig.CACHE) {
                     if (lock.getLock().get() == 1) {
                         JsonConfig.CACHE.put(id, ret);
@@ -160,7 +164,7 @@ public class JsonConfig {
                 if (lock.getStorageHandler() == null) {
                     lock.setStorageHandler(new StorageHandler<T>(urlPath, configInterface));
                 }
-                final T ret = (T) Proxy.newProxyInstance(cl, new Class<?>[] { configInterface }, lock.getStorageHandler());
+                final T ret = JsonConfig.newInstance(cl, configInterface, (StorageHandler<T>) lock.getStorageHandler());
                 synchronized (JsonConfig.CACHE) {
                     if (lock.getLock().get() == 1) {
                         JsonConfig.CACHE.put(id, ret);
@@ -183,6 +187,18 @@ public class JsonConfig {
         return JsonConfig.CACHE;
     }
 
+    /**
+     * @return instance of a generated class, or a Proxy if the interface cannot be generated
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends ConfigInterface> T newInstance(final ClassLoader cl, final Class<T> configInterface, final StorageHandler<T> storageHandler) {
+        if (JsonConfig.GENERATED_CLASSES) {
+            final T ret = ConfigClassGenerator.create(storageHandler);
+            if (ret != null) { return ret; }
+        }
+        return (T) Proxy.newProxyInstance(cl, new Class<?>[] { configInterface }, storageHandler);
+    }
+
     private static synchronized LockObject requestLock(final String id) {
         LockObject lockObject = JsonConfig.LOCKS.get(id);
         if (lockObject == null) {
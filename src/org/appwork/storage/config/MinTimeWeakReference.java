@@ -17,6 +17,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.appwork.scheduler.DelayedRunnable;
+import org.appwork.scheduler.TimerWheel;
 
 /**
  * @author thomas
@@ -24,11 +25,10 @@ import org.appwork.scheduler.DelayedRunnable;
  */
 public class MinTimeWeakReference<T> extends WeakReference<T> {
 
-    private static final ScheduledExecutorService EXECUTER     = DelayedRunnable.getNewScheduledExecutorService();
-    private static final ScheduledExecutorService QUEUECLEANUP = DelayedRunnable.getNewScheduledExecutorService();
-    private static final ReferenceQueue<Object>   QUEUE        = new ReferenceQueue<Object>();
+    private static final ScheduledExecutorService EXECUTER = TimerWheel.getInstance();
+    private static final ReferenceQueue<Object>   QUEUE    = new ReferenceQueue<Object>();
     static {
-        MinTimeWeakReference.QUEUECLEANUP.scheduleWithFixedDelay(new Runnable() {
+        MinTimeWeakReference.EXECUTER.scheduleWithFixedDelay(new Runnable() {
 
             @Override
             public void run() {
@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.config.annotations
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.config.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Changes are appended to a journal instead of rewriting the whole storage on each save. Use it for large, often changed storages
+ *
+ * @see org.appwork.storage.JsonKeyValueStorage#setJournalEnabled(boolean)
+ * @author thomas
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE })
+public @interface JournalStorage {
+
+}
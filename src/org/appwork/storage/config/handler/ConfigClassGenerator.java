@@ -0,0 +1,507 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.config.handler
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.config.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+
+import org.appwork.storage.config.ConfigInterface;
+import org.appwork.storage.simplejson.mapper.AccessorGenerator;
+import org.appwork.utils.logging.Log;
+
+/**
+ * Generates a class per {@link ConfigInterface} that implements the interface and calls the {@link KeyHandler}s directly, instead of a
+ * {@link java.lang.reflect.Proxy} with {@link StorageHandler#invoke(Object, Method, Object[])}. Getters call
+ * {@link StorageHandler#getValue(KeyHandler)}, setters {@link StorageHandler#setValue(KeyHandler, Object)}. The class is created once per
+ * interface, every instance gets the KeyHandlers of its StorageHandler.
+ *
+ * Interfaces that cannot be compiled (not public, methods without KeyHandler, ...) return null and have to use the Proxy.
+ *
+ * @author thomas
+ *
+ */
+public class ConfigClassGenerator {
+
+    private static class ConfigClassLoader extends ClassLoader {
+        /* keeps the cache entry alive as long as the generated class is in use */
+        private Generated generated;
+
+        public ConfigClassLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        public Class<?> define(final String name, final byte[] b) {
+            return this.defineClass(name, b, 0, b.length);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            /* the interface may be loaded by a loader that does not see our classes */
+            if (ConfigClassGenerator.STORAGEHANDLER.equals(name)) { return StorageHandler.class; }
+            if (ConfigClassGenerator.KEYHANDLER.equals(name)) { return KeyHandler.class; }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    /**
+     * generated class and the methods that belong to KeyHandlers, in the order of the KeyHandler array
+     */
+    private static class Generated {
+        private final Class<?>     clazz;
+        private final List<Method> methods;
+
+        private Generated(final Class<?> clazz, final List<Method> methods) {
+            this.clazz = clazz;
+            this.methods = methods;
+        }
+    }
+
+    /**
+     * Minimal class file writer. Creates Java 5 (49.0) class files, so no StackMapTable is required
+     */
+    private static class ClassWriter {
+        private final ArrayList<byte[]>        pool    = new ArrayList<byte[]>();
+        private final HashMap<String, Integer> index   = new HashMap<String, Integer>();
+        private final ByteArrayOutputStream    methods = new ByteArrayOutputStream();
+        private int                            methodCount;
+
+        private int add(final String key, final byte[] entry) {
+            Integer ret = this.index.get(key);
+            if (ret == null) {
+                this.pool.add(entry);
+                ret = this.pool.size();
+                this.index.put(key, ret);
+            }
+            return ret;
+        }
+
+        public int classRef(final String internalName) throws IOException {
+            final int name = this.utf8(internalName);
+            return this.add("C" + internalName, new byte[] { 7, (byte) (name >> 8), (byte) name });
+        }
+
+        public int fieldRef(final String owner, final String name, final String desc) throws IOException {
+            return this.memberRef(9, owner, name, desc);
+        }
+
+        private int memberRef(final int tag, final String owner, final String name, final String desc) throws IOException {
+            final int c = this.classRef(owner);
+            final int n = this.utf8(name);
+            final int d = this.utf8(desc);
+            final int nat = this.add("N" + name + desc, new byte[] { 12, (byte) (n >> 8), (byte) n, (byte) (d >> 8), (byte) d });
+            return this.add(tag + owner + "." + name + desc, new byte[] { (byte) tag, (byte) (c >> 8), (byte) c, (byte) (nat >> 8), (byte) nat });
+        }
+
+        public void method(final String name, final String desc, final int maxStack, final int maxLocals, final byte[] code) throws IOException {
+            final DataOutputStream out = new DataOutputStream(this.methods);
+            out.writeShort(Modifier.PUBLIC);
+            out.writeShort(this.utf8(name));
+            out.writeShort(this.utf8(desc));
+            out.writeShort(1);
+            out.writeShort(this.utf8("Code"));
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+            this.methodCount++;
+        }
+
+        public int methodRef(final String owner, final String name, final String desc) throws IOException {
+            return this.memberRef(10, owner, name, desc);
+        }
+
+        public byte[] toByteArray(final String name, final String iface) throws IOException {
+            final int thisClass = this.classRef(name);
+            final int superClass = this.classRef("java/lang/Object");
+            final int ifaceClass = this.classRef(iface);
+            final int h = this.utf8("h");
+            final int hDesc = this.utf8(ConfigClassGenerator.STORAGEHANDLER_DESC);
+            final int k = this.utf8("k");
+            final int kDesc = this.utf8("[" + ConfigClassGenerator.KEYHANDLER_DESC);
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(this.pool.size() + 1);
+            for (final byte[] entry : this.pool) {
+                out.write(entry);
+            }
+            // public final super
+            out.writeShort(0x0031);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(ifaceClass);
+            // private final StorageHandler h; private final KeyHandler[] k;
+            out.writeShort(2);
+            out.writeShort(Modifier.PRIVATE | Modifier.FINAL);
+            out.writeShort(h);
+            out.writeShort(hDesc);
+            out.writeShort(0);
+            out.writeShort(Modifier.PRIVATE | Modifier.FINAL);
+            out.writeShort(k);
+            out.writeShort(kDesc);
+            out.writeShort(0);
+            out.writeShort(this.methodCount);
+            out.write(this.methods.toByteArray());
+            // class attributes
+            out.writeShort(0);
+            out.close();
+            return bos.toByteArray();
+        }
+
+        public int utf8(final String str) throws IOException {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeByte(1);
+            dos.writeUTF(str);
+            return this.add("U" + str, bos.toByteArray());
+        }
+    }
+
+    private static final String                                          STORAGEHANDLER          = StorageHandler.class.getName();
+    private static final String                                          KEYHANDLER              = KeyHandler.class.getName();
+    private static final String                                          STORAGEHANDLER_INTERNAL = ConfigClassGenerator.STORAGEHANDLER.replace('.', '/');
+    private static final String                                          KEYHANDLER_INTERNAL     = ConfigClassGenerator.KEYHANDLER.replace('.', '/');
+    private static final String                                          STORAGEHANDLER_DESC     = "L" + ConfigClassGenerator.STORAGEHANDLER_INTERNAL + ";";
+    private static final String                                          KEYHANDLER_DESC         = "L" + ConfigClassGenerator.KEYHANDLER_INTERNAL + ";";
+    /*
+     * weak keys and values, so the cache does not pin the classloaders of the interfaces. Generated references the interface, its
+     * ConfigClassLoader references Generated, so an entry lives as long as the generated class is reachable
+     */
+    private static final WeakHashMap<Class<?>, WeakReference<Generated>> CACHE                   = new WeakHashMap<Class<?>, WeakReference<Generated>>();
+    /* cache value: interface cannot be compiled */
+    private static final WeakReference<Generated>                        NOT_COMPILABLE          = new WeakReference<Generated>(null);
+
+    /**
+     * @param storageHandler
+     * @return instance of a generated class or null if the interface cannot be compiled
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends ConfigInterface> T create(final StorageHandler<T> storageHandler) {
+        final Class<T> configInterface = storageHandler.getConfigInterface();
+        Generated generated;
+        synchronized (ConfigClassGenerator.CACHE) {
+            final WeakReference<Generated> ref = ConfigClassGenerator.CACHE.get(configInterface);
+            if (ref == ConfigClassGenerator.NOT_COMPILABLE) { return null; }
+            generated = ref == null ? null : ref.get();
+            if (generated == null) {
+                generated = ConfigClassGenerator.generate(storageHandler);
+                ConfigClassGenerator.CACHE.put(configInterface, generated == null ? ConfigClassGenerator.NOT_COMPILABLE : new WeakReference<Generated>(generated));
+                if (generated == null) { return null; }
+            }
+        }
+        try {
+            final KeyHandler<?>[] keyHandlers = new KeyHandler<?>[generated.methods.size()];
+            for (int i = 0; i < keyHandlers.length; i++) {
+                keyHandlers[i] = storageHandler.methodMap.get(generated.methods.get(i));
+                if (keyHandlers[i] == null) { return null; }
+            }
+            return (T) generated.clazz.getConstructor(StorageHandler.class, KeyHandler[].class).newInstance(storageHandler, keyHandlers);
+        } catch (final Throwable e) {
+            Log.L.log(Level.WARNING, "Could not create generated class for " + configInterface, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param c
+     * @return the descriptor of the type
+     */
+    private static String descriptor(final Class<?> c) {
+        if (c == void.class) { return "V"; }
+        if (c == boolean.class) { return "Z"; }
+        if (c == byte.class) { return "B"; }
+        if (c == char.class) { return "C"; }
+        if (c == short.class) { return "S"; }
+        if (c == int.class) { return "I"; }
+        if (c == long.class) { return "J"; }
+        if (c == float.class) { return "F"; }
+        if (c == double.class) { return "D"; }
+        if (c.isArray()) { return c.getName().replace('.', '/'); }
+        return "L" + c.getName().replace('.', '/') + ";";
+    }
+
+    private static String descriptor(final Method m) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append('(');
+        for (final Class<?> p : m.getParameterTypes()) {
+            sb.append(ConfigClassGenerator.descriptor(p));
+        }
+        sb.append(')');
+        sb.append(ConfigClassGenerator.descriptor(m.getReturnType()));
+        return sb.toString();
+    }
+
+    private static Generated generate(final StorageHandler<?> storageHandler) {
+        final Class<?> configInterface = storageHandler.getConfigInterface();
+        if (!ConfigClassGenerator.isAccessible(configInterface) || configInterface.getClassLoader() == null) { return null; }
+        try {
+            final String name = configInterface.getName() + "$$Generated";
+            final String internalName = name.replace('.', '/');
+            final ClassWriter cw = new ClassWriter();
+            /* one method per signature, the interface may inherit the same method more than once */
+            final LinkedHashMap<String, Method> signatures = new LinkedHashMap<String, Method>();
+            for (final Method m : configInterface.getMethods()) {
+                if (!Modifier.isStatic(m.getModifiers())) {
+                    signatures.put(m.getName() + ConfigClassGenerator.descriptor(m), m);
+                }
+            }
+            final ArrayList<Method> methods = new ArrayList<Method>();
+            ConfigClassGenerator.writeConstructor(cw, internalName);
+            ConfigClassGenerator.writeToString(cw, internalName);
+            for (final Method m : signatures.values()) {
+                if (!ConfigClassGenerator.isAccessible(m.getReturnType())) { return null; }
+                for (final Class<?> p : m.getParameterTypes()) {
+                    if (!ConfigClassGenerator.isAccessible(p)) { return null; }
+                }
+                final KeyHandler<?> handler = storageHandler.methodMap.get(m);
+                if (handler == null) {
+                    if ("toString".equals(m.getName()) && m.getParameterTypes().length == 0) {
+                        continue;
+                    }
+                    if ("_getStorageHandler".equals(m.getName()) && m.getParameterTypes().length == 0) {
+                        ConfigClassGenerator.writeGetStorageHandler(cw, internalName, m);
+                        continue;
+                    }
+                    /* the proxy would throw a WTFException */
+                    return null;
+                }
+                final int index = methods.size();
+                if (handler.isGetter(m)) {
+                    if (m.getParameterTypes().length != 0 || m.getReturnType() == void.class) { return null; }
+                    ConfigClassGenerator.writeGetter(cw, internalName, m, index);
+                } else {
+                    if (m.getParameterTypes().length != 1 || m.getReturnType().isPrimitive() && m.getReturnType() != void.class) { return null; }
+                    ConfigClassGenerator.writeSetter(cw, internalName, m, index);
+                }
+                methods.add(m);
+            }
+            final byte[] bytes = cw.toByteArray(internalName, configInterface.getName().replace('.', '/'));
+            final ConfigClassLoader loader = new ConfigClassLoader(configInterface.getClassLoader());
+            loader.generated = new Generated(loader.define(name, bytes), methods);
+            return loader.generated;
+        } catch (final Throwable e) {
+            Log.L.log(Level.WARNING, "Could not generate class for " + configInterface, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param c
+     * @return true if generated code in another ClassLoader may use this type
+     */
+    private static boolean isAccessible(Class<?> c) {
+        while (c.isArray()) {
+            c = c.getComponentType();
+        }
+        if (c.isPrimitive()) { return true; }
+        for (Class<?> x = c; x != null; x = x.getDeclaringClass()) {
+            if (!Modifier.isPublic(x.getModifiers())) { return false; }
+        }
+        return true;
+    }
+
+    private static void pushInt(final DataOutputStream out, final int value) throws IOException {
+        if (value <= 5) {
+            // iconst_x
+            out.writeByte(0x03 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            // bipush
+            out.writeByte(0x10);
+            out.writeByte(value);
+        } else {
+            // sipush
+            out.writeByte(0x11);
+            out.writeShort(value);
+        }
+    }
+
+    /**
+     * public X(StorageHandler h, KeyHandler[] k) { super(); this.h = h; this.k = k; }
+     */
+    private static void writeConstructor(final ClassWriter cw, final String internalName) throws IOException {
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(code);
+        // aload_0, invokespecial Object.<init>
+        out.writeByte(0x2a);
+        out.writeByte(0xb7);
+        out.writeShort(cw.methodRef("java/lang/Object", "<init>", "()V"));
+        // aload_0, aload_1, putfield h
+        out.writeByte(0x2a);
+        out.writeByte(0x2b);
+        out.writeByte(0xb5);
+        out.writeShort(cw.fieldRef(internalName, "h", ConfigClassGenerator.STORAGEHANDLER_DESC));
+        // aload_0, aload_2, putfield k
+        out.writeByte(0x2a);
+        out.writeByte(0x2c);
+        out.writeByte(0xb5);
+        out.writeShort(cw.fieldRef(internalName, "k", "[" + ConfigClassGenerator.KEYHANDLER_DESC));
+        // return
+        out.writeByte(0xb1);
+        out.close();
+        cw.method("<init>", "(" + ConfigClassGenerator.STORAGEHANDLER_DESC + "[" + ConfigClassGenerator.KEYHANDLER_DESC + ")V", 2, 3, code.toByteArray());
+    }
+
+    /**
+     * public T _getStorageHandler() { return this.h; }
+     */
+    private static void writeGetStorageHandler(final ClassWriter cw, final String internalName, final Method m) throws IOException {
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(code);
+        // aload_0, getfield h, areturn
+        out.writeByte(0x2a);
+        out.writeByte(0xb4);
+        out.writeShort(cw.fieldRef(internalName, "h", ConfigClassGenerator.STORAGEHANDLER_DESC));
+        out.writeByte(0xb0);
+        out.close();
+        cw.method(m.getName(), ConfigClassGenerator.descriptor(m), 1, 1, code.toByteArray());
+    }
+
+    /**
+     * public T getX() { return (T) this.h.getValue(this.k[index]); } with unboxing for primitives
+     */
+    private static void writeGetter(final ClassWriter cw, final String internalName, final Method m, final int index) throws IOException {
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(code);
+        // aload_0, getfield h
+        out.writeByte(0x2a);
+        out.writeByte(0xb4);
+        out.writeShort(cw.fieldRef(internalName, "h", ConfigClassGenerator.STORAGEHANDLER_DESC));
+        // aload_0, getfield k, push index, aaload
+        out.writeByte(0x2a);
+        out.writeByte(0xb4);
+        out.writeShort(cw.fieldRef(internalName, "k", "[" + ConfigClassGenerator.KEYHANDLER_DESC));
+        ConfigClassGenerator.pushInt(out, index);
+        out.writeByte(0x32);
+        // invokevirtual StorageHandler.getValue
+        out.writeByte(0xb6);
+        out.writeShort(cw.methodRef(ConfigClassGenerator.STORAGEHANDLER_INTERNAL, "getValue", "(" + ConfigClassGenerator.KEYHANDLER_DESC + ")Ljava/lang/Object;"));
+        final Class<?> ret = m.getReturnType();
+        if (ret.isPrimitive()) {
+            // checkcast wrapper, invokevirtual wrapper.xxxValue
+            final Class<?> wrapper = AccessorGenerator.getWrapper(ret);
+            out.writeByte(0xc0);
+            out.writeShort(cw.classRef(wrapper.getName().replace('.', '/')));
+            out.writeByte(0xb6);
+            out.writeShort(cw.methodRef(wrapper.getName().replace('.', '/'), ret.getName() + "Value", "()" + ConfigClassGenerator.descriptor(ret)));
+            if (ret == long.class) {
+                // lreturn
+                out.writeByte(0xad);
+            } else if (ret == float.class) {
+                // freturn
+                out.writeByte(0xae);
+            } else if (ret == double.class) {
+                // dreturn
+                out.writeByte(0xaf);
+            } else {
+                // ireturn
+                out.writeByte(0xac);
+            }
+        } else {
+            if (ret != Object.class) {
+                out.writeByte(0xc0);
+                out.writeShort(cw.classRef(ret.isArray() ? ConfigClassGenerator.descriptor(ret) : ret.getName().replace('.', '/')));
+            }
+            // areturn
+            out.writeByte(0xb0);
+        }
+        out.close();
+        cw.method(m.getName(), ConfigClassGenerator.descriptor(m), 3, 1, code.toByteArray());
+    }
+
+    /**
+     * public void setX(T value) { this.h.setValue(this.k[index], value); } with boxing for primitives
+     */
+    private static void writeSetter(final ClassWriter cw, final String internalName, final Method m, final int index) throws IOException {
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(code);
+        // aload_0, getfield h
+        out.writeByte(0x2a);
+        out.writeByte(0xb4);
+        out.writeShort(cw.fieldRef(internalName, "h", ConfigClassGenerator.STORAGEHANDLER_DESC));
+        // aload_0, getfield k, push index, aaload
+        out.writeByte(0x2a);
+        out.writeByte(0xb4);
+        out.writeShort(cw.fieldRef(internalName, "k", "[" + ConfigClassGenerator.KEYHANDLER_DESC));
+        ConfigClassGenerator.pushInt(out, index);
+        out.writeByte(0x32);
+        final Class<?> param = m.getParameterTypes()[0];
+        int locals = 2;
+        if (param.isPrimitive()) {
+            if (param == long.class) {
+                // lload_1
+                out.writeByte(0x1f);
+                locals = 3;
+            } else if (param == float.class) {
+                // fload_1
+                out.writeByte(0x23);
+            } else if (param == double.class) {
+                // dload_1
+                out.writeByte(0x27);
+                locals = 3;
+            } else {
+                // iload_1
+                out.writeByte(0x1b);
+            }
+            // box: invokestatic Wrapper.valueOf
+            final Class<?> wrapper = AccessorGenerator.getWrapper(param);
+            out.writeByte(0xb8);
+            out.writeShort(cw.methodRef(wrapper.getName().replace('.', '/'), "valueOf", "(" + ConfigClassGenerator.descriptor(param) + ")" + ConfigClassGenerator.descriptor(wrapper)));
+        } else {
+            // aload_1
+            out.writeByte(0x2b);
+        }
+        // invokevirtual StorageHandler.setValue
+        out.writeByte(0xb6);
+        out.writeShort(cw.methodRef(ConfigClassGenerator.STORAGEHANDLER_INTERNAL, "setValue", "(" + ConfigClassGenerator.KEYHANDLER_DESC + "Ljava/lang/Object;)V"));
+        if (m.getReturnType() == void.class) {
+            // return
+            out.writeByte(0xb1);
+        } else {
+            // aconst_null, areturn like the proxy
+            out.writeByte(0x01);
+            out.writeByte(0xb0);
+        }
+        out.close();
+        cw.method(m.getName(), ConfigClassGenerator.descriptor(m), 5, locals, code.toByteArray());
+    }
+
+    /**
+     * public String toString() { return this.h.toString(); }
+     */
+    private static void writeToString(final ClassWriter cw, final String internalName) throws IOException {
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(code);
+        // aload_0, getfield h, invokevirtual toString, areturn
+        out.writeByte(0x2a);
+        out.writeByte(0xb4);
+        out.writeShort(cw.fieldRef(internalName, "h", ConfigClassGenerator.STORAGEHANDLER_DESC));
+        out.writeByte(0xb6);
+        out.writeShort(cw.methodRef(ConfigClassGenerator.STORAGEHANDLER_INTERNAL, "toString", "()Ljava/lang/String;"));
+        out.writeByte(0xb0);
+        out.close();
+        cw.method("toString", "()Ljava/lang/String;", 1, 1, code.toByteArray());
+    }
+}
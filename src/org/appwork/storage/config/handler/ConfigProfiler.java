@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.config.handler
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.config.handler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.appwork.utils.logging.Log;
+
+/**
+ * profiles config access through the config interfaces (proxy and generated classes). Every {@link KeyHandler} gets its own
+ * {@link KeyProfile} on first profiled access, so a call does not allocate and threads do not share a lock. Cheap enough to stay
+ * enabled in production: -Dappwork.config.profiler=true or {@link #setEnabled(boolean)}. Profiles are held weakly, so a profiled
+ * {@link KeyHandler} can still be collected together with its config interface.
+ *
+ * @author thomas
+ *
+ */
+public class ConfigProfiler implements ConfigProfilerMBean {
+
+    private static final ConfigProfiler                            INSTANCE    = new ConfigProfiler();
+
+    public static final String                                     OBJECT_NAME = "org.appwork.storage.config:type=ConfigProfiler";
+    /* number of keys in getHotKeys */
+    public static int                                              HOT_KEYS    = 20;
+
+    public static ConfigProfiler getInstance() {
+        return ConfigProfiler.INSTANCE;
+    }
+
+    private volatile boolean                                       enabled     = "true".equals(System.getProperty("appwork.config.profiler"));
+    private final ConcurrentLinkedQueue<WeakReference<KeyProfile>> profiles    = new ConcurrentLinkedQueue<WeakReference<KeyProfile>>();
+    private boolean                                                registered  = false;
+
+    private ConfigProfiler() {
+    }
+
+    @Override
+    public long getGetCalls() {
+        long ret = 0;
+        for (final KeyProfile profile : this.getProfiles()) {
+            ret += profile.snapshot().getGetCalls();
+        }
+        return ret;
+    }
+
+    @Override
+    public String[] getHotKeys() {
+        final List<KeyProfile.Snapshot> snapshot = this.getSnapshot();
+        final String[] ret = new String[Math.min(ConfigProfiler.HOT_KEYS, snapshot.size())];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = snapshot.get(i).toString();
+        }
+        return ret;
+    }
+
+    /**
+     * @return profiles still in use, removes the collected ones
+     */
+    private List<KeyProfile> getProfiles() {
+        final ArrayList<KeyProfile> ret = new ArrayList<KeyProfile>();
+        final Iterator<WeakReference<KeyProfile>> it = this.profiles.iterator();
+        while (it.hasNext()) {
+            final KeyProfile profile = it.next().get();
+            if (profile == null) {
+                it.remove();
+            } else {
+                ret.add(profile);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public int getProfiledKeys() {
+        return this.getProfiles().size();
+    }
+
+    @Override
+    public long getSetCalls() {
+        long ret = 0;
+        for (final KeyProfile profile : this.getProfiles()) {
+            ret += profile.snapshot().getSetCalls();
+        }
+        return ret;
+    }
+
+    /**
+     * @return snapshots of all profiled keys, most time spent first
+     */
+    public List<KeyProfile.Snapshot> getSnapshot() {
+        final ArrayList<KeyProfile.Snapshot> ret = new ArrayList<KeyProfile.Snapshot>();
+        for (final KeyProfile profile : this.getProfiles()) {
+            ret.add(profile.snapshot());
+        }
+        Collections.sort(ret, new Comparator<KeyProfile.Snapshot>() {
+
+            @Override
+            public int compare(final KeyProfile.Snapshot o1, final KeyProfile.Snapshot o2) {
+                final long t1 = o1.getTotalNanos();
+                final long t2 = o2.getTotalNanos();
+                return t1 == t2 ? 0 : t1 > t2 ? -1 : 1;
+            }
+        });
+        return ret;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    protected void register(final KeyProfile profile) {
+        this.profiles.add(new WeakReference<KeyProfile>(profile));
+    }
+
+    /**
+     * registers the profiler at the platform MBeanServer
+     *
+     * @return true if registered
+     */
+    public synchronized boolean registerMBean() {
+        if (this.registered) { return true; }
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(ConfigProfiler.OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+            this.registered = true;
+        } catch (final Throwable e) {
+            Log.exception(e);
+        }
+        return this.registered;
+    }
+
+    @Override
+    public void reset() {
+        for (final KeyProfile profile : this.getProfiles()) {
+            profile.reset();
+        }
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * removes the profile, e.g. of a config interface that is not used anymore
+     *
+     * @param profile
+     */
+    public void unregister(final KeyProfile profile) {
+        final Iterator<WeakReference<KeyProfile>> it = this.profiles.iterator();
+        while (it.hasNext()) {
+            final KeyProfile next = it.next().get();
+            if (next == null || next == profile) {
+                it.remove();
+            }
+        }
+    }
+}
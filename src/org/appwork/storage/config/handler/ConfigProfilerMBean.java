@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.config.handler
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.config.handler;
+
+/**
+ * JMX view of the {@link ConfigProfiler}
+ *
+ * @author thomas
+ *
+ */
+public interface ConfigProfilerMBean {
+
+    public long getGetCalls();
+
+    /**
+     * @return the keys with the most time spent, one line per key
+     */
+    public String[] getHotKeys();
+
+    public int getProfiledKeys();
+
+    public long getSetCalls();
+
+    public boolean isEnabled();
+
+    public void reset();
+
+    public void setEnabled(boolean enabled);
+}
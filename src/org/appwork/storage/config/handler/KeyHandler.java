@@ -51,6 +51,8 @@ public abstract class KeyHandler<RawClass> {
 
     private static final String                 ANNOTATION_PACKAGE_NAME = CryptedStorage.class.getPackage().getName();
     private static final String                 PACKAGE_NAME            = PlainStorage.class.getPackage().getName();
+    /* marks an invalid snapshot, null is a valid value */
+    private static final Object                 NO_SNAPSHOT             = new Object();
     private final String                        key;
     protected Method                            getMethod               = null;
     protected Method                            setMethod               = null;                                        ;
@@ -62,6 +64,10 @@ public abstract class KeyHandler<RawClass> {
     private AbstractValidator<RawClass>         validatorFactory;
     private AbstractCustomValueGetter<RawClass> customValueGetter;
     protected String[]                          backwardsCompatibilityLookupKeys;
+    /* storage value, published by getValue and invalidated by setValue */
+    private volatile Object                     snapshot                = KeyHandler.NO_SNAPSHOT;
+    /* created on first profiled access, see ConfigProfiler */
+    private volatile KeyProfile                 profile                 = null;
 
     /**
      * @param storageHandler
@@ -252,6 +258,24 @@ public abstract class KeyHandler<RawClass> {
         return (Class<RawClass>) getMethod.getReturnType();
     }
 
+    /**
+     * @return access counters of this key, created and registered at the {@link ConfigProfiler} on first call
+     */
+    public KeyProfile getProfile() {
+        KeyProfile ret = this.profile;
+        if (ret == null) {
+            synchronized (this) {
+                ret = this.profile;
+                if (ret == null) {
+                    ret = new KeyProfile(this);
+                    ConfigProfiler.getInstance().register(ret);
+                    this.profile = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
     /**
      * @return
      */
@@ -436,14 +460,26 @@ public abstract class KeyHandler<RawClass> {
         }
     }
 
+    /**
+     * lock-free after the first call: the storage value is kept as snapshot until the next {@link #setValue(Object)} or
+     * {@link #invalidateSnapshot()}
+     */
+    @SuppressWarnings("unchecked")
     public RawClass getValue() {
-        synchronized (this) {
-            final RawClass value = this.getValueStorage();
-            if (this.customValueGetter != null) {
-                return this.customValueGetter.getValue(value);
+        Object value = this.snapshot;
+        if (value == KeyHandler.NO_SNAPSHOT) {
+            synchronized (this) {
+                value = this.snapshot;
+                if (value == KeyHandler.NO_SNAPSHOT) {
+                    value = this.getValueStorage();
+                    this.snapshot = value;
+                }
             }
-            return value;
         }
+        if (this.customValueGetter != null) {
+            return this.customValueGetter.getValue((RawClass) value);
+        }
+        return (RawClass) value;
     }
 
     public RawClass getValueStorage() {
@@ -477,6 +513,15 @@ public abstract class KeyHandler<RawClass> {
         return storage.get(this.getKey(), this.getDefaultValue());
     }
 
+    /**
+     * the next {@link #getValue()} reads from the storage again. Call it if the storage got changed without this handler
+     */
+    public void invalidateSnapshot() {
+        synchronized (this) {
+            this.snapshot = KeyHandler.NO_SNAPSHOT;
+        }
+    }
+
     public synchronized boolean hasEventListener() {
         return this.eventSender != null && this.eventSender.hasListener();
     }
@@ -645,7 +690,11 @@ public abstract class KeyHandler<RawClass> {
                     this.validatorFactory.validate(newValue);
                 }
                 this.validateValue(newValue);
-                this.putValue(newValue);
+                try {
+                    this.putValue(newValue);
+                } finally {
+                    this.snapshot = KeyHandler.NO_SNAPSHOT;
+                }
             }
             this.fireEvent(ConfigEvent.Types.VALUE_UPDATED, this, newValue);
         } catch (final ValidationException e) {
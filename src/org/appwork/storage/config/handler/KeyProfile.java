@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.config.handler
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.config.handler;
+
+import org.appwork.utils.StripedCounter;
+import org.appwork.utils.StripedCounterArray;
+
+/**
+ * access counters of one {@link KeyHandler}, see {@link ConfigProfiler}. Latencies are counted in a log2 histogram: bucket n holds calls
+ * that took less than 2^n ns
+ *
+ * @author thomas
+ *
+ */
+public class KeyProfile {
+
+    public static class Snapshot {
+        private final String id;
+        private final long   getCalls;
+        private final long   getNanos;
+        private final long[] getHistogram;
+        private final long   setCalls;
+        private final long   setNanos;
+        private final long[] setHistogram;
+
+        private Snapshot(final KeyProfile profile) {
+            this.id = profile.getId();
+            this.getCalls = profile.getCalls.sum();
+            this.getNanos = profile.getNanos.sum();
+            this.getHistogram = profile.getHistogram.toArray();
+            this.setCalls = profile.setCalls.sum();
+            this.setNanos = profile.setNanos.sum();
+            this.setHistogram = profile.setHistogram.toArray();
+        }
+
+        public long getGetCalls() {
+            return this.getCalls;
+        }
+
+        public long[] getGetHistogram() {
+            return this.getHistogram;
+        }
+
+        public long getGetNanos() {
+            return this.getNanos;
+        }
+
+        /**
+         * @param percentile
+         *            0.0-1.0
+         * @return upper bound in ns of the getter latency percentile
+         */
+        public long getGetPercentile(final double percentile) {
+            return KeyProfile.percentile(this.getHistogram, this.getCalls, percentile);
+        }
+
+        /**
+         * @return configinterface.key
+         */
+        public String getId() {
+            return this.id;
+        }
+
+        public long getSetCalls() {
+            return this.setCalls;
+        }
+
+        public long[] getSetHistogram() {
+            return this.setHistogram;
+        }
+
+        public long getSetNanos() {
+            return this.setNanos;
+        }
+
+        public long getSetPercentile(final double percentile) {
+            return KeyProfile.percentile(this.setHistogram, this.setCalls, percentile);
+        }
+
+        public long getTotalCalls() {
+            return this.getCalls + this.setCalls;
+        }
+
+        public long getTotalNanos() {
+            return this.getNanos + this.setNanos;
+        }
+
+        @Override
+        public String toString() {
+            return this.id + " gets=" + this.getCalls + " (" + this.getNanos / 1000 + "us p50<" + this.getGetPercentile(0.5) + "ns p99<" + this.getGetPercentile(0.99) + "ns) sets=" + this.setCalls + " (" + this.setNanos / 1000 + "us p99<" + this.getSetPercentile(0.99) + "ns)";
+        }
+    }
+
+    public static final int           BUCKETS      = 40;
+
+    private final KeyHandler<?>       keyHandler;
+    private final StripedCounter      getCalls     = new StripedCounter();
+    private final StripedCounter      getNanos     = new StripedCounter();
+    private final StripedCounterArray getHistogram = new StripedCounterArray(KeyProfile.BUCKETS);
+    private final StripedCounter      setCalls     = new StripedCounter();
+    private final StripedCounter      setNanos     = new StripedCounter();
+    private final StripedCounterArray setHistogram = new StripedCounterArray(KeyProfile.BUCKETS);
+
+    protected KeyProfile(final KeyHandler<?> keyHandler) {
+        this.keyHandler = keyHandler;
+    }
+
+    private static int bucket(final long nanos) {
+        return Math.min(KeyProfile.BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+    }
+
+    private static long percentile(final long[] histogram, final long calls, final double percentile) {
+        if (calls == 0) { return 0; }
+        final long limit = (long) Math.ceil(calls * percentile);
+        long sum = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            sum += histogram[i];
+            if (sum >= limit) { return 1l << i; }
+        }
+        return 1l << histogram.length - 1;
+    }
+
+    public String getId() {
+        return this.keyHandler.getStorageHandler().getConfigInterface().getName() + "." + this.keyHandler.getKey();
+    }
+
+    public KeyHandler<?> getKeyHandler() {
+        return this.keyHandler;
+    }
+
+    public void onGet(final long nanos) {
+        this.getCalls.increment();
+        this.getNanos.add(nanos);
+        this.getHistogram.increment(KeyProfile.bucket(nanos));
+    }
+
+    public void onSet(final long nanos) {
+        this.setCalls.increment();
+        this.setNanos.add(nanos);
+        this.setHistogram.increment(KeyProfile.bucket(nanos));
+    }
+
+    public void reset() {
+        this.getCalls.reset();
+        this.getNanos.reset();
+        this.setCalls.reset();
+        this.setNanos.reset();
+        this.getHistogram.reset();
+        this.setHistogram.reset();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+}
@@ -19,6 +19,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map.Entry;
 
@@ -34,6 +35,7 @@ import org.appwork.storage.Storage;
 import org.appwork.storage.StorageException;
 import org.appwork.storage.config.ConfigInterface;
 import org.appwork.storage.config.InterfaceParseException;
+import org.appwork.storage.config.ValidationException;
 import org.appwork.storage.config.annotations.AllowStorage;
 import org.appwork.storage.config.annotations.CryptedStorage;
 import org.appwork.storage.config.annotations.DefaultBooleanArrayValue;
@@ -43,6 +45,7 @@ import org.appwork.storage.config.annotations.DefaultFloatArrayValue;
 import org.appwork.storage.config.annotations.DefaultIntArrayValue;
 import org.appwork.storage.config.annotations.DefaultLongArrayValue;
 import org.appwork.storage.config.annotations.InitHook;
+import org.appwork.storage.config.annotations.JournalStorage;
 import org.appwork.storage.config.events.ConfigEvent;
 import org.appwork.storage.config.events.ConfigEventSender;
 import org.appwork.utils.Application;
@@ -59,11 +62,14 @@ import org.appwork.utils.swing.dialog.Dialog;
  */
 public class StorageHandler<T extends ConfigInterface> implements InvocationHandler {
 
-    protected static final DelayedRunnable SAVEDELAYER = new DelayedRunnable(5000, 30000) {
+    protected static final WriteBehindScheduler WRITEBEHIND = new WriteBehindScheduler();
+
+    /* own thread, flush does io and must not block the shared TimerWheel */
+    protected static final DelayedRunnable SAVEDELAYER = new DelayedRunnable(DelayedRunnable.getNewScheduledExecutorService(), 5000, 30000) {
 
         @Override
         public void delayedrun() {
-            StorageHandler.saveAll();
+            StorageHandler.WRITEBEHIND.flush(false);
         }
     };
     static {
@@ -127,6 +133,9 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
                 }
             };
         }
+        if (configInterface.getAnnotation(JournalStorage.class) != null) {
+            ret.setJournalEnabled(true);
+        }
         return ret;
     }
 
@@ -150,20 +159,26 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
         return null;
     }
 
-    public static void saveAll() {
+    /**
+     * @return copy of all registered handlers
+     */
+    static List<StorageHandler<?>> getStorageHandlers() {
         synchronized (StorageHandler.STORAGEMAP) {
-            for (final StorageHandler<?> storageHandler : StorageHandler.STORAGEMAP.keySet()) {
-                try {
-                    if (storageHandler.isSaveInShutdownHookEnabled()) {
-                        storageHandler.getPrimitiveStorage().save();
-                    }
-                } catch (final Throwable e) {
-                    e.printStackTrace();
-                }
-            }
+            return new ArrayList<StorageHandler<?>>(StorageHandler.STORAGEMAP.keySet());
         }
     }
 
+    public static WriteBehindScheduler getWriteBehindScheduler() {
+        return StorageHandler.WRITEBEHIND;
+    }
+
+    /**
+     * saves all storages, see {@link WriteBehindScheduler#flush(boolean)}
+     */
+    public static void saveAll() {
+        StorageHandler.WRITEBEHIND.flush(true);
+    }
+
     private final Class<T>                                  configInterface;
     protected final HashMap<Method, KeyHandler<?>>          methodMap                 = new HashMap<Method, KeyHandler<?>>();
     protected final Storage                                 primitiveStorage;
@@ -173,10 +188,6 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
 
     private String                                          relativCPPath;
 
-    // set externaly to start profiling
-    public static HashMap<String, Long>                     PROFILER_MAP              = null;
-    public static HashMap<String, Long>                     PROFILER_CALLNUM_MAP      = null;
-
     private volatile WriteStrategy                          writeStrategy             = null;
     private boolean                                         objectCacheEnabled        = true;
 
@@ -185,6 +196,8 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
     private static final HashMap<StorageHandler<?>, String> STORAGEMAP                = new HashMap<StorageHandler<?>, String>();
 
     boolean                                                 saveInShutdownHookEnabled = true;
+    /* storage reports changes via markDirty, see createSaveCallback */
+    private final boolean                                   dirtyTracked;
 
     /**
      * @param name
@@ -214,7 +227,8 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
             }
         }
         this.storageID = storageID;
-        this.primitiveStorage = StorageHandler.createPrimitiveStorage(this.path, null, configInterface, StorageHandler.SAVEDELAYER);
+        this.dirtyTracked = true;
+        this.primitiveStorage = StorageHandler.createPrimitiveStorage(this.path, null, configInterface, this.createSaveCallback());
         final CryptedStorage cryptedStorage = configInterface.getAnnotation(CryptedStorage.class);
         if (cryptedStorage != null) {
             this.validateKeys(cryptedStorage);
@@ -239,6 +253,7 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
             storagePath = storagePath.replaceFirst("\\.ejs$", "");
         }
         this.primitiveStorage = storage;
+        this.dirtyTracked = false;
         this.path = new File(storagePath);
         if (initHook != null) {
             try {
@@ -299,7 +314,8 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
             }
         }
         this.storageID = storageID;
-        this.primitiveStorage = StorageHandler.createPrimitiveStorage(Application.getResource(classPath), classPath, configInterface, StorageHandler.SAVEDELAYER);
+        this.dirtyTracked = true;
+        this.primitiveStorage = StorageHandler.createPrimitiveStorage(Application.getResource(classPath), classPath, configInterface, this.createSaveCallback());
         final CryptedStorage cryptedStorage = configInterface.getAnnotation(CryptedStorage.class);
         if (cryptedStorage != null) {
             this.validateKeys(cryptedStorage);
@@ -324,6 +340,17 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
         }
     }
 
+    private Runnable createSaveCallback() {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                StorageHandler.WRITEBEHIND.markDirty(StorageHandler.this);
+                StorageHandler.SAVEDELAYER.run();
+            }
+        };
+    }
+
     /**
      * @param key2
      * @param genericReturnType
@@ -649,6 +676,22 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
         return this.getKeyHandler(key).getValue();
     }
 
+    /**
+     * getter of the proxy and of generated config classes, see {@link ConfigProfiler}
+     * 
+     * @param handler
+     * @return
+     */
+    public Object getValue(final KeyHandler<?> handler) {
+        if (!ConfigProfiler.getInstance().isEnabled()) { return handler.getValue(); }
+        final long t = System.nanoTime();
+        try {
+            return handler.getValue();
+        } finally {
+            handler.getProfile().onGet(System.nanoTime() - t);
+        }
+    }
+
     public WriteStrategy getWriteStrategy() {
         return this.writeStrategy;
     }
@@ -657,54 +700,31 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
         return this.eventSender != null && this.eventSender.hasListener();
     }
 
-    @SuppressWarnings("unchecked")
     public Object invoke(final Object instance, final Method m, final Object[] parameter) throws Throwable {
         if (m != null) {
-            final long t = StorageHandler.PROFILER_MAP == null ? 0 : System.nanoTime();
-            try {
-                final KeyHandler<?> handler = this.methodMap.get(m);
-                if (handler != null) {
-                    if (handler.isGetter(m)) {
-                        return handler.getValue();
-                    } else {
-                        ((KeyHandler<Object>) handler).setValue(parameter[0]);
-                        if (this.writeStrategy != null) {
-                            this.writeStrategy.write(this, handler);
-                        }
-                        return null;
-                    }
-                } else if (m.getName().equals("toString")) {
-                    return this.toString();
-                    // } else if (m.getName().equals("addListener")) {
-                    // this.eventSender.addListener((ConfigEventListener)
-                    // parameter[0]);
-                    // return null;
-                    // } else if (m.getName().equals("removeListener")) {
-                    // this.eventSender.removeListener((ConfigEventListener)
-                    // parameter[0]);
-                    // return null;
-                } else if (m.getName().equals("_getStorageHandler")) {
-                    return this;
-
+            final KeyHandler<?> handler = this.methodMap.get(m);
+            if (handler != null) {
+                if (handler.isGetter(m)) {
+                    return this.getValue(handler);
                 } else {
-                    throw new WTFException(m + " ??? no keyhandler. This is not possible!");
-                }
-            } finally {
-                if (StorageHandler.PROFILER_MAP != null && m != null) {
-                    final long dur = System.nanoTime() - t;
-                    final String id = m.toString();
-                    Long g = StorageHandler.PROFILER_MAP.get(id);
-                    if (g == null) {
-                        g = 0l;
-                    }
-                    StorageHandler.PROFILER_MAP.put(id, g + dur);
-                }
-                if (StorageHandler.PROFILER_CALLNUM_MAP != null && m != null) {
-                    final String id = m.toString();
-                    final Long g = StorageHandler.PROFILER_CALLNUM_MAP.get(id);
-                    StorageHandler.PROFILER_CALLNUM_MAP.put(id, g == null ? 1 : g + 1);
+                    this.setValue(handler, parameter[0]);
+                    return null;
                 }
+            } else if (m.getName().equals("toString")) {
+                return this.toString();
+                // } else if (m.getName().equals("addListener")) {
+                // this.eventSender.addListener((ConfigEventListener)
+                // parameter[0]);
+                // return null;
+                // } else if (m.getName().equals("removeListener")) {
+                // this.eventSender.removeListener((ConfigEventListener)
+                // parameter[0]);
+                // return null;
+            } else if (m.getName().equals("_getStorageHandler")) {
+                return this;
 
+            } else {
+                throw new WTFException(m + " ??? no keyhandler. This is not possible!");
             }
         } else {
             // yes.... Method m may be null. this happens if we call a
@@ -720,6 +740,19 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
         return this.objectCacheEnabled;
     }
 
+    boolean isDirtyTracked() {
+        return this.dirtyTracked;
+    }
+
+    /**
+     * getters read from the storage again, see {@link KeyHandler#invalidateSnapshot()}
+     */
+    public void invalidateSnapshots() {
+        for (final KeyHandler<?> handler : this.methodMap.values()) {
+            handler.invalidateSnapshot();
+        }
+    }
+
     public boolean isSaveInShutdownHookEnabled() {
         return this.saveInShutdownHookEnabled;
     }
@@ -898,6 +931,29 @@ public class StorageHandler<T extends ConfigInterface> implements InvocationHand
         this.saveInShutdownHookEnabled = saveInShutdownHookEnabled;
     }
 
+    /**
+     * sets the value of a key and runs the {@link WriteStrategy}. Used by the proxy and by generated config classes, see
+     * {@link ConfigClassGenerator}
+     * 
+     * @param handler
+     * @param value
+     * @throws ValidationException
+     */
+    @SuppressWarnings("unchecked")
+    public void setValue(final KeyHandler<?> handler, final Object value) throws ValidationException {
+        final long t = ConfigProfiler.getInstance().isEnabled() ? System.nanoTime() : 0;
+        try {
+            ((KeyHandler<Object>) handler).setValue(value);
+            if (this.writeStrategy != null) {
+                this.writeStrategy.write(this, handler);
+            }
+        } finally {
+            if (t != 0) {
+                handler.getProfile().onSet(System.nanoTime() - t);
+            }
+        }
+    }
+
     public void setWriteStrategy(final WriteStrategy writeStrategy) {
         this.writeStrategy = writeStrategy;
     }
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.config.handler
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.config.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.appwork.storage.JsonKeyValueStorage;
+import org.appwork.storage.Storage;
+
+/**
+ * saves the storages of {@link StorageHandler}s. Handlers are marked dirty by their storage ({@link #markDirty(StorageHandler)}), a
+ * flush only saves the dirty ones and runs the saves in parallel on a small pool. The fsyncs of the single files are issued
+ * concurrently, so the filesystem can commit them together instead of one after another.
+ *
+ * @author thomas
+ *
+ */
+public class WriteBehindScheduler {
+
+    /* max. parallel saves */
+    public static int                    MAX_THREADS   = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final Set<StorageHandler<?>> dirty         = Collections.newSetFromMap(new ConcurrentHashMap<StorageHandler<?>, Boolean>());
+    private final Object                 flushLock     = new Object();
+    private volatile ThreadPoolExecutor  pool          = null;
+
+    private final AtomicLong             saves         = new AtomicLong(0);
+    private final AtomicLong             errors        = new AtomicLong(0);
+    private final AtomicLong             bytesWritten  = new AtomicLong(0);
+    private final AtomicLong             saveTime      = new AtomicLong(0);
+    private final AtomicLong             maxSaveTime   = new AtomicLong(0);
+    private final AtomicLong             flushes       = new AtomicLong(0);
+    private volatile long                lastFlushTime = 0;
+
+    /**
+     * saves all dirty handlers and the handlers that do not report changes (external {@link Storage})
+     *
+     * @param all
+     *            save every registered handler, e.g. on shutdown
+     */
+    public void flush(final boolean all) {
+        /* one flush at a time, a second save of the same storage must not return while the first one is still writing */
+        synchronized (this.flushLock) {
+            final long start = System.nanoTime();
+            final LinkedHashSet<StorageHandler<?>> handlers = new LinkedHashSet<StorageHandler<?>>();
+            final Iterator<StorageHandler<?>> it = this.dirty.iterator();
+            while (it.hasNext()) {
+                handlers.add(it.next());
+                it.remove();
+            }
+            for (final StorageHandler<?> handler : StorageHandler.getStorageHandlers()) {
+                if (all || !handler.isDirtyTracked()) {
+                    handlers.add(handler);
+                }
+            }
+            final List<StorageHandler<?>> save = new ArrayList<StorageHandler<?>>(handlers.size());
+            for (final StorageHandler<?> handler : handlers) {
+                if (handler.isSaveInShutdownHookEnabled() && handler.getPrimitiveStorage() != null) {
+                    save.add(handler);
+                }
+            }
+            this.save(save);
+            this.flushes.incrementAndGet();
+            this.lastFlushTime = System.nanoTime() - start;
+        }
+    }
+
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    public long getFlushes() {
+        return this.flushes.get();
+    }
+
+    /**
+     * @return duration of the last flush in ms
+     */
+    public long getLastFlushTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.lastFlushTime);
+    }
+
+    /**
+     * @return longest single save in ms
+     */
+    public long getMaxSaveTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxSaveTime.get());
+    }
+
+    /**
+     * @return number of handlers waiting for the next flush
+     */
+    public int getPendingDirty() {
+        return this.dirty.size();
+    }
+
+    private ThreadPoolExecutor getPool() {
+        ThreadPoolExecutor ret = this.pool;
+        if (ret == null) {
+            final AtomicInteger counter = new AtomicInteger(0);
+            ret = new ThreadPoolExecutor(WriteBehindScheduler.MAX_THREADS, WriteBehindScheduler.MAX_THREADS, 10000l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "StorageHandler:save:" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            ret.allowCoreThreadTimeOut(true);
+            this.pool = ret;
+        }
+        return ret;
+    }
+
+    public long getSaves() {
+        return this.saves.get();
+    }
+
+    /**
+     * @return total time of all saves in ms
+     */
+    public long getSaveTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.saveTime.get());
+    }
+
+    public void markDirty(final StorageHandler<?> handler) {
+        this.dirty.add(handler);
+    }
+
+    private void save(final Collection<StorageHandler<?>> handlers) {
+        if (handlers.size() == 0) {
+            return;
+        }
+        if (handlers.size() == 1 || WriteBehindScheduler.MAX_THREADS <= 1) {
+            for (final StorageHandler<?> handler : handlers) {
+                this.save(handler);
+            }
+            return;
+        }
+        /* only called within flushLock */
+        final ThreadPoolExecutor pool = this.getPool();
+        final List<Future<?>> futures = new ArrayList<Future<?>>(handlers.size());
+        for (final StorageHandler<?> handler : handlers) {
+            futures.add(pool.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    WriteBehindScheduler.this.save(handler);
+                }
+            }));
+        }
+        boolean interrupted = false;
+        for (final Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (final InterruptedException e) {
+                    /* the saves have to finish, e.g. in the shutdown hook */
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    e.printStackTrace();
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void save(final StorageHandler<?> handler) {
+        final Storage storage = handler.getPrimitiveStorage();
+        final long bytes = storage instanceof JsonKeyValueStorage ? ((JsonKeyValueStorage) storage).getBytesWritten() : 0;
+        final long start = System.nanoTime();
+        try {
+            storage.save();
+        } catch (final Throwable e) {
+            this.errors.incrementAndGet();
+            /* flush removed it from dirty, keep the changes and retry like a new change would, see StorageHandler#createSaveCallback */
+            this.markDirty(handler);
+            StorageHandler.SAVEDELAYER.run();
+            e.printStackTrace();
+        } finally {
+            final long duration = System.nanoTime() - start;
+            this.saves.incrementAndGet();
+            this.saveTime.addAndGet(duration);
+            long max;
+            while ((max = this.maxSaveTime.get()) < duration && !this.maxSaveTime.compareAndSet(max, duration)) {
+            }
+            if (storage instanceof JsonKeyValueStorage) {
+                this.bytesWritten.addAndGet(((JsonKeyValueStorage) storage).getBytesWritten() - bytes);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehind: saves=" + this.getSaves() + " errors=" + this.getErrors() + " bytes=" + this.getBytesWritten() + " saveTime=" + this.getSaveTime() + "ms maxSave=" + this.getMaxSaveTime() + "ms lastFlush=" + this.getLastFlushTime() + "ms pending=" + this.getPendingDirty();
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.config
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.config.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * config getter throughput with many reader threads and one writer, see {@link PerformanceTest} for single threaded timings
+ *
+ * @author thomas
+ *
+ */
+public class ConcurrentReadTest {
+
+    public static void main(final String[] args) throws InterruptedException {
+        final MyInterface cfg = MyInterface.CFG;
+        cfg.setInt(2);
+        for (final int threads : new int[] { 1, 2, 4, 8, 16 }) {
+            for (int round = 0; round < 2; round++) {
+                final long ops = ConcurrentReadTest.run(cfg, threads, 1000);
+                if (round > 0) {
+                    System.out.println(threads + " threads: " + ops / 1000 + "k getter calls/s");
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static long run(final MyInterface cfg, final int threads, final long duration) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong ops = new AtomicLong(0);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread("Reader:" + i) {
+                @Override
+                public void run() {
+                    long count = 0;
+                    long sum = 0;
+                    while (running.get()) {
+                        for (int x = 0; x < 1000; x++) {
+                            sum += cfg.getInt();
+                            if (cfg.getB2()) {
+                                sum++;
+                            }
+                            sum += cfg.getEnum().ordinal();
+                        }
+                        count += 3000;
+                    }
+                    if (sum == 42) {
+                        System.out.println();
+                    }
+                    ops.addAndGet(count);
+                    done.countDown();
+                }
+            }.start();
+        }
+        /* config changes while the readers are running */
+        final long end = System.currentTimeMillis() + duration;
+        int value = 1;
+        while (System.currentTimeMillis() < end) {
+            cfg.setInt(value++ % 10 + 1);
+            Thread.sleep(10);
+        }
+        running.set(false);
+        done.await();
+        if (cfg.getInt() != (value - 1) % 10 + 1) {
+            System.out.println("TEST FAILED: stale value " + cfg.getInt());
+        }
+        return ops.get() * 1000 / duration;
+    }
+}
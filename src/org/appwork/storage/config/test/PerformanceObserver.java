@@ -9,14 +9,8 @@
  */
 package org.appwork.storage.config.test;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
-
-import org.appwork.storage.config.handler.StorageHandler;
+import org.appwork.storage.config.handler.ConfigProfiler;
+import org.appwork.storage.config.handler.KeyProfile;
 
 /**
  * @author Thomas
@@ -24,8 +18,8 @@ import org.appwork.storage.config.handler.StorageHandler;
  */
 public class PerformanceObserver extends Thread {
 public PerformanceObserver(){
-    StorageHandler.PROFILER_MAP = new HashMap<String, Long>();
-    StorageHandler.PROFILER_CALLNUM_MAP=new HashMap<String, Long>();
+    ConfigProfiler.getInstance().setEnabled(true);
+    ConfigProfiler.getInstance().registerMBean();
    
 }
 
@@ -64,26 +58,8 @@ public PerformanceObserver(){
      */
     public void print() {
         if(profileMethods){
-            // /
-            java.util.List<Entry<String, Long>> entries = new ArrayList<Entry<String, Long>>();
-            for (Iterator<Entry<String, Long>> it = StorageHandler.PROFILER_MAP.entrySet().iterator(); it.hasNext();) {
-                entries.add(it.next());
-            }
-            Collections.sort(entries, new Comparator<Entry<String, Long>>() {
-
-                @Override
-                public int compare(Entry<String, Long> o1, Entry<String, Long> o2) {
-
-                    return o1.getValue().compareTo(o2.getValue());
-                }
-
-            });
-
-            for (Entry<String, Long> i : entries) {
-              Long invocations = StorageHandler.PROFILER_CALLNUM_MAP.get(i.getKey());
-              
-              
-                System.out.println((i.getValue() / 1000) / 1000f + "ms \t"+invocations+"#\t"+(i.getValue()/invocations)+"ns/i  " + i.getKey());
+            for (KeyProfile.Snapshot i : ConfigProfiler.getInstance().getSnapshot()) {
+                System.out.println((i.getTotalNanos() / 1000) / 1000f + "ms \t"+i.getTotalCalls()+"#\t"+(i.getTotalNanos()/Math.max(1, i.getTotalCalls()))+"ns/i  " + i);
             }
             }
             try {
@@ -0,0 +1,476 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.simplejson
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.simplejson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.CharBuffer;
+
+/**
+ * Incremental pull parser. Unlike {@link JSonFactory}, the input does not have
+ * to be available as one String and no JSonNode tree is built. Call
+ * {@link #nextToken()} until {@link JSonToken#END_DOCUMENT} is returned.
+ *
+ * The accepted syntax is the same as the one of {@link JSonFactory}.
+ *
+ * @author thomas
+ *
+ */
+public class JSonStreamParser {
+
+    private static final int    OBJECT     = 1;
+    private static final int    ARRAY      = 2;
+
+    /* container has just been opened */
+    private static final int    S_FIRST    = 0;
+    /* object: fieldname read, value expected */
+    private static final int    S_NAME     = 1;
+    /* value read, ',' or end of container expected */
+    private static final int    S_NEXT     = 2;
+    /* object: ',' read, next fieldname expected */
+    private static final int    S_COMMA    = 3;
+
+    private final Reader        reader;
+    private final CharBuffer    charBuffer;
+    private final char[]        buffer;
+    private int                 pos        = 0;
+    private int                 limit      = 0;
+    private long                offset     = 0;
+
+    private int[]               containers = new int[16];
+    private int[]               states     = new int[16];
+    private int                 depth      = 0;
+    private boolean             rootDone   = false;
+
+    private JSonToken           current    = null;
+    private final StringBuilder sb         = new StringBuilder();
+    private String              text;
+    private long                longValue;
+    private double              doubleValue;
+    private boolean             booleanValue;
+
+    public JSonStreamParser(final CharBuffer charBuffer) {
+        this.reader = null;
+        this.charBuffer = charBuffer;
+        this.buffer = new char[Math.max(16, Math.min(8192, charBuffer.remaining()))];
+    }
+
+    public JSonStreamParser(final InputStream is) {
+        this(JSonStreamParser.utf8(is));
+    }
+
+    public JSonStreamParser(final Reader reader) {
+        this.reader = reader;
+        this.charBuffer = null;
+        this.buffer = new char[8192];
+    }
+
+    public JSonStreamParser(final String json) {
+        this(CharBuffer.wrap(json));
+    }
+
+    private static Reader utf8(final InputStream is) {
+        try {
+            return new InputStreamReader(is, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ParserException bam(final String expected) {
+        return new ParserException(expected + " at offset " + Math.max(0, this.offset + this.pos - 1));
+    }
+
+    /**
+     * closes the underlying Reader/InputStream
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (this.reader != null) {
+            this.reader.close();
+        }
+    }
+
+    private boolean fill() throws ParserException {
+        this.offset += this.limit;
+        this.pos = 0;
+        this.limit = 0;
+        if (this.reader != null) {
+            try {
+                int read;
+                while ((read = this.reader.read(this.buffer)) == 0) {
+                }
+                if (read > 0) {
+                    this.limit = read;
+                }
+            } catch (final IOException e) {
+                throw new ParserException("Could not read json", e);
+            }
+        } else {
+            final int read = Math.min(this.buffer.length, this.charBuffer.remaining());
+            if (read > 0) {
+                this.charBuffer.get(this.buffer, 0, read);
+                this.limit = read;
+            }
+        }
+        return this.limit > 0;
+    }
+
+    public boolean getBooleanValue() {
+        return this.booleanValue;
+    }
+
+    public JSonToken getCurrentToken() {
+        return this.current;
+    }
+
+    public int getDepth() {
+        return this.depth;
+    }
+
+    public double getDoubleValue() {
+        return this.doubleValue;
+    }
+
+    public long getLongValue() {
+        return this.longValue;
+    }
+
+    /**
+     * @return the fieldname for {@link JSonToken#FIELD_NAME} or the string for
+     *         {@link JSonToken#VALUE_STRING}
+     */
+    public String getText() {
+        return this.text;
+    }
+
+    /**
+     * @return the current scalar value as String, Long, Double, Boolean or null
+     */
+    public Object getValue() {
+        switch (this.current) {
+        case VALUE_STRING:
+            return this.text;
+        case VALUE_LONG:
+            return this.longValue;
+        case VALUE_DOUBLE:
+            return this.doubleValue;
+        case VALUE_BOOLEAN:
+            return this.booleanValue;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return a {@link JSonValue} for the current scalar token
+     * @throws ParserException
+     */
+    public JSonValue getJSonValue() throws ParserException {
+        switch (this.current) {
+        case VALUE_STRING:
+            return new JSonValue(this.text);
+        case VALUE_LONG:
+            return new JSonValue(this.longValue);
+        case VALUE_DOUBLE:
+            return new JSonValue(this.doubleValue);
+        case VALUE_BOOLEAN:
+            return new JSonValue(this.booleanValue);
+        case VALUE_NULL:
+            return new JSonValue((String) null);
+        default:
+            throw this.bam("Value expected, but got " + this.current);
+        }
+    }
+
+    public JSonToken nextToken() throws ParserException {
+        if (this.current == JSonToken.END_DOCUMENT) { return JSonToken.END_DOCUMENT; }
+        int ch = this.skipWhiteSpace();
+        if (this.depth == 0) {
+            if (this.rootDone) {
+                if (ch != -1) { throw this.bam("Unexpected End of JSonString"); }
+                return this.current = JSonToken.END_DOCUMENT;
+            }
+            if (ch == -1) { throw this.bam("Ended unexpected"); }
+            return this.current = this.readValue(ch);
+        }
+        final int level = this.depth - 1;
+        if (this.containers[level] == JSonStreamParser.OBJECT) {
+            switch (this.states[level]) {
+            case S_FIRST:
+                if (ch == '}') { return this.current = this.pop(JSonToken.END_OBJECT); }
+                return this.current = this.readFieldName(ch, level);
+            case S_COMMA:
+                return this.current = this.readFieldName(ch, level);
+            case S_NAME:
+                if (ch != ':') { throw this.bam("':' expected"); }
+                ch = this.skipWhiteSpace();
+                if (ch == -1) { throw this.bam("Ended unexpected"); }
+                return this.current = this.readValue(ch);
+            default:
+                switch (ch) {
+                case ',':
+                    this.states[level] = JSonStreamParser.S_COMMA;
+                    return this.current = this.readFieldName(this.skipWhiteSpace(), level);
+                case '}':
+                    return this.current = this.pop(JSonToken.END_OBJECT);
+                case -1:
+                    throw this.bam("} or , expected");
+                default:
+                    throw this.bam(", or }' expected");
+                }
+            }
+        } else {
+            switch (this.states[level]) {
+            case S_FIRST:
+                if (ch == ']') { return this.current = this.pop(JSonToken.END_ARRAY); }
+                if (ch == ',') { throw this.bam("Value missing"); }
+                if (ch == -1) { throw this.bam("Ended unexpected"); }
+                return this.current = this.readValue(ch);
+            default:
+                switch (ch) {
+                case ',':
+                    /* JSonFactory accepts [1,2,] as well */
+                    this.states[level] = JSonStreamParser.S_FIRST;
+                    return this.nextToken();
+                case ']':
+                    return this.current = this.pop(JSonToken.END_ARRAY);
+                case -1:
+                    throw this.bam("Ended unexpected");
+                default:
+                    throw this.bam("']' or ',' expected");
+                }
+            }
+        }
+    }
+
+    private JSonToken pop(final JSonToken token) {
+        this.depth--;
+        this.valueDone();
+        return token;
+    }
+
+    private void push(final int container) {
+        if (this.depth == this.containers.length) {
+            final int[] newContainers = new int[this.depth * 2];
+            final int[] newStates = new int[this.depth * 2];
+            System.arraycopy(this.containers, 0, newContainers, 0, this.depth);
+            System.arraycopy(this.states, 0, newStates, 0, this.depth);
+            this.containers = newContainers;
+            this.states = newStates;
+        }
+        this.containers[this.depth] = container;
+        this.states[this.depth] = JSonStreamParser.S_FIRST;
+        this.depth++;
+    }
+
+    private int read() throws ParserException {
+        if (this.pos >= this.limit && !this.fill()) { return -1; }
+        return this.buffer[this.pos++];
+    }
+
+    private JSonToken readFieldName(final int ch, final int level) throws ParserException {
+        if (ch != '"') { throw this.bam("\" expected"); }
+        this.text = this.readString();
+        this.states[level] = JSonStreamParser.S_NAME;
+        return JSonToken.FIELD_NAME;
+    }
+
+    private void readLiteral(final String literal) throws ParserException {
+        for (int i = 1; i < literal.length(); i++) {
+            if (this.read() != literal.charAt(i)) { throw this.bam("'" + literal + "' expected"); }
+        }
+    }
+
+    /**
+     * Reads the complete current value (scalar, object or array) into a
+     * JSonNode. This can be used for sub trees that have to be handled by a
+     * node based api like the TypeMappers.
+     *
+     * @return
+     * @throws ParserException
+     */
+    public JSonNode readNode() throws ParserException {
+        switch (this.current) {
+        case START_OBJECT:
+            final JSonObject obj = new JSonObject();
+            while (this.nextToken() != JSonToken.END_OBJECT) {
+                final String key = this.text;
+                this.nextToken();
+                obj.put(key, this.readNode());
+            }
+            return obj;
+        case START_ARRAY:
+            final JSonArray arr = new JSonArray();
+            while (this.nextToken() != JSonToken.END_ARRAY) {
+                arr.add(this.readNode());
+            }
+            return arr;
+        default:
+            return this.getJSonValue();
+        }
+    }
+
+    private JSonToken readNumber(final int first) throws ParserException {
+        this.sb.setLength(0);
+        this.sb.append((char) first);
+        boolean pointFound = false;
+        boolean potFound = false;
+        while (true) {
+            if (this.pos >= this.limit && !this.fill()) {
+                break;
+            }
+            final char c = this.buffer[this.pos];
+            if (Character.isDigit(c) || !pointFound && c == '.' || pointFound && c == 'e' || pointFound && c == 'E' || potFound && c == '+' || potFound && c == '-') {
+                if (c == '.') {
+                    pointFound = true;
+                } else if (pointFound && (c == 'e' || c == 'E')) {
+                    potFound = true;
+                }
+                this.sb.append(c);
+                this.pos++;
+            } else {
+                break;
+            }
+        }
+        this.valueDone();
+        try {
+            if (pointFound) {
+                this.doubleValue = Double.parseDouble(this.sb.toString());
+                return JSonToken.VALUE_DOUBLE;
+            } else {
+                this.longValue = Long.parseLong(this.sb.toString());
+                return JSonToken.VALUE_LONG;
+            }
+        } catch (final NumberFormatException e) {
+            throw this.bam("Illegal Number " + this.sb);
+        }
+    }
+
+    private String readString() throws ParserException {
+        this.sb.setLength(0);
+        int c;
+        while (true) {
+            c = this.read();
+            switch (c) {
+            case -1:
+                throw this.bam("Unexpected End of String \"" + this.sb.toString());
+            case '\"':
+                return this.sb.toString();
+            case '\\':
+                c = this.read();
+                switch (c) {
+                case '"':
+                case '/':
+                case '\\':
+                    this.sb.append((char) c);
+                    continue;
+                case 'r':
+                    this.sb.append('\r');
+                    continue;
+                case 'n':
+                    this.sb.append('\n');
+                    continue;
+                case 't':
+                    this.sb.append('\t');
+                    continue;
+                case 'f':
+                    this.sb.append('\f');
+                    continue;
+                case 'b':
+                    this.sb.append('\b');
+                    continue;
+                case 'u':
+                    int unicode = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(this.read(), 16);
+                        if (digit < 0) { throw this.bam("illegal unicode escape"); }
+                        unicode = unicode << 4 | digit;
+                    }
+                    this.sb.append((char) unicode);
+                    continue;
+                case -1:
+                    throw this.bam("Unexpected End of String \"" + this.sb.toString());
+                default:
+                    throw this.bam("illegal escape char");
+                }
+            default:
+                this.sb.append((char) c);
+            }
+        }
+    }
+
+    private JSonToken readValue(final int ch) throws ParserException {
+        switch (ch) {
+        case '{':
+            this.push(JSonStreamParser.OBJECT);
+            return JSonToken.START_OBJECT;
+        case '[':
+            this.push(JSonStreamParser.ARRAY);
+            return JSonToken.START_ARRAY;
+        case '"':
+            this.text = this.readString();
+            this.valueDone();
+            return JSonToken.VALUE_STRING;
+        case 'n':
+            this.readLiteral("null");
+            this.valueDone();
+            return JSonToken.VALUE_NULL;
+        case 't':
+            this.readLiteral("true");
+            this.booleanValue = true;
+            this.valueDone();
+            return JSonToken.VALUE_BOOLEAN;
+        case 'f':
+            this.readLiteral("false");
+            this.booleanValue = false;
+            this.valueDone();
+            return JSonToken.VALUE_BOOLEAN;
+        }
+        if (ch == '+' || ch == '-' || Character.isDigit(ch)) { return this.readNumber(ch); }
+        throw this.bam("Illegal Char");
+    }
+
+    /**
+     * skips all tokens of the current object or array. Afterwards, the current
+     * token is the matching END_OBJECT or END_ARRAY. Does nothing if the
+     * current token is a scalar
+     *
+     * @throws ParserException
+     */
+    public void skipChildren() throws ParserException {
+        if (this.current != JSonToken.START_OBJECT && this.current != JSonToken.START_ARRAY) { return; }
+        final int target = this.depth - 1;
+        while (true) {
+            final JSonToken t = this.nextToken();
+            if ((t == JSonToken.END_OBJECT || t == JSonToken.END_ARRAY) && this.depth == target) { return; }
+        }
+    }
+
+    private int skipWhiteSpace() throws ParserException {
+        int ch;
+        while ((ch = this.read()) != -1) {
+            if (!Character.isWhitespace(ch)) { return ch; }
+        }
+        return -1;
+    }
+
+    private void valueDone() {
+        if (this.depth == 0) {
+            this.rootDone = true;
+        } else {
+            this.states[this.depth - 1] = JSonStreamParser.S_NEXT;
+        }
+    }
+}
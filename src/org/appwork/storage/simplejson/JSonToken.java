@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.simplejson
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.simplejson;
+
+/**
+ * Events returned by {@link JSonStreamParser#nextToken()}
+ *
+ * @author thomas
+ *
+ */
+public enum JSonToken {
+    START_OBJECT,
+    END_OBJECT,
+    START_ARRAY,
+    END_ARRAY,
+    FIELD_NAME,
+    VALUE_STRING,
+    VALUE_LONG,
+    VALUE_DOUBLE,
+    VALUE_BOOLEAN,
+    VALUE_NULL,
+    END_DOCUMENT;
+
+    public boolean isValue() {
+        switch (this) {
+        case VALUE_STRING:
+        case VALUE_LONG:
+        case VALUE_DOUBLE:
+        case VALUE_BOOLEAN:
+        case VALUE_NULL:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -9,7 +9,7 @@
  */
 package org.appwork.storage.simplejson;
 
-import java.util.Locale;
+import java.io.IOException;
 
 import org.appwork.utils.formatter.HexFormatter;
 
@@ -19,56 +19,80 @@ import org.appwork.utils.formatter.HexFormatter;
  */
 public class JSonUtils {
 
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
     public static String escape(final String s) {
-        final StringBuilder sb = new StringBuilder();
+        final StringBuilder sb = new StringBuilder(s.length() + 16);
+        try {
+            JSonUtils.escape(s, sb);
+        } catch (final IOException e) {
+            // StringBuilder does not throw IOExceptions
+            throw new RuntimeException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * appends the escaped string to out. Unchanged runs are appended as one
+     * block
+     * 
+     * @param s
+     * @param out
+     * @throws IOException
+     */
+    public static void escape(final String s, final Appendable out) throws IOException {
         char ch;
-        String ss;
-        for (int i = 0; i < s.length(); i++) {
+        int start = 0;
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
             ch = s.charAt(i);
+            if (ch >= '\u0020' && ch != '"' && ch != '\\' && (ch < '\u007F' || ch > '\u009F' && (ch < '\u2000' || ch > '\u20FF'))) {
+                continue;
+            }
+            if (start < i) {
+                out.append(s, start, i);
+            }
+            start = i + 1;
             switch (ch) {
             case '"':
-                sb.append("\\\"");
+                out.append("\\\"");
                 continue;
             case '\\':
-                sb.append("\\\\");
+                out.append("\\\\");
                 continue;
             case '\b':
-                sb.append("\\b");
+                out.append("\\b");
                 continue;
             case '\f':
-                sb.append("\\f");
+                out.append("\\f");
                 continue;
             case '\n':
-                sb.append("\\n");
+                out.append("\\n");
                 continue;
             case '\r':
-                sb.append("\\r");
+                out.append("\\r");
                 continue;
             case '\t':
-                sb.append("\\t");
+                out.append("\\t");
                 continue;
             }
-
             // '\u0000' && ch <= '\u001F' are controll characters )(
             // http://www.ietf.org/rfc/rfc4627.txt 5.2 Strings)
             // the text says U+0000 >>> to U+001F but the syntax diagram just
             // says control character, which in >>> Unicode 6.3 also includes
             // U+007F to U+009F
             // http://www.unicode.org/charts/PDF/U2000.pdf
-            if (ch >= '\u0000' && ch <= '\u001F' || ch >= '\u007F' && ch <= '\u009F' || ch >= '\u2000' && ch <= '\u20FF') {
-                ss = Integer.toHexString(ch);
-                sb.append("\\u");
-                for (int k = 0; k < 4 - ss.length(); k++) {
-                    sb.append('0');
-                }
-                sb.append(ss.toUpperCase(Locale.ENGLISH));
-                continue;
-            }
-
-            sb.append(ch);
-
+            out.append("\\u");
+            out.append(JSonUtils.HEX[ch >> 12 & 0xF]);
+            out.append(JSonUtils.HEX[ch >> 8 & 0xF]);
+            out.append(JSonUtils.HEX[ch >> 4 & 0xF]);
+            out.append(JSonUtils.HEX[ch & 0xF]);
+        }
+        if (start == 0) {
+            out.append(s);
+        } else if (start < length) {
+            out.append(s, start, length);
         }
-        return sb.toString();
     }
 
     public static void main(final String[] args) {
@@ -0,0 +1,347 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.simplejson.mapper
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.simplejson.mapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.appwork.utils.logging.Log;
+
+/**
+ * Generates {@link MethodAccessor} classes that call a getter or setter
+ * directly instead of using {@link Method#invoke(Object, Object...)}. The
+ * classes are created once per ClassCache and defined in a ClassLoader that
+ * delegates to the loader of the mapped class. Only public methods of public
+ * classes can be compiled. For all other methods, {@link #createGetter(Method)}
+ * and {@link #createSetter(Method)} return null and the reflective invoke has
+ * to be used.
+ *
+ * @author thomas
+ *
+ */
+public class AccessorGenerator {
+
+    private static class AccessorClassLoader extends ClassLoader {
+
+        public AccessorClassLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        public Class<?> define(final String name, final byte[] b) {
+            return this.defineClass(name, b, 0, b.length);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (AccessorGenerator.ACCESSOR_NAME.equals(name)) { return MethodAccessor.class; }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    /**
+     * Minimal class file writer. Creates Java 5 (49.0) class files, so no
+     * StackMapTable is required
+     */
+    private static class ClassWriter {
+        private final ArrayList<byte[]>        pool  = new ArrayList<byte[]>();
+        private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+
+        private int add(final String key, final byte[] entry) {
+            Integer ret = this.index.get(key);
+            if (ret == null) {
+                this.pool.add(entry);
+                ret = this.pool.size();
+                this.index.put(key, ret);
+            }
+            return ret;
+        }
+
+        public int classRef(final String internalName) throws IOException {
+            final int name = this.utf8(internalName);
+            return this.add("C" + internalName, new byte[] { 7, (byte) (name >> 8), (byte) name });
+        }
+
+        public int methodRef(final String owner, final String name, final String desc) throws IOException {
+            final int c = this.classRef(owner);
+            final int n = this.utf8(name);
+            final int d = this.utf8(desc);
+            final int nat = this.add("N" + name + desc, new byte[] { 12, (byte) (n >> 8), (byte) n, (byte) (d >> 8), (byte) d });
+            return this.add("M" + owner + "." + name + desc, new byte[] { 10, (byte) (c >> 8), (byte) c, (byte) (nat >> 8), (byte) nat });
+        }
+
+        public int utf8(final String str) throws IOException {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeByte(1);
+            dos.writeUTF(str);
+            return this.add("U" + str, bos.toByteArray());
+        }
+
+        public byte[] toByteArray(final String name, final byte[] invokeCode) throws IOException {
+            final int thisClass = this.classRef(name);
+            final int superClass = this.classRef(AccessorGenerator.ACCESSOR_INTERNAL_NAME);
+            final int superInit = this.methodRef(AccessorGenerator.ACCESSOR_INTERNAL_NAME, "<init>", "()V");
+            final int init = this.utf8("<init>");
+            final int initDesc = this.utf8("()V");
+            final int invoke = this.utf8("invoke");
+            final int invokeDesc = this.utf8("(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            final int code = this.utf8("Code");
+
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(this.pool.size() + 1);
+            for (final byte[] entry : this.pool) {
+                out.write(entry);
+            }
+            // public final super
+            out.writeShort(0x0031);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            // interfaces, fields
+            out.writeShort(0);
+            out.writeShort(0);
+            // methods
+            out.writeShort(2);
+            // public <init>() { super(); }
+            out.writeShort(Modifier.PUBLIC);
+            out.writeShort(init);
+            out.writeShort(initDesc);
+            out.writeShort(1);
+            out.writeShort(code);
+            out.writeInt(12 + 5);
+            out.writeShort(1);
+            out.writeShort(1);
+            out.writeInt(5);
+            out.write(new byte[] { 0x2a, (byte) 0xb7, (byte) (superInit >> 8), (byte) superInit, (byte) 0xb1 });
+            out.writeShort(0);
+            out.writeShort(0);
+            // public Object invoke(Object obj, Object value)
+            out.writeShort(Modifier.PUBLIC);
+            out.writeShort(invoke);
+            out.writeShort(invokeDesc);
+            out.writeShort(1);
+            out.writeShort(code);
+            out.writeInt(12 + invokeCode.length);
+            out.writeShort(4);
+            out.writeShort(3);
+            out.writeInt(invokeCode.length);
+            out.write(invokeCode);
+            out.writeShort(0);
+            out.writeShort(0);
+            // class attributes
+            out.writeShort(0);
+            out.close();
+            return bos.toByteArray();
+        }
+    }
+
+    private static final String               ACCESSOR_NAME          = MethodAccessor.class.getName();
+    private static final String               ACCESSOR_INTERNAL_NAME = AccessorGenerator.ACCESSOR_NAME.replace('.', '/');
+    private static final AtomicInteger        COUNTER                = new AtomicInteger(0);
+    private static final HashMap<Class<?>, Class<?>> WRAPPER         = new HashMap<Class<?>, Class<?>>();
+    static {
+        AccessorGenerator.WRAPPER.put(boolean.class, Boolean.class);
+        AccessorGenerator.WRAPPER.put(byte.class, Byte.class);
+        AccessorGenerator.WRAPPER.put(char.class, Character.class);
+        AccessorGenerator.WRAPPER.put(short.class, Short.class);
+        AccessorGenerator.WRAPPER.put(int.class, Integer.class);
+        AccessorGenerator.WRAPPER.put(long.class, Long.class);
+        AccessorGenerator.WRAPPER.put(float.class, Float.class);
+        AccessorGenerator.WRAPPER.put(double.class, Double.class);
+    }
+
+    /**
+     * @param c
+     * @return the descriptor of the type
+     */
+    private static String descriptor(final Class<?> c) {
+        if (c == void.class) { return "V"; }
+        if (c == boolean.class) { return "Z"; }
+        if (c == byte.class) { return "B"; }
+        if (c == char.class) { return "C"; }
+        if (c == short.class) { return "S"; }
+        if (c == int.class) { return "I"; }
+        if (c == long.class) { return "J"; }
+        if (c == float.class) { return "F"; }
+        if (c == double.class) { return "D"; }
+        if (c.isArray()) { return c.getName().replace('.', '/'); }
+        return "L" + c.getName().replace('.', '/') + ";";
+    }
+
+    private static String descriptor(final Method m) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append('(');
+        for (final Class<?> p : m.getParameterTypes()) {
+            sb.append(AccessorGenerator.descriptor(p));
+        }
+        sb.append(')');
+        sb.append(AccessorGenerator.descriptor(m.getReturnType()));
+        return sb.toString();
+    }
+
+    /**
+     * @param primitive
+     * @return the wrapper class of a primitive type
+     */
+    public static Class<?> getWrapper(final Class<?> primitive) {
+        return AccessorGenerator.WRAPPER.get(primitive);
+    }
+
+    private static String internalName(final Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+
+    /**
+     * @param c
+     * @return true if generated code in another ClassLoader may use this type
+     */
+    private static boolean isAccessible(Class<?> c) {
+        while (c.isArray()) {
+            c = c.getComponentType();
+        }
+        if (c.isPrimitive()) { return true; }
+        for (Class<?> x = c; x != null; x = x.getDeclaringClass()) {
+            if (!Modifier.isPublic(x.getModifiers())) { return false; }
+        }
+        return true;
+    }
+
+    private final Class<?>            clazz;
+
+    private AccessorClassLoader       loader;
+
+    /**
+     * @param clazz
+     *            the mapped class
+     */
+    public AccessorGenerator(final Class<?> clazz) {
+        this.clazz = clazz;
+    }
+
+    private boolean canCompile(final Method m) {
+        // bootstrap classes (jdk) are not compiled
+        if (this.clazz.getClassLoader() == null) { return false; }
+        final Class<?> decl = m.getDeclaringClass();
+        if (decl.isInterface() || !Modifier.isPublic(m.getModifiers()) || Modifier.isStatic(m.getModifiers())) { return false; }
+        return AccessorGenerator.isAccessible(decl);
+    }
+
+    private MethodAccessor create(final Method m, final byte[] code, final ClassWriter cw) {
+        try {
+            final String name = AccessorGenerator.ACCESSOR_INTERNAL_NAME + "$" + AccessorGenerator.COUNTER.incrementAndGet();
+            final byte[] bytes = cw.toByteArray(name, code);
+            if (this.loader == null) {
+                this.loader = new AccessorClassLoader(this.clazz.getClassLoader());
+            }
+            return (MethodAccessor) this.loader.define(name.replace('/', '.'), bytes).newInstance();
+        } catch (final Throwable e) {
+            Log.L.log(Level.FINER, "Could not compile accessor for " + m, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param m
+     *            getter without parameters
+     * @return compiled accessor or null
+     */
+    public MethodAccessor createGetter(final Method m) {
+        if (!this.canCompile(m) || m.getReturnType() == void.class) { return null; }
+        try {
+            final ClassWriter cw = new ClassWriter();
+            final Class<?> decl = m.getDeclaringClass();
+            final ByteArrayOutputStream code = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(code);
+            // aload_1, checkcast decl
+            out.writeByte(0x2b);
+            out.writeByte(0xc0);
+            out.writeShort(cw.classRef(AccessorGenerator.internalName(decl)));
+            // invokevirtual
+            out.writeByte(0xb6);
+            out.writeShort(cw.methodRef(AccessorGenerator.internalName(decl), m.getName(), AccessorGenerator.descriptor(m)));
+            final Class<?> ret = m.getReturnType();
+            if (ret.isPrimitive()) {
+                // box: invokestatic Wrapper.valueOf
+                final Class<?> wrapper = AccessorGenerator.getWrapper(ret);
+                out.writeByte(0xb8);
+                out.writeShort(cw.methodRef(AccessorGenerator.internalName(wrapper), "valueOf", "(" + AccessorGenerator.descriptor(ret) + ")" + AccessorGenerator.descriptor(wrapper)));
+            }
+            // areturn
+            out.writeByte(0xb0);
+            out.close();
+            return this.create(m, code.toByteArray(), cw);
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param m
+     *            setter with one parameter
+     * @return compiled accessor or null. The accessor expects a parameter of
+     *         the exact parameter type, or the wrapper type for primitives.
+     *         Everything else has to be passed to the reflective invoke
+     */
+    public MethodAccessor createSetter(final Method m) {
+        if (!this.canCompile(m) || m.getParameterTypes().length != 1) { return null; }
+        final Class<?> param = m.getParameterTypes()[0];
+        if (!AccessorGenerator.isAccessible(param)) { return null; }
+        try {
+            final ClassWriter cw = new ClassWriter();
+            final Class<?> decl = m.getDeclaringClass();
+            final ByteArrayOutputStream code = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(code);
+            // aload_1, checkcast decl
+            out.writeByte(0x2b);
+            out.writeByte(0xc0);
+            out.writeShort(cw.classRef(AccessorGenerator.internalName(decl)));
+            // aload_2
+            out.writeByte(0x2c);
+            if (param.isPrimitive()) {
+                // checkcast wrapper, invokevirtual wrapper.xxxValue
+                final Class<?> wrapper = AccessorGenerator.getWrapper(param);
+                out.writeByte(0xc0);
+                out.writeShort(cw.classRef(AccessorGenerator.internalName(wrapper)));
+                out.writeByte(0xb6);
+                out.writeShort(cw.methodRef(AccessorGenerator.internalName(wrapper), param.getName() + "Value", "()" + AccessorGenerator.descriptor(param)));
+            } else if (param != Object.class) {
+                out.writeByte(0xc0);
+                out.writeShort(cw.classRef(param.isArray() ? AccessorGenerator.descriptor(param) : AccessorGenerator.internalName(param)));
+            }
+            out.writeByte(0xb6);
+            out.writeShort(cw.methodRef(AccessorGenerator.internalName(decl), m.getName(), AccessorGenerator.descriptor(m)));
+            final Class<?> ret = m.getReturnType();
+            if (ret == long.class || ret == double.class) {
+                // pop2
+                out.writeByte(0x58);
+            } else if (ret != void.class) {
+                // pop
+                out.writeByte(0x57);
+            }
+            // aconst_null, areturn
+            out.writeByte(0x01);
+            out.writeByte(0xb0);
+            out.close();
+            return this.create(m, code.toByteArray(), cw);
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+}
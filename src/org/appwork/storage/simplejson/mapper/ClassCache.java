@@ -10,13 +10,19 @@
 package org.appwork.storage.simplejson.mapper;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
+import org.appwork.storage.Storable;
 import org.appwork.storage.simplejson.Ignore;
 import org.appwork.storage.simplejson.Ignores;
 import org.appwork.utils.logging.Log;
@@ -26,9 +32,16 @@ import org.appwork.utils.logging.Log;
  * 
  */
 public class ClassCache {
-    private static final HashMap<Class<?>, ClassCache> CACHE        = new HashMap<Class<?>, ClassCache>();
-    private static final Object[]                      EMPTY_OBJECT = new Object[] {};
-    private static final Class<?>[]                    EMPTY_TYPES  = new Class[] {};
+    /* lock free reads. new caches are created under CREATE_LOCK */
+    private static final ConcurrentHashMap<Class<?>, ClassCache> CACHE               = new ConcurrentHashMap<Class<?>, ClassCache>(64, 0.75f, 4);
+    private static final Object                                  CREATE_LOCK         = new Object();
+    static final Object[]                                        EMPTY_OBJECT        = new Object[] {};
+    private static final Class<?>[]                              EMPTY_TYPES         = new Class[] {};
+    /**
+     * compile getters and setters with {@link AccessorGenerator}. Methods that
+     * cannot be compiled use reflection
+     */
+    public static boolean                                        GENERATED_ACCESSORS = true;
 
     /**
      * @param clazz
@@ -75,6 +88,15 @@ public class ClassCache {
 
             }
         } while ((cls = cls.getSuperclass()) != null && cls != Object.class);
+        if (ClassCache.GENERATED_ACCESSORS) {
+            final AccessorGenerator generator = new AccessorGenerator(clazz);
+            for (final Getter getter : cc.getter) {
+                getter.setAccessor(generator.createGetter(getter.getMethod()));
+            }
+            for (final Setter setter : cc.setter) {
+                setter.setAccessor(generator.createSetter(setter.getMethod()));
+            }
+        }
         // we do not want to serialize object's getter
         for (final Constructor<?> c : clazz.getDeclaredConstructors()) {
             if (c.getParameterTypes().length == 0) {
@@ -135,12 +157,59 @@ public class ClassCache {
     public static ClassCache getClassCache(final Class<? extends Object> clazz) throws SecurityException, NoSuchMethodException {
         ClassCache cc = ClassCache.CACHE.get(clazz);
         if (cc == null) {
-            cc = ClassCache.create(clazz);
-            ClassCache.CACHE.put(clazz, cc);
+            synchronized (ClassCache.CREATE_LOCK) {
+                // another thread may have created it in the meantime
+                cc = ClassCache.CACHE.get(clazz);
+                if (cc == null) {
+                    cc = ClassCache.create(clazz);
+                    ClassCache.CACHE.put(clazz, cc);
+                }
+            }
         }
         return cc;
     }
 
+    /**
+     * Creates the caches for the given classes and all Storable classes that
+     * are reachable through their getters, so the first (de)serialization
+     * does not have to pay for the introspection. Call this at startup for
+     * the known Storable types.
+     * 
+     * @param classes
+     */
+    public static void prepare(final Class<?>... classes) {
+        final HashSet<Type> dupe = new HashSet<Type>();
+        for (final Class<?> clazz : classes) {
+            ClassCache.prepare(clazz, dupe);
+        }
+    }
+
+    private static void prepare(final Type type, final HashSet<Type> dupe) {
+        if (type == null || !dupe.add(type)) { return; }
+        if (type instanceof ParameterizedType) {
+            ClassCache.prepare(((ParameterizedType) type).getRawType(), dupe);
+            for (final Type t : ((ParameterizedType) type).getActualTypeArguments()) {
+                ClassCache.prepare(t, dupe);
+            }
+        } else if (type instanceof GenericArrayType) {
+            ClassCache.prepare(((GenericArrayType) type).getGenericComponentType(), dupe);
+        } else if (type instanceof Class) {
+            final Class<?> clazz = (Class<?>) type;
+            if (clazz.isArray()) {
+                ClassCache.prepare(clazz.getComponentType(), dupe);
+            } else if (Storable.class.isAssignableFrom(clazz) && !clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers())) {
+                try {
+                    final ClassCache cc = ClassCache.getClassCache(clazz);
+                    for (final Getter g : cc.getGetter()) {
+                        ClassCache.prepare(g.getMethod().getGenericReturnType(), dupe);
+                    }
+                } catch (final Throwable e) {
+                    Log.exception(Level.WARNING, e);
+                }
+            }
+        }
+    }
+
     protected Constructor<? extends Object> constructor;
 
     protected final Class<? extends Object> clazz;
@@ -20,8 +20,9 @@ import org.appwork.storage.config.annotations.JSonFieldName;
  */
 public class Getter {
 
-    private final String key;
-    private final Method method;
+    private final String   key;
+    private final Method   method;
+    private MethodAccessor accessor;
 
     /**
      * @param substring
@@ -42,6 +43,10 @@ public class Getter {
         return this.key;
     }
 
+    public MethodAccessor getAccessor() {
+        return this.accessor;
+    }
+
     public Method getMethod() {
         return this.method;
     }
@@ -54,8 +59,24 @@ public class Getter {
      * @throws IllegalArgumentException
      */
     public Object getValue(final Object obj) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
+        final MethodAccessor accessor = this.accessor;
+        if (accessor != null && obj != null) {
+            try {
+                return accessor.invoke(obj, null);
+            } catch (final Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+        return this.method.invoke(obj, ClassCache.EMPTY_OBJECT);
+    }
 
-        return this.method.invoke(obj);
+    /**
+     * @param accessor
+     *            compiled accessor for this getter. null to use
+     *            {@link Method#invoke(Object, Object...)}
+     */
+    void setAccessor(final MethodAccessor accessor) {
+        this.accessor = accessor;
     }
 
 }
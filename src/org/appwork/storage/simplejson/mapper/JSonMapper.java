@@ -10,6 +10,7 @@
 package org.appwork.storage.simplejson.mapper;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.InvocationTargetException;
@@ -31,7 +32,11 @@ import org.appwork.storage.TypeRef;
 import org.appwork.storage.simplejson.JSonArray;
 import org.appwork.storage.simplejson.JSonNode;
 import org.appwork.storage.simplejson.JSonObject;
+import org.appwork.storage.simplejson.JSonStreamParser;
+import org.appwork.storage.simplejson.JSonToken;
+import org.appwork.storage.simplejson.JSonUtils;
 import org.appwork.storage.simplejson.JSonValue;
+import org.appwork.storage.simplejson.ParserException;
 import org.appwork.utils.StringUtils;
 import org.appwork.utils.reflection.Clazz;
 
@@ -230,6 +235,131 @@ public class JSonMapper {
         return null;
     }
 
+    /**
+     * Writes the json representation of obj directly to out. The result is
+     * the same as <code>create(obj).toString()</code>, but no JSonNode tree
+     * and no intermediate Strings are created.
+     * 
+     * @param obj
+     * @param out
+     * @throws MapperException
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public void writeObject(final Object obj, final Appendable out) throws MapperException, IOException {
+        if (obj == null) {
+            out.append("null");
+            return;
+        }
+        final Class<? extends Object> clazz = obj.getClass();
+        TypeMapper<?> mapper;
+        if (clazz.isEnum()) {
+            this.writeString(obj + "", out);
+        } else if (obj instanceof Boolean) {
+            out.append(((Boolean) obj).booleanValue() ? "true" : "false");
+        } else if (obj instanceof Character) {
+            out.append(String.valueOf(0 + ((Character) obj).charValue()));
+        } else if (obj instanceof Byte || obj instanceof Short || obj instanceof Integer || obj instanceof Long) {
+            out.append(String.valueOf(((Number) obj).longValue()));
+        } else if (obj instanceof Float || obj instanceof Double) {
+            out.append(String.valueOf(((Number) obj).doubleValue()));
+        } else if (obj instanceof String) {
+            this.writeString((String) obj, out);
+        } else if (obj instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            Entry<Object, Object> next;
+            for (final Iterator<Entry<Object, Object>> it = ((Map<Object, Object>) obj).entrySet().iterator(); it.hasNext();) {
+                next = it.next();
+                if (!(next.getKey() instanceof String)) {
+                    throw new MapperException("Map keys have to be Strings: " + clazz + " Keyclass:" + (next.getKey() == null ? "<null>" : next.getKey().getClass()));
+                }
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                this.writeString((String) next.getKey(), out);
+                out.append(':');
+                this.writeObject(next.getValue(), out);
+            }
+            out.append('}');
+        } else if (obj instanceof Collection) {
+            out.append('[');
+            boolean first = true;
+            for (final Object o : (Collection<?>) obj) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                this.writeObject(o, out);
+            }
+            out.append(']');
+        } else if (clazz.isArray()) {
+            this.writeArray(obj, out);
+        } else if (obj instanceof Class) {
+            this.writeString(((Class<?>) obj).getName(), out);
+        } else if ((mapper = typeMapper.get(clazz)) != null) {
+            out.append(mapper.map(obj).toString());
+        } else {
+            try {
+                final ClassCache cc = ClassCache.getClassCache(clazz);
+                out.append('{');
+                boolean first = true;
+                for (final Getter g : cc.getGetter()) {
+                    if (cc.getGetter(g.getKey()) != g) {
+                        // overridden getter. the JSonObject of create(obj) contains
+                        // only one of them as well
+                        continue;
+                    }
+                    if (!first) {
+                        out.append(',');
+                    }
+                    first = false;
+                    this.writeString(g.getKey(), out);
+                    out.append(':');
+                    this.writeObject(g.getValue(obj), out);
+                }
+                out.append('}');
+            } catch (final IllegalAccessException e) {
+                throw new MapperException(e);
+            } catch (final InvocationTargetException e) {
+                throw new MapperException(e);
+            } catch (final NoSuchMethodException e) {
+                throw new MapperException(e);
+            }
+        }
+    }
+
+    private void writeArray(final Object obj, final Appendable out) throws MapperException, IOException {
+        out.append('[');
+        final int length = Array.getLength(obj);
+        final Class<?> component = obj.getClass().getComponentType();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            // avoid boxing for the common primitive arrays
+            if (component == int.class) {
+                out.append(String.valueOf(((int[]) obj)[i]));
+            } else if (component == long.class) {
+                out.append(String.valueOf(((long[]) obj)[i]));
+            } else if (component == byte.class) {
+                out.append(String.valueOf(((byte[]) obj)[i]));
+            } else if (component == double.class) {
+                out.append(String.valueOf(((double[]) obj)[i]));
+            } else {
+                this.writeObject(Array.get(obj, i), out);
+            }
+        }
+        out.append(']');
+    }
+
+    private void writeString(final String str, final Appendable out) throws IOException {
+        out.append('"');
+        JSonUtils.escape(str, out);
+        out.append('"');
+    }
+
     public boolean isIgnoreIllegalArgumentMappings() {
         return ignoreIllegalArgumentMappings;
     }
@@ -511,6 +641,224 @@ public class JSonMapper {
         return (T) this.jsonToObject(json, type.getType());
     }
 
+    /**
+     * Binds the next value of the parser directly into an object of the given
+     * type. Unlike {@link #jsonToObject(JSonNode, Type)}, no JSonNode tree is
+     * built for objects and arrays. The parser has to be at the start of the
+     * document, and the document must not contain more than this value.
+     *
+     * @param parser
+     * @param type
+     * @return
+     * @throws MapperException
+     * @throws ParserException
+     */
+    public Object jsonToObject(final JSonStreamParser parser, final Type type) throws MapperException, ParserException {
+        parser.nextToken();
+        final Object ret = this.streamToObject(parser, type);
+        if (parser.nextToken() != JSonToken.END_DOCUMENT) { throw new ParserException("Unexpected End of JSonString"); }
+        return ret;
+    }
+
+    /**
+     * @param <T>
+     * @param parser
+     * @param type
+     * @return
+     * @throws MapperException
+     * @throws ParserException
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T jsonToObject(final JSonStreamParser parser, final TypeRef<T> type) throws MapperException, ParserException {
+        return (T) this.jsonToObject(parser, type.getType());
+    }
+
+    /**
+     * binds the value that starts at the current token of the parser.
+     * Afterwards, the current token is the last token of this value.
+     *
+     * @param parser
+     * @param type
+     * @return
+     * @throws MapperException
+     * @throws ParserException
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected Object streamToObject(final JSonStreamParser parser, Type type) throws MapperException, ParserException {
+        final JSonToken token = parser.getCurrentToken();
+        if (token != JSonToken.START_OBJECT && token != JSonToken.START_ARRAY) {
+            // scalars are cheap. use the node mapper to keep all the special
+            // cases in one place
+            return this.jsonToObject(parser.getJSonValue(), type);
+        }
+        final boolean isArray = token == JSonToken.START_ARRAY;
+        final int depth = parser.getDepth();
+        try {
+            Class<?> clazz = null;
+            if (type instanceof ParameterizedType) {
+                final Type typ = ((ParameterizedType) type).getRawType();
+                if (typ instanceof Class) {
+                    clazz = (Class<?>) typ;
+                }
+            } else if (type instanceof Class) {
+                clazz = (Class) type;
+            } else if (type instanceof GenericArrayType) {
+                type = clazz = Array.newInstance((Class<?>) ((GenericArrayType) type).getGenericComponentType(), 0).getClass();
+            }
+            if (clazz == null || clazz == Object.class) {
+                type = clazz = isArray ? LinkedList.class : HashMap.class;
+            }
+            final TypeMapper<?> tm = typeMapper.get(clazz);
+            if (tm != null) { return tm.reverseMap(parser.readNode()); }
+            if (type instanceof ParameterizedType) {
+                final ParameterizedType pType = (ParameterizedType) type;
+                final Type raw = pType.getRawType();
+                if (raw instanceof Class && Collection.class.isAssignableFrom((Class) raw)) {
+                    this.expect(parser, JSonToken.START_ARRAY, type);
+                    final Collection<Object> inst = (Collection<Object>) mapClasses((Class) raw).newInstance();
+                    final Type gType = pType.getActualTypeArguments()[0];
+                    while (parser.nextToken() != JSonToken.END_ARRAY) {
+                        inst.add(this.streamToObject(parser, gType));
+                    }
+                    return inst;
+                } else if (raw instanceof Class && Map.class.isAssignableFrom((Class) raw)) {
+                    this.expect(parser, JSonToken.START_OBJECT, type);
+                    final Map<String, Object> inst = (Map<String, Object>) mapClasses((Class) raw).newInstance();
+                    final Type gType = pType.getActualTypeArguments()[1];
+                    String key;
+                    while (parser.nextToken() != JSonToken.END_OBJECT) {
+                        key = parser.getText();
+                        parser.nextToken();
+                        inst.put(key, this.streamToObject(parser, gType));
+                    }
+                    return inst;
+                }
+            }
+            if (Collection.class.isAssignableFrom(clazz)) {
+                this.expect(parser, JSonToken.START_ARRAY, type);
+                final Collection<Object> inst = (Collection<Object>) mapClasses(clazz).newInstance();
+                final Type gs = clazz.getGenericSuperclass();
+                final Type gType;
+                if (gs instanceof ParameterizedType) {
+                    gType = ((ParameterizedType) gs).getActualTypeArguments()[0];
+                } else {
+                    gType = void.class;
+                }
+                while (parser.nextToken() != JSonToken.END_ARRAY) {
+                    inst.add(this.streamToObject(parser, gType));
+                }
+                return inst;
+            } else if (Map.class.isAssignableFrom(clazz)) {
+                this.expect(parser, JSonToken.START_OBJECT, type);
+                final Map<String, Object> inst = (Map<String, Object>) mapClasses(clazz).newInstance();
+                final Type gs = clazz.getGenericSuperclass();
+                final Type gType;
+                if (gs instanceof ParameterizedType) {
+                    gType = ((ParameterizedType) gs).getActualTypeArguments()[1];
+                } else {
+                    gType = void.class;
+                }
+                String key;
+                while (parser.nextToken() != JSonToken.END_OBJECT) {
+                    key = parser.getText();
+                    parser.nextToken();
+                    inst.put(key, this.streamToObject(parser, gType));
+                }
+                return inst;
+            } else if (clazz.isArray()) {
+                this.expect(parser, JSonToken.START_ARRAY, type);
+                final ArrayList<Object> values = new ArrayList<Object>();
+                while (parser.nextToken() != JSonToken.END_ARRAY) {
+                    values.add(this.streamToObject(parser, clazz.getComponentType()));
+                }
+                final Object arr = Array.newInstance(mapClasses(clazz.getComponentType()), values.size());
+                for (int i = 0; i < values.size(); i++) {
+                    Array.set(arr, i, values.get(i));
+                }
+                return arr;
+            } else if (isArray) {
+                final java.util.List<Object> inst = new ArrayList<Object>();
+                final Type gs = clazz.getGenericSuperclass();
+                final Type gType;
+                if (gs instanceof ParameterizedType) {
+                    gType = ((ParameterizedType) gs).getActualTypeArguments()[0];
+                } else {
+                    gType = Object.class;
+                }
+                while (parser.nextToken() != JSonToken.END_ARRAY) {
+                    inst.add(this.streamToObject(parser, gType));
+                }
+                return inst;
+            } else {
+                if (Clazz.isPrimitive(clazz)) {
+                    if (isIgnoreIllegalArgumentMappings()) {
+                        parser.skipChildren();
+                        return null;
+                    } else {
+                        throw new IllegalArgumentException("Cannot Map " + parser.readNode() + " to " + clazz);
+                    }
+                }
+                final ClassCache cc = ClassCache.getClassCache(clazz);
+                final Object inst = cc.getInstance();
+                Setter s;
+                Object v;
+                while (parser.nextToken() != JSonToken.END_OBJECT) {
+                    s = cc.getSetter(parser.getText());
+                    parser.nextToken();
+                    if (s == null) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    Type fieldType = s.getType();
+                    // special handling for generic fields
+                    if (fieldType instanceof TypeVariable) {
+                        final Type[] actualTypes = ((ParameterizedType) type).getActualTypeArguments();
+                        final TypeVariable<?>[] genericTypes = clazz.getTypeParameters();
+                        for (int i = 0; i < genericTypes.length; i++) {
+                            if (StringUtils.equals(((TypeVariable) fieldType).getName(), genericTypes[i].getName())) {
+                                fieldType = actualTypes[i];
+                                break;
+                            }
+                        }
+                    }
+                    v = this.streamToObject(parser, fieldType);
+                    try {
+                        s.setValue(inst, v);
+                    } catch (final IllegalArgumentException e) {
+                        if (isIgnoreIllegalArgumentMappings()) {
+                            continue;
+                        } else if (v == null && isIgnorePrimitiveNullMapping()) {
+                            continue;
+                        }
+                        throw e;
+                    }
+                }
+                return inst;
+            }
+        } catch (final SecurityException e) {
+            e.printStackTrace();
+        } catch (final NoSuchMethodException e) {
+            e.printStackTrace();
+        } catch (final IllegalArgumentException e) {
+            e.printStackTrace();
+        } catch (final InstantiationException e) {
+            e.printStackTrace();
+        } catch (final IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (final InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        // skip the rest of this value to keep the parser in sync
+        while (parser.getDepth() >= depth) {
+            parser.nextToken();
+        }
+        return null;
+    }
+
+    private void expect(final JSonStreamParser parser, final JSonToken token, final Type type) throws MapperException {
+        if (parser.getCurrentToken() != token) { throw new MapperException(parser.getCurrentToken() + " cannot be mapped to " + type); }
+    }
+
     /**
      * @param class1
      * @return
@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.simplejson.mapper
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.simplejson.mapper;
+
+/**
+ * Base class for the accessors created by {@link AccessorGenerator}. A getter
+ * accessor ignores value and returns the (boxed) result, a setter accessor
+ * returns null.
+ *
+ * The class has to be public, because the generated subclasses are defined in
+ * their own ClassLoader
+ *
+ * @author thomas
+ *
+ */
+public abstract class MethodAccessor {
+
+    public abstract Object invoke(Object obj, Object value);
+
+}
@@ -24,10 +24,14 @@ import org.appwork.utils.logging.Log;
  */
 public class Setter {
 
-    private final String key;
-    private final Method method;
-    private final Type   type;
-    private Class<?>     convertFromClass;
+    private final String   key;
+    private final Method   method;
+    private final Type     type;
+    private Class<?>       convertFromClass;
+    private MethodAccessor accessor;
+    /* exact class the accessor accepts */
+    private final Class<?> accessorParameter;
+    private final boolean  primitiveParameter;
 
     /**
      * @param substring
@@ -48,7 +52,28 @@ public class Setter {
         this.method = m;
         m.setAccessible(true);
         this.type = m.getGenericParameterTypes()[0];
+        final Class<?> param = m.getParameterTypes()[0];
+        this.primitiveParameter = param.isPrimitive();
+        this.accessorParameter = this.primitiveParameter ? AccessorGenerator.getWrapper(param) : param;
+    }
+
+    public MethodAccessor getAccessor() {
+        return this.accessor;
+    }
 
+    /**
+     * @param accessor
+     *            compiled accessor for this setter. null to use
+     *            {@link Method#invoke(Object, Object...)}
+     */
+    void setAccessor(final MethodAccessor accessor) {
+        this.accessor = accessor;
+    }
+
+    private boolean isAccepted(final Object parameter) {
+        if (parameter == null) { return !this.primitiveParameter; }
+        if (this.primitiveParameter) { return parameter.getClass() == this.accessorParameter; }
+        return this.accessorParameter.isInstance(parameter);
     }
 
     public String getKey() {
@@ -102,6 +127,17 @@ public class Setter {
 
         }
         // System.out.println(this.key + " = " + parameter + " " + this.type);
+        final MethodAccessor accessor = this.accessor;
+        if (accessor != null && inst != null && this.isAccepted(parameter)) {
+            try {
+                accessor.invoke(inst, parameter);
+            } catch (final Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+            return;
+        }
+        // null for primitives, widening and illegal arguments are handled by
+        // the reflective invoke
         try {
             this.method.invoke(inst, parameter);
         } catch (final IllegalArgumentException e) {
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.simplejson.mapper
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.simplejson.mapper.test;
+
+import java.util.List;
+
+import org.appwork.storage.simplejson.JSonStreamParser;
+import org.appwork.storage.simplejson.mapper.ClassCache;
+import org.appwork.storage.simplejson.mapper.Getter;
+import org.appwork.storage.simplejson.mapper.JSonMapper;
+import org.appwork.storage.simplejson.mapper.Setter;
+
+/**
+ * compares the generated accessors with {@link java.lang.reflect.Method#invoke(Object, Object...)}. See {@link PerformanceTest} for the
+ * mapper vs. jackson comparison
+ *
+ * @author thomas
+ *
+ */
+public class AccessorPerformanceTest {
+
+    public static void main(final String[] args) throws Exception {
+        final TestClass obj = TestClass.createObject();
+        final ClassCache cc = ClassCache.getClassCache(TestClass.class);
+        final List<Getter> getters = cc.getGetter();
+        int compiled = 0;
+        for (final Getter g : getters) {
+            if (g.getAccessor() != null) {
+                compiled++;
+            }
+            if (!String.valueOf(g.getValue(obj)).equals(String.valueOf(g.getMethod().invoke(obj)))) {
+                System.out.println("FAILED: " + g.getKey());
+            }
+        }
+        System.out.println("Compiled getters: " + compiled + "/" + getters.size());
+        final TestClass inst = (TestClass) cc.getInstance();
+        for (final Setter s : cc.getSetter()) {
+            s.setValue(inst, cc.getGetter(s.getKey()).getValue(obj));
+        }
+        System.out.println("SUCCESS: " + new JSonMapper().create(inst).toString().equals(new JSonMapper().create(obj).toString()));
+
+        for (int round = 0; round < 5; round++) {
+            final int iterations = 1000000;
+            long t = System.currentTimeMillis();
+            for (int i = 0; i < iterations; i++) {
+                for (final Getter g : getters) {
+                    g.getMethod().invoke(obj);
+                }
+            }
+            System.out.println("Get(reflection)|" + iterations + ": " + (System.currentTimeMillis() - t) + "ms");
+            t = System.currentTimeMillis();
+            for (int i = 0; i < iterations; i++) {
+                for (final Getter g : getters) {
+                    g.getValue(obj);
+                }
+            }
+            System.out.println("Get(generated)|" + iterations + ": " + (System.currentTimeMillis() - t) + "ms");
+
+            final JSonMapper mapper = new JSonMapper();
+            final String json = mapper.create(obj).toString();
+            t = System.currentTimeMillis();
+            for (int i = 0; i < iterations / 100; i++) {
+                mapper.jsonToObject(new JSonStreamParser(json), TestClass.class);
+                mapper.writeObject(obj, new StringBuilder());
+            }
+            System.out.println("Roundtrip|" + iterations / 100 + ": " + (System.currentTimeMillis() - t) + "ms");
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.storage.simplejson.mapper
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.storage.simplejson.mapper.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.appwork.storage.SimpleMapper;
+import org.appwork.storage.TypeRef;
+import org.appwork.storage.simplejson.JSonFactory;
+import org.appwork.storage.simplejson.JSonStreamParser;
+import org.appwork.storage.simplejson.JSonToken;
+import org.appwork.storage.simplejson.ParserException;
+import org.appwork.storage.simplejson.mapper.JSonMapper;
+
+/**
+ * compares the stream reader/writer with the JSonNode tree
+ *
+ * @author thomas
+ *
+ */
+public class StreamTest {
+
+    public static void main(final String[] args) throws Exception {
+        final JSonMapper mapper = new JSonMapper();
+        final TestClass obj = TestClass.createObject();
+        obj.setObjArray(new TestClass[] { TestClass.createObject() });
+        final String jsonString = mapper.create(obj).toString();
+
+        final TestClass tree = (TestClass) mapper.jsonToObject(new JSonFactory(jsonString).parse(), TestClass.class);
+        final TestClass stream = (TestClass) mapper.jsonToObject(new JSonStreamParser(new ByteArrayInputStream(jsonString.getBytes("UTF-8"))), TestClass.class);
+        System.out.println("SUCCESS: " + EqualsBuilder.reflectionEquals(tree, stream));
+        System.out.println("SUCCESS: " + mapper.create(stream).toString().equals(jsonString));
+
+        // writer
+        final StringBuilder written = new StringBuilder();
+        mapper.writeObject(obj, written);
+        final TestClass fromWriter = (TestClass) mapper.jsonToObject(new JSonStreamParser(written.toString()), TestClass.class);
+        System.out.println("SUCCESS: " + EqualsBuilder.reflectionEquals(tree, fromWriter));
+        System.out.println("SUCCESS: " + written.length() + " == " + jsonString.length());
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new SimpleMapper().writeObject("\u00e4\u2011\r\"", bos);
+        System.out.println("SUCCESS: " + new String(bos.toByteArray(), "UTF-8").equals(mapper.create("\u00e4\u2011\r\"").toString()));
+
+        final HashMap<String, Object> map = mapper.jsonToObject(new JSonStreamParser("{\"a\":[1,2.5,\"x\\u00e4\\n\",null,true],\"b\":{}}"), new TypeRef<HashMap<String, Object>>() {
+        });
+        System.out.println("SUCCESS: " + map.toString().equals(mapper.jsonToObject(new JSonFactory("{\"a\":[1,2.5,\"x\\u00e4\\n\",null,true],\"b\":{}}").parse(), new TypeRef<HashMap<String, Object>>() {
+        }).toString()));
+
+        // unknown fields are skipped
+        final TestClass unknown = (TestClass) mapper.jsonToObject(new JSonStreamParser("{\"unknown\":{\"a\":[1,{}]},\"string\":\"abc\"}"), TestClass.class);
+        System.out.println("SUCCESS: " + "abc".equals(unknown.getString()));
+
+        final JSonStreamParser parser = new JSonStreamParser("[{\"a\" : 1}, [] ]");
+        final StringBuilder sb = new StringBuilder();
+        JSonToken t;
+        while ((t = parser.nextToken()) != JSonToken.END_DOCUMENT) {
+            sb.append(t).append(' ');
+        }
+        System.out.println("SUCCESS: " + sb.toString().equals("START_ARRAY START_OBJECT FIELD_NAME VALUE_LONG END_OBJECT START_ARRAY END_ARRAY END_ARRAY "));
+
+        for (final String invalid : new String[] { "{\"bla\":true,}", "[1,2", "{\"a\" 1}", "[1]]", "\"abc" }) {
+            try {
+                mapper.jsonToObject(new JSonStreamParser(invalid), Object.class);
+                System.out.println("FAILED: " + invalid + " should throw an exception");
+            } catch (final ParserException e) {
+                System.out.println("SUCCESS: " + e.getMessage());
+            }
+        }
+    }
+}
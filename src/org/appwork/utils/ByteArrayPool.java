@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2009 - 2012 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author daniel
+ *
+ *         ByteArrayPool
+ *
+ *         pool for short living io buffers. sizes are rounded up to the next power of two between {@link #MIN_SIZE} and {@link #MAX_SIZE},
+ *         bigger arrays are not pooled. an array must not be used anymore after it has been given back.
+ *
+ */
+public class ByteArrayPool {
+
+    /* free arrays of one size */
+    private static class SizeClass {
+        private final ConcurrentLinkedQueue<byte[]> free     = new ConcurrentLinkedQueue<byte[]>();
+        private final AtomicInteger                 freeSize = new AtomicInteger(0);
+    }
+
+    private static final ByteArrayPool INSTANCE  = new ByteArrayPool();
+
+    public static final int            MIN_SHIFT = 10;
+    public static final int            MAX_SHIFT = 20;
+    public static final int            MIN_SIZE  = 1 << ByteArrayPool.MIN_SHIFT;
+    public static final int            MAX_SIZE  = 1 << ByteArrayPool.MAX_SHIFT;
+    /* max. pooled arrays per size */
+    public static int                  MAX_FREE  = 32;
+
+    public static ByteArrayPool getInstance() {
+        return ByteArrayPool.INSTANCE;
+    }
+
+    private static int shift(final int size) {
+        int shift = ByteArrayPool.MIN_SHIFT;
+        while (1 << shift < size) {
+            shift++;
+        }
+        return shift;
+    }
+
+    private final SizeClass[]          sizes;
+    private final AtomicLong           hits      = new AtomicLong(0);
+    private final AtomicLong           misses    = new AtomicLong(0);
+
+    private ByteArrayPool() {
+        this.sizes = new SizeClass[ByteArrayPool.MAX_SHIFT - ByteArrayPool.MIN_SHIFT + 1];
+        for (int i = 0; i < this.sizes.length; i++) {
+            this.sizes[i] = new SizeClass();
+        }
+    }
+
+    /**
+     * @param size
+     * @return array with at least size bytes, content is undefined
+     */
+    public byte[] get(final int size) {
+        if (size > ByteArrayPool.MAX_SIZE) {
+            this.misses.incrementAndGet();
+            return new byte[size];
+        }
+        final int index = ByteArrayPool.shift(size) - ByteArrayPool.MIN_SHIFT;
+        final SizeClass sizeClass = this.sizes[index];
+        final byte[] ret = sizeClass.free.poll();
+        if (ret != null) {
+            sizeClass.freeSize.decrementAndGet();
+            this.hits.incrementAndGet();
+            return ret;
+        }
+        this.misses.incrementAndGet();
+        return new byte[1 << (index + ByteArrayPool.MIN_SHIFT)];
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * gives back an array. arrays are not tracked, so every array of a pooled size is taken, also one this pool did not create, and
+     * handed out by a later {@link #get(int)}. only give back arrays nobody else holds anymore. arrays of other sizes are ignored
+     *
+     * @param array
+     */
+    public void put(final byte[] array) {
+        if (array == null || array.length < ByteArrayPool.MIN_SIZE || array.length > ByteArrayPool.MAX_SIZE || Integer.bitCount(array.length) != 1) { return; }
+        final int index = ByteArrayPool.shift(array.length) - ByteArrayPool.MIN_SHIFT;
+        final SizeClass sizeClass = this.sizes[index];
+        if (sizeClass.freeSize.incrementAndGet() > ByteArrayPool.MAX_FREE) {
+            sizeClass.freeSize.decrementAndGet();
+            return;
+        }
+        sizeClass.free.offer(array);
+    }
+
+    @Override
+    public String toString() {
+        return "ByteArrayPool: hits=" + this.hits.get() + " misses=" + this.misses.get();
+    }
+}
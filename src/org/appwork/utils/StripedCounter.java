@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2009 - 2013 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author daniel
+ *
+ *         StripedCounter
+ *
+ *         counter for many writing threads (java 1.6 has no LongAdder). Every thread adds to its own stripe, the stripes are padded to
+ *         different cache lines. {@link #sum()} is not atomic over all stripes.
+ *
+ */
+public class StripedCounter {
+
+    /* longs per cache line */
+    private static final int      PADDING = 8;
+    public static final int       STRIPES = StripedCounter.stripes(Runtime.getRuntime().availableProcessors());
+
+    private static int stripes(final int cpus) {
+        int ret = 1;
+        while (ret < cpus * 2 && ret < 64) {
+            ret <<= 1;
+        }
+        return ret;
+    }
+
+    private final AtomicLongArray cells;
+
+    public StripedCounter() {
+        this.cells = new AtomicLongArray(StripedCounter.STRIPES * StripedCounter.PADDING);
+    }
+
+    public void add(final long x) {
+        this.cells.addAndGet(StripedCounter.index(), x);
+    }
+
+    public void increment() {
+        this.add(1);
+    }
+
+    private static int index() {
+        return StripedCounter.stripe() * StripedCounter.PADDING;
+    }
+
+    /**
+     * @return stripe of the current thread, 0 - {@link #STRIPES}-1
+     */
+    static int stripe() {
+        final long id = Thread.currentThread().getId();
+        return (int) ((id ^ id >>> 16) & StripedCounter.STRIPES - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.cells.length(); i += StripedCounter.PADDING) {
+            this.cells.set(i, 0);
+        }
+    }
+
+    public long sum() {
+        long ret = 0;
+        for (int i = 0; i < this.cells.length(); i += StripedCounter.PADDING) {
+            ret += this.cells.get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * @return sum and resets all stripes
+     */
+    public long sumThenReset() {
+        long ret = 0;
+        for (int i = 0; i < this.cells.length(); i += StripedCounter.PADDING) {
+            ret += this.cells.getAndSet(i, 0);
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(this.sum());
+    }
+}
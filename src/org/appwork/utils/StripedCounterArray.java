@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2009 - 2013 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author daniel
+ *
+ *         StripedCounterArray
+ *
+ *         fixed number of counters (e.g. histogram buckets) for many writing threads, striped like {@link StripedCounter}. Every stripe
+ *         holds all counters and is padded to whole cache lines, so threads on different stripes never write the same line. At most
+ *         {@link #MAX_STRIPES} stripes, to keep big arrays small on many cpus. {@link #get(int)} is not atomic over all stripes.
+ *
+ */
+public class StripedCounterArray {
+
+    /* longs per cache line */
+    private static final int      PADDING     = 8;
+    public static final int       MAX_STRIPES = 8;
+
+    private final AtomicLongArray cells;
+    private final int             length;
+    /* longs per stripe */
+    private final int             stride;
+    private final int             stripes;
+
+    public StripedCounterArray(final int length) {
+        this.length = length;
+        this.stride = (length + StripedCounterArray.PADDING - 1) / StripedCounterArray.PADDING * StripedCounterArray.PADDING;
+        this.stripes = Math.min(StripedCounter.STRIPES, StripedCounterArray.MAX_STRIPES);
+        this.cells = new AtomicLongArray(this.stripes * this.stride);
+    }
+
+    public void add(final int index, final long x) {
+        if (index < 0 || index >= this.length) { throw new ArrayIndexOutOfBoundsException(index); }
+        this.cells.addAndGet((StripedCounter.stripe() & this.stripes - 1) * this.stride + index, x);
+    }
+
+    /**
+     * @param index
+     * @return sum of all stripes
+     */
+    public long get(final int index) {
+        long ret = 0;
+        for (int stripe = 0; stripe < this.stripes; stripe++) {
+            ret += this.cells.get(stripe * this.stride + index);
+        }
+        return ret;
+    }
+
+    public void increment(final int index) {
+        this.add(index, 1);
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.cells.length(); i++) {
+            this.cells.set(i, 0);
+        }
+    }
+
+    /**
+     * @return sums of all counters
+     */
+    public long[] toArray() {
+        final long[] ret = new long[this.length];
+        for (int stripe = 0; stripe < this.stripes; stripe++) {
+            for (int i = 0; i < this.length; i++) {
+                ret[i] += this.cells.get(stripe * this.stride + i);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return java.util.Arrays.toString(this.toArray());
+    }
+}
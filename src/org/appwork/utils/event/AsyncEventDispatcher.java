@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) 2009 - 2010 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.event
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.appwork.utils.logging.Log;
+
+/**
+ * @author daniel
+ *
+ *         async dispatch of an {@link Eventsender}, see {@link Eventsender#enableAsyncDispatch(int, BackPressure)}. Fired events are put
+ *         into a bounded buffer and delivered in batches by a small pool that is shared by all dispatchers. Only one batch of a
+ *         dispatcher is delivered at a time, so listeners get the events in fire order, unless a full buffer lets the firing thread
+ *         deliver itself (see {@link BackPressure}).
+ *
+ *         Events with the same {@link Eventsender#getCoalesceKey(DefaultEvent)} replace each other while they wait in the buffer, only
+ *         the last one is delivered.
+ *
+ */
+public class AsyncEventDispatcher<EventType extends DefaultEvent> {
+
+    public static enum BackPressure {
+        /*
+         * firing thread waits for space. threads of the dispatcher pool (listeners of any async sender) never wait, that could park all
+         * pool threads and no dispatcher would be drained anymore. they deliver the event themselves like CALLER_RUNS
+         */
+        BLOCK,
+        /* the new event is dropped */
+        DROP_NEWEST,
+        /* the oldest waiting event is dropped */
+        DROP_OLDEST,
+        /*
+         * the new event is delivered synchronously in the firing thread. it overtakes the events still waiting in the buffer, so listeners
+         * see these out of fire order
+         */
+        CALLER_RUNS
+    }
+
+    /* marks the pool threads, see BLOCK */
+    private static class DispatcherThread extends Thread {
+        private DispatcherThread(final Runnable r, final String name) {
+            super(r, name);
+        }
+    }
+
+    private static class Entry<EventType> {
+        /* guarded by coalesce */
+        private EventType    event;
+        private final Object key;
+        private final long   time;
+
+        private Entry(final EventType event, final Object key) {
+            this.event = event;
+            this.key = key;
+            this.time = System.nanoTime();
+        }
+    }
+
+    /* max. events per batch */
+    public static int                                  BATCH_SIZE = 64;
+    /* threads shared by all dispatchers */
+    public static int                                  THREADS    = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static ThreadPoolExecutor                  EXECUTOR   = null;
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (AsyncEventDispatcher.EXECUTOR == null) {
+            final AtomicInteger counter = new AtomicInteger(0);
+            AsyncEventDispatcher.EXECUTOR = new ThreadPoolExecutor(AsyncEventDispatcher.THREADS, AsyncEventDispatcher.THREADS, 10000l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new DispatcherThread(r, "EventDispatcher:" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            AsyncEventDispatcher.EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+        return AsyncEventDispatcher.EXECUTOR;
+    }
+
+    private final Eventsender<?, EventType>            sender;
+    private final BackPressure                         backPressure;
+    private final ArrayBlockingQueue<Entry<EventType>> buffer;
+    private final HashMap<Object, Entry<EventType>>    coalesce   = new HashMap<Object, Entry<EventType>>();
+    private final AtomicBoolean                        scheduled  = new AtomicBoolean(false);
+    private volatile Thread                            drainThread;
+    private final Runnable                             drain;
+
+    private final AtomicLong                           enqueued   = new AtomicLong(0);
+    private final AtomicLong                           delivered  = new AtomicLong(0);
+    private final AtomicLong                           coalesced  = new AtomicLong(0);
+    private final AtomicLong                           dropped    = new AtomicLong(0);
+    private final AtomicLong                           callerRuns = new AtomicLong(0);
+    private final AtomicLong                           batches    = new AtomicLong(0);
+    private final AtomicLong                           lag        = new AtomicLong(0);
+    private final AtomicLong                           maxLag     = new AtomicLong(0);
+
+    protected AsyncEventDispatcher(final Eventsender<?, EventType> sender, final int capacity, final BackPressure backPressure) {
+        this.sender = sender;
+        this.buffer = new ArrayBlockingQueue<Entry<EventType>>(Math.max(1, capacity));
+        this.backPressure = backPressure == null ? BackPressure.BLOCK : backPressure;
+        this.drain = new Runnable() {
+
+            @Override
+            public void run() {
+                AsyncEventDispatcher.this.drain();
+            }
+        };
+    }
+
+    /**
+     * @param event
+     * @return false if the caller has to deliver the event itself
+     */
+    protected boolean dispatch(final EventType event) {
+        final Object key = this.sender.getCoalesceKey(event);
+        final Entry<EventType> entry;
+        if (key != null) {
+            synchronized (this.coalesce) {
+                final Entry<EventType> waiting = this.coalesce.get(key);
+                if (waiting != null) {
+                    waiting.event = event;
+                    this.coalesced.incrementAndGet();
+                    return true;
+                }
+                entry = new Entry<EventType>(event, key);
+                this.coalesce.put(key, entry);
+            }
+        } else {
+            entry = new Entry<EventType>(event, null);
+        }
+        if (!this.buffer.offer(entry)) {
+            switch (this.backPressure) {
+            case DROP_NEWEST:
+                this.forget(entry);
+                this.dropped.incrementAndGet();
+                return true;
+            case DROP_OLDEST:
+                do {
+                    final Entry<EventType> oldest = this.buffer.poll();
+                    if (oldest != null) {
+                        this.forget(oldest);
+                        this.dropped.incrementAndGet();
+                    }
+                } while (!this.buffer.offer(entry));
+                break;
+            case CALLER_RUNS:
+                this.forget(entry);
+                this.callerRuns.incrementAndGet();
+                return false;
+            default:
+                if (Thread.currentThread() instanceof DispatcherThread) {
+                    /* fired by a listener of this or another async sender, waiting could block all pool threads forever */
+                    this.forget(entry);
+                    this.callerRuns.incrementAndGet();
+                    return false;
+                }
+                this.schedule();
+                try {
+                    this.buffer.put(entry);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.forget(entry);
+                    this.callerRuns.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+        this.enqueued.incrementAndGet();
+        this.schedule();
+        return true;
+    }
+
+    private void drain() {
+        this.drainThread = Thread.currentThread();
+        try {
+            final ArrayList<Entry<EventType>> entries = new ArrayList<Entry<EventType>>(AsyncEventDispatcher.BATCH_SIZE);
+            final ArrayList<EventType> events = new ArrayList<EventType>(AsyncEventDispatcher.BATCH_SIZE);
+            while (true) {
+                entries.clear();
+                events.clear();
+                this.buffer.drainTo(entries, AsyncEventDispatcher.BATCH_SIZE);
+                if (entries.size() == 0) {
+                    this.scheduled.set(false);
+                    /* an event may have been added after drainTo but before the flag was cleared */
+                    if (this.buffer.isEmpty() || !this.scheduled.compareAndSet(false, true)) { return; }
+                    continue;
+                }
+                final long now = System.nanoTime();
+                for (final Entry<EventType> entry : entries) {
+                    if (entry.key != null) {
+                        synchronized (this.coalesce) {
+                            if (this.coalesce.get(entry.key) == entry) {
+                                this.coalesce.remove(entry.key);
+                            }
+                            events.add(entry.event);
+                        }
+                    } else {
+                        events.add(entry.event);
+                    }
+                    final long lag = now - entry.time;
+                    this.lag.addAndGet(lag);
+                    long max;
+                    while ((max = this.maxLag.get()) < lag && !this.maxLag.compareAndSet(max, lag)) {
+                    }
+                }
+                try {
+                    this.sender.deliver(events);
+                } catch (final Throwable e) {
+                    Log.exception(e);
+                }
+                this.delivered.addAndGet(events.size());
+                this.batches.incrementAndGet();
+            }
+        } finally {
+            this.drainThread = null;
+        }
+    }
+
+    private void forget(final Entry<EventType> entry) {
+        if (entry.key != null) {
+            synchronized (this.coalesce) {
+                if (this.coalesce.get(entry.key) == entry) {
+                    this.coalesce.remove(entry.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return average time in ms between fire and delivery
+     */
+    public double getAverageLag() {
+        final long delivered = this.delivered.get();
+        if (delivered <= 0) { return 0; }
+        return this.lag.get() / 1000000d / delivered;
+    }
+
+    public BackPressure getBackPressure() {
+        return this.backPressure;
+    }
+
+    public long getBatches() {
+        return this.batches.get();
+    }
+
+    /**
+     * @return events delivered synchronously because the buffer was full
+     */
+    public long getCallerRuns() {
+        return this.callerRuns.get();
+    }
+
+    public int getCapacity() {
+        return this.buffer.size() + this.buffer.remainingCapacity();
+    }
+
+    /**
+     * @return events replaced by a newer event with the same coalesce key
+     */
+    public long getCoalesced() {
+        return this.coalesced.get();
+    }
+
+    public long getDelivered() {
+        return this.delivered.get();
+    }
+
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    public long getEnqueued() {
+        return this.enqueued.get();
+    }
+
+    /**
+     * @return max. time in ms between fire and delivery
+     */
+    public long getMaxLag() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxLag.get());
+    }
+
+    public int getPending() {
+        return this.buffer.size();
+    }
+
+    /**
+     * @return true if the current thread delivers events of this dispatcher
+     */
+    public boolean isDispatcherThread() {
+        return Thread.currentThread() == this.drainThread;
+    }
+
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                AsyncEventDispatcher.getExecutor().execute(this.drain);
+            } catch (final RejectedExecutionException e) {
+                this.scheduled.set(false);
+                Log.exception(e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncEventDispatcher: enqueued=" + this.getEnqueued() + " delivered=" + this.getDelivered() + " coalesced=" + this.getCoalesced() + " dropped=" + this.getDropped() + " callerRuns=" + this.getCallerRuns() + " pending=" + this.getPending() + " batches=" + this.getBatches() + " avgLag=" + this.getAverageLag() + "ms maxLag=" + this.getMaxLag() + "ms";
+    }
+}
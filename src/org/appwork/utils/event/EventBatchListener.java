@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2009 - 2010 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.event
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.event;
+
+import java.util.List;
+
+/**
+ * listeners of an {@link Eventsender} with async dispatch can implement this to get all events of one dispatch batch in one call instead
+ * of one fireEvent call per event
+ *
+ * @author daniel
+ *
+ */
+public interface EventBatchListener<EventType extends DefaultEvent> {
+
+    /**
+     * @param events
+     *            in fire order, must not be modified or kept
+     */
+    public void onEventBatch(List<EventType> events);
+}
@@ -16,6 +16,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import org.appwork.utils.logging.Log;
+
 /**
  * The Eventsenderclass is the core of the Eventsystem. it can be used to design new Eventbroadcaster Systems easily.
  *
@@ -118,6 +120,7 @@ public abstract class Eventsender<ListenerType extends EventListener, EventType
     transient volatile protected List<WeakReference<ListenerType>> weakListener     = null;
 
     private final Object                                           LOCK             = new Object();
+    private volatile AsyncEventDispatcher<EventType>               asyncDispatcher  = null;
 
     /**
      * List of Listeners that are requested for removal
@@ -214,6 +217,63 @@ public abstract class Eventsender<ListenerType extends EventListener, EventType
         }
     }
 
+    /**
+     * listeners get the events in batches, see {@link EventBatchListener}
+     *
+     * @param events
+     */
+    protected void deliver(final List<EventType> events) {
+        ListenerType t = null;
+        boolean cleanup = false;
+        final java.util.List<WeakReference<ListenerType>> listeners = this.weakListener;
+        for (final WeakReference<ListenerType> listener : listeners) {
+            t = listener.get();
+            if (t == null) {
+                cleanup = true;
+                continue;
+            }
+            try {
+                if (t instanceof EventBatchListener) {
+                    @SuppressWarnings("unchecked")
+                    final EventBatchListener<EventType> batchListener = (EventBatchListener<EventType>) t;
+                    batchListener.onEventBatch(events);
+                } else {
+                    for (final EventType event : events) {
+                        this.fireEvent(t, event);
+                    }
+                }
+            } catch (final Throwable e) {
+                /* do not let one listener stop delivery to the others */
+                Log.exception(e);
+            }
+        }
+        if (cleanup) {
+            this.cleanup();
+        }
+    }
+
+    /**
+     * stops async dispatch. events that are already buffered are still delivered by the dispatcher
+     */
+    public void disableAsyncDispatch() {
+        this.asyncDispatcher = null;
+    }
+
+    /**
+     * events get delivered by a dispatcher thread instead of the firing thread. Event suppressors are still asked in the firing thread.
+     *
+     * @param capacity
+     *            max. buffered events
+     * @param backPressure
+     *            what to do if the buffer is full
+     * @return
+     */
+    public synchronized AsyncEventDispatcher<EventType> enableAsyncDispatch(final int capacity, final AsyncEventDispatcher.BackPressure backPressure) {
+        final AsyncEventDispatcher<EventType> ret = new AsyncEventDispatcher<EventType>(this, capacity, backPressure);
+        this.asyncDispatcher = ret;
+        return ret;
+    }
+
     public boolean containsListener(final ListenerType t) {
         if (t == null) {
             return false;
@@ -247,6 +307,10 @@ public abstract class Eventsender<ListenerType extends EventListener, EventType
                 return;
             }
         }
+        final AsyncEventDispatcher<EventType> dispatcher = this.asyncDispatcher;
+        if (dispatcher != null && dispatcher.dispatch(event)) {
+            return;
+        }
         ListenerType t = null;
         boolean cleanup = false;
         final java.util.List<WeakReference<ListenerType>> listeners = this.weakListener;
@@ -271,6 +335,24 @@ public abstract class Eventsender<ListenerType extends EventListener, EventType
      */
     protected abstract void fireEvent(ListenerType listener, EventType event);
 
+    /**
+     * @return current async dispatcher or null if events are delivered synchronously
+     */
+    public AsyncEventDispatcher<EventType> getAsyncDispatcher() {
+        return this.asyncDispatcher;
+    }
+
+    /**
+     * with async dispatch, waiting events with the same key are replaced by the newest one. e.g. return ((SimpleEvent) event).getType()
+     * if only the latest state of each type matters
+     *
+     * @param event
+     * @return key or null if the event must not be coalesced
+     */
+    protected Object getCoalesceKey(final EventType event) {
+        return null;
+    }
+
     public java.util.List<ListenerType> getListener() {
         final java.util.List<WeakReference<ListenerType>> listeners = this.weakListener;
         boolean cleanup = true;
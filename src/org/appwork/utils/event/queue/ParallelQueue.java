@@ -0,0 +1,496 @@
+/**
+ * Copyright (c) 2009 - 2010 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.event.queue
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.event.queue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.appwork.utils.logging.Log;
+
+/**
+ * @author daniel
+ *
+ *         Queue with up to N worker threads. Actions wait in one lock-free queue per {@link Queue.QueuePriority}, workers always take
+ *         HIGH before NORM before LOW. All workers share these queues, so an idle worker picks up whatever is waiting and there is nothing
+ *         left to steal.
+ *
+ *         Actions with the same ordering key (see {@link #submit(QueueAction, Object)}) run one after another in the order they were
+ *         added, actions without key run in parallel. Completion is signaled by {@link Future}s, {@link #addWait(QueueAction)} blocks on
+ *         the future instead of polling. Actions added from a worker run directly, like in {@link Queue}.
+ *
+ *         Workers are started on demand, as long as there are more queued actions than idle workers, and stop after {@link #getTimeout()}
+ *         ms without work. A timeout of 0 keeps them waiting forever, like the thread of {@link Queue}.
+ *
+ */
+public class ParallelQueue extends Queue {
+
+    /* typed, so the per priority array needs no raw type */
+    private class JobQueue extends ConcurrentLinkedQueue<Job<?>> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private class Job<T> extends FutureTask<T> {
+        private final QueueAction<T, ?> action;
+        private final Object            key;
+
+        private Job(final QueueAction<T, ?> action, final Object key) {
+            super(new Callable<T>() {
+
+                @Override
+                public T call() throws Exception {
+                    return ParallelQueue.this.execute(action);
+                }
+            });
+            this.action = action;
+            this.key = key;
+        }
+    }
+
+    public static int                                 DEFAULT_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final JobQueue[]                          queues;
+    /* one permit per queued job */
+    private final Semaphore                           available       = new Semaphore(0);
+    private final int                                 maxWorkers;
+    private final AtomicInteger                       workers         = new AtomicInteger(0);
+    private final AtomicInteger                       idle            = new AtomicInteger(0);
+    private final AtomicInteger                       queued          = new AtomicInteger(0);
+    private final AtomicInteger                       workerID        = new AtomicInteger(0);
+    private final Set<Thread>                         workerThreads   = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    private final Set<Job<?>>                         running         = Collections.newSetFromMap(new ConcurrentHashMap<Job<?>, Boolean>());
+    /* jobs waiting for a running job with the same key. A key is in the map while one of its jobs is queued or running */
+    private final HashMap<Object, ArrayDeque<Job<?>>> keys            = new HashMap<Object, ArrayDeque<Job<?>>>();
+
+    public ParallelQueue(final String id) {
+        this(id, ParallelQueue.DEFAULT_WORKERS);
+    }
+
+    public ParallelQueue(final String id, final int maxWorkers) {
+        super(id);
+        if (maxWorkers <= 0) { throw new IllegalArgumentException("maxWorkers must be >0"); }
+        this.maxWorkers = maxWorkers;
+        this.queues = new JobQueue[QueuePriority.values().length];
+        for (int i = 0; i < this.queues.length; i++) {
+            this.queues[i] = new JobQueue();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E, T extends Throwable> E addWait(final QueueAction<E, T> item) throws T {
+        if (this.isQueueThread(item)) {
+            /* runs directly */
+            return super.addWait(item);
+        }
+        item.reset();
+        item.setCallerThread(this, Thread.currentThread());
+        this.addWaitStats.incrementAndGet();
+        final Job<E> job = new Job<E>(item, null);
+        this.schedule(job);
+        try {
+            job.get();
+        } catch (final InterruptedException e) {
+            item.handleException(e);
+        } catch (final ExecutionException e) {
+            /* exception is kept by the item */
+        } catch (final CancellationException e) {
+            /* killed */
+        }
+        if (item.getExeption() != null) {
+            // throw exception if item canot handle the exception itself
+            if (!item.callExceptionHandler()) {
+                if (item.getExeption() instanceof RuntimeException) {
+                    throw (RuntimeException) item.getExeption();
+                } else {
+                    throw (T) item.getExeption();
+                }
+            }
+        }
+        if (item.gotKilled() && !item.gotStarted()) {
+            item.handleException(new InterruptedException("Queue got killed!"));
+        }
+        return item.getResult();
+    }
+
+    private void done(final Job<?> job) {
+        if (job.key == null) { return; }
+        Job<?> next;
+        synchronized (this.keys) {
+            final ArrayDeque<Job<?>> waiting = this.keys.get(job.key);
+            next = waiting == null ? null : waiting.poll();
+            if (next == null) {
+                this.keys.remove(job.key);
+            }
+        }
+        if (next != null) {
+            this.enqueue(next);
+        }
+    }
+
+    private void enqueue(final Job<?> job) {
+        this.queues[ParallelQueue.index(job.action.getQueuePrio())].offer(job);
+        this.available.release();
+        /* new workers count as idle until they take a job, so a burst starts as many workers as it needs and not more */
+        while (this.available.availablePermits() > this.idle.get() && this.startWorker()) {
+        }
+    }
+
+    private <T> T execute(final QueueAction<T, ?> action) throws Exception {
+        try {
+            this.handlePreRun();
+            action.start(this);
+            return action.getResult();
+        } catch (final Throwable e) {
+            /* same as Queue.runQueue, the exception handler is called in the queue. Handled exceptions do not fail the future */
+            if (action.callExceptionHandler()) { return action.getResult(); }
+            if (e instanceof Exception) { throw (Exception) e; }
+            if (e instanceof Error) { throw (Error) e; }
+            throw new Exception(e);
+        } finally {
+            action.setFinished(true);
+            this.onItemHandled(action);
+        }
+    }
+
+    @Override
+    public java.util.List<QueueAction<?, ?>> getEntries() {
+        final java.util.List<QueueAction<?, ?>> ret = new ArrayList<QueueAction<?, ?>>();
+        for (final Job<?> job : this.running) {
+            ret.add(job.action);
+        }
+        for (final ConcurrentLinkedQueue<Job<?>> queue : this.queues) {
+            for (final Job<?> job : queue) {
+                ret.add(job.action);
+            }
+        }
+        synchronized (this.keys) {
+            for (final ArrayDeque<Job<?>> waiting : this.keys.values()) {
+                for (final Job<?> job : waiting) {
+                    ret.add(job.action);
+                }
+            }
+        }
+        return ret;
+    }
+
+    public int getMaxWorkers() {
+        return this.maxWorkers;
+    }
+
+    /**
+     * @return number of running worker threads
+     */
+    public int getWorkers() {
+        return this.workers.get();
+    }
+
+    private static int index(final QueuePriority prio) {
+        if (prio == null) { return 1; }
+        switch (prio) {
+        case HIGH:
+            return 0;
+        case LOW:
+            return 2;
+        default:
+            return 1;
+        }
+    }
+
+    @Override
+    public void internalAdd(final QueueAction<?, ?> action) {
+        this.schedule(new Job<Object>(ParallelQueue.<Object> cast(action), null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> QueueAction<T, ?> cast(final QueueAction<?, ?> action) {
+        return (QueueAction<T, ?>) action;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    @Override
+    public boolean isQueueThread(final QueueAction<?, ? extends Throwable> item) {
+        if (this.workerThreads.contains(Thread.currentThread())) { return true; }
+        return super.isQueueThread(item);
+    }
+
+    /**
+     * Does NOT kill the running jobs
+     */
+    @Override
+    public void killQueue() {
+        final ArrayList<Job<?>> killList = new ArrayList<Job<?>>();
+        for (final ConcurrentLinkedQueue<Job<?>> queue : this.queues) {
+            Job<?> job;
+            while ((job = queue.poll()) != null) {
+                killList.add(job);
+            }
+        }
+        synchronized (this.keys) {
+            final ArrayList<Job<?>> waitingList = new ArrayList<Job<?>>();
+            for (final Job<?> job : killList) {
+                if (job.key != null) {
+                    /* was the queued job of its key, so no job of this key is running */
+                    final ArrayDeque<Job<?>> waiting = this.keys.remove(job.key);
+                    if (waiting != null) {
+                        waitingList.addAll(waiting);
+                    }
+                }
+            }
+            /* the keys of running jobs stay, a new job with such a key still has to wait for the running one */
+            for (final ArrayDeque<Job<?>> waiting : this.keys.values()) {
+                waitingList.addAll(waiting);
+                waiting.clear();
+            }
+            killList.addAll(waitingList);
+        }
+        for (final Job<?> job : killList) {
+            this.kill(job);
+        }
+    }
+
+    private void kill(final Job<?> job) {
+        this.queued.decrementAndGet();
+        job.action.kill();
+        job.cancel(false);
+    }
+
+    private Job<?> poll() {
+        for (final ConcurrentLinkedQueue<Job<?>> queue : this.queues) {
+            final Job<?> job = queue.poll();
+            if (job != null) { return job; }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean remove(final QueueAction<?, ?> action) {
+        for (final ConcurrentLinkedQueue<Job<?>> queue : this.queues) {
+            for (final Iterator<Job<?>> it = queue.iterator(); it.hasNext();) {
+                final Job<?> job = it.next();
+                if (job.action == action && queue.remove(job)) {
+                    this.kill(job);
+                    this.done(job);
+                    return true;
+                }
+            }
+        }
+        synchronized (this.keys) {
+            for (final ArrayDeque<Job<?>> waiting : this.keys.values()) {
+                for (final Iterator<Job<?>> it = waiting.iterator(); it.hasNext();) {
+                    final Job<?> job = it.next();
+                    if (job.action == action) {
+                        it.remove();
+                        this.kill(job);
+                        return true;
+                    }
+                }
+            }
+        }
+        for (final Job<?> job : this.running) {
+            if (job.action == action) {
+                action.kill();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void runQueue() {
+        /* workers run in work() */
+    }
+
+    private void schedule(final Job<?> job) {
+        this.queued.incrementAndGet();
+        if (job.key != null) {
+            synchronized (this.keys) {
+                final ArrayDeque<Job<?>> waiting = this.keys.get(job.key);
+                if (waiting != null) {
+                    /* another job with this key is queued or running */
+                    waiting.offer(job);
+                    return;
+                }
+                this.keys.put(job.key, new ArrayDeque<Job<?>>());
+            }
+        }
+        this.enqueue(job);
+    }
+
+    @Override
+    public void setTimeout(final long timeout) {
+        this.timeout = Math.max(0, timeout);
+    }
+
+    /**
+     * @return number of queued, not running, actions
+     */
+    @Override
+    public int size() {
+        return this.queued.get();
+    }
+
+    /**
+     * @return false if maxWorkers are running already
+     */
+    private boolean startWorker() {
+        while (true) {
+            final int current = this.workers.get();
+            if (current >= this.maxWorkers) { return false; }
+            if (this.workers.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        this.idle.incrementAndGet();
+        this.getThreadingModel().newThread("ParallelQueue:" + this.getID() + ":" + this.workerID.incrementAndGet(), new Runnable() {
+
+            @Override
+            public void run() {
+                ParallelQueue.this.work();
+            }
+        }).start();
+        return true;
+    }
+
+    @Override
+    protected <T extends Throwable> void startItem(final QueueAction<?, T> item, final boolean callExceptionhandler) throws T {
+        /* direct call from a worker, the history of Queue is per queue and not per worker */
+        try {
+            item.start(this);
+        } catch (final Throwable e) {
+            if (!callExceptionhandler || !item.callExceptionHandler()) {
+                if (e instanceof RuntimeException) {
+                    throw (RuntimeException) e;
+                } else {
+                    throw ParallelQueue.<T> rethrow(e);
+                }
+            }
+        } finally {
+            item.setFinished(true);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> T rethrow(final Throwable e) throws T {
+        throw (T) e;
+    }
+
+    /**
+     * submits an action and returns its future
+     *
+     * @param action
+     * @return
+     */
+    public <T, E extends Throwable> Future<T> submit(final QueueAction<T, E> action) {
+        return this.submit(action, null);
+    }
+
+    /**
+     * submits an action and returns its future. Actions with the same key run one after another in the order they were submitted
+     *
+     * @param action
+     * @param key
+     *            ordering key or null
+     * @return
+     */
+    public <T, E extends Throwable> Future<T> submit(final QueueAction<T, E> action, final Object key) {
+        this.addStats.incrementAndGet();
+        action.reset();
+        action.setCallerThread(this, Thread.currentThread());
+        final Job<T> job = new Job<T>(action, key);
+        this.schedule(job);
+        return job;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " workers=" + this.getWorkers() + "/" + this.maxWorkers + " queued=" + this.size();
+    }
+
+    private void work() {
+        this.workerThreads.add(Thread.currentThread());
+        try {
+            /* counted as idle by startWorker */
+            boolean idle = true;
+            while (true) {
+                Job<?> job = null;
+                if (!idle) {
+                    this.idle.incrementAndGet();
+                }
+                idle = false;
+                try {
+                    final long timeout = this.getTimeout();
+                    if (timeout <= 0) {
+                        /* no timeout, same as wait(0) in Queue */
+                        this.available.acquire();
+                        job = this.poll();
+                        if (job == null) {
+                            /* killed */
+                            continue;
+                        }
+                    } else if (this.available.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                        job = this.poll();
+                        if (job == null) {
+                            /* killed */
+                            continue;
+                        }
+                    }
+                } catch (final InterruptedException e) {
+                    continue;
+                } finally {
+                    this.idle.decrementAndGet();
+                }
+                if (job == null) {
+                    this.workers.decrementAndGet();
+                    if (this.available.availablePermits() > 0) {
+                        /* job added while we stopped */
+                        final int current = this.workers.get();
+                        if (current < this.maxWorkers && this.workers.compareAndSet(current, current + 1)) {
+                            this.idle.incrementAndGet();
+                            idle = true;
+                            continue;
+                        }
+                    }
+                    return;
+                }
+                this.queued.decrementAndGet();
+                this.running.add(job);
+                try {
+                    job.run();
+                } catch (final Throwable e) {
+                    Log.L.info("Queue rescued!");
+                    Log.exception(e);
+                } finally {
+                    this.running.remove(job);
+                    this.done(job);
+                }
+            }
+        } finally {
+            this.workerThreads.remove(Thread.currentThread());
+        }
+    }
+}
@@ -11,9 +11,11 @@ package org.appwork.utils.event.queue;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.appwork.scheduler.ThreadingModel;
 import org.appwork.utils.NullsafeAtomicReference;
 import org.appwork.utils.logging.Log;
 
@@ -36,6 +38,11 @@ public abstract class Queue {
 
     protected final java.util.List<QueueAction<?, ? extends Throwable>> queueThreadHistory  = new ArrayList<QueueAction<?, ? extends Throwable>>(20);
     protected final NullsafeAtomicReference<QueueThread>                thread              = new NullsafeAtomicReference<QueueThread>(null);
+    /* the thread running runQueue, the QueueThread or a virtual thread. guarded by queue */
+    private volatile Thread                                             runner              = null;
+    /* all threads that currently run a queue */
+    private static final ConcurrentHashMap<Thread, Queue>               RUNNING             = new ConcurrentHashMap<Thread, Queue>();
+    private volatile ThreadingModel                                     threadingModel      = ThreadingModel.getDefault();
     private volatile QueueAction<?, ? extends Throwable>                sourceItem          = null;
     private volatile QueueAction<?, ?>                                  currentJob;
 
@@ -70,7 +77,8 @@ public abstract class Queue {
             /*
              * call comes from current running item, so lets start item
              */
-            final QueueAction<?, ? extends Throwable> source = ((QueueThread) Thread.currentThread()).getSourceQueueAction();
+            final Queue current = Queue.RUNNING.get(Thread.currentThread());
+            final QueueAction<?, ? extends Throwable> source = current == null ? null : current.getSourceQueueAction();
             if (source != null) {
                 /* forward source priority */
                 action.setQueuePrio(source.getQueuePrio());
@@ -114,7 +122,8 @@ public abstract class Queue {
              * call comes from current running item, so lets start item excaption handling is passed to top item. startItem throws an
              * exception in error case
              */
-            final QueueAction<?, ? extends Throwable> source = ((QueueThread) Thread.currentThread()).getSourceQueueAction();
+            final Queue current = Queue.RUNNING.get(Thread.currentThread());
+            final QueueAction<?, ? extends Throwable> source = current == null ? null : current.getSourceQueueAction();
             if (source != null) {
                 /* forward source priority */
                 item.setQueuePrio(source.getQueuePrio());
@@ -196,10 +205,22 @@ public abstract class Queue {
         return this.thread.get();
     }
 
+    /**
+     * @return the thread that currently runs this queue. This is the {@link #getQueueThread()} or a virtual thread, see
+     *         {@link #setThreadingModel(ThreadingModel)}
+     */
+    public Thread getQueueRunner() {
+        return this.runner;
+    }
+
     protected QueueAction<?, ? extends Throwable> getSourceQueueAction() {
         return this.sourceItem;
     }
 
+    public ThreadingModel getThreadingModel() {
+        return this.threadingModel;
+    }
+
     public long getTimeout() {
         return this.timeout;
     }
@@ -225,8 +246,22 @@ public abstract class Queue {
                 this.queue.offer(action);
                 break;
             }
-            if (this.thread.get() == null) {
-                this.thread.set(new QueueThread(this));
+            if (this.runner == null) {
+                if (this.threadingModel.isVirtual()) {
+                    final Thread runner = this.threadingModel.newThread("Queue:" + this.getID(), new Runnable() {
+
+                        @Override
+                        public void run() {
+                            Queue.this.runQueue();
+                        }
+                    });
+                    this.runner = runner;
+                    runner.start();
+                } else {
+                    final QueueThread thread = new QueueThread(this);
+                    this.thread.set(thread);
+                    this.runner = thread;
+                }
             }
             this.queue.notifyAll();
         }
@@ -252,7 +287,7 @@ public abstract class Queue {
      * running QueueItem
      */
     public boolean isQueueThread(final QueueAction<?, ? extends Throwable> item) {
-        if (Thread.currentThread() == this.thread.get()) {
+        if (Thread.currentThread() == this.runner) {
             return true;
         }
         QueueAction<?, ? extends Throwable> last = item;
@@ -261,15 +296,16 @@ public abstract class Queue {
          * we walk through actionHistory to check if we are still in our QueueThread
          */
         int loopprevention = 0;
+        Queue queue = null;
         while (last != null && (t = last.getCallerThread()) != null) {
-            if (t != null && t instanceof QueueThread) {
-                if (t == this.getQueueThread()) {
+            if ((queue = Queue.RUNNING.get(t)) != null) {
+                if (queue == this) {
                     if (this.debugFlag) {
                         org.appwork.utils.logging.Log.L.warning("Multiple queues detected-> external synchronization may be required! " + item);
                     }
                     return true;
                 }
-                last = ((QueueThread) t).getLastHistoryItem();
+                last = queue.getLastHistoryItem();
                 if (loopprevention > Queue.QUEUELOOPPREVENTION.get()) {
                     /*
                      * loop prevention: while can only loop max QUEUELOOPPREVENTION times, cause no more different queues exist
@@ -335,32 +371,38 @@ public abstract class Queue {
 
     protected void runQueue() {
         QueueAction<?, ? extends Throwable> item = null;
-        while (true) {
-            try {
-                this.handlePreRun();
-                synchronized (this.queue) {
-                    item = this.queue.poll();
-                    if (item == null) {
-                        this.queue.wait(this.getTimeout());
+        Queue.RUNNING.put(Thread.currentThread(), this);
+        try {
+            while (true) {
+                try {
+                    this.handlePreRun();
+                    synchronized (this.queue) {
                         item = this.queue.poll();
                         if (item == null) {
-                            this.thread.set(null);
-                            return;
+                            this.queue.wait(this.getTimeout());
+                            item = this.queue.poll();
+                            if (item == null) {
+                                this.thread.set(null);
+                                this.runner = null;
+                                return;
+                            }
                         }
                     }
-                }
-                try {
-                    this.sourceItem = item;
-                    this.startItem(item, true);
+                    try {
+                        this.sourceItem = item;
+                        this.startItem(item, true);
+                    } catch (final Throwable e) {
+                    } finally {
+                        this.sourceItem = null;
+                        this.onItemHandled(item);
+                    }
                 } catch (final Throwable e) {
-                } finally {
-                    this.sourceItem = null;
-                    this.onItemHandled(item);
+                    Log.L.info("Queue rescued!");
+                    Log.exception(e);
                 }
-            } catch (final Throwable e) {
-                Log.L.info("Queue rescued!");
-                Log.exception(e);
             }
+        } finally {
+            Queue.RUNNING.remove(Thread.currentThread());
         }
     }
 
@@ -373,6 +415,14 @@ public abstract class Queue {
         this.debugFlag = b;
     }
 
+    /**
+     * @param threadingModel
+     *            used for the next thread this queue starts
+     */
+    public void setThreadingModel(final ThreadingModel threadingModel) {
+        this.threadingModel = threadingModel == null ? ThreadingModel.getDefault() : threadingModel;
+    }
+
     public void setTimeout(long timeout) {
         this.timeout = Math.max(0, timeout);
         synchronized (this.queue) {
@@ -391,7 +441,7 @@ public abstract class Queue {
     protected <T extends Throwable> void startItem(final QueueAction<?, T> item, final boolean callExceptionhandler) throws T {
         try {
             this.currentJob = item;
-            if (this.getQueueThread() != item.getCallerThread()) {
+            if (this.runner != item.getCallerThread()) {
                 synchronized (this.queueThreadHistory) {
                     this.queueThreadHistory.add(item);
                 }
@@ -406,7 +456,7 @@ public abstract class Queue {
                 }
             }
         } finally {
-            if (this.getQueueThread() != item.getCallerThread()) {
+            if (this.runner != item.getCallerThread()) {
                 synchronized (this.queueThreadHistory) {
                     if (this.queueThreadHistory.size() != 0) {
                         this.queueThreadHistory.remove(this.queueThreadHistory.size() - 1);
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2009 - 2014 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.event.queue
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.event.queue.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.appwork.utils.event.queue.ParallelQueue;
+import org.appwork.utils.event.queue.QueueAction;
+
+/**
+ * a burst of blocking actions must be spread over all workers, also if a worker is idle already when it arrives. killQueue keeps the
+ * ordering of running keys.
+ *
+ * @author daniel
+ *
+ */
+public class ParallelQueueTest {
+
+    public static void main(final String[] args) throws Exception {
+        final ParallelQueue queue = new ParallelQueue("ParallelQueueTest", 4);
+        /* one idle worker */
+        queue.submit(ParallelQueueTest.sleep(0, null)).get();
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        final long start = System.currentTimeMillis();
+        final ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(queue.submit(ParallelQueueTest.sleep(200, threads)));
+        }
+        for (final Future<Void> future : futures) {
+            future.get();
+        }
+        final long duration = System.currentTimeMillis() - start;
+        System.out.println("8x200ms on " + threads.size() + " workers: " + duration + "ms");
+        if (threads.size() != 4 || duration >= 700) {
+            System.out.println("TEST FAILED: burst did not run on 4 workers");
+        }
+        /* timeout 0 = workers never stop */
+        queue.setTimeout(0);
+        Thread.sleep(100);
+        final int workers = queue.getWorkers();
+        queue.submit(ParallelQueueTest.sleep(0, null)).get();
+        if (workers != 4 || queue.getWorkers() != 4) {
+            System.out.println("TEST FAILED: workers stopped with timeout 0");
+        }
+        /* killQueue must not forget the key of a running action */
+        final AtomicInteger sameKey = new AtomicInteger(0);
+        final AtomicInteger maxSameKey = new AtomicInteger(0);
+        final Future<Void> running = queue.submit(ParallelQueueTest.sleep(300, sameKey, maxSameKey), "key");
+        Thread.sleep(100);
+        final Future<Void> waiting = queue.submit(ParallelQueueTest.sleep(300, sameKey, maxSameKey), "key");
+        queue.killQueue();
+        final Future<Void> after = queue.submit(ParallelQueueTest.sleep(300, sameKey, maxSameKey), "key");
+        running.get();
+        after.get();
+        System.out.println("same key after killQueue: max " + maxSameKey.get() + " at once, waiting one cancelled=" + waiting.isCancelled());
+        if (maxSameKey.get() != 1 || !waiting.isCancelled()) {
+            System.out.println("TEST FAILED: actions with the same key ran at once after killQueue");
+        }
+        System.exit(0);
+    }
+
+    private static QueueAction<Void, RuntimeException> sleep(final long ms, final AtomicInteger current, final AtomicInteger max) {
+        return new QueueAction<Void, RuntimeException>() {
+
+            @Override
+            protected Void run() throws RuntimeException {
+                final int now = current.incrementAndGet();
+                int old;
+                while ((old = max.get()) < now && !max.compareAndSet(old, now)) {
+                }
+                try {
+                    Thread.sleep(ms);
+                } catch (final InterruptedException e) {
+                } finally {
+                    current.decrementAndGet();
+                }
+                return null;
+            }
+        };
+    }
+
+    private static QueueAction<Void, RuntimeException> sleep(final long ms, final Set<Thread> threads) {
+        return new QueueAction<Void, RuntimeException>() {
+
+            @Override
+            protected Void run() throws RuntimeException {
+                if (threads != null) {
+                    threads.add(Thread.currentThread());
+                }
+                try {
+                    Thread.sleep(ms);
+                } catch (final InterruptedException e) {
+                }
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2009 - 2014 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.event
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.event.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventListener;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.appwork.utils.event.AsyncEventDispatcher;
+import org.appwork.utils.event.AsyncEventDispatcher.BackPressure;
+import org.appwork.utils.event.DefaultEvent;
+import org.appwork.utils.event.Eventsender;
+
+/**
+ * delivery order, back pressure and coalescing of async dispatch. listeners of one async sender that fire into another full sender
+ * must not park the dispatcher pool.
+ *
+ * @author daniel
+ *
+ */
+public class AsyncEventDispatcherTest {
+
+    private static class TestEvent extends DefaultEvent {
+        private final int    value;
+        private final String key;
+
+        private TestEvent(final int value, final String key) {
+            super(null);
+            this.value = value;
+            this.key = key;
+        }
+    }
+
+    private static interface TestListener extends EventListener {
+        public void onTestEvent(TestEvent event);
+    }
+
+    private static class TestSender extends Eventsender<TestListener, TestEvent> {
+
+        @Override
+        protected void fireEvent(final TestListener listener, final TestEvent event) {
+            listener.onTestEvent(event);
+        }
+
+        @Override
+        protected Object getCoalesceKey(final TestEvent event) {
+            return event.key;
+        }
+    }
+
+    /* records the values, delivery of value 0 waits for release */
+    private static class Recorder implements TestListener {
+        private final List<Integer>  values  = Collections.synchronizedList(new ArrayList<Integer>());
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void onTestEvent(final TestEvent event) {
+            this.values.add(event.value);
+            if (event.value == 0) {
+                this.entered.countDown();
+                try {
+                    this.release.await();
+                } catch (final InterruptedException e) {
+                }
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        /* before the pool is created */
+        AsyncEventDispatcher.THREADS = 2;
+        AsyncEventDispatcherTest.testOrder();
+        AsyncEventDispatcherTest.testFull(BackPressure.DROP_NEWEST, "[0, 1, 2, 3, 4]");
+        AsyncEventDispatcherTest.testFull(BackPressure.DROP_OLDEST, "[0, 7, 8, 9, 10]");
+        /* 5 overtakes the buffered ones */
+        AsyncEventDispatcherTest.testFull(BackPressure.CALLER_RUNS, "[0, 5, 6, 7, 8, 9, 10, 1, 2, 3, 4]");
+        AsyncEventDispatcherTest.testCoalesce();
+        AsyncEventDispatcherTest.testBlockFromPool();
+        System.out.println("done");
+        System.exit(0);
+    }
+
+    private static void check(final boolean ok, final String message) {
+        if (!ok) {
+            System.out.println("TEST FAILED: " + message);
+        }
+    }
+
+    private static void testBlockFromPool() throws InterruptedException {
+        final TestSender target = new TestSender();
+        target.enableAsyncDispatch(1, BackPressure.BLOCK);
+        final CountDownLatch received = new CountDownLatch(200);
+        target.addListener(new TestListener() {
+
+            @Override
+            public void onTestEvent(final TestEvent event) {
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException e) {
+                }
+                received.countDown();
+            }
+        });
+        /* more firing senders than pool threads, all queued before the first one fires, so the drain of target queues up behind them */
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            final TestSender source = new TestSender();
+            source.enableAsyncDispatch(16, BackPressure.BLOCK);
+            source.addListener(new TestListener() {
+
+                @Override
+                public void onTestEvent(final TestEvent event) {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                    }
+                    for (int j = 0; j < 50; j++) {
+                        target.fireEvent(new TestEvent(j, null));
+                    }
+                }
+            });
+            source.fireEvent(new TestEvent(i, null));
+        }
+        Thread.sleep(100);
+        start.countDown();
+        final boolean ok = received.await(10, TimeUnit.SECONDS);
+        System.out.println("BLOCK from pool threads: " + target.getAsyncDispatcher());
+        AsyncEventDispatcherTest.check(ok, "listeners firing into a full BLOCK sender parked the pool");
+    }
+
+    private static void testCoalesce() throws InterruptedException {
+        final TestSender sender = new TestSender();
+        final AsyncEventDispatcher<TestEvent> dispatcher = sender.enableAsyncDispatch(4, BackPressure.BLOCK);
+        final Recorder recorder = new Recorder();
+        sender.addListener(recorder);
+        sender.fireEvent(new TestEvent(0, null));
+        recorder.entered.await();
+        for (int i = 1; i <= 10; i++) {
+            sender.fireEvent(new TestEvent(i, i % 2 == 0 ? "even" : "odd"));
+        }
+        recorder.release.countDown();
+        AsyncEventDispatcherTest.waitDelivered(dispatcher, 3);
+        System.out.println("coalesce: " + recorder.values + " " + dispatcher);
+        AsyncEventDispatcherTest.check("[0, 9, 10]".equals(recorder.values.toString()), "coalesce delivered " + recorder.values);
+        AsyncEventDispatcherTest.check(dispatcher.getCoalesced() == 8, "coalesced " + dispatcher.getCoalesced());
+    }
+
+    /**
+     * 0 blocks the listener, 1-4 fill the buffer, 5-10 hit the full buffer
+     */
+    private static void testFull(final BackPressure backPressure, final String expected) throws InterruptedException {
+        final TestSender sender = new TestSender();
+        final AsyncEventDispatcher<TestEvent> dispatcher = sender.enableAsyncDispatch(4, backPressure);
+        final Recorder recorder = new Recorder();
+        sender.addListener(recorder);
+        sender.fireEvent(new TestEvent(0, null));
+        recorder.entered.await();
+        for (int i = 1; i <= 10; i++) {
+            sender.fireEvent(new TestEvent(i, null));
+        }
+        recorder.release.countDown();
+        AsyncEventDispatcherTest.waitDelivered(dispatcher, 5);
+        System.out.println(backPressure + ": " + recorder.values + " " + dispatcher);
+        AsyncEventDispatcherTest.check(expected.equals(recorder.values.toString()), backPressure + " delivered " + recorder.values);
+        final long lost = backPressure == BackPressure.CALLER_RUNS ? dispatcher.getCallerRuns() : dispatcher.getDropped();
+        AsyncEventDispatcherTest.check(lost == 6, backPressure + " counted " + lost);
+    }
+
+    private static void testOrder() throws InterruptedException {
+        final TestSender sender = new TestSender();
+        final AsyncEventDispatcher<TestEvent> dispatcher = sender.enableAsyncDispatch(8, BackPressure.BLOCK);
+        final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        sender.addListener(new TestListener() {
+
+            @Override
+            public void onTestEvent(final TestEvent event) {
+                values.add(event.value);
+                threads.add(Thread.currentThread());
+            }
+        });
+        for (int i = 0; i < 5000; i++) {
+            sender.fireEvent(new TestEvent(i + 1, null));
+        }
+        AsyncEventDispatcherTest.waitDelivered(dispatcher, 5000);
+        System.out.println("BLOCK: " + dispatcher);
+        boolean ordered = values.size() == 5000;
+        for (int i = 0; ordered && i < values.size(); i++) {
+            ordered = values.get(i) == i + 1;
+        }
+        AsyncEventDispatcherTest.check(ordered, "BLOCK did not keep fire order");
+        AsyncEventDispatcherTest.check(!threads.contains(Thread.currentThread()), "BLOCK delivered in the firing thread");
+    }
+
+    private static void waitDelivered(final AsyncEventDispatcher<TestEvent> dispatcher, final long delivered) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 5000;
+        while (dispatcher.getDelivered() < delivered && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        /* late extra deliveries */
+        Thread.sleep(50);
+    }
+}
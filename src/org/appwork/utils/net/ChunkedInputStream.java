@@ -1,8 +1,8 @@
 /**
  * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
- * 
+ *
  * This file is part of org.appwork.utils.net
- * 
+ *
  * This software is licensed under the Artistic License 2.0,
  * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
  * for details
@@ -12,78 +12,91 @@ package org.appwork.utils.net;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.appwork.utils.ByteArrayPool;
 
 /**
  * @author daniel, ChunkedInputStream, see rfc2616#section-3.6
- * 
+ *
+ *         chunk size lines and trailers are parsed from a small lookahead buffer. the stream never reads more than the chunked body can
+ *         still contain, so the underlying stream can be reused (keep-alive): every read is limited to the minimum number of bytes that
+ *         must follow at the current position (e.g. after chunk data at least "\n0\n\n"). chunk data is read directly into the callers
+ *         buffer.
  */
 public class ChunkedInputStream extends InputStream implements StreamValidEOF {
 
+    /* buffer size for transferTo */
+    public static int         TRANSFER_BUFFER = 32 * 1024;
+
     private final InputStream is;
-    private volatile int      nextChunkSize = 0;
-    private volatile int      nextChunkLeft = 0;
-    private volatile long     completeSize  = 0;
-    private boolean           EOF           = false;
+    /* lookahead, always in read mode */
+    private final ByteBuffer  lookahead       = ByteBuffer.allocate(8);
+    private volatile int      nextChunkSize   = 0;
+    private volatile int      nextChunkLeft   = 0;
+    private volatile long     completeSize    = 0;
+    private boolean           EOF             = false;
 
     public ChunkedInputStream(final InputStream is) {
         this.is = is;
+        this.lookahead.limit(0);
     }
 
     @Override
     public int available() throws IOException {
         if (this.nextChunkLeft > 0) { return this.nextChunkLeft; }
-        return this.is.available();
+        return this.lookahead.remaining() + this.is.available();
     }
 
     /**
      * returns available bytes in current Chunk or reads next Chunk and parses
      * it
-     * 
+     *
      * @return
      * @throws IOException
      */
     private int availableChunkData() throws IOException {
         if (this.nextChunkLeft == -1) { return -1; }
         if (this.nextChunkLeft > 0) { return this.nextChunkLeft; }
-        final StringBuilder sb = new StringBuilder();
-        boolean chunkExt = false;
-        final byte[] b = { (byte) 0x00 };
         int read = 0;
         if (this.nextChunkSize > 0) {
-            /* finish LF/CRLF from previous chunk */
-            read = this.is.read();
+            /* finish LF/CRLF from previous chunk, at least \n0\n\n must follow */
+            read = this.next(4);
             if (read == 13) {
-                read = this.is.read();
+                read = this.next(4);
             }
         }
-        read = this.is.read();
+        /* parse chunk size, ignore chunkExtensions */
+        boolean chunkExt = false;
+        int digits = 0;
+        int size = 0;
+        /* empty line needs at least 0\n\n, else \n\n */
+        read = this.next(3);
         while (read > -1 && read != 10 && read != 13) {
             if (read == 59) {
-                /* ignore chunkExtensions */
-                // System.out.println("chunkedExtension found");
                 chunkExt = true;
+            } else if (chunkExt == false && read != 32 && read != 9) {
+                final int digit = Character.digit(read, 16);
+                if (digit < 0) { throw new IOException("malformed chunk size"); }
+                /* the size must stay a positive int, leading zeros are fine */
+                if (size > 0x07FFFFFF) { throw new IOException("chunk size too big"); }
+                size = size << 4 | digit;
+                digits++;
             }
-            if (chunkExt == false) {
-                b[0] = (byte) (read & 0xFF);
-                sb.append(new String(b, 0, 1));
-            }
-            read = this.is.read();
+            read = this.next(2);
         }
-        if (read == -1 && sb.length() == 0) { return -1; }
+        if (read == -1 && digits == 0) { return -1; }
         if (read == 13) {
             /* finish CRLF here */
-            read = this.is.read();
-        }
-        this.nextChunkSize = 0;
-        if (sb.length() > 0) {
-            this.nextChunkSize = Integer.parseInt(sb.toString().trim(), 16);
+            read = this.next(2);
         }
+        this.nextChunkSize = size;
         if (this.nextChunkSize == 0) {
-            // System.out.println("lastChunk");
             this.nextChunkLeft = -1;
             this.readTrailers();
         } else {
-            // System.out.println("nextchunkSize: " + this.nextChunkSize);
             this.completeSize += this.nextChunkSize;
             this.nextChunkLeft = this.nextChunkSize;
         }
@@ -95,29 +108,6 @@ public class ChunkedInputStream extends InputStream implements StreamValidEOF {
         this.is.close();
     }
 
-    /**
-     * Exhaust an input stream, reading until EOF has been encountered.
-     * 
-     * @throws IOException
-     */
-    private void exhaustInputStream() throws IOException {
-        /* check for final \r\n CRLF of trailers ending */
-        int read = -1;
-        boolean gotNL = false;
-        while ((read = this.is.read()) >= 0) {
-            if (gotNL) {
-                if (read == 10) {
-                    this.EOF = true;
-                    return;
-                }
-                gotNL = false;
-            }
-            if (read == 13) {
-                gotNL = true;
-            }
-        }
-    }
-
     /**
      * @return the completeSize
      */
@@ -125,16 +115,42 @@ public class ChunkedInputStream extends InputStream implements StreamValidEOF {
         return this.completeSize;
     }
 
+    @Override
+    public boolean isValidEOF() {
+        return this.EOF;
+    }
+
     @Override
     public boolean markSupported() {
         return false;
     }
 
+    /**
+     * next byte of the chunk framing
+     *
+     * @param max
+     *            bytes that may be read from the underlying stream at most
+     * @return
+     * @throws IOException
+     */
+    private int next(final int max) throws IOException {
+        if (!this.lookahead.hasRemaining()) {
+            final int read = this.is.read(this.lookahead.array(), 0, max);
+            if (read <= 0) {
+                this.lookahead.limit(0);
+                return -1;
+            }
+            this.lookahead.position(0);
+            this.lookahead.limit(read);
+        }
+        return this.lookahead.get() & 0xff;
+    }
+
     @Override
     public int read() throws IOException {
         final int left = this.availableChunkData();
         if (left > 0) {
-            final int ret = this.is.read();
+            final int ret = this.lookahead.hasRemaining() ? this.lookahead.get() & 0xff : this.is.read();
             if (ret != -1) {
                 this.nextChunkLeft--;
                 return ret;
@@ -146,9 +162,17 @@ public class ChunkedInputStream extends InputStream implements StreamValidEOF {
 
     @Override
     public int read(final byte b[], final int off, final int len) throws IOException {
+        if (len == 0) { return 0; }
         final int left = this.availableChunkData();
         if (left > 0) {
-            final int ret = this.is.read(b, off, Math.min(left, len));
+            int ret;
+            if (this.lookahead.hasRemaining()) {
+                /* data that was read together with the chunk size */
+                ret = Math.min(Math.min(left, len), this.lookahead.remaining());
+                this.lookahead.get(b, off, ret);
+            } else {
+                ret = this.is.read(b, off, Math.min(left, len));
+            }
             if (ret != -1) {
                 this.nextChunkLeft -= ret;
                 return ret;
@@ -159,17 +183,74 @@ public class ChunkedInputStream extends InputStream implements StreamValidEOF {
     }
 
     /**
-     * TODO: read the Trailers we read until EOF at the moment;
-     * 
+     * reads the trailers until the empty line
+     *
      * @throws IOException
      */
     private void readTrailers() throws IOException {
-        this.exhaustInputStream();
+        int lineLength = 0;
+        int read;
+        /* empty line needs \n, else \n\n */
+        while ((read = this.next(lineLength == 0 ? 1 : 2)) >= 0) {
+            if (read == 10) {
+                if (lineLength == 0) {
+                    this.EOF = true;
+                    return;
+                }
+                lineLength = 0;
+            } else if (read != 13) {
+                lineLength++;
+            }
+        }
     }
 
-    @Override
-    public boolean isValidEOF() {
-        return this.EOF;
+    /**
+     * writes the remaining chunk data to os
+     *
+     * @param os
+     * @return bytes transfered
+     * @throws IOException
+     */
+    public long transferTo(final OutputStream os) throws IOException {
+        long ret = 0;
+        final byte[] buffer = ByteArrayPool.getInstance().get(ChunkedInputStream.TRANSFER_BUFFER);
+        try {
+            int read;
+            while ((read = this.read(buffer, 0, buffer.length)) != -1) {
+                os.write(buffer, 0, read);
+                ret += read;
+            }
+        } finally {
+            ByteArrayPool.getInstance().put(buffer);
+        }
+        return ret;
+    }
+
+    /**
+     * writes the remaining chunk data to channel
+     *
+     * @param channel
+     * @return bytes transfered
+     * @throws IOException
+     */
+    public long transferTo(final WritableByteChannel channel) throws IOException {
+        long ret = 0;
+        final byte[] buffer = ByteArrayPool.getInstance().get(ChunkedInputStream.TRANSFER_BUFFER);
+        try {
+            final ByteBuffer bb = ByteBuffer.wrap(buffer);
+            int read;
+            while ((read = this.read(buffer, 0, buffer.length)) != -1) {
+                bb.clear();
+                bb.limit(read);
+                while (bb.hasRemaining()) {
+                    channel.write(bb);
+                }
+                ret += read;
+            }
+        } finally {
+            ByteArrayPool.getInstance().put(buffer);
+        }
+        return ret;
     }
 
 }
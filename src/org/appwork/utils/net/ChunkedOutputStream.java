@@ -1,8 +1,8 @@
 /**
  * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
- * 
+ *
  * This file is part of org.appwork.utils.net
- * 
+ *
  * This software is licensed under the Artistic License 2.0,
  * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
  * for details
@@ -12,48 +12,71 @@ package org.appwork.utils.net;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import org.appwork.utils.ByteArrayPool;
+
 /**
  * @author daniel,ChunkedOutputStream, see rfc2616#section-3.6
- * 
+ *
+ *         the buffer keeps room for the chunk header in front of the data, so a buffered chunk is written with one call. the CRLF after
+ *         data that was written without buffering is sent together with the next chunk header.
  */
 public class ChunkedOutputStream extends OutputStream {
 
-    private final OutputStream os;
-    private final byte[]       buffer;
-    private int                bufUsed = 0;
-    boolean                    closed  = false;
+    private static final byte[] HEX     = "0123456789abcdef".getBytes();
+    private static final byte[] CRLF    = new byte[] { (byte) '\r', (byte) '\n' };
+    /* CRLF of the previous chunk + max. 8 hex digits + CRLF */
+    private static final int    HEAD    = 12;
+    /* CRLF after data */
+    private static final int    TAIL    = 2;
+
+    private final OutputStream  os;
+    private final byte[]        buffer;
+    private final int           capacity;
+    private final boolean       pooled;
+    private boolean             released;
+    private int                 bufUsed = 0;
+    private boolean             crlfPending;
+    boolean                     closed  = false;
 
     public ChunkedOutputStream(final OutputStream os) {
-        this(os, 4096);
+        this.os = os;
+        this.buffer = ByteArrayPool.getInstance().get(4096 + ChunkedOutputStream.HEAD + ChunkedOutputStream.TAIL);
+        this.capacity = this.buffer.length - ChunkedOutputStream.HEAD - ChunkedOutputStream.TAIL;
+        this.pooled = true;
     }
 
+    /**
+     * @param os
+     * @param buffer
+     *            used as buffer, 14 bytes of it are reserved for chunk header and CRLF
+     */
     public ChunkedOutputStream(final OutputStream os, final byte[] buffer) {
         this.os = os;
-        this.buffer = buffer;
+        if (buffer.length > ChunkedOutputStream.HEAD + ChunkedOutputStream.TAIL) {
+            this.buffer = buffer;
+        } else {
+            this.buffer = new byte[ChunkedOutputStream.HEAD + 1 + ChunkedOutputStream.TAIL];
+        }
+        this.capacity = this.buffer.length - ChunkedOutputStream.HEAD - ChunkedOutputStream.TAIL;
+        this.pooled = false;
     }
 
     public ChunkedOutputStream(final OutputStream os, final int bufSize) {
         this.os = os;
-        this.buffer = new byte[bufSize];
+        this.capacity = Math.max(1, bufSize);
+        this.buffer = new byte[ChunkedOutputStream.HEAD + this.capacity + ChunkedOutputStream.TAIL];
+        this.pooled = false;
     }
 
     private void _flush(final boolean emptyFlush) throws IOException {
         if (this.closed == false) {
             if (this.bufUsed > 0 || emptyFlush) {
-                final byte[] bytes = Integer.toHexString(this.bufUsed).getBytes();
-                /* send chunk size */
-                this.os.write(bytes);
-                this.os.write((byte) '\r');
-                this.os.write((byte) '\n');
-                /* send chunk data */
-                if (this.bufUsed > 0 || emptyFlush) {
-                    /* flush buffered data if any available */
-                    if (this.bufUsed > 0) {
-                        this.os.write(this.buffer, 0, this.bufUsed);
-                    }
-                    this.os.write((byte) '\r');
-                    this.os.write((byte) '\n');
-                }
+                /* chunk size, chunk data and CRLF in one write */
+                final int start = this.header(this.bufUsed);
+                int end = ChunkedOutputStream.HEAD + this.bufUsed;
+                this.buffer[end++] = (byte) '\r';
+                this.buffer[end++] = (byte) '\n';
+                this.os.write(this.buffer, start, end - start);
                 this.bufUsed = 0;
             }
         }
@@ -61,19 +84,54 @@ public class ChunkedOutputStream extends OutputStream {
 
     @Override
     public synchronized void close() throws IOException {
-        if (this.closed == false) {
-            this.sendEOF();
-            this.closed = true;
+        try {
+            if (this.closed == false) {
+                this.sendEOF();
+                this.closed = true;
+            }
+        } finally {
+            /* also if sendEOF failed, the stream is unusable anyway */
+            if (this.pooled && this.released == false) {
+                /* buffer may be used by others from now on */
+                this.released = true;
+                ByteArrayPool.getInstance().put(this.buffer);
+            }
+            this.os.close();
         }
-        this.os.close();
     }
 
     @Override
     public synchronized void flush() throws IOException {
         this._flush(false);
+        if (this.crlfPending && this.closed == false) {
+            this.crlfPending = false;
+            this.os.write(ChunkedOutputStream.CRLF);
+        }
         this.os.flush();
     }
 
+    /**
+     * writes the chunk header in front of the buffered data, including a pending CRLF
+     *
+     * @param size
+     * @return start of the header in buffer
+     */
+    private int header(int size) {
+        int pos = ChunkedOutputStream.HEAD;
+        this.buffer[--pos] = (byte) '\n';
+        this.buffer[--pos] = (byte) '\r';
+        do {
+            this.buffer[--pos] = ChunkedOutputStream.HEX[size & 0xf];
+            size >>>= 4;
+        } while (size != 0);
+        if (this.crlfPending) {
+            this.crlfPending = false;
+            this.buffer[--pos] = (byte) '\n';
+            this.buffer[--pos] = (byte) '\r';
+        }
+        return pos;
+    }
+
     public synchronized void sendEOF() throws IOException {
         /* flush rest available chunk data */
         this._flush(false);
@@ -86,46 +144,30 @@ public class ChunkedOutputStream extends OutputStream {
     @Override
     public synchronized void write(final byte b[], final int off, final int len) throws IOException {
         if (len == 0) { return; }
-        if (this.bufUsed + len < this.buffer.length) {
+        if (this.released) { throw new IOException("stream closed"); }
+        if (this.bufUsed + len < this.capacity) {
             /* buffer has enough space for len bytes */
             /* fill buffer */
-            System.arraycopy(b, off, this.buffer, this.bufUsed, len);
+            System.arraycopy(b, off, this.buffer, ChunkedOutputStream.HEAD + this.bufUsed, len);
             this.bufUsed += len;
         } else {
-            /* buffer has not enough space for len bytes, send as chunk */
-            final byte[] bytes = Integer.toHexString(this.bufUsed + len).getBytes();
-            /* send chunk size */
-            this.os.write(bytes);
-            this.os.write((byte) '\r');
-            this.os.write((byte) '\n');
-            /* send chunk data */
-            if (this.bufUsed > 0) {
-                /* flush buffered data if any available */
-                this.os.write(this.buffer, 0, this.bufUsed);
-                this.bufUsed = 0;
-            }
+            /* buffer has not enough space for len bytes, send as chunk: header and buffered data, then b */
+            final int start = this.header(this.bufUsed + len);
+            this.os.write(this.buffer, start, ChunkedOutputStream.HEAD + this.bufUsed - start);
+            this.bufUsed = 0;
             this.os.write(b, off, len);
-            this.os.write((byte) '\r');
-            this.os.write((byte) '\n');
+            this.crlfPending = true;
         }
     }
 
     @Override
     public synchronized void write(final int b) throws IOException {
-        if (this.bufUsed == this.buffer.length) {
+        if (this.released) { throw new IOException("stream closed"); }
+        if (this.bufUsed == this.capacity) {
             /* buffer full,send as chunked data */
-            final byte[] bytes = Integer.toHexString(this.buffer.length).getBytes();
-            /* send chunk size */
-            this.os.write(bytes);
-            this.os.write((byte) '\r');
-            this.os.write((byte) '\n');
-            /* send buffer as chunk data */
-            this.os.write(this.buffer);
-            this.os.write((byte) '\r');
-            this.os.write((byte) '\n');
-            this.bufUsed = 0;
+            this._flush(false);
         }
         /* fill buffer */
-        this.buffer[this.bufUsed++] = (byte) b;
+        this.buffer[ChunkedOutputStream.HEAD + this.bufUsed++] = (byte) b;
     }
 }
@@ -10,86 +10,136 @@
 package org.appwork.utils.net;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.NoSuchElementException;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * @author daniel
  *
+ *         headers in insertion order with a case-insensitive hash index (see {@link HeaderKeys}). adding appends to the array, only
+ *         overwrite/remove/clear replace it, so iterators work on a snapshot like before.
  */
 public class HeaderCollection implements Iterable<HTTPHeader> {
-    private final CopyOnWriteArrayList<HTTPHeader> collection            = new CopyOnWriteArrayList<HTTPHeader>();
-    private final CopyOnWriteArraySet<String>      allowedDuplicatedKeys = new CopyOnWriteArraySet<String>();
+    private static final HTTPHeader[]         EMPTY                 = new HTTPHeader[0];
+
+    private HTTPHeader[]                      headers               = HeaderCollection.EMPTY;
+    private int                               size                  = 0;
+    /* hash index: table holds index+1 of the first header of a bucket, next the index+1 of the following one */
+    private int[]                             table                 = null;
+    private int[]                             next                  = null;
+    private int[]                             hashes                = null;
+    private final CopyOnWriteArraySet<String> allowedDuplicatedKeys = new CopyOnWriteArraySet<String>();
 
     public HeaderCollection() {
         this.allowedDuplicatedKeys.add("Set-Cookies".toLowerCase(Locale.ENGLISH));
     }
 
     public void add(final HTTPHeader header) {
-        final HTTPHeader existingHeader = this.get(header.getKey());
-        if (existingHeader != null) {
-            if (!this.allowedDuplicatedKeys.contains(header.getKey().toLowerCase(Locale.ENGLISH))) {
-                if (existingHeader.isAllowOverwrite()) {
-                    final int index = indexOf(existingHeader);
-                    collection.set(index, header);
+        synchronized (this) {
+            final String key = header.getKey();
+            final int existing = this.find(key);
+            if (existing >= 0) {
+                if (!this.allowedDuplicatedKeys.contains(key.toLowerCase(Locale.ENGLISH))) {
+                    if (this.headers[existing].isAllowOverwrite()) {
+                        /* copy, iterators may still use the old array */
+                        final HTTPHeader[] headers = this.headers.clone();
+                        headers[existing] = header;
+                        this.headers = headers;
+                    }
+                    return;
                 }
-                return;
             }
+            this.append(header);
+        }
+    }
+
+    private void append(final HTTPHeader header) {
+        if (this.size == this.headers.length) {
+            this.grow(Math.max(8, this.size << 1));
         }
-        this.collection.add(header);
+        this.headers[this.size] = header;
+        this.index(this.size);
+        this.size++;
     }
 
     public void clear() {
-        this.collection.clear();
+        synchronized (this) {
+            this.headers = HeaderCollection.EMPTY;
+            this.size = 0;
+            this.table = null;
+            this.next = null;
+            this.hashes = null;
+        }
     }
 
     @Override
     public HeaderCollection clone() {
         final HeaderCollection ret = new HeaderCollection();
-        ret.collection.addAll(this.collection);
+        synchronized (this) {
+            if (this.size > 0) {
+                ret.headers = Arrays.copyOf(this.headers, this.headers.length);
+                ret.size = this.size;
+                ret.table = this.table.clone();
+                ret.next = this.next.clone();
+                ret.hashes = this.hashes.clone();
+            }
+        }
         return ret;
     }
 
-    public HTTPHeader get(final int index) {
-        return this.collection.get(index);
+    /**
+     * @param key
+     * @return index of the first header with key or -1
+     */
+    private int find(final String key) {
+        if (key == null || this.table == null) { return -1; }
+        final int hash = HeaderKeys.hash(key);
+        int index = this.table[hash & this.table.length - 1];
+        while (index > 0) {
+            final int i = index - 1;
+            if (this.hashes[i] == hash && HeaderKeys.equals(this.headers[i].getKey(), key)) { return i; }
+            index = this.next[i];
+        }
+        return -1;
     }
 
-    public int indexOf(HTTPHeader header) {
-        return collection.indexOf(header);
+    public HTTPHeader get(final int index) {
+        synchronized (this) {
+            if (index < 0 || index >= this.size) { throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size); }
+            return this.headers[index];
+        }
     }
 
     public HTTPHeader get(final String key) {
-        if (key == null) {
-            return null;
-        }
-        for (final HTTPHeader header : this.collection) {
-            if (header.getKey() == null) {
-                if (key == null) {
-                    return header;
-                }
-            } else {
-                if (header.getKey().equalsIgnoreCase(key)) {
-                    return header;
-                }
-            }
+        synchronized (this) {
+            final int index = this.find(key);
+            return index >= 0 ? this.headers[index] : null;
         }
-        return null;
     }
 
     public List<HTTPHeader> getAll(final String key) {
-        final ArrayList<HTTPHeader> ret = new ArrayList<HTTPHeader>();
-        for (final HTTPHeader header : this.collection) {
-            if (header.getKey().equalsIgnoreCase(key)) {
-                ret.add(header);
+        if (key == null) { return null; }
+        final int hash = HeaderKeys.hash(key);
+        ArrayList<HTTPHeader> ret = null;
+        synchronized (this) {
+            if (this.table == null) { return null; }
+            int index = this.table[hash & this.table.length - 1];
+            while (index > 0) {
+                final int i = index - 1;
+                if (this.hashes[i] == hash && HeaderKeys.equals(this.headers[i].getKey(), key)) {
+                    if (ret == null) {
+                        ret = new ArrayList<HTTPHeader>();
+                    }
+                    ret.add(this.headers[i]);
+                }
+                index = this.next[i];
             }
         }
-        if (ret.size() > 0) {
-            return ret;
-        }
-        return null;
+        return ret;
     }
 
     public CopyOnWriteArraySet<String> getAllowedDuplicatedKeys() {
@@ -104,35 +154,125 @@ public class HeaderCollection implements Iterable<HTTPHeader> {
         return null;
     }
 
+    private void grow(final int capacity) {
+        this.headers = Arrays.copyOf(this.headers, capacity);
+        this.hashes = this.hashes == null ? new int[capacity] : Arrays.copyOf(this.hashes, capacity);
+        this.next = this.next == null ? new int[capacity] : Arrays.copyOf(this.next, capacity);
+        if (this.table == null || this.table.length < capacity << 1) {
+            this.table = new int[Integer.highestOneBit(capacity) << 2];
+            for (int i = 0; i < this.size; i++) {
+                this.index(i);
+            }
+        }
+    }
+
+    /* appends header i to the end of its bucket, so lookups keep insertion order */
+    private void index(final int i) {
+        final String key = this.headers[i].getKey();
+        this.next[i] = 0;
+        if (key == null) {
+            /* not found by key */
+            return;
+        }
+        final int hash = HeaderKeys.hash(key);
+        this.hashes[i] = hash;
+        final int slot = hash & this.table.length - 1;
+        int index = this.table[slot];
+        if (index == 0) {
+            this.table[slot] = i + 1;
+        } else {
+            while (this.next[index - 1] != 0) {
+                index = this.next[index - 1];
+            }
+            this.next[index - 1] = i + 1;
+        }
+    }
+
+    public int indexOf(final HTTPHeader header) {
+        synchronized (this) {
+            for (int i = 0; i < this.size; i++) {
+                if (header == null ? this.headers[i] == null : header.equals(this.headers[i])) { return i; }
+            }
+            return -1;
+        }
+    }
+
     @Override
     public Iterator<HTTPHeader> iterator() {
-        return this.collection.iterator();
+        final HTTPHeader[] headers;
+        final int size;
+        synchronized (this) {
+            headers = this.headers;
+            size = this.size;
+        }
+        return new Iterator<HTTPHeader>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < size;
+            }
+
+            @Override
+            public HTTPHeader next() {
+                if (this.index >= size) { throw new NoSuchElementException(); }
+                return headers[this.index++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     public boolean remove(final HTTPHeader header) {
-        if (this.collection.remove(header)) {
-            return true;
-        } else {
-            return this.remove(header.getKey());
+        synchronized (this) {
+            final int index = this.indexOf(header);
+            if (index >= 0) {
+                this.remove(index);
+                return true;
+            } else {
+                return this.remove(header.getKey());
+            }
+        }
+    }
+
+    private void remove(final int index) {
+        final HTTPHeader[] headers = new HTTPHeader[this.headers.length];
+        System.arraycopy(this.headers, 0, headers, 0, index);
+        System.arraycopy(this.headers, index + 1, headers, index, this.size - index - 1);
+        this.headers = headers;
+        this.size--;
+        Arrays.fill(this.table, 0);
+        for (int i = 0; i < this.size; i++) {
+            this.index(i);
         }
     }
 
     public boolean remove(final String key) {
-        final HTTPHeader existingHeader = this.get(key);
-        if (existingHeader != null) {
-            return this.collection.remove(existingHeader);
-        } else {
-            return false;
+        synchronized (this) {
+            final int index = this.find(key);
+            if (index >= 0) {
+                this.remove(index);
+                return true;
+            } else {
+                return false;
+            }
         }
     }
 
     public int size() {
-        return this.collection.size();
+        synchronized (this) {
+            return this.size;
+        }
     }
 
     @Override
     public String toString() {
-        return this.collection.toString();
+        synchronized (this) {
+            return Arrays.asList(this.headers).subList(0, this.size).toString();
+        }
     }
 
 }
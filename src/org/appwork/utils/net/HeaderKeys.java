@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2009 - 2014 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.net
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.net;
+
+import org.appwork.net.protocol.http.HTTPConstants;
+
+/**
+ * @author daniel
+ *
+ *         HeaderKeys
+ *
+ *         case-insensitive hashing/comparison of header field names without creating lower case copies. header field names are tokens
+ *         (rfc2616#section-4.2), so only ASCII letters are folded. common names are interned while parsing, so most comparisons end with
+ *         ==.
+ */
+public final class HeaderKeys {
+
+    private static final String[] COMMON = new String[] { HTTPConstants.HEADER_REQUEST_ACCEPT, HTTPConstants.HEADER_REQUEST_ACCEPT_CHARSET, HTTPConstants.HEADER_REQUEST_ACCEPT_ENCODING, HTTPConstants.HEADER_REQUEST_ACCEPT_LANGUAGE, HTTPConstants.HEADER_REQUEST_AUTHORIZATION, HTTPConstants.HEADER_REQUEST_CACHE_CONTROL, HTTPConstants.HEADER_REQUEST_CONNECTION, HTTPConstants.HEADER_REQUEST_COOKIE, HTTPConstants.HEADER_RESPONSE_CONTENT_LENGTH, HTTPConstants.HEADER_REQUEST_CONTENT_TYPE, HTTPConstants.HEADER_RESPONSE_CONTENT_RANGE, HTTPConstants.HEADER_RESPONSE_CONTENT_ENCODING, HTTPConstants.HEADER_REQUEST_DATE, HTTPConstants.HEADER_REQUEST_EXPECT, HTTPConstants.HEADER_REQUEST_HOST, HTTPConstants.HEADER_REQUEST_IF_MODIFIED_SINCE, HTTPConstants.HEADER_REQUEST_IF_NON_MATCH, HTTPConstants.HEADER_REQUEST_PRAGMA, HTTPConstants.HEADER_REQUEST_RANGE, HTTPConstants.HEADER_REQUEST_REFERER, HTTPConstants.HEADER_REQUEST_USER_AGENT, HTTPConstants.HEADER_REQUEST_X_FORWARDED_FOR, HTTPConstants.HEADER_REQUEST_X_CLIENT_IP, HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING, "Origin", "Keep-Alive", "Upgrade-Insecure-Requests", "DNT", "Sec-Fetch-Dest", "Sec-Fetch-Mode", "Sec-Fetch-Site", "X-Requested-With" };
+    /* open addressing, index+1 into COMMON */
+    private static final int[]    TABLE  = new int[128];
+
+    static {
+        for (int i = 0; i < HeaderKeys.COMMON.length; i++) {
+            int slot = HeaderKeys.hash(HeaderKeys.COMMON[i]) & HeaderKeys.TABLE.length - 1;
+            while (HeaderKeys.TABLE[slot] != 0) {
+                slot = slot + 1 & HeaderKeys.TABLE.length - 1;
+            }
+            HeaderKeys.TABLE[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return true if both names are equal ignoring ASCII case
+     */
+    public static boolean equals(final String a, final String b) {
+        if (a == b) { return true; }
+        if (a == null || b == null) { return false; }
+        final int length = a.length();
+        if (length != b.length()) { return false; }
+        for (int i = 0; i < length; i++) {
+            final char ca = a.charAt(i);
+            final char cb = b.charAt(i);
+            if (ca != cb && HeaderKeys.lower(ca) != HeaderKeys.lower(cb)) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * @param key
+     * @return hash of the lower case name, 0 for null
+     */
+    public static int hash(final String key) {
+        if (key == null) { return 0; }
+        int h = 0;
+        final int length = key.length();
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + HeaderKeys.lower(key.charAt(i));
+        }
+        return h;
+    }
+
+    /**
+     * @param b
+     * @param off
+     * @param len
+     * @return name of ISO-8859-1 bytes, the shared instance for common names in their usual spelling
+     */
+    public static String intern(final byte[] b, final int off, final int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + HeaderKeys.lower((char) (b[i] & 0xff));
+        }
+        int slot = h & HeaderKeys.TABLE.length - 1;
+        int index;
+        while ((index = HeaderKeys.TABLE[slot]) != 0) {
+            final String common = HeaderKeys.COMMON[index - 1];
+            if (HeaderKeys.sameBytes(common, b, off, len)) { return common; }
+            slot = slot + 1 & HeaderKeys.TABLE.length - 1;
+        }
+        final char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = (char) (b[off + i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private static char lower(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    /* exact spelling, so the interned name does not change what the client sent */
+    private static boolean sameBytes(final String s, final byte[] b, final int off, final int len) {
+        if (s.length() != len) { return false; }
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != (b[off + i] & 0xff)) { return false; }
+        }
+        return true;
+    }
+
+    private HeaderKeys() {
+    }
+}
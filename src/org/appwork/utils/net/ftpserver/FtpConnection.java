@@ -144,19 +144,20 @@ public class FtpConnection implements Runnable, StateMachineInterface {
         try {
             this.reader = new BufferedReader(new InputStreamReader(this.controlSocket.getInputStream()));
             this.writer = new BufferedWriter(new OutputStreamWriter(this.controlSocket.getOutputStream()));
-            this.thread = new Thread(ftpServer.getThreadGroup(), this) {
-                @Override
-                public void interrupt() {
-                    /* also close all connections on interrupt */
-                    FtpConnection.this.closeDataConnection();
-                    try {
-                        FtpConnection.this.controlSocket.close();
-                    } catch (final Throwable e) {
+            if (ftpServer.getThreadingModel().isVirtual()) {
+                this.thread = ftpServer.getThreadingModel().newThread("FTPConnectionThread: " + this, this);
+            } else {
+                this.thread = new Thread(ftpServer.getThreadGroup(), this) {
+                    @Override
+                    public void interrupt() {
+                        /* also close all connections on interrupt */
+                        FtpConnection.this.close();
+                        super.interrupt();
                     }
-                    super.interrupt();
-                }
-            };
-            this.thread.setName("FTPConnectionThread: " + this);
+                };
+                this.thread.setName("FTPConnectionThread: " + this);
+            }
+            ftpServer.getConnections().add(this);
             this.thread.start();
         } catch (final IOException e) {
             try {
@@ -180,6 +181,17 @@ public class FtpConnection implements Runnable, StateMachineInterface {
         return param;
     }
 
+    /**
+     * closes the control and data connection
+     */
+    protected void close() {
+        this.closeDataConnection();
+        try {
+            this.controlSocket.close();
+        } catch (final Throwable e) {
+        }
+    }
+
     private void closeDataConnection() {
         try {
             this.dataSocket.close();
@@ -842,11 +854,8 @@ public class FtpConnection implements Runnable, StateMachineInterface {
                 e1.printStackTrace();
             }
         } finally {
-            this.closeDataConnection();
-            try {
-                this.controlSocket.close();
-            } catch (final Throwable e2) {
-            }
+            this.ftpServer.getConnections().remove(this);
+            this.close();
         }
     }
 
@@ -16,6 +16,11 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.appwork.scheduler.ThreadingModel;
 
 /**
  * @author daniel
@@ -26,10 +31,12 @@ public class FtpServer implements Runnable {
     private final FtpConnectionHandler<? extends FtpFile> handler;
     private final int                                     port;
     private ServerSocket                                  controlSocket;
-    private Thread                                        controlThread = null;
-    private ThreadGroup                                   threadGroup   = null;
-    private boolean                                       localhostOnly = false;
-    private boolean                                       debug         = false;
+    private Thread                                        controlThread  = null;
+    private ThreadGroup                                   threadGroup    = null;
+    private boolean                                       localhostOnly  = false;
+    private boolean                                       debug          = false;
+    private ThreadingModel                                threadingModel = ThreadingModel.getDefault();
+    private final Set<FtpConnection>                      connections    = Collections.newSetFromMap(new ConcurrentHashMap<FtpConnection, Boolean>());
 
     public FtpServer(final FtpConnectionHandler<? extends FtpFile> handler, final int port) {
         this.handler = handler;
@@ -58,6 +65,13 @@ public class FtpServer implements Runnable {
         return localhost;
     }
 
+    /**
+     * @return the open connections
+     */
+    protected Set<FtpConnection> getConnections() {
+        return this.connections;
+    }
+
     /**
      * @return the clientThreadGroup
      */
@@ -65,6 +79,10 @@ public class FtpServer implements Runnable {
         return this.threadGroup;
     }
 
+    public ThreadingModel getThreadingModel() {
+        return this.threadingModel;
+    }
+
     /**
      * @return the debug
      */
@@ -111,12 +129,6 @@ public class FtpServer implements Runnable {
         this.debug = debug;
     }
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see java.lang.Runnable#run()
-     */
-
     /**
      * @param localhostOnly
      *            the localhostOnly to set
@@ -125,6 +137,14 @@ public class FtpServer implements Runnable {
         this.localhostOnly = localhostOnly;
     }
 
+    /**
+     * @param threadingModel
+     *            used for the threads of new connections
+     */
+    public void setThreadingModel(final ThreadingModel threadingModel) {
+        this.threadingModel = threadingModel == null ? ThreadingModel.getDefault() : threadingModel;
+    }
+
     public synchronized void start() throws IOException {
         if (this.isLocalhostOnly()) {
             /* we only want localhost bound here */
@@ -145,5 +165,9 @@ public class FtpServer implements Runnable {
         } catch (final Throwable e) {
         }
         this.threadGroup.interrupt();
+        /* virtual threads are not part of the threadGroup */
+        for (final FtpConnection connection : this.connections) {
+            connection.close();
+        }
     }
 }
@@ -25,15 +25,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.zip.GZIPInputStream;
 
@@ -43,7 +40,6 @@ import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.appwork.net.protocol.http.HTTPConstants;
-import org.appwork.scheduler.DelayedRunnable;
 import org.appwork.utils.Application;
 import org.appwork.utils.Regex;
 import org.appwork.utils.StringUtils;
@@ -51,9 +47,9 @@ import org.appwork.utils.net.Base64InputStream;
 import org.appwork.utils.net.ChunkedInputStream;
 import org.appwork.utils.net.CountingOutputStream;
 import org.appwork.utils.net.LimitedInputStream;
-import org.appwork.utils.net.PublicSuffixList;
 import org.appwork.utils.net.StreamValidEOF;
 import org.appwork.utils.os.CrossSystem;
+import org.appwork.utils.zip.ZLibPool;
 
 public class HTTPConnectionImpl implements HTTPConnection {
 
@@ -128,7 +124,8 @@ public class HTTPConnectionImpl implements HTTPConnection {
     protected boolean                            sslTrustALL          = true;
     protected InetAddress                        lastConnection       = null;
     protected int                                lastConnectionPort   = -1;
-    private final static PublicSuffixList        PSL                  = PublicSuffixList.getInstance();
+    /* socket taken from the keep-alive pool */
+    protected volatile HTTPKeepAliveSocket       keepAliveSocket      = null;
 
     public KEEPALIVE getKeepAlive() {
         return this.keepAlive;
@@ -144,46 +141,11 @@ public class HTTPConnectionImpl implements HTTPConnection {
     /**
      * Keep-Alive stuff
      */
-    protected static final HashMap<String, LinkedList<HTTPKeepAliveSocket>> KEEPALIVEPOOL    = new HashMap<String, LinkedList<HTTPKeepAliveSocket>>();
-    protected static final WeakHashMap<Socket, HTTPKeepAliveSocket>         KEEPALIVESOCKETS = new WeakHashMap<Socket, HTTPKeepAliveSocket>();
-    protected static final Object                                           LOCK             = new Object();
-    protected static final DelayedRunnable                                  keepAliveCleanup = new DelayedRunnable(10000, 30000) {
-
-        @Override
-        public void delayedrun() {
-            synchronized (HTTPConnectionImpl.LOCK) {
-                try {
-                    HTTPConnectionImpl.KEEPALIVESOCKETS.isEmpty();
-                    final Iterator<Entry<String, LinkedList<HTTPKeepAliveSocket>>> hostIterator = HTTPConnectionImpl.KEEPALIVEPOOL.entrySet().iterator();
-                    while (hostIterator.hasNext()) {
-                        final Entry<String, LinkedList<HTTPKeepAliveSocket>> next = hostIterator.next();
-                        final LinkedList<HTTPKeepAliveSocket> keepAliveSockets = next.getValue();
-                        if (keepAliveSockets != null) {
-                            final Iterator<HTTPKeepAliveSocket> keepAliveIterator = keepAliveSockets.iterator();
-                            while (keepAliveIterator.hasNext()) {
-                                final HTTPKeepAliveSocket keepAliveSocket = keepAliveIterator.next();
-                                final Socket socket = keepAliveSocket.getSocket();
-                                if (socket.isClosed() || keepAliveSocket.getKeepAliveTimestamp() <= System.currentTimeMillis()) {
-                                    try {
-                                        socket.close();
-                                    } catch (final Throwable ignore) {
-                                    }
-                                    keepAliveIterator.remove();
-                                }
-                            }
-                        }
-                        if (keepAliveSockets == null || keepAliveSockets.size() == 0) {
-                            hostIterator.remove();
-                        }
-                    }
-                } finally {
-                    if (HTTPConnectionImpl.KEEPALIVEPOOL.size() > 0) {
-                        HTTPConnectionImpl.keepAliveCleanup.resetAndStart();
-                    }
-                }
-            }
-        }
-    };
+    protected static final HTTPKeepAlivePool KEEPALIVEPOOL = new HTTPKeepAlivePool();
+
+    public static HTTPKeepAlivePool getKeepAlivePool() {
+        return HTTPConnectionImpl.KEEPALIVEPOOL;
+    }
 
     public HTTPConnectionImpl(final URL url) {
         this(url, null);
@@ -242,65 +204,38 @@ public class HTTPConnectionImpl implements HTTPConnection {
              if (this.inputStream != null && this.inputStream instanceof StreamValidEOF && ((StreamValidEOF) this.inputStream).isValidEOF()) {
                  if (!this.requiresOutputStream() || ((CountingOutputStream) this.outputStream).transferedBytes() == this.postTodoLength) {
                      socket.setKeepAlive(true);
-                     synchronized (HTTPConnectionImpl.LOCK) {
-                         HTTPKeepAliveSocket keepAliveSocket = HTTPConnectionImpl.KEEPALIVESOCKETS.remove(socket);
-                         if (keepAliveSocket == null) {
-                             final String connectionResponse = this.getHeaderField("Keep-Alive");
-                             final String maxKeepAliveTimeoutString = new Regex(connectionResponse, "timeout\\s*?=\\s*?(\\d+)").getMatch(0);
-                             final String maxKeepAliveRequestsString = new Regex(connectionResponse, "max\\s*?=\\s*?(\\d+)").getMatch(0);
-                             final long maxKeepAliveTimeout;
-                             if (maxKeepAliveTimeoutString != null) {
-                                 maxKeepAliveTimeout = Long.parseLong(maxKeepAliveTimeoutString) * 1000l;
-                             } else {
-                                 maxKeepAliveTimeout = this.getDefaultKeepAliveTimeout();
-                             }
-                             final long maxKeepAliveRequests;
-                             if (maxKeepAliveRequestsString != null) {
-                                 maxKeepAliveRequests = Long.parseLong(maxKeepAliveRequestsString);
-                             } else {
-                                 maxKeepAliveRequests = this.getDefaultKeepAliveMaxRequests();
-                             }
-                             final InetAddress localIP;
-                             if (this.proxy != null && this.proxy.isDirect()) {
-                                 localIP = socket.getLocalAddress();
-                             } else {
-                                 localIP = null;
-                             }
-                             final String host = this.httpURL.getHost().toLowerCase(Locale.ENGLISH);
-                             final boolean ssl = StringUtils.equalsIgnoreCase("https", this.httpURL.getProtocol());
-                             keepAliveSocket = new HTTPKeepAliveSocket(host, ssl, socket, maxKeepAliveTimeout, maxKeepAliveRequests, localIP, this.remoteIPs);
+                     HTTPKeepAliveSocket keepAliveSocket = this.keepAliveSocket;
+                     this.keepAliveSocket = null;
+                     if (keepAliveSocket == null || keepAliveSocket.getSocket() != socket) {
+                         final String connectionResponse = this.getHeaderField("Keep-Alive");
+                         final String maxKeepAliveTimeoutString = new Regex(connectionResponse, "timeout\\s*?=\\s*?(\\d+)").getMatch(0);
+                         final String maxKeepAliveRequestsString = new Regex(connectionResponse, "max\\s*?=\\s*?(\\d+)").getMatch(0);
+                         final long maxKeepAliveTimeout;
+                         if (maxKeepAliveTimeoutString != null) {
+                             maxKeepAliveTimeout = Long.parseLong(maxKeepAliveTimeoutString) * 1000l;
+                         } else {
+                             maxKeepAliveTimeout = this.getDefaultKeepAliveTimeout();
                          }
-                         keepAliveSocket.increaseRequests();
-                         if (keepAliveSocket.getRequestsLeft() > 0) {
-                             String domain = null;
-                             if (HTTPConnectionImpl.PSL != null) {
-                                 domain = HTTPConnectionImpl.PSL.getDomain(keepAliveSocket.getHost());
-                             }
-                             if (StringUtils.isEmpty(domain)) {
-                                 domain = "FALLBACK";
-                             }
-                             LinkedList<HTTPKeepAliveSocket> keepAlivePool = HTTPConnectionImpl.KEEPALIVEPOOL.get(domain);
-                             if (keepAlivePool == null) {
-                                 keepAlivePool = new LinkedList<HTTPKeepAliveSocket>();
-                                 HTTPConnectionImpl.KEEPALIVEPOOL.put(domain, keepAlivePool);
-                             }
-                             keepAlivePool.add(keepAliveSocket);
-                             keepAliveSocket.keepAlive();
-                             final long maxKeepAlive = this.getMaxKeepAliveSockets();
-                             if (keepAlivePool.size() > maxKeepAlive) {
-                                 final Iterator<HTTPKeepAliveSocket> it = keepAlivePool.iterator();
-                                 while (it.hasNext() && keepAlivePool.size() > maxKeepAlive) {
-                                     final HTTPKeepAliveSocket next = it.next();
-                                     try {
-                                         next.getSocket().close();
-                                     } catch (final Throwable ignore) {
-                                     }
-                                     it.remove();
-                                 }
-                             }
-                             HTTPConnectionImpl.keepAliveCleanup.resetAndStart();
-                             return true;
+                         final long maxKeepAliveRequests;
+                         if (maxKeepAliveRequestsString != null) {
+                             maxKeepAliveRequests = Long.parseLong(maxKeepAliveRequestsString);
+                         } else {
+                             maxKeepAliveRequests = this.getDefaultKeepAliveMaxRequests();
                          }
+                         final InetAddress localIP;
+                         if (this.proxy != null && this.proxy.isDirect()) {
+                             localIP = socket.getLocalAddress();
+                         } else {
+                             localIP = null;
+                         }
+                         final String host = this.httpURL.getHost().toLowerCase(Locale.ENGLISH);
+                         final boolean ssl = StringUtils.equalsIgnoreCase("https", this.httpURL.getProtocol());
+                         keepAliveSocket = new HTTPKeepAliveSocket(host, ssl, socket, maxKeepAliveTimeout, maxKeepAliveRequests, localIP, this.remoteIPs);
+                     }
+                     keepAliveSocket.increaseRequests();
+                     if (keepAliveSocket.getRequestsLeft() > 0) {
+                         HTTPConnectionImpl.KEEPALIVEPOOL.release(keepAliveSocket, this.getMaxKeepAliveSockets());
+                         return true;
                      }
                  }
              }
@@ -318,56 +253,24 @@ public class HTTPConnectionImpl implements HTTPConnection {
         }
         final String host = this.httpURL.getHost().toLowerCase(Locale.ENGLISH);
         final boolean ssl = StringUtils.equalsIgnoreCase("https", this.httpURL.getProtocol());
-        String domain = null;
-        if (HTTPConnectionImpl.PSL != null) {
-            domain = HTTPConnectionImpl.PSL.getDomain(host);
-        }
-        if (StringUtils.isEmpty(domain)) {
-            domain = "FALLBACK";
-        }
-        synchronized (HTTPConnectionImpl.LOCK) {
-            final LinkedList<HTTPKeepAliveSocket> sockets = HTTPConnectionImpl.KEEPALIVEPOOL.get(domain);
-            if (sockets != null) {
-                final Iterator<HTTPKeepAliveSocket> it = sockets.descendingIterator();
-                while (it.hasNext()) {
-                    final HTTPKeepAliveSocket next = it.next();
-                    final Socket socket = next.getSocket();
-                    if (socket.isClosed() || next.getKeepAliveTimestamp() <= System.currentTimeMillis()) {
-                        try {
-                            socket.close();
-                        } catch (final Throwable ignore) {
-                        }
-                        it.remove();
-                    } else if (socket.getPort() != port || !next.sameLocalIP(localIP)) {
-                        continue;
-                    } else if (next.isSsl() && ssl) {
-                        /**
-                         * ssl needs to have same hostname to avoid (SNI)
-                         *
-                         * <p>
-                         * Your browser sent a request that this server could not understand.<br />
-                         * Host name provided via SNI and via HTTP are different
-                         * </p>
-                         */
-                        if (next.sameHost(host)) {
-                            it.remove();
-                            HTTPConnectionImpl.KEEPALIVESOCKETS.put(socket, next);
-                            return socket;
-                        }
-                    } else if (next.isSsl() == false && ssl == false && next.sameRemoteIPs(this.remoteIPs)) {
-                        it.remove();
-                        HTTPConnectionImpl.KEEPALIVESOCKETS.put(socket, next);
-                        return socket;
-                    }
-                }
-                if (sockets.isEmpty()) {
-                    HTTPConnectionImpl.KEEPALIVEPOOL.remove(domain);
-                }
-            }
+        if (!ssl && (this.remoteIPs == null || this.remoteIPs.length == 0)) {
+            /* plain sockets are matched by remote ip */
+            return null;
         }
+        this.keepAliveSocket = HTTPConnectionImpl.KEEPALIVEPOOL.lease(host, port, ssl, localIP, this.remoteIPs);
+        if (this.keepAliveSocket != null) { return this.keepAliveSocket.getSocket(); }
         return null;
     }
 
+    /**
+     * @param socket
+     * @return true if socket was taken from the keep-alive pool
+     */
+    protected boolean isKeepAliveSocket(final Socket socket) {
+        final HTTPKeepAliveSocket keepAliveSocket = this.keepAliveSocket;
+        return socket != null && keepAliveSocket != null && keepAliveSocket.getSocket() == socket;
+    }
+
     /* this will add Host header at the beginning */
     protected void addHostHeader() {
         final int defaultPort = this.httpURL.getDefaultPort();
@@ -392,6 +295,7 @@ public class HTTPConnectionImpl implements HTTPConnection {
         this.ranges = null;
         this.lastConnection = null;
         this.lastConnectionPort = -1;
+        this.keepAliveSocket = null;
     }
 
     protected static SSLSocketFactory getSSLSocketFactory(HTTPConnection httpConnection) throws IOException {
@@ -958,12 +862,11 @@ public class HTTPConnectionImpl implements HTTPConnection {
             this.inputStream = wrappedInputStream;
         } catch (final IOException e) {
             this.disconnect();
-            synchronized (HTTPConnectionImpl.LOCK) {
-                if (HTTPConnectionImpl.KEEPALIVESOCKETS.remove(connectionSocket) != null) {
-                    throw new HTTPKeepAliveSocketException(e, connectionSocket);
-                } else {
-                    throw e;
-                }
+            if (this.isKeepAliveSocket(connectionSocket)) {
+                this.keepAliveSocket = null;
+                throw new HTTPKeepAliveSocketException(e, connectionSocket);
+            } else {
+                throw e;
             }
         }
     }
@@ -1093,7 +996,7 @@ public class HTTPConnectionImpl implements HTTPConnection {
                     this.convertedInputStream = new GZIPInputStream(this.inputStream);
                 } else if ("deflate".equalsIgnoreCase(encoding)) {
                     /* deflate encoding */
-                    this.convertedInputStream = new java.util.zip.InflaterInputStream(this.inputStream, new java.util.zip.Inflater(true));
+                    this.convertedInputStream = ZLibPool.getInstance().getInflaterInputStream(this.inputStream);
                 } else {
                     /* unsupported */
                     this.contentDecoded = false;
@@ -1387,10 +1290,7 @@ public class HTTPConnectionImpl implements HTTPConnection {
             connectionSocket.getOutputStream().write(sb.toString().getBytes("ISO-8859-1"));
             connectionSocket.getOutputStream().flush();
             if (this.requiresOutputStream()) {
-                final boolean isKeepAliveSocket;
-                synchronized (HTTPConnectionImpl.LOCK) {
-                    isKeepAliveSocket = HTTPConnectionImpl.KEEPALIVESOCKETS.containsKey(connectionSocket);
-                }
+                final boolean isKeepAliveSocket = this.isKeepAliveSocket(connectionSocket);
                 this.outputStream = new CountingOutputStream(connectionSocket.getOutputStream()) {
 
                     @Override
@@ -1460,12 +1360,10 @@ public class HTTPConnectionImpl implements HTTPConnection {
             throw e;
         } catch (final IOException e) {
             this.disconnect();
-            synchronized (HTTPConnectionImpl.LOCK) {
-                if (HTTPConnectionImpl.KEEPALIVESOCKETS.containsKey(connectionSocket)) {
-                    throw new HTTPKeepAliveSocketException(e, connectionSocket);
-                } else {
-                    throw e;
-                }
+            if (this.isKeepAliveSocket(connectionSocket)) {
+                throw new HTTPKeepAliveSocketException(e, connectionSocket);
+            } else {
+                throw e;
             }
         }
     }
@@ -73,56 +73,57 @@ public class HTTPConnectionUtils {
         return null;
     }
 
+    /**
+     * reads a header line or the complete header. never reads beyond the terminating \n or \n\n/\r\n\r\n, so the stream can be used for the
+     * body afterwards. each read asks for as many bytes as are needed at least to complete the terminator, that is 1-2 bytes: callers pass
+     * the raw socket stream and read the body from it, so bytes cannot be read ahead and pushed back.
+     *
+     * @param in
+     * @param readSingleLine
+     * @return
+     * @throws IOException
+     */
     public static ByteBuffer readheader(final InputStream in, final boolean readSingleLine) throws IOException {
-        ByteBuffer bigbuffer = ByteBuffer.wrap(new byte[4096]);
-        final byte[] minibuffer = new byte[1];
-        int position;
-
-        while (in.read(minibuffer) >= 0) {
-            if (bigbuffer.remaining() < 1) {
-                final ByteBuffer newbuffer = ByteBuffer.wrap(new byte[bigbuffer.capacity() * 2]);
-                bigbuffer.flip();
-                newbuffer.put(bigbuffer);
-                bigbuffer = newbuffer;
-            }
-            bigbuffer.put(minibuffer);
-            if (readSingleLine) {
-                if (bigbuffer.position() >= 1) {
-                    /*
-                     * \n only line termination, for fucking buggy non rfc servers
-                     */
-                    position = bigbuffer.position();
-                    if (bigbuffer.get(position - 1) == HTTPConnectionUtils.N) {
-                        break;
-                    }
-                    if (bigbuffer.position() >= 2) {
-                        /* \r\n, correct line termination */
-                        if (bigbuffer.get(position - 2) == HTTPConnectionUtils.R && bigbuffer.get(position - 1) == HTTPConnectionUtils.N) {
-                            break;
-                        }
+        byte[] buffer = new byte[4096];
+        int position = 0;
+        int need = readSingleLine ? 1 : 2;
+        int read;
+        loop: while ((read = in.read(buffer, position, need)) >= 0) {
+            for (int i = 0; i < read; i++) {
+                position++;
+                if (buffer[position - 1] == HTTPConnectionUtils.N) {
+                    if (readSingleLine) {
+                        /* \n or \r\n line termination */
+                        break loop;
                     }
-                }
-            } else {
-                if (bigbuffer.position() >= 2) {
-                    position = bigbuffer.position();
-                    if (bigbuffer.get(position - 2) == HTTPConnectionUtils.N && bigbuffer.get(position - 1) == HTTPConnectionUtils.N) {
+                    if (position >= 2 && buffer[position - 2] == HTTPConnectionUtils.N) {
                         /*
                          * \n\n for header<->content divider, or fucking buggy non rfc servers
                          */
-                        break;
+                        break loop;
                     }
-                    if (bigbuffer.position() >= 4) {
+                    if (position >= 4 && buffer[position - 4] == HTTPConnectionUtils.R && buffer[position - 3] == HTTPConnectionUtils.N && buffer[position - 2] == HTTPConnectionUtils.R) {
                         /* \r\n\r\n for header<->content divider */
-                        if (bigbuffer.get(position - 4) == HTTPConnectionUtils.R && bigbuffer.get(position - 3) == HTTPConnectionUtils.N && bigbuffer.get(position - 2) == HTTPConnectionUtils.R && bigbuffer.get(position - 1) == HTTPConnectionUtils.N) {
-                            break;
-                        }
+                        break loop;
                     }
                 }
             }
+            if (!readSingleLine && position > 0) {
+                /* \n completes \n\n and \r\n\r\n after \r\n\r, else at least two bytes are missing */
+                final byte last = buffer[position - 1];
+                if (last == HTTPConnectionUtils.N || last == HTTPConnectionUtils.R && position >= 3 && buffer[position - 3] == HTTPConnectionUtils.R && buffer[position - 2] == HTTPConnectionUtils.N) {
+                    need = 1;
+                } else {
+                    need = 2;
+                }
+            }
+            if (buffer.length - position < need) {
+                final byte[] newBuffer = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, newBuffer, 0, position);
+                buffer = newBuffer;
+            }
         }
-
-        bigbuffer.flip();
-        return bigbuffer;
+        return ByteBuffer.wrap(buffer, 0, position);
     }
 
     public static InetAddress[] resolvHostIP(String host) throws IOException {
@@ -14,11 +14,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import org.appwork.utils.net.HeaderKeys;
+
 /**
  * @author daniel
  * 
@@ -79,7 +80,7 @@ public class HTTPHeaderMap<V> implements Map<String, V> {
 
         protected HTTPHeaderMapEntry(final String httpHeaderFieldName) {
             this.httpHeaderFieldName = httpHeaderFieldName;
-            this.lowerCaseHash = httpHeaderFieldName.toLowerCase(Locale.ENGLISH).hashCode();
+            this.lowerCaseHash = HeaderKeys.hash(httpHeaderFieldName);
         }
 
         @Override
@@ -88,7 +89,7 @@ public class HTTPHeaderMap<V> implements Map<String, V> {
             if (obj == this) { return true; }
             if (!(obj instanceof HTTPHeaderMapEntry)) { return false; }
             final HTTPHeaderMapEntry other = (HTTPHeaderMapEntry) obj;
-            return other.getHttpHeaderFieldName().equalsIgnoreCase(this.getHttpHeaderFieldName());
+            return other.lowerCaseHash == this.lowerCaseHash && HeaderKeys.equals(other.getHttpHeaderFieldName(), this.getHttpHeaderFieldName());
         }
 
         public String getHttpHeaderFieldName() {
@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2009 - 2014 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.net.httpconnection
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.net.httpconnection;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocket;
+
+import org.appwork.scheduler.DelayedRunnable;
+import org.appwork.utils.StringUtils;
+import org.appwork.utils.net.PublicSuffixList;
+
+/**
+ * @author daniel
+ *
+ *         pool of idle keep-alive sockets. sockets are grouped by route (domain of the host + port), every route has its own lock, so
+ *         connections to different routes never wait for each other. idle sockets are limited per route and in total, the oldest idle
+ *         socket is evicted first.
+ */
+public class HTTPKeepAlivePool {
+
+    private static class Route {
+        /* oldest first */
+        private final LinkedList<HTTPKeepAliveSocket> sockets = new LinkedList<HTTPKeepAliveSocket>();
+        private boolean                               removed = false;
+    }
+
+    /* max. idle sockets of all routes */
+    public static int                                     MAX_TOTAL           = 64;
+    /* plain sockets idle for longer than this are checked for a closed connection before reuse */
+    public static long                                    VALIDATE_AFTER_IDLE = 2000;
+    /* max. cached host->domain lookups */
+    public static int                                     MAX_DOMAINS         = 1024;
+
+    private final ConcurrentHashMap<String, Route>        routes              = new ConcurrentHashMap<String, Route>();
+    private final ConcurrentHashMap<String, String>       domains             = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger                           idle                = new AtomicInteger(0);
+    private final AtomicLong                              hits                = new AtomicLong(0);
+    private final AtomicLong                              misses              = new AtomicLong(0);
+    private final AtomicLong                              evictions           = new AtomicLong(0);
+    private final AtomicLong                              releases            = new AtomicLong(0);
+    private final AtomicLong                              leaseTime           = new AtomicLong(0);
+    private final PublicSuffixList                        psl                 = PublicSuffixList.getInstance();
+    private final DelayedRunnable                         cleanup             = new DelayedRunnable(10000, 30000) {
+
+                                                                                  @Override
+                                                                                  public void delayedrun() {
+                                                                                      try {
+                                                                                          HTTPKeepAlivePool.this.evictExpired();
+                                                                                      } finally {
+                                                                                          if (HTTPKeepAlivePool.this.idle.get() > 0) {
+                                                                                              HTTPKeepAlivePool.this.cleanup.resetAndStart();
+                                                                                          }
+                                                                                      }
+                                                                                  }
+                                                                              };
+
+    private void close(final List<HTTPKeepAliveSocket> sockets) {
+        if (sockets != null) {
+            for (final HTTPKeepAliveSocket socket : sockets) {
+                this.evictions.incrementAndGet();
+                try {
+                    socket.getSocket().close();
+                } catch (final Throwable ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * closes all idle sockets
+     */
+    public void clear() {
+        for (final Route route : this.routes.values()) {
+            final List<HTTPKeepAliveSocket> close;
+            synchronized (route) {
+                close = new ArrayList<HTTPKeepAliveSocket>(route.sockets);
+                this.idle.addAndGet(-route.sockets.size());
+                route.sockets.clear();
+            }
+            this.close(close);
+        }
+    }
+
+    /**
+     * closes the oldest idle socket of all routes
+     *
+     * @return false if there was no idle socket
+     */
+    protected boolean evictOldest() {
+        Route oldestRoute = null;
+        HTTPKeepAliveSocket oldest = null;
+        for (final Route route : this.routes.values()) {
+            synchronized (route) {
+                final HTTPKeepAliveSocket first = route.sockets.peekFirst();
+                if (first != null && (oldest == null || first.getIdleTimestamp() < oldest.getIdleTimestamp())) {
+                    oldest = first;
+                    oldestRoute = route;
+                }
+            }
+        }
+        if (oldest == null) { return false; }
+        synchronized (oldestRoute) {
+            if (!oldestRoute.sockets.remove(oldest)) {
+                /* leased in the meantime */
+                return true;
+            }
+            this.idle.decrementAndGet();
+        }
+        final List<HTTPKeepAliveSocket> close = new ArrayList<HTTPKeepAliveSocket>(1);
+        close.add(oldest);
+        this.close(close);
+        return true;
+    }
+
+    /**
+     * closes closed/expired idle sockets and removes empty routes
+     */
+    public void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Entry<String, Route>> it = this.routes.entrySet().iterator();
+        while (it.hasNext()) {
+            final Entry<String, Route> next = it.next();
+            final Route route = next.getValue();
+            List<HTTPKeepAliveSocket> close = null;
+            synchronized (route) {
+                final Iterator<HTTPKeepAliveSocket> sockets = route.sockets.iterator();
+                while (sockets.hasNext()) {
+                    final HTTPKeepAliveSocket socket = sockets.next();
+                    if (socket.getSocket().isClosed() || socket.getKeepAliveTimestamp() <= now) {
+                        sockets.remove();
+                        this.idle.decrementAndGet();
+                        if (close == null) {
+                            close = new ArrayList<HTTPKeepAliveSocket>();
+                        }
+                        close.add(socket);
+                    }
+                }
+                if (route.sockets.isEmpty()) {
+                    route.removed = true;
+                    this.routes.remove(next.getKey(), route);
+                }
+            }
+            this.close(close);
+        }
+    }
+
+    /**
+     * @return average time in ms a socket was leased before it was put back
+     */
+    public long getAverageLeaseTime() {
+        final long releases = this.releases.get();
+        return releases == 0 ? 0 : this.leaseTime.get() / releases;
+    }
+
+    private String getDomain(final String host) {
+        String domain = this.domains.get(host);
+        if (domain == null) {
+            if (this.psl != null) {
+                domain = this.psl.getDomain(host);
+            }
+            if (StringUtils.isEmpty(domain)) {
+                domain = "FALLBACK";
+            }
+            if (this.domains.size() >= HTTPKeepAlivePool.MAX_DOMAINS) {
+                this.domains.clear();
+            }
+            this.domains.put(host, domain);
+        }
+        return domain;
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return idle sockets in the pool
+     */
+    public int getIdle() {
+        return this.idle.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    private String getRouteID(final String host, final int port) {
+        return this.getDomain(host) + ":" + port;
+    }
+
+    /**
+     * takes an idle socket from the pool, most recently used first
+     *
+     * @param host
+     * @param port
+     * @param ssl
+     * @param localIP
+     * @param remoteIPs
+     * @return socket or null
+     */
+    public HTTPKeepAliveSocket lease(final String host, final int port, final boolean ssl, final InetAddress localIP, final InetAddress[] remoteIPs) {
+        final Route route = this.routes.get(this.getRouteID(host, port));
+        while (route != null) {
+            HTTPKeepAliveSocket ret = null;
+            List<HTTPKeepAliveSocket> close = null;
+            final long now = System.currentTimeMillis();
+            synchronized (route) {
+                final Iterator<HTTPKeepAliveSocket> it = route.sockets.descendingIterator();
+                while (it.hasNext()) {
+                    final HTTPKeepAliveSocket next = it.next();
+                    final Socket socket = next.getSocket();
+                    if (socket.isClosed() || next.getKeepAliveTimestamp() <= now) {
+                        it.remove();
+                        this.idle.decrementAndGet();
+                        if (close == null) {
+                            close = new ArrayList<HTTPKeepAliveSocket>();
+                        }
+                        close.add(next);
+                    } else if (socket.getPort() != port || !next.sameLocalIP(localIP)) {
+                        continue;
+                    } else if (next.isSsl() && ssl) {
+                        /**
+                         * ssl needs to have same hostname to avoid (SNI)
+                         *
+                         * <p>
+                         * Your browser sent a request that this server could not understand.<br />
+                         * Host name provided via SNI and via HTTP are different
+                         * </p>
+                         */
+                        if (next.sameHost(host)) {
+                            it.remove();
+                            this.idle.decrementAndGet();
+                            ret = next;
+                            break;
+                        }
+                    } else if (next.isSsl() == false && ssl == false && next.sameRemoteIPs(remoteIPs)) {
+                        it.remove();
+                        this.idle.decrementAndGet();
+                        ret = next;
+                        break;
+                    }
+                }
+            }
+            this.close(close);
+            if (ret == null) {
+                break;
+            }
+            if (this.validate(ret)) {
+                this.hits.incrementAndGet();
+                ret.lease();
+                return ret;
+            }
+            close = new ArrayList<HTTPKeepAliveSocket>(1);
+            close.add(ret);
+            this.close(close);
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * puts a socket back into the pool
+     *
+     * @param socket
+     * @param maxPerRoute
+     *            max. idle sockets of the route, the oldest ones are closed
+     */
+    public void release(final HTTPKeepAliveSocket socket, final long maxPerRoute) {
+        if (socket.getLeaseTimestamp() > 0) {
+            this.releases.incrementAndGet();
+            this.leaseTime.addAndGet(System.currentTimeMillis() - socket.getLeaseTimestamp());
+        }
+        final String id = this.getRouteID(socket.getHost(), socket.getSocket().getPort());
+        List<HTTPKeepAliveSocket> close = null;
+        while (true) {
+            Route route = this.routes.get(id);
+            if (route == null) {
+                final Route newRoute = new Route();
+                route = this.routes.putIfAbsent(id, newRoute);
+                if (route == null) {
+                    route = newRoute;
+                }
+            }
+            synchronized (route) {
+                if (route.removed) {
+                    /* removed by evictExpired */
+                    continue;
+                }
+                socket.keepAlive();
+                route.sockets.add(socket);
+                this.idle.incrementAndGet();
+                while (route.sockets.size() > maxPerRoute) {
+                    if (close == null) {
+                        close = new ArrayList<HTTPKeepAliveSocket>();
+                    }
+                    close.add(route.sockets.removeFirst());
+                    this.idle.decrementAndGet();
+                }
+            }
+            break;
+        }
+        this.close(close);
+        while (this.idle.get() > HTTPKeepAlivePool.MAX_TOTAL && this.evictOldest()) {
+        }
+        this.cleanup.resetAndStart();
+    }
+
+    @Override
+    public String toString() {
+        return "HTTPKeepAlivePool: idle=" + this.getIdle() + " routes=" + this.routes.size() + " hits=" + this.getHits() + " misses=" + this.getMisses() + " evictions=" + this.getEvictions() + " avgLease=" + this.getAverageLeaseTime() + "ms";
+    }
+
+    /**
+     * checks a socket before it is leased
+     *
+     * @param keepAliveSocket
+     * @return false if the socket must not be used anymore
+     */
+    protected boolean validate(final HTTPKeepAliveSocket keepAliveSocket) {
+        final Socket socket = keepAliveSocket.getSocket();
+        if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) { return false; }
+        if (socket instanceof SSLSocket || System.currentTimeMillis() - keepAliveSocket.getIdleTimestamp() < HTTPKeepAlivePool.VALIDATE_AFTER_IDLE) { return true; }
+        /* the server must not send anything while idle, so any read result (data or EOF) means the socket is unusable */
+        try {
+            final int timeout = socket.getSoTimeout();
+            try {
+                socket.setSoTimeout(1);
+                socket.getInputStream().read();
+                return false;
+            } catch (final SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+}
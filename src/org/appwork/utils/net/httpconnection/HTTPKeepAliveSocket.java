@@ -88,6 +88,8 @@ public class HTTPKeepAliveSocket {
     private final long    keepAliveTimeout;
     private final long    maxRequests;
     private volatile long keepAliveTimestamp = -1;
+    private volatile long idleTimestamp      = -1;
+    private volatile long leaseTimestamp     = -1;
     private volatile long requests           = 0;
     private final boolean ssl;
 
@@ -99,8 +101,27 @@ public class HTTPKeepAliveSocket {
         return this.keepAliveTimestamp;
     }
 
+    /**
+     * @return time the socket was put back into the pool
+     */
+    public long getIdleTimestamp() {
+        return this.idleTimestamp;
+    }
+
+    /**
+     * @return time the socket was taken from the pool
+     */
+    public long getLeaseTimestamp() {
+        return this.leaseTimestamp;
+    }
+
     public void keepAlive() {
-        this.keepAliveTimestamp = System.currentTimeMillis() + this.getKeepAliveTimeout();
+        this.idleTimestamp = System.currentTimeMillis();
+        this.keepAliveTimestamp = this.idleTimestamp + this.getKeepAliveTimeout();
+    }
+
+    public void lease() {
+        this.leaseTimestamp = System.currentTimeMillis();
     }
 
     public HTTPKeepAliveSocket(final String host, final boolean ssl, final Socket socket, final long keepAliveTimeout, final long maxRequests, final InetAddress localIP, final InetAddress[] remoteIPs) {
@@ -38,6 +38,7 @@ import org.appwork.utils.Regex;
 import org.appwork.utils.StringUtils;
 import org.appwork.utils.net.CountingOutputStream;
 import org.appwork.utils.net.NullOutputStream;
+import org.appwork.utils.zip.ZLibPool;
 
 /**
  * @author daniel
@@ -387,7 +388,7 @@ public class NativeHTTPConnectionImpl implements HTTPConnection {
                     this.convertedInputStream = new GZIPInputStream(this.inputStream);
                 } else if ("deflate".equalsIgnoreCase(encoding)) {
                     /* deflate encoding */
-                    this.convertedInputStream = new java.util.zip.InflaterInputStream(this.inputStream, new java.util.zip.Inflater(true));
+                    this.convertedInputStream = ZLibPool.getInstance().getInflaterInputStream(this.inputStream);
                 } else {
                     /* unsupported */
                     this.contentDecoded = false;
@@ -9,25 +9,27 @@
  */
 package org.appwork.utils.net.httpserver;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Locale;
 
 import org.appwork.net.protocol.http.HTTPConstants;
 import org.appwork.net.protocol.http.HTTPConstants.ResponseCode;
 import org.appwork.utils.Exceptions;
-import org.appwork.utils.Regex;
 import org.appwork.utils.StringUtils;
 import org.appwork.utils.net.HTTPHeader;
 import org.appwork.utils.net.HeaderCollection;
-import org.appwork.utils.net.httpconnection.HTTPConnectionUtils;
+import org.appwork.utils.net.HeaderKeys;
 import org.appwork.utils.net.httpserver.handler.HttpRequestHandler;
 import org.appwork.utils.net.httpserver.requests.GetRequest;
 import org.appwork.utils.net.httpserver.requests.HeadRequest;
@@ -88,12 +90,21 @@ public class HttpConnection implements Runnable {
     protected OutputStream       os                  = null;
     protected HttpRequest        request;
 
-    private static final Pattern METHOD              = Pattern.compile("(GET|POST|HEAD|OPTIONS)");
-    private static final Pattern REQUESTLINE         = Pattern.compile(" (/.*?) ");
-
-    private static final Pattern REQUESTURL          = Pattern.compile("(/.*?)($|\\?)");
-
-    private static final Pattern REQUESTPARAM        = Pattern.compile("\\?(.+)");
+    private HttpHeadInputStream  headInputStream     = null;
+    private OutputStream         keepAliveStream     = null;
+    /* number of requests read from this connection */
+    protected int                requestCount        = 0;
+    private boolean              http11              = false;
+    /* the current response announced a persistent connection */
+    private boolean              keepAlive           = false;
+    private boolean              closeAfterResponse  = false;
+    private volatile boolean     connectionClosed    = false;
+    /* set if the connection has been accepted by a non-blocking server */
+    HttpServerSelector           selector            = null;
+    /* max. number of unread request body bytes we skip to reuse the connection */
+    public static long           MAX_CONSUME         = 1024 * 1024;
+
+    private static final Charset ISO_8859_1          = Charset.forName("ISO-8859-1");
 
     public HttpConnection(final HttpServer server, final InputStream is, final OutputStream os) {
         this.server = server;
@@ -105,6 +116,8 @@ public class HttpConnection implements Runnable {
         this(server, clientSocket.getInputStream(), clientSocket.getOutputStream());
         this.clientSocket = clientSocket;
         this.clientSocket.setSoTimeout(60 * 1000);
+        /* head and body are written separately, without this the body of a persistent connection waits for the delayed ack of the client */
+        this.clientSocket.setTcpNoDelay(true);
     }
 
     protected GetRequest buildGetRequest() throws IOException {
@@ -135,10 +148,12 @@ public class HttpConnection implements Runnable {
         if (StringUtils.isEmpty(requestLine)) {
             throw new IOException("Empty RequestLine");
         }
+        this.http11 = requestLine.endsWith("HTTP/1.1");
         // TOTO: requestLine may be "" in some cases (chrome pre connection...?)
         final HttpConnectionType connectionType = this.parseConnectionType(requestLine);
-        final String requestedURL = new Regex(requestLine, HttpConnection.REQUESTLINE).getMatch(0);
-        final String requestedPath = new Regex(requestedURL, HttpConnection.REQUESTURL).getMatch(0);
+        final String requestedURL = this.parseRequestURL(requestLine);
+        final int query = requestedURL == null ? -1 : requestedURL.indexOf('?');
+        final String requestedPath = query < 0 ? requestedURL : requestedURL.substring(0, query);
         final List<KeyValuePair> requestedURLParameters = this.parseRequestURLParams(requestedURL);
         /* read request Headers */
         final HeaderCollection requestHeaders = this.parseRequestHeaders();
@@ -186,6 +201,7 @@ public class HttpConnection implements Runnable {
      * closes the client socket and removes this connection from server connection pool
      */
     public void closeConnection() {
+        this.connectionClosed = true;
         if (this.clientSocket != null) {
             try {
                 this.clientSocket.shutdownOutput();
@@ -209,11 +225,21 @@ public class HttpConnection implements Runnable {
     }
 
     /**
+     * the head of the request is read through a {@link HttpHeadInputStream}, so the body has to be read from this stream, too. It returns
+     * the bytes that have been buffered beyond the head first.
+     *
      * @return
      * @throws IOException
      */
     public InputStream getInputStream() throws IOException {
-        return this.getRawInputStream();
+        return this.getHeadInputStream();
+    }
+
+    protected HttpHeadInputStream getHeadInputStream() throws IOException {
+        if (this.headInputStream == null) {
+            this.headInputStream = new HttpHeadInputStream(this.getRawInputStream());
+        }
+        return this.headInputStream;
     }
 
     /**
@@ -226,6 +252,24 @@ public class HttpConnection implements Runnable {
         if (sendResponseHeaders) {
             this.sendResponseHeaders();
         }
+        if (this.keepAlive) {
+            if (this.keepAliveStream == null) {
+                /* closing the response stream must not close the connection */
+                this.keepAliveStream = new FilterOutputStream(this.getRawOutputStream()) {
+
+                    @Override
+                    public void close() throws IOException {
+                        this.flush();
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException {
+                        this.out.write(b, off, len);
+                    }
+                };
+            }
+            return this.keepAliveStream;
+        }
         return this.getRawOutputStream();
     }
 
@@ -266,6 +310,50 @@ public class HttpConnection implements Runnable {
         return this.response;
     }
 
+    /**
+     * decides if the connection can be used for another request after the current response. The request must allow it (HTTP/1.1 or
+     * Connection: keep-alive), the request body must be framed and the response must be delimited by Content-Length or chunked encoding
+     *
+     * @return
+     */
+    protected boolean isKeepAlive() {
+        if (this.clientSocket == null || this.request == null || this.closeAfterResponse || this.connectionClosed) {
+            return false;
+        }
+        final int max = this.server.getMaxKeepAliveRequests();
+        if (this.requestCount >= max || !this.server.isKeepAliveAllowed(this)) {
+            return false;
+        }
+        final HeaderCollection requestHeaders = this.request.getRequestHeaders();
+        final String connection = requestHeaders.getValue(HTTPConstants.HEADER_REQUEST_CONNECTION);
+        if (connection != null && connection.toLowerCase(Locale.ENGLISH).contains("close")) {
+            return false;
+        }
+        if (!this.http11 && (connection == null || !connection.toLowerCase(Locale.ENGLISH).contains("keep-alive"))) {
+            return false;
+        }
+        if (this.request instanceof HeadRequest) {
+            /* handlers may write a body */
+            return false;
+        }
+        if (!(this.request instanceof PostRequest)) {
+            /* we do not read bodies of other requests */
+            final String contentLength = requestHeaders.getValue(HTTPConstants.HEADER_RESPONSE_CONTENT_LENGTH);
+            if (requestHeaders.get(HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING) != null || contentLength != null && !"0".equals(contentLength.trim())) {
+                return false;
+            }
+        }
+        final HeaderCollection responseHeaders = this.response.getResponseHeaders();
+        final int code = this.response.getResponseCode().getCode();
+        if (code >= 200 && code != 204 && code != 304 && responseHeaders.get(HTTPConstants.HEADER_RESPONSE_CONTENT_LENGTH) == null) {
+            if (!HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING_CHUNKED.equalsIgnoreCase(responseHeaders.getValue(HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING))) {
+                /* response ends with closing the connection */
+                return false;
+            }
+        }
+        return this.response.setKeepAlive(this.server.getKeepAliveTimeout() / 1000, max - this.requestCount);
+    }
+
     public boolean isResponseHeadersSent() {
         return this.responseHeadersSent;
     }
@@ -289,8 +377,8 @@ public class HttpConnection implements Runnable {
     }
 
     protected HttpConnectionType parseConnectionType(final String requestLine) throws IOException {
-
-        final String method = new Regex(requestLine, HttpConnection.METHOD).getMatch(0);
+        final int index = requestLine.indexOf(' ');
+        final String method = index < 0 ? requestLine : requestLine.substring(0, index);
         // TOTO: requestLine may be "" in some cases (chrome pre connection...?)
         try {
             return HttpConnectionType.valueOf(method);
@@ -301,32 +389,45 @@ public class HttpConnection implements Runnable {
 
     protected HeaderCollection parseRequestHeaders() throws IOException {
         final ByteBuffer headers = this.readRequestHeaders();
-        final String[] headerStrings;
+        final byte[] array;
+        int offset;
+        final int end;
         if (headers.hasArray()) {
-            headerStrings = new String(headers.array(), headers.arrayOffset(), headers.limit(), "ISO-8859-1").split("(\r\n)|(\n)");
+            array = headers.array();
+            offset = headers.arrayOffset() + headers.position();
+            end = headers.arrayOffset() + headers.limit();
         } else {
-            final byte[] bytesHeaders = new byte[headers.limit()];
-            headers.get(bytesHeaders);
-            headerStrings = new String(bytesHeaders, "ISO-8859-1").split("(\r\n)|(\n)");
+            array = new byte[headers.remaining()];
+            headers.get(array);
+            offset = 0;
+            end = array.length;
         }
         /* build requestHeaders HashMap */
         final HeaderCollection requestHeaders = new HeaderCollection();
-        for (final String line : headerStrings) {
-            String key = null;
-            String value = null;
-            int index = 0;
-            if ((index = line.indexOf(": ")) > 0) {
-                key = line.substring(0, index);
-                value = line.substring(index + 2);
-            } else if ((index = line.indexOf(":")) > 0) {
-                /* buggy clients that don't have :space ARG */
-                key = line.substring(0, index);
-                value = line.substring(index + 1);
-            } else {
-                key = null;
-                value = line;
+        while (offset < end) {
+            int lineEnd = offset;
+            int colon = -1;
+            while (lineEnd < end && array[lineEnd] != '\n') {
+                if (colon < 0 && array[lineEnd] == ':') {
+                    colon = lineEnd;
+                }
+                lineEnd++;
+            }
+            final int next = lineEnd + 1;
+            if (lineEnd > offset && array[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > offset) {
+                if (colon > offset && colon < lineEnd) {
+                    final String key = HeaderKeys.intern(array, offset, colon - offset);
+                    /* buggy clients that don't have :space ARG */
+                    final int valueStart = colon + 1 < lineEnd && array[colon + 1] == ' ' ? colon + 2 : colon + 1;
+                    requestHeaders.add(new HTTPHeader(key, new String(array, valueStart, lineEnd - valueStart, HttpConnection.ISO_8859_1)));
+                } else {
+                    requestHeaders.add(new HTTPHeader(null, new String(array, offset, lineEnd - offset, HttpConnection.ISO_8859_1)));
+                }
             }
-            requestHeaders.add(new HTTPHeader(key, value));
+            offset = next;
         }
         return requestHeaders;
     }
@@ -334,43 +435,118 @@ public class HttpConnection implements Runnable {
     protected String parseRequestLine() throws IOException {
         final ByteBuffer header = this.readRequestLine();
         if (header.hasArray()) {
-            return this.preProcessRequestLine(new String(header.array(), header.arrayOffset(), header.limit(), "ISO-8859-1").trim());
+            return this.preProcessRequestLine(new String(header.array(), header.arrayOffset() + header.position(), header.remaining(), HttpConnection.ISO_8859_1).trim());
         } else {
-            final byte[] bytesRequestLine = new byte[header.limit()];
+            final byte[] bytesRequestLine = new byte[header.remaining()];
             header.get(bytesRequestLine);
-            return this.preProcessRequestLine(new String(bytesRequestLine, "ISO-8859-1").trim());
+            return this.preProcessRequestLine(new String(bytesRequestLine, HttpConnection.ISO_8859_1).trim());
         }
     }
 
+    /**
+     * @param requestLine
+     * @return the requested url (path and query) or null if the request line does not contain one
+     */
+    protected String parseRequestURL(final String requestLine) {
+        final int start = requestLine.indexOf(" /");
+        if (start < 0) {
+            return null;
+        }
+        final int end = requestLine.indexOf(' ', start + 1);
+        return end < 0 ? requestLine.substring(start + 1) : requestLine.substring(start + 1, end);
+    }
+
     protected List<KeyValuePair> parseRequestURLParams(final String requestURL) throws IOException {
-        return HttpConnection.parseParameterList(new Regex(requestURL, HttpConnection.REQUESTPARAM).getMatch(0));
+        final int query = requestURL == null ? -1 : requestURL.indexOf('?');
+        return HttpConnection.parseParameterList(query < 0 ? null : requestURL.substring(query + 1));
     }
 
     protected String preProcessRequestLine(final String requestLine) throws IOException {
         return requestLine;
     }
 
+    /**
+     * @return the headers of the head read by {@link #readRequestLine()}
+     * @throws IOException
+     */
     protected ByteBuffer readRequestHeaders() throws IOException {
-        return HTTPConnectionUtils.readheader(this.getInputStream(), false);
+        return this.getHeadInputStream().getRequestHeaders();
     }
 
+    /**
+     * reads the complete request head, see {@link HttpHeadInputStream#readHead()}
+     *
+     * @return the request line or an empty buffer if the stream ended before a request was sent
+     * @throws IOException
+     */
     protected ByteBuffer readRequestLine() throws IOException {
-        return HTTPConnectionUtils.readheader(this.getInputStream(), true);
+        final HttpHeadInputStream headInputStream = this.getHeadInputStream();
+        if (!headInputStream.readHead()) {
+            return ByteBuffer.allocate(0);
+        }
+        return headInputStream.getRequestLine();
+    }
+
+    /**
+     * resets the connection for the next request if the last response announced a persistent connection
+     *
+     * @return false if the connection has to be closed
+     * @throws IOException
+     */
+    protected boolean prepareNextRequest() throws IOException {
+        if (!this.keepAlive || this.connectionClosed) {
+            return false;
+        }
+        if (this.request instanceof PostRequest && !((PostRequest) this.request).consumeInputStream(HttpConnection.MAX_CONSUME)) {
+            return false;
+        }
+        this.getRawOutputStream().flush();
+        this.request = null;
+        this.response = null;
+        this.keepAlive = false;
+        this.setResponseHeadersSent(false);
+        return true;
+    }
+
+    /**
+     * waits up to {@link HttpServer#getKeepAliveTimeout()} for the next request on a persistent connection
+     *
+     * @return false if the client closed the connection or did not send a valid request in time
+     */
+    protected boolean readNextRequest() {
+        try {
+            this.clientSocket.setSoTimeout(this.server.getKeepAliveTimeout());
+            this.request = this.buildRequest();
+            this.clientSocket.setSoTimeout(60 * 1000);
+            this.server.onConnectionReused(this);
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
     }
 
     @Override
     public void run() {
         boolean closeConnection = true;
         try {
-            if (this.request == null) {
-                this.request = this.buildRequest();
-            }
-            if (this.response == null) {
-                this.response = this.buildResponse();
-            }
-            if (this.deferRequest(this.request)) {
-                closeConnection = false;
-            } else {
+            while (true) {
+                if (this.request == null) {
+                    if (this.requestCount > 0) {
+                        if (!this.readNextRequest()) {
+                            break;
+                        }
+                    } else {
+                        this.request = this.buildRequest();
+                    }
+                }
+                this.requestCount++;
+                if (this.response == null) {
+                    this.response = this.buildResponse();
+                }
+                if (this.deferRequest(this.request)) {
+                    closeConnection = false;
+                    break;
+                }
                 boolean handled = false;
                 if (this.request instanceof PostRequest) {
                     for (final HttpRequestHandler handler : this.getHandler()) {
@@ -393,8 +569,18 @@ public class HttpConnection implements Runnable {
                 }
                 /* send response headers if they have not been sent yet send yet */
                 this.response.getOutputStream(true);
+                if (!this.prepareNextRequest()) {
+                    break;
+                }
+                if (this.selector != null && !this.getHeadInputStream().hasHead()) {
+                    /* wait for the next request without blocking this thread */
+                    closeConnection = false;
+                    this.selector.resume(this);
+                    break;
+                }
             }
         } catch (final Throwable e) {
+            this.closeAfterResponse = true;
             try {
                 closeConnection = this.onException(e, this.request, this.response);
             } catch (final Throwable nothing) {
@@ -421,18 +607,22 @@ public class HttpConnection implements Runnable {
                 throw new IOException("Headers already send!");
             }
             if (this.response != null) {
-                final OutputStream out = this.getRawOutputStream();
+                this.keepAlive = this.isKeepAlive();
+                /* the socket stream is not buffered, so we send the head with one write */
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(512);
                 out.write(HttpResponse.HTTP11);
                 out.write(this.response.getResponseCode().getBytes());
                 out.write(HttpResponse.NEWLINE);
                 for (final HTTPHeader h : this.response.getResponseHeaders()) {
-                    out.write(h.getKey().getBytes("ISO-8859-1"));
+                    out.write(h.getKey().getBytes(HttpConnection.ISO_8859_1));
                     out.write(HTTPHeader.DELIMINATOR);
-                    out.write(h.getValue().getBytes("ISO-8859-1"));
+                    out.write(h.getValue().getBytes(HttpConnection.ISO_8859_1));
                     out.write(HttpResponse.NEWLINE);
                 }
                 out.write(HttpResponse.NEWLINE);
-                out.flush();
+                final OutputStream os = this.getRawOutputStream();
+                out.writeTo(os);
+                os.flush();
             }
         } finally {
             this.setResponseHeadersSent(true);
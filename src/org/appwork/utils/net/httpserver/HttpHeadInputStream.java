@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.net.httpserver
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.net.httpserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Buffered InputStream for the server side of a http connection. {@link #readHead()} reads blockwise from the underlying stream and
+ * scans for the end of the request head in a single pass. Bytes read beyond the head (body or the next pipelined request) stay in the
+ * buffer and are returned by the read methods before the underlying stream is used again.
+ *
+ * The request line and headers are returned as views on the internal buffer and are only valid until the next call of
+ * {@link #readHead()}
+ *
+ * @author daniel
+ *
+ */
+public class HttpHeadInputStream extends InputStream {
+
+    public static int         MAX_HEAD_SIZE = 64 * 1024;
+
+    private static final byte CR            = '\r';
+    private static final byte LF            = '\n';
+
+    private final InputStream in;
+    /* position = next unread byte, limit = end of buffered data */
+    private ByteBuffer        buffer;
+    private int               lineStart     = 0;
+    private int               lineEnd       = 0;
+    private int               headersStart  = 0;
+    private int               headersEnd    = 0;
+
+    public HttpHeadInputStream(final InputStream in) {
+        this.in = in;
+        this.buffer = ByteBuffer.allocate(4096);
+        this.buffer.limit(0);
+    }
+
+    @Override
+    public int available() throws IOException {
+        final int buffered = this.buffer.remaining();
+        if (buffered > 0) {
+            return buffered;
+        }
+        return this.in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    /**
+     * moves unread bytes to the start of the buffer and grows it if there is no space left
+     *
+     * @return false if the buffer may not grow any further
+     */
+    private boolean compact() {
+        final int remaining = this.buffer.remaining();
+        if (this.buffer.position() > 0) {
+            System.arraycopy(this.buffer.array(), this.buffer.position(), this.buffer.array(), 0, remaining);
+            this.buffer.position(0);
+            this.buffer.limit(remaining);
+        }
+        if (remaining == this.buffer.capacity()) {
+            if (remaining >= HttpHeadInputStream.MAX_HEAD_SIZE) {
+                return false;
+            }
+            final ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(HttpHeadInputStream.MAX_HEAD_SIZE, this.buffer.capacity() * 2));
+            newBuffer.put(this.buffer);
+            newBuffer.flip();
+            this.buffer = newBuffer;
+        }
+        return true;
+    }
+
+    /**
+     * reads more data into the buffer
+     *
+     * @return false on EOF
+     */
+    private boolean fill() throws IOException {
+        final int limit = this.buffer.limit();
+        final int read = this.in.read(this.buffer.array(), limit, this.buffer.capacity() - limit);
+        if (read == -1) {
+            return false;
+        }
+        this.buffer.limit(limit + read);
+        return true;
+    }
+
+    /**
+     * @return the headers of the last head, without the terminating empty line
+     */
+    public ByteBuffer getRequestHeaders() {
+        return ByteBuffer.wrap(this.buffer.array(), this.headersStart, this.headersEnd - this.headersStart).slice();
+    }
+
+    /**
+     * @return the request line of the last head, without line terminator
+     */
+    public ByteBuffer getRequestLine() {
+        return ByteBuffer.wrap(this.buffer.array(), this.lineStart, this.lineEnd - this.lineStart).slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.buffer.hasRemaining()) {
+            return this.buffer.get() & 0xff;
+        }
+        return this.in.read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int buffered = this.buffer.remaining();
+        if (buffered > 0) {
+            final int ret = Math.min(len, buffered);
+            this.buffer.get(b, off, ret);
+            return ret;
+        }
+        return this.in.read(b, off, len);
+    }
+
+    /**
+     * scans the buffered bytes for a complete head. Leading empty lines are dropped
+     *
+     * @param consume
+     *            remember request line/headers and move the read position behind the head
+     * @return true if the buffer contains a complete head
+     */
+    private boolean findHead(final boolean consume) {
+        final byte[] array = this.buffer.array();
+        final int limit = this.buffer.limit();
+        boolean requestLine = false;
+        int start = this.buffer.position();
+        for (int scan = start; scan < limit; scan++) {
+            if (array[scan] != HttpHeadInputStream.LF) {
+                continue;
+            }
+            final int end = scan > start && array[scan - 1] == HttpHeadInputStream.CR ? scan - 1 : scan;
+            if (!requestLine) {
+                if (end > start) {
+                    requestLine = true;
+                    if (consume) {
+                        this.lineStart = start;
+                        this.lineEnd = end;
+                        this.headersStart = scan + 1;
+                    }
+                } else {
+                    /* empty line in front of the request line */
+                    this.buffer.position(scan + 1);
+                }
+            } else if (end == start) {
+                /* empty line, end of head */
+                if (consume) {
+                    this.headersEnd = start;
+                    this.buffer.position(scan + 1);
+                }
+                return true;
+            }
+            start = scan + 1;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a complete head is buffered and {@link #readHead()} will not block
+     */
+    public boolean hasHead() {
+        return this.findHead(false);
+    }
+
+    /**
+     * reads available bytes from a non-blocking channel into the buffer
+     *
+     * @param channel
+     * @return number of bytes read or -1 on EOF
+     * @throws IOException
+     *             if the buffer is full and the head is larger than {@link #MAX_HEAD_SIZE}
+     */
+    public int read(final ReadableByteChannel channel) throws IOException {
+        if (!this.compact()) {
+            throw new IOException("Request head too large");
+        }
+        final int limit = this.buffer.limit();
+        final int read = channel.read(ByteBuffer.wrap(this.buffer.array(), limit, this.buffer.capacity() - limit));
+        if (read > 0) {
+            this.buffer.limit(limit + read);
+        }
+        return read;
+    }
+
+    /**
+     * reads the next request head. Empty lines in front of the request line are ignored (RFC 2616, 4.1), lines may be terminated by \r\n
+     * or \n only
+     *
+     * @return false if the stream ended before any byte of a new request was read
+     * @throws IOException
+     *             if the stream ended within the head or the head is larger than {@link #MAX_HEAD_SIZE}
+     */
+    public boolean readHead() throws IOException {
+        this.lineStart = this.lineEnd = this.headersStart = this.headersEnd = 0;
+        while (!this.findHead(true)) {
+            if (!this.compact()) {
+                throw new IOException("Request head too large");
+            }
+            if (!this.fill()) {
+                if (!this.buffer.hasRemaining()) {
+                    return false;
+                }
+                throw new EOFException("Unexpected end of request head");
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final int buffered = this.buffer.remaining();
+        if (buffered > 0) {
+            final int ret = (int) Math.min(n, buffered);
+            this.buffer.position(this.buffer.position() + ret);
+            return ret;
+        }
+        return this.in.skip(n);
+    }
+}
@@ -18,15 +18,19 @@ import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.appwork.scheduler.ThreadingModel;
 import org.appwork.utils.net.httpserver.handler.HttpRequestHandler;
 
 /**
@@ -36,11 +40,20 @@ import org.appwork.utils.net.httpserver.handler.HttpRequestHandler;
 public class HttpServer implements Runnable {
 
     private final int                                      port;
-    private final AtomicReference<ServerSocket>            controlSocket   = new AtomicReference<ServerSocket>(null);
-    private volatile Thread                                serverThread    = null;
-    private boolean                                        localhostOnly   = false;
-    private boolean                                        debug           = false;
-    private final CopyOnWriteArrayList<HttpRequestHandler> requestHandlers = new CopyOnWriteArrayList<HttpRequestHandler>();
+    private final AtomicReference<ServerSocket>            controlSocket        = new AtomicReference<ServerSocket>(null);
+    private volatile Thread                                serverThread         = null;
+    private boolean                                        localhostOnly        = false;
+    private boolean                                        debug                = false;
+    private final CopyOnWriteArrayList<HttpRequestHandler> requestHandlers      = new CopyOnWriteArrayList<HttpRequestHandler>();
+    private volatile ExecutorService                       threadPool           = null;
+    private ThreadingModel                                 threadingModel       = ThreadingModel.getDefault();
+    private volatile HttpServerSelector                    selector             = null;
+    private boolean                                        nonBlocking          = false;
+    private int                                            maxWorkers           = 20;
+    private int                                            keepAliveTimeout     = 5 * 1000;
+    private int                                            maxKeepAliveRequests = 100;
+    private final AtomicLong                               newConnections       = new AtomicLong(0);
+    private final AtomicLong                               reusedConnections    = new AtomicLong(0);
 
     public HttpServer(final int port) {
         this.port = port;
@@ -50,10 +63,89 @@ public class HttpServer implements Runnable {
         return new HttpConnection(this, clientSocket);
     }
 
+    /**
+     * creates the executor for the HttpConnections. With virtual threads each connection gets its own thread, otherwise max.
+     * {@link #getMaxWorkers()} threads are used
+     *
+     * @param nonBlocking
+     *            executor for a {@link HttpServerSelector}, it only gets connections with a complete request
+     * @return
+     */
+    protected ExecutorService createExecutor(final boolean nonBlocking) {
+        if (this.threadingModel.isVirtual()) {
+            return this.threadingModel.newThreadPerTaskExecutor("HttpConnection:" + this.getPort() + ":" + this.isLocalhostOnly());
+        }
+        if (nonBlocking) {
+            final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(this.maxWorkers, this.maxWorkers, 10000l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                public Thread newThread(final Runnable r) {
+                    return new HttpConnectionThread(HttpServer.this, r);
+                }
+
+            }) {
+
+                @Override
+                protected void beforeExecute(final Thread t, final Runnable r) {
+                    if (t instanceof HttpConnectionThread && r instanceof HttpConnection) {
+                        ((HttpConnectionThread) t).setCurrentConnection((HttpConnection) r);
+                    }
+                    super.beforeExecute(t, r);
+                }
+            };
+            threadPool.allowCoreThreadTimeOut(true);
+            return threadPool;
+        }
+        final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(0, this.maxWorkers, 10000l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(100), new ThreadFactory() {
+
+            public Thread newThread(final Runnable r) {
+                return new HttpConnectionThread(HttpServer.this, r);
+            }
+
+        }, new ThreadPoolExecutor.AbortPolicy()) {
+
+            final ThreadPoolExecutor threadPool;
+            {
+                threadPool = this;
+            }
+
+            @Override
+            protected void beforeExecute(final Thread t, final Runnable r) {
+                /*
+                 * WORKAROUND for stupid SUN /ORACLE way of "how a threadpool should work" !
+                 */
+                final int active = threadPool.getPoolSize();
+                final int max = threadPool.getMaximumPoolSize();
+                if (active < max) {
+                    final int working = threadPool.getActiveCount();
+                    if (working == active) {
+                        /*
+                         * we can increase max pool size so new threads get started
+                         */
+                        threadPool.setCorePoolSize(Math.min(max, active + 1));
+                    }
+                }
+                if (t instanceof HttpConnectionThread && r instanceof HttpConnection) {
+                    ((HttpConnectionThread) t).setCurrentConnection((HttpConnection) r);
+                }
+                super.beforeExecute(t, r);
+            }
+
+        };
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
     public List<HttpRequestHandler> getHandler() {
         return this.requestHandlers;
     }
 
+    /**
+     * @return how long (ms) an idle persistent connection waits for the next request
+     */
+    public int getKeepAliveTimeout() {
+        return this.keepAliveTimeout;
+    }
+
     protected InetAddress getLocalHost() {
         InetAddress localhost = null;
         try {
@@ -70,6 +162,27 @@ public class HttpServer implements Runnable {
         return localhost;
     }
 
+    /**
+     * @return max. number of requests per connection, 1 or less disables persistent connections
+     */
+    public int getMaxKeepAliveRequests() {
+        return this.maxKeepAliveRequests;
+    }
+
+    /**
+     * @return max. number of threads that handle requests
+     */
+    public int getMaxWorkers() {
+        return this.maxWorkers;
+    }
+
+    /**
+     * @return number of accepted connections
+     */
+    public long getNewConnections() {
+        return this.newConnections.get();
+    }
+
     /**
      * @return the port
      */
@@ -84,10 +197,32 @@ public class HttpServer implements Runnable {
         return this.port;
     }
 
+    /**
+     * @return number of requests that have been read from an already used connection
+     */
+    public long getReusedConnections() {
+        return this.reusedConnections.get();
+    }
+
+    /**
+     * @return the selector of the running non-blocking server or null
+     */
+    public HttpServerSelector getSelector() {
+        return this.selector;
+    }
+
     public int getWishedPort() {
         return port;
     }
 
+    protected boolean isControlSocket(final ServerSocket socket) {
+        return this.controlSocket.get() == socket;
+    }
+
+    public ThreadingModel getThreadingModel() {
+        return this.threadingModel;
+    }
+
     /**
      * @return the debug
      */
@@ -102,10 +237,47 @@ public class HttpServer implements Runnable {
         return this.localhostOnly;
     }
 
+    /**
+     * persistent connections block a thread of the pool while waiting for the next request, so we only allow them as long as no other
+     * connection is waiting for a thread
+     *
+     * @param connection
+     * @return
+     */
+    protected boolean isKeepAliveAllowed(final HttpConnection connection) {
+        if (this.maxKeepAliveRequests <= 1 || !this.isRunning()) {
+            return false;
+        }
+        if (this.selector != null) {
+            /* idle connections wait in the selector */
+            return true;
+        }
+        final ExecutorService lThreadPool = this.threadPool;
+        if (lThreadPool instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) lThreadPool).getQueue().isEmpty();
+        }
+        return lThreadPool != null;
+    }
+
+    /**
+     * @return true if connections are accepted and read by a {@link HttpServerSelector}
+     */
+    public boolean isNonBlocking() {
+        return this.nonBlocking;
+    }
+
     public boolean isRunning() {
         return controlSocket.get() != null && this.serverThread != null;
     }
 
+    protected void onConnectionAccepted() {
+        this.newConnections.incrementAndGet();
+    }
+
+    protected void onConnectionReused(final HttpConnection connection) {
+        this.reusedConnections.incrementAndGet();
+    }
+
     /*
      * to register a new handler we create a copy of current handlerList and then add new handler to it and set it as new handlerList. by
      * doing so, all current connections dont have to sync on their handlerlist
@@ -119,53 +291,23 @@ public class HttpServer implements Runnable {
 
     public void run() {
         final ServerSocket socket = this.controlSocket.get();
+        if (socket.getChannel() != null) {
+            this.runSelector(socket);
+            return;
+        }
         try {
             socket.setSoTimeout(5 * 60 * 1000);
         } catch (final SocketException e1) {
             e1.printStackTrace();
         }
-        ThreadPoolExecutor threadPool = null;
+        ExecutorService threadPool = null;
         try {
-            threadPool = new ThreadPoolExecutor(0, 20, 10000l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(100), new ThreadFactory() {
-
-                public Thread newThread(final Runnable r) {
-                    return new HttpConnectionThread(HttpServer.this, r);
-                }
-
-            }, new ThreadPoolExecutor.AbortPolicy()) {
-
-                final ThreadPoolExecutor threadPool;
-                {
-                    threadPool = this;
-                }
-
-                @Override
-                protected void beforeExecute(final Thread t, final Runnable r) {
-                    /*
-                     * WORKAROUND for stupid SUN /ORACLE way of "how a threadpool should work" !
-                     */
-                    final int active = threadPool.getPoolSize();
-                    final int max = threadPool.getMaximumPoolSize();
-                    if (active < max) {
-                        final int working = threadPool.getActiveCount();
-                        if (working == active) {
-                            /*
-                             * we can increase max pool size so new threads get started
-                             */
-                            threadPool.setCorePoolSize(Math.min(max, active + 1));
-                        }
-                    }
-                    if (t instanceof HttpConnectionThread && r instanceof HttpConnection) {
-                        ((HttpConnectionThread) t).setCurrentConnection((HttpConnection) r);
-                    }
-                    super.beforeExecute(t, r);
-                }
-
-            };
-            threadPool.allowCoreThreadTimeOut(true);
+            threadPool = this.createExecutor(false);
+            this.threadPool = threadPool;
             while (controlSocket.get() == socket) {
                 try {
                     final Socket clientSocket = socket.accept();
+                    this.onConnectionAccepted();
                     try {
                         threadPool.execute(this.createConnectionInstance(clientSocket));
                     } catch (final IOException e) {
@@ -195,20 +337,33 @@ public class HttpServer implements Runnable {
                 socket.close();
             } catch (final Throwable e) {
             }
-            if (threadPool != null) {
-                final List<Runnable> waiting = threadPool.shutdownNow();
-                if (waiting != null) {
-                    /* close all waiting HttpConnections */
-                    for (final Runnable runnable : waiting) {
-                        try {
-                            if (runnable instanceof HttpConnection) {
-                                ((HttpConnection) runnable).closeConnection();
-                            }
-                        } catch (final Throwable e) {
-                        }
-                    }
+            this.shutdownExecutor(threadPool);
+        }
+    }
+
+    private void runSelector(final ServerSocket socket) {
+        ExecutorService threadPool = null;
+        try {
+            threadPool = this.createExecutor(true);
+            this.threadPool = threadPool;
+            final HttpServerSelector selector = new HttpServerSelector(this, socket, threadPool);
+            this.selector = selector;
+            try {
+                selector.run();
+            } finally {
+                if (this.selector == selector) {
+                    this.selector = null;
                 }
             }
+        } catch (final IOException e) {
+            e.printStackTrace();
+        } finally {
+            this.shutdownExecutor(threadPool);
+            this.controlSocket.compareAndSet(socket, null);
+            try {
+                socket.close();
+            } catch (final Throwable e) {
+            }
         }
     }
 
@@ -220,11 +375,13 @@ public class HttpServer implements Runnable {
         this.debug = debug;
     }
 
-    /*
-     * (non-Javadoc)
-     *
-     * @see java.lang.Runnable#run()
+    /**
+     * @param keepAliveTimeout
+     *            ms an idle persistent connection waits for the next request
      */
+    public void setKeepAliveTimeout(final int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
 
     /**
      * @param localhostOnly
@@ -234,6 +391,58 @@ public class HttpServer implements Runnable {
         this.localhostOnly = localhostOnly;
     }
 
+    /**
+     * @param maxWorkers
+     *            max. number of threads that handle requests, set before {@link #start()}
+     */
+    public void setMaxWorkers(final int maxWorkers) {
+        this.maxWorkers = Math.max(1, maxWorkers);
+    }
+
+    /**
+     * @param maxKeepAliveRequests
+     *            max. number of requests per connection, 1 or less disables persistent connections
+     */
+    public void setMaxKeepAliveRequests(final int maxKeepAliveRequests) {
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    /**
+     * @param threadingModel
+     *            set before {@link #start()}
+     */
+    public void setThreadingModel(final ThreadingModel threadingModel) {
+        this.threadingModel = threadingModel == null ? ThreadingModel.getDefault() : threadingModel;
+    }
+
+    /**
+     * @param nonBlocking
+     *            use a {@link HttpServerSelector} to read request heads and idle connections, set before {@link #start()}
+     */
+    public void setNonBlocking(final boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+    }
+
+    private void shutdownExecutor(final ExecutorService threadPool) {
+        if (threadPool != null) {
+            if (this.threadPool == threadPool) {
+                this.threadPool = null;
+            }
+            final List<Runnable> waiting = threadPool.shutdownNow();
+            if (waiting != null) {
+                /* close all waiting HttpConnections */
+                for (final Runnable runnable : waiting) {
+                    try {
+                        if (runnable instanceof HttpConnection) {
+                            ((HttpConnection) runnable).closeConnection();
+                        }
+                    } catch (final Throwable e) {
+                    }
+                }
+            }
+        }
+    }
+
     public synchronized void shutdown() {
         try {
             final ServerSocket lControlSocket = controlSocket.getAndSet(null);
@@ -246,7 +455,16 @@ public class HttpServer implements Runnable {
 
     public synchronized void start() throws IOException {
         final ServerSocket controlSocket;
-        if (this.isLocalhostOnly()) {
+        if (this.isNonBlocking()) {
+            controlSocket = ServerSocketChannel.open().socket();
+            controlSocket.setReuseAddress(true);
+            if (this.isLocalhostOnly()) {
+                /* we only want localhost bound here */
+                controlSocket.bind(new InetSocketAddress(this.getLocalHost(), this.port));
+            } else {
+                controlSocket.bind(new InetSocketAddress(this.port));
+            }
+        } else if (this.isLocalhostOnly()) {
             /* we only want localhost bound here */
             final SocketAddress socketAddress = new InetSocketAddress(this.getLocalHost(), this.port);
             controlSocket = new ServerSocket();
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2009 - 2011 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.net.httpserver
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.net.httpserver;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * non-blocking front end of a {@link HttpServer}. One thread accepts connections and reads request heads, only connections with a
+ * complete head are handed to the worker pool. Persistent connections are given back by {@link #resume(HttpConnection)} after the
+ * response, so idle connections do not block a worker.
+ *
+ * @author daniel
+ *
+ */
+public class HttpServerSelector implements Runnable {
+
+    private static class Attachment {
+        private final HttpConnection connection;
+        private long                 lastActivity;
+
+        private Attachment(final HttpConnection connection) {
+            this.connection = connection;
+            this.lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    /* timeout for the first request head, same as the read timeout of blocking connections */
+    public static int                                   HEAD_TIMEOUT = 60 * 1000;
+
+    private final HttpServer                            server;
+    private final ServerSocket                          socket;
+    private final Selector                              selector;
+    private final ExecutorService                       workers;
+    private final ConcurrentLinkedQueue<HttpConnection> resumed      = new ConcurrentLinkedQueue<HttpConnection>();
+
+    /**
+     * @param server
+     * @param socket
+     *            the bound socket of a ServerSocketChannel
+     * @param workers
+     *            runs connections with a complete request head, the caller has to shut it down
+     * @throws IOException
+     */
+    public HttpServerSelector(final HttpServer server, final ServerSocket socket, final ExecutorService workers) throws IOException {
+        this.server = server;
+        this.socket = socket;
+        this.selector = Selector.open();
+        this.workers = workers;
+    }
+
+    private void accept(final ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            this.server.onConnectionAccepted();
+            try {
+                channel.configureBlocking(false);
+                final HttpConnection connection = this.server.createConnectionInstance(channel.socket());
+                connection.selector = this;
+                channel.register(this.selector, SelectionKey.OP_READ, new Attachment(connection));
+            } catch (final IOException e) {
+                e.printStackTrace();
+                try {
+                    channel.close();
+                } catch (final Throwable e2) {
+                }
+            }
+        }
+    }
+
+    private void close(final SelectionKey key) {
+        key.cancel();
+        ((Attachment) key.attachment()).connection.closeConnection();
+    }
+
+    /**
+     * @return number of connections waiting for a worker
+     */
+    public int getQueuedConnections() {
+        if (this.workers instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) this.workers).getQueue().size();
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of connections handled by the selector, this includes idle persistent connections
+     */
+    public int getSelectedConnections() {
+        return Math.max(0, this.selector.keys().size() - 1);
+    }
+
+    /**
+     * hands a persistent connection back to the selector to wait for the next request
+     *
+     * @param connection
+     */
+    protected void resume(final HttpConnection connection) {
+        this.resumed.add(connection);
+        this.selector.wakeup();
+    }
+
+    private void register() {
+        HttpConnection connection;
+        while ((connection = this.resumed.poll()) != null) {
+            final SocketChannel channel = connection.clientSocket.getChannel();
+            try {
+                channel.configureBlocking(false);
+                channel.register(this.selector, SelectionKey.OP_READ, new Attachment(connection));
+            } catch (final ClosedChannelException e) {
+                connection.closeConnection();
+            } catch (final IOException e) {
+                connection.closeConnection();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        final ServerSocketChannel serverChannel = this.socket.getChannel();
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+            final List<SelectionKey> ready = new ArrayList<SelectionKey>();
+            long lastTimeoutCheck = System.currentTimeMillis();
+            while (this.server.isControlSocket(this.socket)) {
+                this.selector.select(1000);
+                this.register();
+                final Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        this.accept(serverChannel);
+                    } else if (key.isReadable()) {
+                        final Attachment attachment = (Attachment) key.attachment();
+                        try {
+                            final HttpHeadInputStream head = attachment.connection.getHeadInputStream();
+                            final int read = head.read((SocketChannel) key.channel());
+                            if (read == -1) {
+                                this.close(key);
+                            } else if (head.hasHead()) {
+                                key.cancel();
+                                ready.add(key);
+                            } else {
+                                attachment.lastActivity = System.currentTimeMillis();
+                            }
+                        } catch (final IOException e) {
+                            this.close(key);
+                        }
+                    }
+                }
+                if (ready.size() > 0) {
+                    /* cancelled keys are deregistered by the next select, only then the channel may block again */
+                    this.selector.selectNow();
+                    for (final SelectionKey key : ready) {
+                        final HttpConnection connection = ((Attachment) key.attachment()).connection;
+                        try {
+                            key.channel().configureBlocking(true);
+                            this.workers.execute(connection);
+                        } catch (final IOException e) {
+                            connection.closeConnection();
+                        } catch (final RejectedExecutionException e) {
+                            connection.closeConnection();
+                        }
+                    }
+                    ready.clear();
+                }
+                final long now = System.currentTimeMillis();
+                if (now - lastTimeoutCheck >= 1000) {
+                    lastTimeoutCheck = now;
+                    this.timeout(now);
+                }
+            }
+        } catch (final IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (final SelectionKey key : this.selector.keys()) {
+                if (key.attachment() instanceof Attachment) {
+                    this.close(key);
+                }
+            }
+            try {
+                this.selector.close();
+            } catch (final Throwable e) {
+            }
+            HttpConnection connection;
+            while ((connection = this.resumed.poll()) != null) {
+                connection.closeConnection();
+            }
+        }
+    }
+
+    /**
+     * closes connections that did not send a (complete) request in time
+     */
+    private void timeout(final long now) {
+        for (final SelectionKey key : this.selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Attachment) {
+                final Attachment attachment = (Attachment) key.attachment();
+                final int timeout = attachment.connection.requestCount == 0 ? HttpServerSelector.HEAD_TIMEOUT : this.server.getKeepAliveTimeout();
+                if (now - attachment.lastActivity > timeout) {
+                    this.close(key);
+                }
+            }
+        }
+    }
+}
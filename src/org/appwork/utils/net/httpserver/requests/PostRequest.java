@@ -9,6 +9,7 @@
  */
 package org.appwork.utils.net.httpserver.requests;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.LinkedList;
@@ -37,6 +38,8 @@ public class PostRequest extends HttpRequest {
     }
 
     protected InputStream        inputStream         = null;
+    /* the framed body without close protection */
+    protected InputStream        bodyInputStream     = null;
 
     protected boolean            postParameterParsed = false;
     protected List<KeyValuePair> postParameters      = null;
@@ -48,6 +51,31 @@ public class PostRequest extends HttpRequest {
         super(connection);
     }
 
+    /**
+     * reads the rest of the request body, so the connection can be used for the next request
+     * 
+     * @param max
+     *            max. number of bytes to skip
+     * @return true if the body has been read completely
+     */
+    public synchronized boolean consumeInputStream(final long max) {
+        try {
+            this.getInputStream();
+            final byte[] buffer = new byte[4096];
+            long left = max;
+            int read = 0;
+            while ((read = this.bodyInputStream.read(buffer)) >= 0) {
+                left -= read;
+                if (left < 0) {
+                    return false;
+                }
+            }
+            return !(this.bodyInputStream instanceof ChunkedInputStream) || ((ChunkedInputStream) this.bodyInputStream).isValidEOF();
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
     /**
      * TODO: modify these to check if we need to wrap the inputstream again
      * 
@@ -59,42 +87,7 @@ public class PostRequest extends HttpRequest {
             final HTTPHeader transferEncoding = this.getRequestHeaders().get(HTTPConstants.HEADER_RESPONSE_TRANSFER_ENCODING);
             if (transferEncoding != null) {
                 if ("chunked".equalsIgnoreCase(transferEncoding.getValue())) {
-                    this.inputStream = new ChunkedInputStream(this.connection.getInputStream()) {
-
-                        volatile boolean closed = false;
-
-                        @Override
-                        public void close() throws IOException {
-                            this.closed = true;
-                            if (PostRequest.this.connection.closableStreams()) {
-                                super.close();
-                            }
-                        }
-
-                        @Override
-                        public int read() throws IOException {
-                            if (this.closed) {
-                                return -1;
-                            }
-                            return super.read();
-                        }
-
-                        @Override
-                        public int read(final byte[] b) throws IOException {
-                            if (this.closed) {
-                                return -1;
-                            }
-                            return super.read(b);
-                        }
-
-                        @Override
-                        public int read(final byte[] b, final int off, final int len) throws IOException {
-                            if (this.closed) {
-                                return -1;
-                            }
-                            return super.read(b, off, len);
-                        }
-                    };
+                    this.bodyInputStream = new ChunkedInputStream(this.connection.getInputStream());
                 } else {
                     throw new IOException("Unknown Transfer-Encoding " + transferEncoding.getValue());
                 }
@@ -103,44 +96,44 @@ public class PostRequest extends HttpRequest {
                 if (contentLength == null) {
                     throw new IOException("No Content-Length given!");
                 }
-                this.inputStream = new LimitedInputStream(this.connection.getInputStream(), Long.parseLong(contentLength.getValue())) {
+                this.bodyInputStream = new LimitedInputStream(this.connection.getInputStream(), Long.parseLong(contentLength.getValue()));
+            }
+            this.inputStream = new FilterInputStream(this.bodyInputStream) {
 
-                    volatile boolean closed = false;
+                volatile boolean closed = false;
 
-                    @Override
-                    public void close() throws IOException {
-                        this.closed = true;
-                        if (PostRequest.this.connection.closableStreams()) {
-                            super.close();
-                        }
+                @Override
+                public void close() throws IOException {
+                    this.closed = true;
+                    if (PostRequest.this.connection.closableStreams()) {
+                        super.close();
                     }
+                }
 
-                    @Override
-                    public int read() throws IOException {
-                        if (this.closed) {
-                            return -1;
-                        }
-                        return super.read();
+                @Override
+                public int read() throws IOException {
+                    if (this.closed) {
+                        return -1;
                     }
+                    return super.read();
+                }
 
-                    @Override
-                    public int read(final byte[] b) throws IOException {
-                        if (this.closed) {
-                            return -1;
-                        }
-                        return super.read(b);
+                @Override
+                public int read(final byte[] b) throws IOException {
+                    if (this.closed) {
+                        return -1;
                     }
+                    return super.read(b);
+                }
 
-                    @Override
-                    public int read(final byte[] b, final int off, final int len) throws IOException {
-                        if (this.closed) {
-                            return -1;
-                        }
-                        return super.read(b, off, len);
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    if (this.closed) {
+                        return -1;
                     }
-
-                };
-            }
+                    return super.read(b, off, len);
+                }
+            };
         }
         return this.inputStream;
     }
@@ -9,6 +9,7 @@
  */
 package org.appwork.utils.net.httpserver.responses;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -19,11 +20,13 @@ import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import org.appwork.net.protocol.http.HTTPConstants;
 import org.appwork.net.protocol.http.HTTPConstants.ResponseCode;
 import org.appwork.utils.Files;
+import org.appwork.utils.IO;
 import org.appwork.utils.ReusableByteArrayOutputStream;
 import org.appwork.utils.net.ChunkedOutputStream;
 import org.appwork.utils.net.HTTPHeader;
@@ -139,6 +142,7 @@ public class FileResponse {
         final ReusableByteArrayOutputStream ros = null;
         boolean chunked = false;
         boolean gzip = false;
+        byte[] precompressed = null;
         long knownLength = -1;
         try {
             /* get inputstream */
@@ -157,14 +161,33 @@ public class FileResponse {
             }
             if (this.allowGZIP()) {
                 /* do we use gzip for content encoding? */
-                if (!this.useContentDisposition()) {
+                if (!this.useContentDisposition() && ResponseCompression.isCompressible(this.getMimeType())) {
                     /* only allow gzip when not offering to save the file */
                     gzip = true;
-                    this.response.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_ENCODING, "gzip"));
                 }
             }
-            final long length = this.getContentLength(knownLength);
-            if (length >= 0 && !gzip) {
+            if (gzip && con != null && knownLength > 0 && knownLength <= ResponseCompression.MAX_CACHE_ITEM) {
+                /* small static content, compress once with best level and cache it */
+                final ResponseCompression compression = ResponseCompression.getInstance();
+                final String key = this.inputURL.toExternalForm() + "|" + con.getLastModified() + "|" + knownLength;
+                precompressed = compression.getCached(key);
+                if (precompressed == null) {
+                    final byte[] raw = IO.readStream((int) knownLength, is);
+                    is = new ByteArrayInputStream(raw);
+                    precompressed = compression.compress(raw, 0, raw.length, Deflater.BEST_COMPRESSION, true);
+                    compression.putCached(key, precompressed);
+                }
+                if (precompressed == null || precompressed.length == 0) {
+                    /* incompressible */
+                    gzip = false;
+                    precompressed = null;
+                }
+            }
+            if (gzip) {
+                this.response.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_ENCODING, "gzip"));
+            }
+            final long length = precompressed != null ? precompressed.length : this.getContentLength(knownLength);
+            if (length >= 0 && (!gzip || precompressed != null)) {
                 /* we know content length, send it */
                 this.response.getResponseHeaders().add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_CONTENT_LENGTH, length + ""));
             } else {
@@ -181,6 +204,11 @@ public class FileResponse {
                 /* offer file to download */
                 this.response.getResponseHeaders().add(new HTTPHeader("Content-Disposition", "attachment;filename*=UTF-8''" + URLEncoder.encode(this.getFileName(), "UTF-8")));
             }
+            if (precompressed != null) {
+                os = this.response.getOutputStream(true);
+                os.write(precompressed);
+                return;
+            }
             /* configure outputstream */
             if (gzip) {
                 if (chunked) {
@@ -32,11 +32,13 @@ public class HttpResponse implements HttpResponseInterface {
     protected final HttpConnection connection;
     protected OutputStream         outputStream  = null;
     protected boolean              asyncResponse = false;
+    private final HTTPHeader       connectionClose;
 
     public HttpResponse(final HttpConnection connection) {
         this.connection = connection;
         this.responseHeaders = new HeaderCollection();
-        this.responseHeaders.add(new HTTPHeader(HTTPConstants.HEADER_REQUEST_CONNECTION, "close"));
+        this.connectionClose = new HTTPHeader(HTTPConstants.HEADER_REQUEST_CONNECTION, "close");
+        this.responseHeaders.add(this.connectionClose);
         this.responseHeaders.add(new HTTPHeader(HTTPConstants.HEADER_RESPONSE_SERVER, "AppWork GmbH HttpServer"));
     }
 
@@ -85,6 +87,25 @@ public class HttpResponse implements HttpResponseInterface {
         return this.responseHeaders;
     }
 
+    /**
+     * replaces the default Connection: close header. Does nothing if the Connection header has been set by someone else
+     *
+     * @param timeout
+     *            idle timeout in seconds
+     * @param max
+     *            number of requests left on this connection
+     * @return true if the response announces a persistent connection
+     */
+    public boolean setKeepAlive(final int timeout, final int max) {
+        final HTTPHeader connection = this.responseHeaders.get(HTTPConstants.HEADER_REQUEST_CONNECTION);
+        if (connection != this.connectionClose) {
+            return connection != null && "keep-alive".equalsIgnoreCase(connection.getValue());
+        }
+        this.responseHeaders.add(new HTTPHeader(HTTPConstants.HEADER_REQUEST_CONNECTION, "keep-alive"));
+        this.responseHeaders.add(new HTTPHeader(HTTPConstants.HTTP_KEEP_ALIVE, "timeout=" + timeout + ", max=" + max));
+        return true;
+    }
+
     /**
      * @param responseCode
      *            the responseCode to set
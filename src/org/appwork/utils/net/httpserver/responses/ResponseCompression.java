@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2009 - 2012 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.net.httpserver.responses
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.net.httpserver.responses;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.appwork.utils.ByteArrayPool;
+import org.appwork.utils.zip.ZLibPool;
+
+/**
+ * @author daniel
+ *
+ *         ResponseCompression
+ *
+ *         compresses complete response bodies with pooled Deflaters. the level can be set per route (e.g. requested path), the default is
+ *         {@link #DEFAULT_LEVEL}. compression is given up as soon as the output gets bigger than {@link #MAX_RATIO} of the input, a route
+ *         that sent incompressible data is not compressed for the next {@link #PROBE_INTERVAL} responses.
+ *
+ *         precompressed static content can be cached with {@link #getCached(String)}/{@link #putCached(String, byte[])}.
+ */
+public class ResponseCompression {
+
+    private static class CacheEntry {
+        private final SoftReference<byte[]> data;
+        private final int                   size;
+
+        private CacheEntry(final byte[] data) {
+            this.data = new SoftReference<byte[]>(data);
+            this.size = data.length;
+        }
+    }
+
+    private static class Route {
+        /* responses to send uncompressed before the next try */
+        private final AtomicInteger skip = new AtomicInteger(0);
+    }
+
+    private static final ResponseCompression         INSTANCE       = new ResponseCompression();
+    private static final byte[]                      GZIP_HEADER    = new byte[] { (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    /* empty array in the cache marks incompressible content */
+    private static final byte[]                      INCOMPRESSIBLE = new byte[0];
+
+    public static int                                DEFAULT_LEVEL  = 6;
+    /* max. compressed/uncompressed ratio that is worth sending compressed */
+    public static double                             MAX_RATIO      = 0.9d;
+    public static int                                PROBE_INTERVAL = 16;
+    /* max. remembered routes */
+    public static int                                MAX_ROUTES     = 1024;
+    /* max. size of one cached entry and of all cached entries */
+    public static int                                MAX_CACHE_ITEM = 1024 * 1024;
+    public static long                               MAX_CACHE_SIZE = 8 * 1024 * 1024;
+
+    public static ResponseCompression getInstance() {
+        return ResponseCompression.INSTANCE;
+    }
+
+    /**
+     * @param mimeType
+     * @return false for content types that are compressed already
+     */
+    public static boolean isCompressible(final String mimeType) {
+        if (mimeType == null) { return true; }
+        final String mime = mimeType.toLowerCase(Locale.ENGLISH);
+        if (mime.startsWith("image/")) { return mime.contains("svg") || mime.contains("icon") || mime.contains("bmp"); }
+        if (mime.startsWith("video/") || mime.startsWith("audio/")) { return false; }
+        return !mime.contains("zip") && !mime.contains("compressed") && !mime.contains("rar") && !mime.contains("7z");
+    }
+
+    private final ConcurrentHashMap<String, Integer> levels         = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentHashMap<String, Route>   routes         = new ConcurrentHashMap<String, Route>();
+    private final LinkedHashMap<String, CacheEntry>  cache          = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private long                                     cacheSize      = 0;
+    private final AtomicLong                         compressed     = new AtomicLong(0);
+    private final AtomicLong                         skipped        = new AtomicLong(0);
+    private final AtomicLong                         compressNanos  = new AtomicLong(0);
+    private final AtomicLong                         bytesIn        = new AtomicLong(0);
+    private final AtomicLong                         bytesOut       = new AtomicLong(0);
+    private final AtomicLong                         cacheHits      = new AtomicLong(0);
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * compresses len bytes of b with the level of the route
+     *
+     * @param route
+     *            key for level and incompressible detection, can be null
+     * @param b
+     * @param off
+     * @param len
+     * @param gzip
+     *            gzip framing, else raw deflate
+     * @return compressed bytes or null if the data should be sent uncompressed
+     */
+    public byte[] compress(final String route, final byte[] b, final int off, final int len, final boolean gzip) {
+        final Route state = this.getRoute(route);
+        if (state != null) {
+            int skip;
+            while ((skip = state.skip.get()) > 0) {
+                if (state.skip.compareAndSet(skip, skip - 1)) {
+                    this.skipped.incrementAndGet();
+                    return null;
+                }
+            }
+        }
+        final byte[] ret = this.compress(b, off, len, this.getLevel(route), gzip);
+        if (ret == null) {
+            this.skipped.incrementAndGet();
+            if (state != null) {
+                state.skip.set(ResponseCompression.PROBE_INTERVAL);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param b
+     * @param off
+     * @param len
+     * @param level
+     * @param gzip
+     *            gzip framing, else raw deflate
+     * @return compressed bytes or null if they are not smaller than {@link #MAX_RATIO} of len
+     */
+    public byte[] compress(final byte[] b, final int off, final int len, final int level, final boolean gzip) {
+        final long start = System.nanoTime();
+        final int head = gzip ? ResponseCompression.GZIP_HEADER.length : 0;
+        final int tail = gzip ? 8 : 0;
+        final int max = (int) (len * ResponseCompression.MAX_RATIO);
+        if (max <= head + tail) { return null; }
+        final byte[] buffer = ByteArrayPool.getInstance().get(max);
+        final Deflater deflater = ZLibPool.getInstance().getDeflater(level);
+        try {
+            int pos = head;
+            final int limit = max - tail;
+            deflater.setInput(b, off, len);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (pos == limit) {
+                    /* incompressible */
+                    return null;
+                }
+                pos += deflater.deflate(buffer, pos, limit - pos);
+            }
+            if (gzip) {
+                System.arraycopy(ResponseCompression.GZIP_HEADER, 0, buffer, 0, head);
+                final CRC32 crc = new CRC32();
+                crc.update(b, off, len);
+                pos = ResponseCompression.writeInt(buffer, pos, (int) crc.getValue());
+                pos = ResponseCompression.writeInt(buffer, pos, len);
+            }
+            this.compressed.incrementAndGet();
+            this.bytesIn.addAndGet(len);
+            this.bytesOut.addAndGet(pos);
+            return Arrays.copyOf(buffer, pos);
+        } finally {
+            ZLibPool.getInstance().put(deflater);
+            ByteArrayPool.getInstance().put(buffer);
+            this.compressNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /* little endian, see rfc1952 */
+    private static int writeInt(final byte[] buffer, int pos, final int value) {
+        buffer[pos++] = (byte) value;
+        buffer[pos++] = (byte) (value >>> 8);
+        buffer[pos++] = (byte) (value >>> 16);
+        buffer[pos++] = (byte) (value >>> 24);
+        return pos;
+    }
+
+    /**
+     * @param key
+     * @return cached gzip bytes, an empty array for incompressible content or null if not cached
+     */
+    public byte[] getCached(final String key) {
+        synchronized (this.cache) {
+            final CacheEntry entry = this.cache.get(key);
+            final byte[] ret = entry != null ? entry.data.get() : null;
+            if (ret != null) {
+                this.cacheHits.incrementAndGet();
+            } else if (entry != null) {
+                /* collected */
+                this.cache.remove(key);
+                this.cacheSize -= entry.size;
+            }
+            return ret;
+        }
+    }
+
+    public long getCacheHits() {
+        return this.cacheHits.get();
+    }
+
+    /**
+     * @return time spent compressing in ms
+     */
+    public long getCompressionTime() {
+        return this.compressNanos.get() / 1000000;
+    }
+
+    /**
+     * @return number of compressed responses
+     */
+    public long getCompressed() {
+        return this.compressed.get();
+    }
+
+    public int getLevel(final String route) {
+        if (route != null) {
+            final Integer ret = this.levels.get(route);
+            if (ret != null) { return ret; }
+        }
+        return ResponseCompression.DEFAULT_LEVEL;
+    }
+
+    private Route getRoute(final String route) {
+        if (route == null) { return null; }
+        Route ret = this.routes.get(route);
+        if (ret == null) {
+            if (this.routes.size() >= ResponseCompression.MAX_ROUTES) {
+                this.routes.clear();
+            }
+            final Route newRoute = new Route();
+            ret = this.routes.putIfAbsent(route, newRoute);
+            if (ret == null) {
+                ret = newRoute;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return bytes saved by compression
+     */
+    public long getSavedBytes() {
+        return this.bytesIn.get() - this.bytesOut.get();
+    }
+
+    /**
+     * @return number of responses sent uncompressed because they were incompressible
+     */
+    public long getSkipped() {
+        return this.skipped.get();
+    }
+
+    /**
+     * caches precompressed content, entries are soft referenced and the least recently used ones are removed above
+     * {@link #MAX_CACHE_SIZE}
+     *
+     * @param key
+     *            must change when the content changes, e.g. url + lastModified
+     * @param compressed
+     *            gzip bytes, null for incompressible
+     */
+    public void putCached(final String key, final byte[] compressed) {
+        final byte[] value = compressed == null ? ResponseCompression.INCOMPRESSIBLE : compressed;
+        if (value.length > ResponseCompression.MAX_CACHE_ITEM) { return; }
+        synchronized (this.cache) {
+            final CacheEntry old = this.cache.put(key, new CacheEntry(value));
+            if (old != null) {
+                this.cacheSize -= old.size;
+            }
+            this.cacheSize += value.length;
+            final Iterator<CacheEntry> it = this.cache.values().iterator();
+            while (this.cacheSize > ResponseCompression.MAX_CACHE_SIZE && it.hasNext()) {
+                this.cacheSize -= it.next().size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param route
+     * @param level
+     *            0-9, -1 to use {@link #DEFAULT_LEVEL}
+     */
+    public void setLevel(final String route, final int level) {
+        if (level < 0) {
+            this.levels.remove(route);
+        } else {
+            this.levels.put(route, Math.min(Deflater.BEST_COMPRESSION, level));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCompression: compressed=" + this.getCompressed() + " skipped=" + this.getSkipped() + " saved=" + this.getSavedBytes() + " time=" + this.getCompressionTime() + "ms cacheHits=" + this.getCacheHits();
+    }
+}
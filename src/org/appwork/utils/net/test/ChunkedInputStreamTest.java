@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2009 - 2014 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.net.test
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.net.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.appwork.utils.net.ChunkedInputStream;
+
+/**
+ * chunk size parsing: valid, malformed and oversized chunk headers
+ *
+ * @author daniel
+ *
+ */
+public class ChunkedInputStreamTest {
+
+    public static void main(final String[] args) {
+        /* body, expected content or null for IOException */
+        final String[][] tests = new String[][] {
+                { "5\r\nhello\r\n0\r\n\r\n", "hello" },
+                { "5\nhello\n0\n\n", "hello" },
+                { "000000005\r\nhello\r\n0\r\n\r\n", "hello" },
+                { "000000010\r\n0123456789abcdef\r\n0\r\n\r\n", "0123456789abcdef" },
+                { "5;ext=1\r\nhello\r\n0\r\n\r\n", "hello" },
+                { "5\r\nhello\r\n0\r\nTrailer: x\r\n\r\n", "hello" },
+                { "xyz\r\nhello\r\n0\r\n\r\n", null },
+                { "-5\r\nhello\r\n0\r\n\r\n", null },
+                { "7FFFFFFF\r\nhello", "premature" },
+                { "80000000\r\nhello\r\n0\r\n\r\n", null },
+                { "FFFFFFFF\r\nhello\r\n0\r\n\r\n", null },
+                { "100000000\r\nhello\r\n0\r\n\r\n", null },
+                { "0000000080000000\r\nhello\r\n0\r\n\r\n", null } };
+        int failed = 0;
+        for (final String[] test : tests) {
+            String result;
+            try {
+                final ChunkedInputStream is = new ChunkedInputStream(new ByteArrayInputStream(test[0].getBytes("ISO-8859-1")));
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                is.transferTo(bos);
+                result = bos.toString("ISO-8859-1");
+            } catch (final java.io.EOFException e) {
+                result = "premature";
+            } catch (final IOException e) {
+                result = null;
+            }
+            if (test[1] == null ? result != null : !test[1].equals(result)) {
+                failed++;
+                System.out.println("TEST FAILED: " + test[0].replace("\r", "\\r").replace("\n", "\\n") + " -> " + result + " expected " + test[1]);
+            }
+        }
+        System.out.println(tests.length - failed + "/" + tests.length + " ok");
+    }
+}
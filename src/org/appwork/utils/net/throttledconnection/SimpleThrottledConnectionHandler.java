@@ -14,8 +14,8 @@ import java.util.HashMap;
 import java.util.List;
 
 import org.appwork.utils.logging.Log;
-import org.appwork.utils.speedmeter.AverageSpeedMeter;
 import org.appwork.utils.speedmeter.SpeedMeterInterface;
+import org.appwork.utils.speedmeter.StripedSpeedMeter;
 
 /**
  * @author daniel
@@ -37,7 +37,7 @@ public class SimpleThrottledConnectionHandler implements ThrottledConnectionHand
     protected volatile int                   limit        = 0;
     protected int                            updateSpeed  = 2000;
     protected volatile int                   bandwidth    = 0;
-    protected SpeedMeterInterface            speedMeter   = new AverageSpeedMeter(10);
+    protected SpeedMeterInterface            speedMeter   = new StripedSpeedMeter();
     protected volatile long                  traffic      = 0;
 
     private final Object                     watchDogLOCK = new Object();
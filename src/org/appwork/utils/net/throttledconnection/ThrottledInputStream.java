@@ -10,11 +10,13 @@
 package org.appwork.utils.net.throttledconnection;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.util.concurrent.locks.LockSupport;
 
 import org.appwork.utils.net.NullInputStream;
-import org.appwork.utils.speedmeter.AverageSpeedMeter;
+import org.appwork.utils.speedmeter.StripedSpeedMeter;
 
 /**
  * @author daniel
@@ -31,7 +33,7 @@ public class ThrottledInputStream extends InputStream implements ThrottledConnec
      * @throws InterruptedException
      */
     public static void main(final String[] args) throws MalformedURLException, IOException, InterruptedException {
-        final MeteredThrottledInputStream is = new MeteredThrottledInputStream(new NullInputStream(), new AverageSpeedMeter(5));
+        final MeteredThrottledInputStream is = new MeteredThrottledInputStream(new NullInputStream(), new StripedSpeedMeter());
         is.setLimit(19 * 1022);
         int read = 0;
         final byte[] buffer = new byte[1024];
@@ -46,14 +48,11 @@ public class ThrottledInputStream extends InputStream implements ThrottledConnec
     protected volatile long            transferedCounter  = 0;
     protected volatile long            transferedCounter2 = 0;
     private volatile int               limitCurrent       = 0;
-    private int                        limitCounter       = 0;
+    private final TokenBucket          bucket             = new TokenBucket();
+    private volatile Thread            waiting            = null;
+    private volatile boolean           closed             = false;
 
     private int                        lastRead2;
-    private long                       slotTimeLeft       = 0;
-
-    private long                       lastTimeReset      = 0;
-    private final long                 onems              = 1000000l;
-    private final long                 onesec             = 1000000000l;
 
     /**
      * constructor for not managed ThrottledInputStream
@@ -79,12 +78,21 @@ public class ThrottledInputStream extends InputStream implements ThrottledConnec
             this.handler.removeThrottledConnection(this);
             this.handler = null;
         }
-        synchronized (this) {
-            this.notify();
+        this.closed = true;
+        final Thread waiting = this.waiting;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
         }
         this.in.close();
     }
 
+    /**
+     * @return bucket of this connection, its parent is the bucket of a {@link TokenBucketThrottledConnectionHandler}
+     */
+    public TokenBucket getBucket() {
+        return this.bucket;
+    }
+
     @Override
     public ThrottledConnectionHandler getHandler() {
         return this.handler;
@@ -120,9 +128,7 @@ public class ThrottledInputStream extends InputStream implements ThrottledConnec
             return -1;
         }
         this.transferedCounter++;
-        if (this.limitCurrent != 0) {
-            /* a Limit is set */
-            this.limitCounter--;
+        if (!this.bucket.isUnlimited()) {
             /* a Limit is set */
             this.readWait(1);
         }
@@ -131,7 +137,7 @@ public class ThrottledInputStream extends InputStream implements ThrottledConnec
 
     @Override
     public int read(final byte b[], final int off, final int len) throws IOException {
-        if (this.limitCurrent == 0) {
+        if (this.bucket.isUnlimited()) {
             this.lastRead2 = this.in.read(b, off, len);
             if (this.lastRead2 == -1) {
                 /* end of line */
@@ -139,47 +145,52 @@ public class ThrottledInputStream extends InputStream implements ThrottledConnec
             }
             this.transferedCounter += this.lastRead2;
         } else {
-            this.readWait(len);
-            this.lastRead2 = this.in.read(b, off, Math.min(this.limitCounter, len));
+            /* reserve a small quantum and give back what we did not get */
+            final int quantum = this.bucket.getQuantum(len);
+            this.readWait(quantum);
+            this.lastRead2 = this.in.read(b, off, quantum);
             if (this.lastRead2 == -1) {
                 /* end of line */
+                this.refund(quantum);
                 return -1;
             }
+            this.refund(quantum - this.lastRead2);
             this.transferedCounter += this.lastRead2;
-            this.limitCounter -= this.lastRead2;
         }
         return this.lastRead2;
     }
 
     private final void readWait(final int len) throws IOException {
-        /* a Limit is set */
-        final long current = System.nanoTime();
-        this.slotTimeLeft = Math.max(0, current - this.lastTimeReset);
-        if (this.limitCounter <= 0 && this.slotTimeLeft < this.onesec) {
-            /* Limit reached and slotTime not over yet */
-            synchronized (this) {
+        /* inner buckets first, see TokenBucket#reserve */
+        TokenBucket bucket = this.bucket;
+        while (bucket != null) {
+            long wait = bucket.reserve(len);
+            if (wait > 0) {
+                final long deadline = System.nanoTime() + wait;
+                this.waiting = Thread.currentThread();
                 try {
-                    long wait = this.onesec - this.slotTimeLeft;
-                    this.lastTimeReset = current + wait;
-                    final long ns = wait % this.onems;
-                    wait = wait / this.onems;
-                    this.wait(wait, (int) ns);
-                } catch (final InterruptedException e) {
-                    throw new IOException("throttle interrupted", e);
+                    while (wait > 0 && !this.closed) {
+                        LockSupport.parkNanos(this, wait);
+                        if (Thread.interrupted()) {
+                            /* keep the interrupt for the caller */
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("throttle interrupted");
+                        }
+                        wait = deadline - System.nanoTime();
+                    }
+                } finally {
+                    this.waiting = null;
                 }
             }
-            /* refill Limit */
-            this.limitCounter = this.limitCurrent;
-            if (this.limitCounter <= 0) {
-                this.limitCounter = len;
-            }
-        } else if (this.slotTimeLeft >= this.onesec) {
-            /* slotTime is over, refill Limit too */
-            this.limitCounter = this.limitCurrent;
-            this.lastTimeReset = current;
-            if (this.limitCounter <= 0) {
-                this.limitCounter = len;
-            }
+            bucket = bucket.getParent();
+        }
+    }
+
+    private final void refund(final int bytes) {
+        TokenBucket bucket = this.bucket;
+        while (bucket != null) {
+            bucket.refund(bytes);
+            bucket = bucket.getParent();
         }
     }
 
@@ -198,6 +209,7 @@ public class ThrottledInputStream extends InputStream implements ThrottledConnec
             this.handler.removeThrottledConnection(this);
         }
         this.handler = manager;
+        this.bucket.setParent(manager instanceof TokenBucketThrottledConnectionHandler ? ((TokenBucketThrottledConnectionHandler) manager).getBucket() : null);
         if (this.handler != null) {
             this.handler.addThrottledConnection(this);
         }
@@ -218,6 +230,7 @@ public class ThrottledInputStream extends InputStream implements ThrottledConnec
         if (kpsLimit == this.limitCurrent) { return; }
         /* TODO: maybe allow little jitter here */
         this.limitCurrent = Math.max(0, kpsLimit);
+        this.bucket.setRate(this.limitCurrent);
     }
 
     @Override
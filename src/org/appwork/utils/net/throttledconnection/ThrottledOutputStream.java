@@ -10,11 +10,13 @@
 package org.appwork.utils.net.throttledconnection;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.util.concurrent.locks.LockSupport;
 
 import org.appwork.utils.net.NullOutputStream;
-import org.appwork.utils.speedmeter.AverageSpeedMeter;
+import org.appwork.utils.speedmeter.StripedSpeedMeter;
 
 /**
  * @author daniel
@@ -31,7 +33,7 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
      * @throws InterruptedException
      */
     public static void main(final String[] args) throws IOException, InterruptedException {
-        final MeteredThrottledOutputStream os = new MeteredThrottledOutputStream(new NullOutputStream(), new AverageSpeedMeter(5));
+        final MeteredThrottledOutputStream os = new MeteredThrottledOutputStream(new NullOutputStream(), new StripedSpeedMeter());
         os.setLimit(99 * 1024);
         final byte[] buffer = new byte[18 * 1024];
         while (true) {
@@ -47,16 +49,13 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
     protected volatile long            transferedCounter  = 0;
     protected volatile long            transferedCounter2 = 0;
     private volatile int               limitCurrent       = 0;
+    private final TokenBucket          bucket             = new TokenBucket();
+    private volatile Thread            waiting            = null;
+    private volatile boolean           closed             = false;
 
-    private int                        limitCounter       = 0;
     private int                        offset;
     private int                        todo;
     private int                        rest;
-    private long                       slotTimeLeft       = 0;
-
-    private long                       lastTimeReset      = 0;
-    private final long                 onems              = 1000000l;
-    private final long                 onesec             = 1000000000l;
 
     /**
      * constructor for not managed ThrottledOutputStream
@@ -77,8 +76,10 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
             this.handler.removeThrottledConnection(this);
             this.handler = null;
         }
-        synchronized (this) {
-            this.notify();
+        this.closed = true;
+        final Thread waiting = this.waiting;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
         }
         this.out.close();
     }
@@ -88,6 +89,13 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
         this.out.flush();
     }
 
+    /**
+     * @return bucket of this connection, its parent is the bucket of a {@link TokenBucketThrottledConnectionHandler}
+     */
+    public TokenBucket getBucket() {
+        return this.bucket;
+    }
+
     @Override
     public ThrottledConnectionHandler getHandler() {
         return this.handler;
@@ -112,6 +120,7 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
             this.handler.removeThrottledConnection(this);
         }
         this.handler = manager;
+        this.bucket.setParent(manager instanceof TokenBucketThrottledConnectionHandler ? ((TokenBucketThrottledConnectionHandler) manager).getBucket() : null);
         if (this.handler != null) {
             this.handler.addThrottledConnection(this);
         }
@@ -126,6 +135,7 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
         if (kpsLimit == this.limitCurrent) { return; }
         /* TODO: maybe allow little jitter here */
         this.limitCurrent = Math.max(0, kpsLimit);
+        this.bucket.setRate(this.limitCurrent);
     }
 
     public void setOutputStream(final OutputStream os) {
@@ -141,7 +151,7 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
 
     @Override
     public void write(final byte b[], final int off, final int len) throws IOException {
-        if (this.limitCurrent == 0) {
+        if (this.bucket.isUnlimited()) {
             /* no limit is set */
             this.out.write(b, off, len);
             this.transferedCounter += len;
@@ -150,14 +160,13 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
             this.offset = off;
             this.rest = len;
             while (this.rest > 0) {
-                /* loop until all data is written */
-                this.writeWait(this.rest);
-                this.todo = Math.min(this.limitCounter, this.rest);
+                /* loop until all data is written, in small quantums */
+                this.todo = this.bucket.getQuantum(this.rest);
+                this.writeWait(this.todo);
                 this.out.write(b, this.offset, this.todo);
                 this.offset += this.todo;
                 this.rest -= this.todo;
                 this.transferedCounter += this.todo;
-                this.limitCounter -= this.todo;
             }
         }
     }
@@ -169,42 +178,35 @@ public class ThrottledOutputStream extends OutputStream implements ThrottledConn
     public void write(final int b) throws IOException {
         this.out.write(b);
         this.transferedCounter++;
-        if (this.limitCurrent != 0) {
+        if (!this.bucket.isUnlimited()) {
             /* a Limit is set */
-            this.limitCounter--;
             this.writeWait(1);
         }
     }
 
     private final void writeWait(final int len) throws IOException {
-        /* a Limit is set */
-        final long current = System.nanoTime();
-        this.slotTimeLeft = Math.max(0, current - this.lastTimeReset);
-        if (this.limitCounter <= 0 && this.slotTimeLeft < this.onesec) {
-            /* Limit reached and slotTime not over yet */
-            synchronized (this) {
+        /* inner buckets first, see TokenBucket#reserve */
+        TokenBucket bucket = this.bucket;
+        while (bucket != null) {
+            long wait = bucket.reserve(len);
+            if (wait > 0) {
+                final long deadline = System.nanoTime() + wait;
+                this.waiting = Thread.currentThread();
                 try {
-                    long wait = this.onesec - this.slotTimeLeft;
-                    this.lastTimeReset = current + wait;
-                    final long ns = wait % this.onems;
-                    wait = wait / this.onems;
-                    this.wait(wait, (int) ns);
-                } catch (final InterruptedException e) {
-                    throw new IOException("throttle interrupted", e);
+                    while (wait > 0 && !this.closed) {
+                        LockSupport.parkNanos(this, wait);
+                        if (Thread.interrupted()) {
+                            /* keep the interrupt for the caller */
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("throttle interrupted");
+                        }
+                        wait = deadline - System.nanoTime();
+                    }
+                } finally {
+                    this.waiting = null;
                 }
             }
-            /* refill Limit */
-            this.limitCounter = this.limitCurrent;
-            if (this.limitCounter <= 0) {
-                this.limitCounter = len;
-            }
-        } else if (this.slotTimeLeft >= this.onesec) {
-            /* slotTime is over, refill Limit too */
-            this.limitCounter = this.limitCurrent;
-            this.lastTimeReset = current;
-            if (this.limitCounter <= 0) {
-                this.limitCounter = len;
-            }
+            bucket = bucket.getParent();
         }
     }
 
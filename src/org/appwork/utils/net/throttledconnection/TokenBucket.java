@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2009 - 2012 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.net.throttledconnection
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.net.throttledconnection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author daniel
+ *
+ *         lock free token bucket (virtual scheduling). the bucket only stores the time at which it runs empty, a reservation moves this time
+ *         forward by bytes/rate and the caller has to wait until it is in the past again. reservations are served in the order they are made,
+ *         so connections sharing a bucket get fair shares as long as they reserve the same small quantums (see {@link #getQuantum(int)}).
+ *
+ *         buckets can be chained (connection -> group -> global), bytes have to be reserved in every bucket of the chain.
+ */
+public class TokenBucket {
+
+    /* max. time worth of bytes that may be saved up while idle */
+    public static int            BURST_MS        = 50;
+    /*
+     * same for buckets with a limited parent. they save up while their connections wait for the parent, the parent keeps the traffic
+     * smooth
+     */
+    public static int            NESTED_BURST_MS = 1000;
+    /* time worth of bytes one reservation should cover */
+    public static int            QUANTUM_MS      = 10;
+
+    private static final long    ONESEC          = 1000000000l;
+
+    private volatile TokenBucket parent;
+    private volatile long        rate            = 0;
+    private final AtomicLong     empty           = new AtomicLong(System.nanoTime());
+    private final AtomicLong     reserved        = new AtomicLong(0);
+
+    public TokenBucket() {
+        this(null);
+    }
+
+    public TokenBucket(final TokenBucket parent) {
+        this.setParent(parent);
+    }
+
+    public TokenBucket getParent() {
+        return this.parent;
+    }
+
+    /**
+     * connections sharing a bucket get one reservation per round, so they all have to use the same quantum. else a connection with a
+     * smaller quantum (e.g. because of a small own limit) would get less than its share. the quantum is taken from the outermost limited
+     * bucket and only limited so that no reservation covers more than one second of a bucket.
+     *
+     * @param len
+     *            wanted bytes
+     * @return bytes that should be reserved at once
+     */
+    public int getQuantum(final int len) {
+        long ret = len;
+        long outermost = 0;
+        TokenBucket bucket = this;
+        while (bucket != null) {
+            final long rate = bucket.rate;
+            if (rate > 0) {
+                outermost = rate;
+                ret = Math.min(ret, rate);
+            }
+            bucket = bucket.parent;
+        }
+        if (outermost > 0) {
+            ret = Math.min(ret, outermost * TokenBucket.QUANTUM_MS / 1000);
+        }
+        return (int) Math.max(1, ret);
+    }
+
+    /**
+     * @return bytes/s, 0 = unlimited
+     */
+    public long getRate() {
+        return this.rate;
+    }
+
+    /**
+     * @return bytes reserved in this bucket
+     */
+    public long getReserved() {
+        return this.reserved.get();
+    }
+
+    /**
+     * @return true if no bucket of the chain is limited
+     */
+    public boolean isUnlimited() {
+        TokenBucket bucket = this;
+        while (bucket != null) {
+            if (bucket.rate > 0) { return false; }
+            bucket = bucket.parent;
+        }
+        return true;
+    }
+
+    /**
+     * gives back reserved but not transfered bytes
+     *
+     * @param bytes
+     */
+    public void refund(final int bytes) {
+        if (bytes <= 0) { return; }
+        this.reserved.addAndGet(-bytes);
+        final long rate = this.rate;
+        if (rate > 0) {
+            this.empty.addAndGet(-(bytes * TokenBucket.ONESEC / rate));
+        }
+    }
+
+    /**
+     * reserves bytes in this bucket only. callers walk the chain from inner to outer bucket and wait after each reservation, so an
+     * outer bucket is only charged when the bytes are really about to flow and does not lose capacity while an inner bucket is the
+     * bottleneck.
+     *
+     * @param bytes
+     * @return nanoseconds the caller has to wait before the bytes may be transfered
+     */
+    public long reserve(final int bytes) {
+        this.reserved.addAndGet(bytes);
+        final long rate = this.rate;
+        if (rate <= 0) { return 0; }
+        final long cost = bytes * TokenBucket.ONESEC / rate;
+        final TokenBucket parent = this.parent;
+        final long burst = (parent != null && !parent.isUnlimited() ? TokenBucket.NESTED_BURST_MS : TokenBucket.BURST_MS) * 1000000l;
+        while (true) {
+            final long old = this.empty.get();
+            final long now = System.nanoTime();
+            final long next = Math.max(old, now - burst) + cost;
+            if (this.empty.compareAndSet(old, next)) { return Math.max(0, next - now); }
+        }
+    }
+
+    public void setParent(final TokenBucket parent) {
+        TokenBucket bucket = parent;
+        while (bucket != null) {
+            if (bucket == this) { throw new IllegalArgumentException("TokenBucket loop!"); }
+            bucket = bucket.parent;
+        }
+        this.parent = parent;
+    }
+
+    /**
+     * @param rate
+     *            bytes/s, 0 = unlimited
+     */
+    public void setRate(final long rate) {
+        this.rate = Math.max(0, rate);
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucket: rate=" + this.rate + " reserved=" + this.reserved.get() + (this.parent != null ? " parent=" + this.parent : "");
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2009 - 2012 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.net.throttledconnection
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.net.throttledconnection;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author daniel
+ *
+ *         ThrottledConnectionHandler without watchdog thread. all connections share the {@link TokenBucket} of this handler, so the limit is
+ *         enforced per read/write in small quantums instead of being redistributed every few seconds. handlers can be nested to build
+ *         global/group limits, connection limits set by {@link ThrottledConnection#setLimit(int)} still apply on top.
+ *
+ *         <pre>
+ * global = new TokenBucketThrottledConnectionHandler(&quot;global&quot;);
+ * downloads = new TokenBucketThrottledConnectionHandler(&quot;downloads&quot;, global);
+ * stream.setHandler(downloads);
+ * </pre>
+ */
+public class TokenBucketThrottledConnectionHandler implements ThrottledConnectionHandler {
+
+    private final String                                                      name;
+    private final TokenBucketThrottledConnectionHandler                       parent;
+    private final TokenBucket                                                 bucket;
+    private final CopyOnWriteArrayList<ThrottledConnection>                   connections = new CopyOnWriteArrayList<ThrottledConnection>();
+    /* transfered() of each connection when it was added */
+    private final ConcurrentHashMap<ThrottledConnection, Long>                offsets     = new ConcurrentHashMap<ThrottledConnection, Long>();
+    private final CopyOnWriteArrayList<TokenBucketThrottledConnectionHandler> children    = new CopyOnWriteArrayList<TokenBucketThrottledConnectionHandler>();
+    /* traffic of removed connections */
+    private final AtomicLong                                                  removed     = new AtomicLong(0);
+    private volatile int                                                      limit       = 0;
+
+    private long                                                              lastTraffic = 0;
+    private long                                                              lastTime    = 0;
+    private volatile int                                                      speed       = 0;
+
+    public TokenBucketThrottledConnectionHandler(final String name) {
+        this(name, null);
+    }
+
+    public TokenBucketThrottledConnectionHandler(final String name, final TokenBucketThrottledConnectionHandler parent) {
+        this.name = name;
+        this.parent = parent;
+        this.bucket = new TokenBucket(parent != null ? parent.getBucket() : null);
+        if (parent != null) {
+            parent.children.add(this);
+        }
+    }
+
+    @Override
+    public void addThrottledConnection(final ThrottledConnection con) {
+        if (con == null || !this.connections.addIfAbsent(con)) { return; }
+        this.offsets.put(con, con.transfered());
+        con.setHandler(this);
+    }
+
+    public TokenBucket getBucket() {
+        return this.bucket;
+    }
+
+    @Override
+    public List<ThrottledConnection> getConnections() {
+        return this.connections;
+    }
+
+    @Override
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public TokenBucketThrottledConnectionHandler getParent() {
+        return this.parent;
+    }
+
+    /**
+     * @return bytes/s, averaged over at least one second since the last call
+     */
+    @Override
+    public int getSpeed() {
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            final long traffic = this.getTraffic();
+            if (this.lastTime == 0) {
+                this.lastTime = now;
+                this.lastTraffic = traffic;
+            } else if (now - this.lastTime >= 1000) {
+                this.speed = (int) ((traffic - this.lastTraffic) * 1000 / (now - this.lastTime));
+                this.lastTime = now;
+                this.lastTraffic = traffic;
+            }
+        }
+        return this.speed;
+    }
+
+    /**
+     * @return bytes transfered by connections of this handler and its children
+     */
+    @Override
+    public long getTraffic() {
+        long ret = this.removed.get();
+        for (final ThrottledConnection con : this.connections) {
+            final Long offset = this.offsets.get(con);
+            ret += con.transfered() - (offset != null ? offset : 0);
+        }
+        for (final TokenBucketThrottledConnectionHandler child : this.children) {
+            ret += child.getTraffic();
+        }
+        return ret;
+    }
+
+    @Override
+    public void removeThrottledConnection(final ThrottledConnection con) {
+        if (con == null || !this.connections.remove(con)) { return; }
+        final Long offset = this.offsets.remove(con);
+        this.removed.addAndGet(con.transfered() - (offset != null ? offset : 0));
+        con.setHandler(null);
+    }
+
+    /**
+     * @param limit
+     *            bytes/s for all connections of this handler and its children, 0 = unlimited
+     */
+    @Override
+    public void setLimit(final int limit) {
+        this.limit = Math.max(0, limit);
+        this.bucket.setRate(this.limit);
+    }
+
+    @Override
+    public int size() {
+        return this.connections.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucketThrottledConnectionHandler: " + this.name + " limit=" + this.limit + " connections=" + this.size() + " traffic=" + this.getTraffic();
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2009 - 2012 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.speedmeter
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.speedmeter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.appwork.utils.StripedCounter;
+
+/**
+ * @author daniel
+ *
+ *         lock free SpeedMeterInterface for many writing threads and frequent readers. bytes go to a {@link StripedCounter}, the first
+ *         thread that touches the meter in a new interval stores a snapshot (time, total) in a ring. the sliding window speed is the
+ *         difference to the oldest snapshot inside the window, intervals without snapshot had no traffic.
+ *
+ *         a meter can have a parent, all bytes are added to the parent too, so a global meter over thousands of connections costs one
+ *         striped add per transfer and one ring lookup per read.
+ *
+ *         {@link #putSpeedMeter(long, long)} reports (e.g. of metered streams every few seconds) are averaged like
+ *         {@link AverageSpeedMeter}: the speed of such a meter is the sum of bytes by the sum of time of the last reports inside the window,
+ *         so a steady transfer does not swing with the report interval.
+ */
+public class StripedSpeedMeter implements SpeedMeterInterface {
+
+    /* reports averaged by getSpeedMeter, same as the default size of AverageSpeedMeter */
+    public static final int         REPORTS       = 5;
+
+    private final StripedSpeedMeter parent;
+    private final long              interval;
+    private final long              window;
+    private final StripedCounter    total         = new StripedCounter();
+    /* time/total of the first touch in an interval, slot = interval % size */
+    private final AtomicLongArray   times;
+    private final AtomicLongArray   totals;
+    private final AtomicLong        current       = new AtomicLong(-1);
+    private final AtomicLong        ewma          = new AtomicLong(Double.doubleToLongBits(0));
+    private volatile long           start;
+    /* last putSpeedMeter reports, slot = report % REPORTS */
+    private final AtomicLongArray   reported      = new AtomicLongArray(StripedSpeedMeter.REPORTS);
+    private final AtomicLongArray   reportedBytes = new AtomicLongArray(StripedSpeedMeter.REPORTS);
+    private final AtomicLongArray   reportedTimes = new AtomicLongArray(StripedSpeedMeter.REPORTS);
+    private final AtomicLong        reports       = new AtomicLong(0);
+
+    /**
+     * 250ms intervals, 5 seconds window
+     */
+    public StripedSpeedMeter() {
+        this(null);
+    }
+
+    public StripedSpeedMeter(final StripedSpeedMeter parent) {
+        this(250, 5000, parent);
+    }
+
+    /**
+     * @param intervalMS
+     *            resolution of the window
+     * @param windowMS
+     *            length of the sliding window, also time constant of the ewma
+     * @param parent
+     *            meter that gets all bytes of this meter too, can be null
+     */
+    public StripedSpeedMeter(final int intervalMS, final int windowMS, final StripedSpeedMeter parent) {
+        if (intervalMS <= 0 || windowMS < intervalMS) { throw new IllegalArgumentException("invalid interval/window " + intervalMS + "/" + windowMS); }
+        this.parent = parent;
+        this.interval = intervalMS;
+        this.window = windowMS;
+        final int size = windowMS / intervalMS + 2;
+        this.times = new AtomicLongArray(size);
+        this.totals = new AtomicLongArray(size);
+        this.resetSpeedMeter();
+    }
+
+    /**
+     * adds transfered bytes, no lock
+     *
+     * @param bytes
+     */
+    public void add(final long bytes) {
+        if (bytes <= 0) { return; }
+        this.tick(System.currentTimeMillis());
+        this.total.add(bytes);
+        if (this.parent != null) {
+            this.parent.add(bytes);
+        }
+    }
+
+    /**
+     * @return exponentially weighted speed in byte/s, time constant is the window length
+     */
+    public long getEWMA() {
+        this.tick(System.currentTimeMillis());
+        return (long) Double.longBitsToDouble(this.ewma.get());
+    }
+
+    public StripedSpeedMeter getParent() {
+        return this.parent;
+    }
+
+    /**
+     * sliding window speed in byte/s
+     */
+    @Override
+    public long getSpeedMeter() {
+        final long now = System.currentTimeMillis();
+        this.tick(now);
+        final long from = Math.max(this.start, now - this.window);
+        long reportedBytes = 0;
+        long reportedTime = 0;
+        for (int i = 0; i < StripedSpeedMeter.REPORTS; i++) {
+            final long at = this.reported.get(i);
+            final long bytes = this.reportedBytes.get(i);
+            final long time = this.reportedTimes.get(i);
+            if (at >= from && at == this.reported.get(i)) {
+                reportedBytes += bytes;
+                reportedTime += time;
+            }
+        }
+        if (reportedTime > 0) { return reportedBytes * 1000 / Math.max(reportedTime, Math.min(this.window, 1000)); }
+        final long total = this.total.sum();
+        long oldestTime = Long.MAX_VALUE;
+        long oldestTotal = total;
+        final int size = this.times.length();
+        for (int i = 0; i < size; i++) {
+            final long time = this.times.get(i);
+            final long slotTotal = this.totals.get(i);
+            if (time >= from && time < oldestTime && time == this.times.get(i)) {
+                oldestTime = time;
+                oldestTotal = slotTotal;
+            }
+        }
+        /* no traffic between from and the oldest snapshot, so count the full time. no peaks in the first second after reset */
+        final long time = Math.max(now - from, Math.min(this.window, 1000));
+        return Math.max(0, total - oldestTotal) * 1000 / time;
+    }
+
+    /**
+     * @return bytes added since last reset
+     */
+    public long getTotal() {
+        return this.total.sum();
+    }
+
+    /**
+     * adds the bytes like {@link #add(long)} and remembers the report for {@link #getSpeedMeter()}. no lock
+     *
+     * @param bytes
+     *            transfered bytes
+     * @param time
+     *            ms the bytes were transfered in
+     */
+    @Override
+    public void putSpeedMeter(final long bytes, final long time) {
+        if (time > 0) {
+            final int slot = (int) (this.reports.getAndIncrement() % StripedSpeedMeter.REPORTS);
+            /* invalidate first, so readers never see half a report */
+            this.reported.set(slot, Long.MIN_VALUE);
+            this.reportedBytes.set(slot, Math.max(0, bytes));
+            this.reportedTimes.set(slot, time);
+            this.reported.set(slot, System.currentTimeMillis());
+        }
+        this.add(bytes);
+    }
+
+    @Override
+    public void resetSpeedMeter() {
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < this.times.length(); i++) {
+            this.times.set(i, Long.MIN_VALUE);
+        }
+        for (int i = 0; i < StripedSpeedMeter.REPORTS; i++) {
+            this.reported.set(i, Long.MIN_VALUE);
+        }
+        this.total.reset();
+        this.ewma.set(Double.doubleToLongBits(0));
+        this.start = now;
+        this.current.set(-1);
+    }
+
+    /**
+     * stores the snapshot of a new interval, only the thread that wins the cas writes the slot
+     */
+    private void tick(final long now) {
+        final long index = now / this.interval;
+        final long last = this.current.get();
+        if (index == last || !this.current.compareAndSet(last, index)) { return; }
+        final int size = this.times.length();
+        final int slot = (int) (index % size);
+        final long total = this.total.sum();
+        if (last >= 0) {
+            final int lastSlot = (int) (last % size);
+            final long lastTime = this.times.get(lastSlot);
+            final long lastTotal = this.totals.get(lastSlot);
+            final long dt = now - lastTime;
+            if (lastTime != Long.MIN_VALUE && dt > 0) {
+                final double rate = Math.max(0, total - lastTotal) * 1000d / dt;
+                final double alpha = 1 - Math.exp(-(double) dt / this.window);
+                final double old = Double.longBitsToDouble(this.ewma.get());
+                this.ewma.set(Double.doubleToLongBits(old + alpha * (rate - old)));
+            }
+        }
+        /* invalidate first, so readers never see the new total with the old time */
+        this.times.set(slot, Long.MIN_VALUE);
+        this.totals.set(slot, total);
+        this.times.set(slot, now);
+    }
+
+    @Override
+    public String toString() {
+        return "StripedSpeedMeter: speed=" + this.getSpeedMeter() + " ewma=" + this.getEWMA() + " total=" + this.getTotal();
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2009 - 2012 AppWork UG(haftungsbeschränkt) <e-mail@appwork.org>
+ *
+ * This file is part of org.appwork.utils.zip
+ *
+ * This software is licensed under the Artistic License 2.0,
+ * see the LICENSE file or http://www.opensource.org/licenses/artistic-license-2.0.php
+ * for details
+ */
+package org.appwork.utils.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @author daniel
+ *
+ *         ZLibPool
+ *
+ *         pool for Deflater/Inflater instances. both hold native zlib memory that is only freed by end() or finalization, so they should
+ *         be reused instead of created per request. all pooled instances use nowrap (raw deflate), gzip/zlib framing is up to the caller.
+ */
+public class ZLibPool {
+
+    private static final ZLibPool                 INSTANCE      = new ZLibPool();
+
+    /* max. pooled instances per type */
+    public static int                             MAX_FREE      = 16;
+
+    public static ZLibPool getInstance() {
+        return ZLibPool.INSTANCE;
+    }
+
+    private final ConcurrentLinkedQueue<Deflater> deflaters     = new ConcurrentLinkedQueue<Deflater>();
+    private final AtomicInteger                   freeDeflaters = new AtomicInteger(0);
+    private final ConcurrentLinkedQueue<Inflater> inflaters     = new ConcurrentLinkedQueue<Inflater>();
+    private final AtomicInteger                   freeInflaters = new AtomicInteger(0);
+
+    private ZLibPool() {
+    }
+
+    /**
+     * @param level
+     * @return raw (nowrap) Deflater, give it back with {@link #put(Deflater)}
+     */
+    public Deflater getDeflater(final int level) {
+        Deflater ret = this.deflaters.poll();
+        if (ret != null) {
+            this.freeDeflaters.decrementAndGet();
+        } else {
+            ret = new Deflater(level, true);
+        }
+        ret.setLevel(level);
+        return ret;
+    }
+
+    /**
+     * @return raw (nowrap) Inflater, give it back with {@link #put(Inflater)}
+     */
+    public Inflater getInflater() {
+        final Inflater ret = this.inflaters.poll();
+        if (ret != null) {
+            this.freeInflaters.decrementAndGet();
+            return ret;
+        }
+        return new Inflater(true);
+    }
+
+    /**
+     * @param is
+     * @return InflaterInputStream for raw deflate, the Inflater goes back to the pool on close
+     */
+    public InflaterInputStream getInflaterInputStream(final InputStream is) {
+        return new InflaterInputStream(is, this.getInflater()) {
+            private boolean released = false;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    synchronized (this) {
+                        if (this.released == false) {
+                            this.released = true;
+                            ZLibPool.this.put(this.inf);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * gives back a Deflater, it must not be used anymore
+     *
+     * @param deflater
+     */
+    public void put(final Deflater deflater) {
+        if (deflater == null) { return; }
+        if (this.freeDeflaters.incrementAndGet() > ZLibPool.MAX_FREE) {
+            this.freeDeflaters.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        this.deflaters.offer(deflater);
+    }
+
+    /**
+     * gives back an Inflater, it must not be used anymore
+     *
+     * @param inflater
+     */
+    public void put(final Inflater inflater) {
+        if (inflater == null) { return; }
+        if (this.freeInflaters.incrementAndGet() > ZLibPool.MAX_FREE) {
+            this.freeInflaters.decrementAndGet();
+            inflater.end();
+            return;
+        }
+        inflater.reset();
+        this.inflaters.offer(inflater);
+    }
+}